@@ -18,6 +18,7 @@ package org.onebusaway.api.actions.api;
 import org.onebusaway.api.ResponseCodes;
 import org.onebusaway.api.model.ResponseBean;
 import org.onebusaway.users.services.ApiKeyPermissionService;
+import org.onebusaway.users.services.ApiKeyPermissionService.Status;
 
 import com.opensymphony.xwork2.ActionContext;
 import com.opensymphony.xwork2.ActionInvocation;
@@ -62,9 +63,14 @@ public class ApiKeyInterceptor extends AbstractInterceptor {
         return invocation.invoke();
     }
 
-    boolean allowed = isAllowed(invocation);
-    
-    if (!allowed) {
+    Status status = getPermissionStatus(invocation);
+
+    if (status == Status.RATE_EXCEEDED) {
+      //this user is sending requests faster than their key allows
+      return unauthorized(invocation, "rate limit exceeded");
+    }
+
+    if (status != Status.AUTHORIZED) {
       //this user is not authorized to use the API, at least for now
       return unauthorized(invocation, "permission denied");
     }
@@ -72,15 +78,15 @@ public class ApiKeyInterceptor extends AbstractInterceptor {
     return invocation.invoke();
   }
 
-  private boolean isAllowed(ActionInvocation invocation) {
+  private Status getPermissionStatus(ActionInvocation invocation) {
     ActionContext context = invocation.getInvocationContext();
     Map<String, Object> parameters = context.getParameters();
     String[] keys = (String[]) parameters.get("key");
     
     if( keys == null || keys.length == 0)
-      return false;
+      return Status.UNAUTHORIZED;
 
-    return _keyService.getPermission(keys[0], "api");
+    return _keyService.getPermissionStatus(keys[0], "api");
   }
 
   private String unauthorized(ActionInvocation invocation, String reason) throws IOException {
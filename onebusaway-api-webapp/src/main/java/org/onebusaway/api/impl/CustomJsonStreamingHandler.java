@@ -0,0 +1,504 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+
+import org.apache.struts2.ServletActionContext;
+
+/**
+ * Writes JSON responses straight to the output {@link Writer} instead of
+ * building a json-lib {@link JSONObject} tree and rendering it to a string
+ * first.
+ *
+ * The output is meant to be identical to {@link CustomJsonLibHandler}, so we
+ * follow json-lib's rules for bean serialization: properties in introspection
+ * order minus the default excludes, type-based defaults for null property
+ * values, json-lib's number formatting and string quoting. The bean property
+ * model for each class is introspected once and cached.
+ *
+ * Values that json-lib treats specially (enums, maps, strings that look like
+ * JSON, non-finite numbers and anything that isn't a plain public bean) are
+ * handed to json-lib itself, one value at a time, so they render exactly as
+ * before. Reading request bodies is unchanged.
+ */
+public class CustomJsonStreamingHandler extends CustomJsonLibHandler {
+
+  private static final String CYCLE_MESSAGE = "There is a cycle in the hierarchy!";
+
+  private static final List<String> DEFAULT_EXCLUDES = Arrays.asList("class",
+      "declaringClass", "metaClass");
+
+  private static final BeanModel FALLBACK = new BeanModel(null);
+
+  private final ConcurrentMap<Class<?>, BeanModel> _beanModels = new ConcurrentHashMap<Class<?>, BeanModel>();
+
+  @Override
+  public String fromObject(Object obj, String resultCode, Writer stream)
+      throws IOException {
+
+    String callback = null;
+    HttpServletRequest req = ServletActionContext.getRequest();
+    if (req != null)
+      callback = req.getParameter("callback");
+
+    writeObject(obj, callback, stream);
+
+    return null;
+  }
+
+  /**
+   * @param obj the response object
+   * @param callback a JSONP callback, or null
+   * @param stream the output
+   */
+  public void writeObject(Object obj, String callback, Writer stream)
+      throws IOException {
+
+    if (obj == null)
+      return;
+
+    Writer out = new BufferedWriter(stream);
+
+    if (callback != null) {
+      out.write(callback);
+      out.write('(');
+    }
+
+    IdentityHashMap<Object, Boolean> stack = new IdentityHashMap<Object, Boolean>();
+
+    if (isArray(obj)) {
+      writeArray(obj, out, stack);
+    } else if (getBeanModel(obj.getClass()) != FALLBACK) {
+      writeBean(obj, out, stack);
+    } else {
+      out.write(JSONObject.fromObject(obj).toString());
+    }
+
+    if (callback != null)
+      out.write(')');
+
+    out.flush();
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void writeBean(Object bean, Writer out,
+      IdentityHashMap<Object, Boolean> stack) throws IOException {
+
+    if (stack.put(bean, Boolean.TRUE) != null)
+      throw new JSONException(CYCLE_MESSAGE);
+
+    BeanModel model = getBeanModel(bean.getClass());
+
+    out.write('{');
+
+    boolean first = true;
+    for (PropertyModel property : model.getProperties()) {
+
+      Object value = property.getValue(bean);
+
+      if (!first)
+        out.write(',');
+      first = false;
+
+      out.write(property.getQuotedName());
+      out.write(':');
+
+      if (value == null)
+        out.write(property.getDefaultValue());
+      else
+        writeValue(property.getName(), value, out, stack);
+    }
+
+    out.write('}');
+
+    stack.remove(bean);
+  }
+
+  private void writeArray(Object array, Writer out,
+      IdentityHashMap<Object, Boolean> stack) throws IOException {
+
+    if (stack.put(array, Boolean.TRUE) != null)
+      throw new JSONException(CYCLE_MESSAGE);
+
+    out.write('[');
+
+    boolean first = true;
+
+    if (array instanceof Collection<?>) {
+      for (Object value : (Collection<?>) array) {
+        if (!first)
+          out.write(',');
+        first = false;
+        writeElement(value, out, stack);
+      }
+    } else {
+      int n = Array.getLength(array);
+      for (int i = 0; i < n; i++) {
+        if (!first)
+          out.write(',');
+        first = false;
+        writeElement(Array.get(array, i), out, stack);
+      }
+    }
+
+    out.write(']');
+
+    stack.remove(array);
+  }
+
+  private void writeElement(Object value, Writer out,
+      IdentityHashMap<Object, Boolean> stack) throws IOException {
+    if (value == null)
+      out.write("null");
+    else
+      writeValue(null, value, out, stack);
+  }
+
+  /**
+   * @param key the property name if the value is a bean property, or null if
+   *          it is an array element
+   */
+  private void writeValue(String key, Object value, Writer out,
+      IdentityHashMap<Object, Boolean> stack) throws IOException {
+
+    Class<?> type = value.getClass();
+
+    if (type == String.class) {
+      String s = (String) value;
+      if (isPlainString(s)) {
+        writeQuoted(s, out);
+        return;
+      }
+    } else if (type == Integer.class || type == Long.class
+        || type == Short.class || type == Byte.class) {
+      out.write(value.toString());
+      return;
+    } else if (type == Double.class || type == Float.class) {
+      double d = ((Number) value).doubleValue();
+      if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+        Double v = type == Float.class ? Double.valueOf(value.toString())
+            : (Double) value;
+        out.write(numberToString(v));
+        return;
+      }
+    } else if (type == Boolean.class) {
+      out.write(value.toString());
+      return;
+    } else if (isArray(value) && !(value instanceof JSONArray)
+        && type != char[].class) {
+      writeArray(value, out, stack);
+      return;
+    } else if (getBeanModel(type) != FALLBACK) {
+      writeBean(value, out, stack);
+      return;
+    }
+
+    writeWithJsonLib(key, value, out);
+  }
+
+  private void writeWithJsonLib(String key, Object value, Writer out)
+      throws IOException {
+    Object processed;
+    if (key != null) {
+      JSONObject holder = new JSONObject();
+      holder.element(key, value);
+      processed = holder.get(key);
+    } else {
+      JSONArray holder = new JSONArray();
+      holder.element(value);
+      processed = holder.get(0);
+    }
+    out.write(JSONUtils.valueToString(processed));
+  }
+
+  private BeanModel getBeanModel(Class<?> type) {
+    BeanModel model = _beanModels.get(type);
+    if (model == null) {
+      model = createBeanModel(type);
+      BeanModel existing = _beanModels.putIfAbsent(type, model);
+      if (existing != null)
+        model = existing;
+    }
+    return model;
+  }
+
+  private BeanModel createBeanModel(Class<?> type) {
+
+    if (!isStreamableBeanType(type))
+      return FALLBACK;
+
+    BeanInfo info;
+    try {
+      info = Introspector.getBeanInfo(type);
+    } catch (IntrospectionException ex) {
+      return FALLBACK;
+    }
+
+    PropertyDescriptor[] descriptors = info.getPropertyDescriptors();
+    Arrays.sort(descriptors, new Comparator<PropertyDescriptor>() {
+      @Override
+      public int compare(PropertyDescriptor o1, PropertyDescriptor o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+
+    List<PropertyModel> properties = new ArrayList<PropertyModel>();
+
+    for (PropertyDescriptor descriptor : descriptors) {
+
+      String name = descriptor.getName();
+      if (DEFAULT_EXCLUDES.contains(name))
+        continue;
+
+      Method method = descriptor.getReadMethod();
+      if (method == null)
+        continue;
+
+      if (!Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+        return FALLBACK;
+      method.setAccessible(true);
+
+      properties.add(new PropertyModel(name, method,
+          getDefaultValue(descriptor.getPropertyType())));
+    }
+
+    return new BeanModel(properties);
+  }
+
+  private static boolean isStreamableBeanType(Class<?> type) {
+
+    if (!Modifier.isPublic(type.getModifiers()) || type.isArray()
+        || type.isEnum() || type.isPrimitive() || type.isInterface())
+      return false;
+
+    if (Map.class.isAssignableFrom(type)
+        || Collection.class.isAssignableFrom(type)
+        || Number.class.isAssignableFrom(type) || type == Boolean.class
+        || type == String.class || type == Character.class
+        || type == Class.class)
+      return false;
+
+    String name = type.getName();
+    return !(name.startsWith("java.") || name.startsWith("javax.")
+        || name.startsWith("net.sf.json.") || name.startsWith("org.apache.commons.beanutils."));
+  }
+
+  /**
+   * The value json-lib's default value processor substitutes for a null
+   * property of the specified type, already rendered.
+   */
+  private static String getDefaultValue(Class<?> type) {
+    if (type == null)
+      return "null";
+    if (type.isArray() || Collection.class.isAssignableFrom(type))
+      return "[]";
+    if (type.isPrimitive() && type != Boolean.TYPE && type != Character.TYPE
+        || Number.class.isAssignableFrom(type))
+      return "0";
+    if (type == Boolean.TYPE || type == Boolean.class)
+      return "false";
+    if (String.class.isAssignableFrom(type) || type == Character.TYPE
+        || type == Character.class)
+      return "\"\"";
+    return "null";
+  }
+
+  /**
+   * json-lib parses strings that look like JSON, JSON keywords and functions,
+   * and strips quotes from quoted strings. Anything that might be one of those
+   * is left to json-lib.
+   */
+  private static boolean isPlainString(String s) {
+    if (s.length() == 0)
+      return true;
+    char c = s.charAt(0);
+    if (c == '[' || c == '{' || c == '"' || c == '\'')
+      return false;
+    if (s.startsWith("function"))
+      return false;
+    return !(s.equals("null") || s.equals("true") || s.equals("false") || s.equals("undefined"));
+  }
+
+  private static boolean isArray(Object obj) {
+    return obj instanceof Collection<?> || obj.getClass().isArray();
+  }
+
+  /**
+   * Matches json-lib's number rendering: trailing zeros after the decimal
+   * point are stripped unless the number is in exponential notation
+   */
+  private static String numberToString(Number n) {
+    String s = n.toString();
+    if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+      int end = s.length();
+      while (s.charAt(end - 1) == '0')
+        end--;
+      if (s.charAt(end - 1) == '.')
+        end--;
+      s = s.substring(0, end);
+    }
+    return s;
+  }
+
+  /**
+   * Matches json-lib's string quoting, including escaping "/" only when it
+   * follows "<"
+   */
+  static void writeQuoted(String s, Writer out) throws IOException {
+
+    out.write('"');
+
+    int len = s.length();
+    char c = 0;
+    int start = 0;
+
+    for (int i = 0; i < len; i++) {
+
+      char b = c;
+      c = s.charAt(i);
+
+      String escape = null;
+
+      switch (c) {
+        case '\\':
+          escape = "\\\\";
+          break;
+        case '"':
+          escape = "\\\"";
+          break;
+        case '/':
+          if (b == '<')
+            escape = "\\/";
+          break;
+        case '\b':
+          escape = "\\b";
+          break;
+        case '\t':
+          escape = "\\t";
+          break;
+        case '\n':
+          escape = "\\n";
+          break;
+        case '\f':
+          escape = "\\f";
+          break;
+        case '\r':
+          escape = "\\r";
+          break;
+        default:
+          if (c < ' ') {
+            String t = "000" + Integer.toHexString(c);
+            escape = "\\u" + t.substring(t.length() - 4);
+          }
+      }
+
+      if (escape != null) {
+        if (start < i)
+          out.write(s, start, i - start);
+        out.write(escape);
+        start = i + 1;
+      }
+    }
+
+    if (start < len)
+      out.write(s, start, len - start);
+
+    out.write('"');
+  }
+
+  private static class BeanModel {
+
+    private final List<PropertyModel> _properties;
+
+    public BeanModel(List<PropertyModel> properties) {
+      _properties = properties;
+    }
+
+    public List<PropertyModel> getProperties() {
+      return _properties;
+    }
+  }
+
+  private static class PropertyModel {
+
+    private final String _name;
+
+    private final String _quotedName;
+
+    private final Method _method;
+
+    private final String _defaultValue;
+
+    public PropertyModel(String name, Method method, String defaultValue) {
+      _name = name;
+      _quotedName = JSONUtils.quote(name);
+      _method = method;
+      _defaultValue = defaultValue;
+    }
+
+    public String getName() {
+      return _name;
+    }
+
+    public String getQuotedName() {
+      return _quotedName;
+    }
+
+    public String getDefaultValue() {
+      return _defaultValue;
+    }
+
+    public Object getValue(Object bean) {
+      try {
+        return _method.invoke(bean);
+      } catch (InvocationTargetException ex) {
+        throw new JSONException(ex.getCause());
+      } catch (IllegalAccessException ex) {
+        throw new JSONException(ex);
+      }
+    }
+  }
+}
@@ -23,5 +23,14 @@ public class DummyApiKeyPermissionService implements ApiKeyPermissionService {
   public boolean getPermission(String key, String service) {
     return true;
   }
-  
+
+  @Override
+  public Status getPermissionStatus(String key, String service) {
+    return Status.AUTHORIZED;
+  }
+
+  @Override
+  public void invalidatePermissions(String key) {
+
+  }
 }
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import net.sf.json.JSONObject;
+
+import org.onebusaway.api.model.ResponseBean;
+
+/**
+ * Compares json-lib serialization with {@link CustomJsonStreamingHandler} on a
+ * stops-for-location style V2 response built with BeanFactoryV2.
+ *
+ * Usage: CustomJsonStreamingHandlerBenchmark [stops]
+ */
+public class CustomJsonStreamingHandlerBenchmark {
+
+  private static final int ITERATIONS = 10;
+
+  private static final int REQUESTS = 200;
+
+  public static void main(String[] args) throws IOException {
+
+    int stops = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+    ResponseBean response = CustomJsonStreamingHandlerTest.getStopsResponse(stops);
+    CustomJsonStreamingHandler handler = new CustomJsonStreamingHandler();
+
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+
+      long jsonLibChars = 0;
+      long t0 = System.nanoTime();
+      for (int i = 0; i < REQUESTS; i++) {
+        StringWriter out = new StringWriter();
+        out.write(JSONObject.fromObject(response).toString());
+        jsonLibChars += out.getBuffer().length();
+      }
+      long t1 = System.nanoTime();
+
+      long streamingChars = 0;
+      for (int i = 0; i < REQUESTS; i++) {
+        StringWriter out = new StringWriter();
+        handler.writeObject(response, null, out);
+        streamingChars += out.getBuffer().length();
+      }
+      long t2 = System.nanoTime();
+
+      System.out.println("json-lib=" + ((t1 - t0) / 1000 / REQUESTS)
+          + "us/request streaming=" + ((t2 - t1) / 1000 / REQUESTS)
+          + "us/request chars=" + jsonLibChars / REQUESTS + "/"
+          + streamingChars / REQUESTS);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.api.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+import org.onebusaway.api.ResponseCodes;
+import org.onebusaway.api.model.ResponseBean;
+import org.onebusaway.api.model.transit.BeanFactoryV2;
+import org.onebusaway.transit_data.model.AgencyBean;
+import org.onebusaway.transit_data.model.RouteBean;
+import org.onebusaway.transit_data.model.StopBean;
+import org.onebusaway.transit_data.model.StopsBean;
+
+public class CustomJsonStreamingHandlerTest {
+
+  private CustomJsonStreamingHandler _handler = new CustomJsonStreamingHandler();
+
+  @Test
+  public void testStopsResponse() throws IOException {
+    assertMatchesJsonLib(getStopsResponse(10));
+  }
+
+  @Test
+  public void testSpecialStrings() throws IOException {
+    AgencyBean agency = new AgencyBean();
+    agency.setId("1");
+    agency.setName("quote\" backslash\\ </script> tab\t newline\n \u0001 \u00e9");
+    agency.setUrl("[1,2]");
+    agency.setPhone("{\"a\":1}");
+    agency.setLang("null");
+    agency.setDisclaimer("'quoted'");
+    agency.setTimezone("");
+    assertMatchesJsonLib(agency);
+  }
+
+  @Test
+  public void testNullDefaults() throws IOException {
+    assertMatchesJsonLib(new AgencyBean());
+    assertMatchesJsonLib(new ResponseBean(2, ResponseCodes.RESPONSE_OK, null,
+        null));
+  }
+
+  @Test
+  public void testArrays() throws IOException {
+    List<Object> values = new ArrayList<Object>();
+    values.add(1);
+    values.add(2.50);
+    values.add(1.5f);
+    values.add(1.0e-7);
+    values.add(Long.MAX_VALUE);
+    values.add(true);
+    values.add(null);
+    values.add("a");
+    values.add(Arrays.asList("b", "[c]"));
+    values.add(new int[] {1, 2});
+    assertMatchesJsonLib(values);
+  }
+
+  @Test
+  public void testCallback() throws IOException {
+    ResponseBean response = getStopsResponse(2);
+    StringWriter out = new StringWriter();
+    _handler.writeObject(response, "cb", out);
+    assertEquals("cb(" + JSONObject.fromObject(response).toString() + ")",
+        out.toString());
+  }
+
+  private void assertMatchesJsonLib(Object obj) throws IOException {
+    String expected;
+    if (obj instanceof List<?>)
+      expected = JSONArray.fromObject(obj).toString();
+    else
+      expected = JSONObject.fromObject(obj).toString();
+    StringWriter out = new StringWriter();
+    _handler.writeObject(obj, null, out);
+    assertEquals(expected, out.toString());
+  }
+
+  static ResponseBean getStopsResponse(int stopCount) {
+
+    AgencyBean agency = new AgencyBean();
+    agency.setId("1");
+    agency.setName("Metro Transit");
+    agency.setTimezone("America/Los_Angeles");
+    agency.setUrl("http://metro.kingcounty.gov");
+
+    List<RouteBean> routes = new ArrayList<RouteBean>();
+    for (int i = 0; i < 10; i++) {
+      RouteBean.Builder route = RouteBean.builder();
+      route.setAgency(agency);
+      route.setId("1_" + i);
+      route.setShortName(Integer.toString(i));
+      route.setDescription("Route " + i + " via Downtown");
+      route.setType(3);
+      routes.add(route.create());
+    }
+
+    List<StopBean> stops = new ArrayList<StopBean>();
+    for (int i = 0; i < stopCount; i++) {
+      StopBean stop = new StopBean();
+      stop.setId("1_" + i);
+      stop.setCode(Integer.toString(i));
+      stop.setName("3rd Ave & Pine St #" + i);
+      stop.setDirection("N");
+      stop.setLat(47.6 + i * 0.0001);
+      stop.setLon(-122.3 - i * 0.0001);
+      stop.setRoutes(routes.subList(0, 1 + i % routes.size()));
+      stops.add(stop);
+    }
+
+    StopsBean stopsBean = new StopsBean();
+    stopsBean.setStops(stops);
+
+    BeanFactoryV2 factory = new BeanFactoryV2(true);
+    return new ResponseBean(2, ResponseCodes.RESPONSE_OK, "OK",
+        factory.getResponse(stopsBean));
+  }
+}
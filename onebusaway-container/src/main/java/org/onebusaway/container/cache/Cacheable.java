@@ -42,6 +42,19 @@ import java.lang.annotation.Target;
  * {@link DefaultCacheableObjectKeyFactory} factories to generate a key for each
  * argument, unless otherwise specified with a {@link CacheableKey} annotation.
  * 
+ * The {@link #coalesceConcurrentRequests()} method allows concurrent cache
+ * misses for the same key to be coalesced, such that only one thread computes
+ * the underlying method result while the others wait for it. This is useful for
+ * expensive methods that are called frequently with the same arguments.
+ * 
+ * The {@link #refreshAfter()} method allows cached values to be refreshed in
+ * the background once they reach a certain age, while the stale value
+ * continues to be returned to callers. This is independent of the EhCache
+ * time-to-live for the method cache, which still controls when an entry is
+ * evicted entirely. Note that the default cache in ehcache.xml is eternal, so
+ * only opt in for methods whose cache is configured with a finite
+ * timeToLiveSeconds.
+ * 
  * @author bdferris
  * @see CacheableAnnotationInterceptor
  * @see CacheableMethodKeyFactory
@@ -57,4 +70,19 @@ public @interface Cacheable {
   Class<? extends CacheableMethodKeyFactory> keyFactory() default CacheableMethodKeyFactory.class;
   
   boolean isValueSerializable() default true;
+
+  /**
+   * @return true if concurrent cache misses for the same key should be
+   *         coalesced into a single call to the underlying method. Even when
+   *         false, coalescing can be enabled for all cached methods with
+   *         {@link CacheableMethodManager#setCoalesceConcurrentRequests(boolean)}
+   */
+  boolean coalesceConcurrentRequests() default false;
+
+  /**
+   * @return the age, in seconds, after which a cached value is returned as-is
+   *         but recomputed in the background. Zero (the default) disables
+   *         background refresh.
+   */
+  int refreshAfter() default 0;
 }
@@ -18,6 +18,7 @@ package org.onebusaway.container.cache;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
  * Implements an {@link Aspect} aware interceptor that intercepts calls to
@@ -28,6 +29,7 @@ import org.aspectj.lang.annotation.Aspect;
  * @see Cacheable
  */
 @Aspect
+@ManagedResource("org.onebusaway.container.cache:name=CacheableAnnotationInterceptor")
 public class CacheableAnnotationInterceptor extends CacheableMethodManager {
 
   @Around("@annotation(org.onebusaway.container.cache.Cacheable)")
@@ -16,8 +16,24 @@
 package org.onebusaway.container.cache;
 
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -25,6 +41,10 @@ import net.sf.ehcache.Element;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
 
 /**
  * Support class providing functionality for caching the output of arbitrary
@@ -32,6 +52,26 @@ import org.aspectj.lang.Signature;
  * 
  * EhCache is used as the backing cache store.
  * 
+ * When request coalescing is enabled for a method, either through
+ * {@link Cacheable#coalesceConcurrentRequests()} or manager-wide with
+ * {@link #setCoalesceConcurrentRequests(boolean)}, concurrent cache misses for
+ * the same key result in a single call to the underlying method, with the
+ * remaining callers waiting for and sharing its result.
+ * 
+ * When {@link Cacheable#refreshAfter()} is set for a method, cache entries
+ * older than the specified age are still returned immediately, but are
+ * recomputed in the background on a bounded pool of refresh threads (see
+ * {@link #setRefreshThreadCount(int)} and {@link #setRefreshQueueSize(int)}).
+ * If the refresh queue is full, the stale value is returned and the refresh is
+ * attempted again on a subsequent call. Since the join point of the original
+ * call can't be proceeded once its advice has returned, background refreshes
+ * invoke the cached method directly on the join point target, with a copy of
+ * the original arguments.
+ * 
+ * Per-cache hit, miss, coalesced-wait and compute-time counters are available
+ * from {@link #getStatistics(String)} and are exposed through JMX by
+ * {@link CacheableAnnotationInterceptor}.
+ * 
  * @author bdferris
  * @see Cacheable
  * @see CacheableAnnotationInterceptor
@@ -40,6 +80,8 @@ import org.aspectj.lang.Signature;
  */
 public class CacheableMethodManager {
 
+  private static Logger _log = LoggerFactory.getLogger(CacheableMethodManager.class);
+
   private ConcurrentHashMap<String, CacheEntry> _entries = new ConcurrentHashMap<String, CacheEntry>();
 
   private CacheManager _cacheManager;
@@ -48,6 +90,14 @@ public class CacheableMethodManager {
 
   private String _cacheNamePrefix;
 
+  private boolean _coalesceConcurrentRequests = false;
+
+  private int _refreshThreadCount = 2;
+
+  private int _refreshQueueSize = 1000;
+
+  private ExecutorService _refreshExecutor;
+
   public void setCacheManager(CacheManager cacheManager) {
     _cacheManager = cacheManager;
   }
@@ -61,6 +111,42 @@ public class CacheableMethodManager {
     _cacheNamePrefix = cacheNamePrefix;
   }
 
+  /**
+   * 
+   * @param coalesceConcurrentRequests when true, concurrent cache misses for
+   *          the same key are coalesced for all cached methods, regardless of
+   *          {@link Cacheable#coalesceConcurrentRequests()}
+   */
+  public void setCoalesceConcurrentRequests(boolean coalesceConcurrentRequests) {
+    _coalesceConcurrentRequests = coalesceConcurrentRequests;
+  }
+
+  /**
+   * 
+   * @param refreshThreadCount the number of threads used to refresh stale
+   *          cache entries in the background
+   */
+  public void setRefreshThreadCount(int refreshThreadCount) {
+    _refreshThreadCount = refreshThreadCount;
+  }
+
+  /**
+   * 
+   * @param refreshQueueSize the maximum number of background refreshes that
+   *          can be queued before additional refresh requests are dropped
+   */
+  public void setRefreshQueueSize(int refreshQueueSize) {
+    _refreshQueueSize = refreshQueueSize;
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    if (_refreshExecutor != null) {
+      _refreshExecutor.shutdownNow();
+      _refreshExecutor = null;
+    }
+  }
+
   public Object evaluate(ProceedingJoinPoint pjp) throws Throwable {
 
     CacheEntry entry = getCache(pjp);
@@ -68,19 +154,117 @@ public class CacheableMethodManager {
     Cache cache = entry.getCache();
     CacheKeyInfo keyInfo = keyFactory.createKey(pjp);
     Serializable key = keyInfo.getKey();
+    CacheableMethodStatistics statistics = entry.getStatistics();
 
     Element element = cache.get(key);
 
-    if (element == null || keyInfo.isCacheRefreshIndicated()) {
-      Object retVal = pjp.proceed();
-      element = new Element(key, retVal);
-      cache.put(element);
+    if (element != null && !keyInfo.isCacheRefreshIndicated()) {
+      statistics.incrementHits();
+      if (isElementStale(entry, element))
+        scheduleRefresh(pjp, entry, key);
+      return getElementValue(entry, element);
     }
 
-    if (entry.isValueSerializable())
-      return element.getValue();
-    else
-      return element.getObjectValue();
+    if (!entry.isCoalesceConcurrentRequests())
+      return getElementValue(entry, computeElement(pjp, entry, key));
+
+    PendingResult pending = new PendingResult();
+    PendingResult existing = entry.getPendingResults().putIfAbsent(key,
+        pending);
+
+    if (existing != null) {
+      statistics.incrementCoalescedWaits();
+      return existing.getResult();
+    }
+
+    try {
+      /**
+       * Another thread may have completed the computation between our cache
+       * check and claiming the pending result
+       */
+      if (!keyInfo.isCacheRefreshIndicated())
+        element = cache.get(key);
+      if (element == null || keyInfo.isCacheRefreshIndicated())
+        element = computeElement(pjp, entry, key);
+      else
+        statistics.incrementHits();
+      Object value = getElementValue(entry, element);
+      pending.setResult(value);
+      return value;
+    } catch (Throwable ex) {
+      pending.setException(ex);
+      throw ex;
+    } finally {
+      entry.getPendingResults().remove(key, pending);
+    }
+  }
+
+  /****
+   * JMX Methods
+   ****/
+
+  @ManagedAttribute
+  public List<String> getCacheNames() {
+    List<String> names = new ArrayList<String>(_entries.keySet());
+    Collections.sort(names);
+    return names;
+  }
+
+  @ManagedOperation
+  public String getStatisticsForCache(String cacheName) {
+    CacheableMethodStatistics statistics = getStatistics(cacheName);
+    return statistics == null ? null : statistics.toString();
+  }
+
+  @ManagedOperation
+  public long getHitCountForCache(String cacheName) {
+    CacheableMethodStatistics statistics = getStatistics(cacheName);
+    return statistics == null ? 0 : statistics.getHits();
+  }
+
+  @ManagedOperation
+  public long getMissCountForCache(String cacheName) {
+    CacheableMethodStatistics statistics = getStatistics(cacheName);
+    return statistics == null ? 0 : statistics.getMisses();
+  }
+
+  @ManagedOperation
+  public long getCoalescedWaitCountForCache(String cacheName) {
+    CacheableMethodStatistics statistics = getStatistics(cacheName);
+    return statistics == null ? 0 : statistics.getCoalescedWaits();
+  }
+
+  @ManagedOperation
+  public long getBackgroundRefreshCountForCache(String cacheName) {
+    CacheableMethodStatistics statistics = getStatistics(cacheName);
+    return statistics == null ? 0 : statistics.getBackgroundRefreshes();
+  }
+
+  @ManagedOperation
+  public long getComputeTimeForCache(String cacheName) {
+    CacheableMethodStatistics statistics = getStatistics(cacheName);
+    return statistics == null ? 0 : statistics.getComputeTime();
+  }
+
+  /**
+   * Removes all entries from every cache managed by this instance. Statistics
+   * are retained.
+   */
+  @ManagedOperation
+  public void clearCaches() {
+    for (CacheEntry entry : _entries.values())
+      entry.getCache().removeAll();
+  }
+
+  /**
+   * 
+   * @param cacheName
+   * @return statistics for the named cache, or null if no such cache has been
+   *         used yet
+   */
+  public CacheableMethodStatistics getStatistics(String cacheName) {
+    CacheEntry entry = _entries.get(cacheName);
+    return entry == null ? null : entry.getStatistics();
   }
 
   /***************************************************************************
@@ -112,6 +296,104 @@ public class CacheableMethodManager {
    * Private Methods
    ****/
 
+  private Element computeElement(ProceedingJoinPoint pjp, CacheEntry entry,
+      Serializable key) throws Throwable {
+    CacheableMethodStatistics statistics = entry.getStatistics();
+    statistics.incrementMisses();
+    long t = System.currentTimeMillis();
+    try {
+      Object retVal = pjp.proceed();
+      return putElement(entry, key, retVal);
+    } finally {
+      statistics.addComputeTime(System.currentTimeMillis() - t);
+    }
+  }
+
+  private Element refreshElement(Object target, Object[] args,
+      CacheEntry entry, Serializable key) throws Throwable {
+    CacheableMethodStatistics statistics = entry.getStatistics();
+    statistics.incrementBackgroundRefreshes();
+    long t = System.currentTimeMillis();
+    try {
+      Object retVal = entry.getMethod().invoke(target, args);
+      return putElement(entry, key, retVal);
+    } catch (InvocationTargetException ex) {
+      throw ex.getCause();
+    } finally {
+      statistics.addComputeTime(System.currentTimeMillis() - t);
+    }
+  }
+
+  private Element putElement(CacheEntry entry, Serializable key, Object value) {
+    Element element = new Element(key, value);
+    entry.getCache().put(element);
+    return element;
+  }
+
+  private boolean isElementStale(CacheEntry entry, Element element) {
+    long refreshAfter = entry.getRefreshAfter();
+    if (refreshAfter <= 0)
+      return false;
+    long age = System.currentTimeMillis()
+        - element.getLatestOfCreationAndUpdateTime();
+    return age > refreshAfter;
+  }
+
+  private void scheduleRefresh(ProceedingJoinPoint pjp,
+      final CacheEntry entry, final Serializable key) {
+
+    /**
+     * Only one background refresh per key at a time
+     */
+    if (entry.getRefreshesInProgress().putIfAbsent(key, Boolean.TRUE) != null)
+      return;
+
+    /**
+     * The join point belongs to the calling thread and is finished with once
+     * our advice returns, so capture what we need to repeat the call
+     */
+    final Object target = pjp.getTarget();
+    Object[] originalArgs = pjp.getArgs();
+    final Object[] args = Arrays.copyOf(originalArgs, originalArgs.length);
+
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          refreshElement(target, args, entry, key);
+        } catch (Throwable ex) {
+          _log.warn("error refreshing cache entry: cache="
+              + entry.getCache().getName() + " key=" + key, ex);
+        } finally {
+          entry.getRefreshesInProgress().remove(key);
+        }
+      }
+    };
+
+    try {
+      getRefreshExecutor().execute(task);
+    } catch (RejectedExecutionException ex) {
+      entry.getRefreshesInProgress().remove(key);
+    }
+  }
+
+  private synchronized ExecutorService getRefreshExecutor() {
+    if (_refreshExecutor == null) {
+      _refreshExecutor = new ThreadPoolExecutor(_refreshThreadCount,
+          _refreshThreadCount, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(_refreshQueueSize),
+          new RefreshThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+    return _refreshExecutor;
+  }
+
+  private Object getElementValue(CacheEntry entry, Element element) {
+    if (entry.isValueSerializable())
+      return element.getValue();
+    else
+      return element.getObjectValue();
+  }
+
   private CacheEntry getCache(ProceedingJoinPoint pjp) {
 
     String name = getCacheName(pjp);
@@ -122,6 +404,9 @@ public class CacheableMethodManager {
       Method method = _cacheableMethodKeyFactoryManager.getMatchingMethodForJoinPoint(pjp);
       CacheableMethodKeyFactory keyFactory = getKeyFactory(pjp, method);
       boolean valueSerializable = isValueSerializable(pjp, method);
+      boolean coalesceConcurrentRequests = isCoalesceConcurrentRequests(pjp,
+          method);
+      long refreshAfter = getRefreshAfter(pjp, method);
       Cache cache = _cacheManager.getCache(name);
       if (cache == null) {
         cache = createCache(pjp, name);
@@ -133,8 +418,13 @@ public class CacheableMethodManager {
           _cacheManager.addCache(cache);
         }
       }
-      entry = new CacheEntry(keyFactory, valueSerializable, cache);
-      _entries.put(name, entry);
+      if (refreshAfter > 0 && !method.isAccessible())
+        method.setAccessible(true);
+      entry = new CacheEntry(method, keyFactory, valueSerializable,
+          coalesceConcurrentRequests, refreshAfter, cache);
+      CacheEntry existing = _entries.putIfAbsent(name, entry);
+      if (existing != null)
+        entry = existing;
     }
     return entry;
   }
@@ -146,21 +436,61 @@ public class CacheableMethodManager {
     return c.isValueSerializable();
   }
 
+  private boolean isCoalesceConcurrentRequests(ProceedingJoinPoint pjp,
+      Method method) {
+    if (_coalesceConcurrentRequests)
+      return true;
+    Cacheable c = method.getAnnotation(Cacheable.class);
+    if (c == null)
+      return false;
+    return c.coalesceConcurrentRequests();
+  }
+
+  private long getRefreshAfter(ProceedingJoinPoint pjp, Method method) {
+    Cacheable c = method.getAnnotation(Cacheable.class);
+    if (c == null)
+      return 0;
+    return c.refreshAfter() * 1000L;
+  }
+
   private static class CacheEntry {
 
+    private Method _method;
+
     private CacheableMethodKeyFactory _keyFactory;
 
     private boolean _valueSerializable;
 
+    private boolean _coalesceConcurrentRequests;
+
+    private long _refreshAfter;
+
     private Cache _cache;
 
-    public CacheEntry(CacheableMethodKeyFactory keyFactory,
-        boolean valueSerializable, Cache cache) {
+    private final ConcurrentMap<Serializable, PendingResult> _pendingResults = new ConcurrentHashMap<Serializable, PendingResult>();
+
+    private final ConcurrentMap<Serializable, Boolean> _refreshesInProgress = new ConcurrentHashMap<Serializable, Boolean>();
+
+    private final CacheableMethodStatistics _statistics = new CacheableMethodStatistics();
+
+    public CacheEntry(Method method, CacheableMethodKeyFactory keyFactory,
+        boolean valueSerializable, boolean coalesceConcurrentRequests,
+        long refreshAfter, Cache cache) {
+      _method = method;
       _keyFactory = keyFactory;
       _valueSerializable = valueSerializable;
+      _coalesceConcurrentRequests = coalesceConcurrentRequests;
+      _refreshAfter = refreshAfter;
       _cache = cache;
     }
 
+    /**
+     * @return the cached method, as declared on the join point target class
+     */
+    public Method getMethod() {
+      return _method;
+    }
+
     public CacheableMethodKeyFactory getKeyFactory() {
       return _keyFactory;
     }
@@ -169,8 +499,75 @@ public class CacheableMethodManager {
       return _valueSerializable;
     }
 
+    public boolean isCoalesceConcurrentRequests() {
+      return _coalesceConcurrentRequests;
+    }
+
+    /**
+     * @return the age, in milliseconds, after which a cached value is
+     *         refreshed in the background, or zero if disabled
+     */
+    public long getRefreshAfter() {
+      return _refreshAfter;
+    }
+
     public Cache getCache() {
       return _cache;
     }
+
+    public ConcurrentMap<Serializable, PendingResult> getPendingResults() {
+      return _pendingResults;
+    }
+
+    public ConcurrentMap<Serializable, Boolean> getRefreshesInProgress() {
+      return _refreshesInProgress;
+    }
+
+    public CacheableMethodStatistics getStatistics() {
+      return _statistics;
+    }
+  }
+
+  private static class RefreshThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger _index = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "CacheableMethodManager-refresh-"
+          + _index.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * The result of an in-progress call to an underlying method, shared with any
+   * concurrent callers for the same cache key.
+   */
+  private static class PendingResult {
+
+    private final CountDownLatch _latch = new CountDownLatch(1);
+
+    private volatile Object _result;
+
+    private volatile Throwable _exception;
+
+    public void setResult(Object result) {
+      _result = result;
+      _latch.countDown();
+    }
+
+    public void setException(Throwable exception) {
+      _exception = exception;
+      _latch.countDown();
+    }
+
+    public Object getResult() throws Throwable {
+      _latch.await();
+      if (_exception != null)
+        throw _exception;
+      return _result;
+    }
   }
 }
\ No newline at end of file
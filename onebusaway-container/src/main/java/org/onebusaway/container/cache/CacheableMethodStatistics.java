@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.container.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-cache counters maintained by {@link CacheableMethodManager}. All counters
+ * are updated without locking and can be read at any time.
+ *
+ * @author bdferris
+ * @see CacheableMethodManager
+ */
+public class CacheableMethodStatistics {
+
+  private final AtomicLong _hits = new AtomicLong();
+
+  private final AtomicLong _misses = new AtomicLong();
+
+  private final AtomicLong _coalescedWaits = new AtomicLong();
+
+  private final AtomicLong _backgroundRefreshes = new AtomicLong();
+
+  private final AtomicLong _computeTime = new AtomicLong();
+
+  /**
+   * @return the number of calls satisfied directly from the cache
+   */
+  public long getHits() {
+    return _hits.get();
+  }
+
+  /**
+   * @return the number of calls that resulted in a call to the underlying
+   *         method
+   */
+  public long getMisses() {
+    return _misses.get();
+  }
+
+  /**
+   * @return the number of calls that waited on a concurrent call for the same
+   *         key instead of calling the underlying method themselves
+   */
+  public long getCoalescedWaits() {
+    return _coalescedWaits.get();
+  }
+
+  /**
+   * @return the number of stale entries recomputed in the background
+   */
+  public long getBackgroundRefreshes() {
+    return _backgroundRefreshes.get();
+  }
+
+  /**
+   * @return the total time, in milliseconds, spent in the underlying method
+   */
+  public long getComputeTime() {
+    return _computeTime.get();
+  }
+
+  public void incrementHits() {
+    _hits.incrementAndGet();
+  }
+
+  public void incrementMisses() {
+    _misses.incrementAndGet();
+  }
+
+  public void incrementCoalescedWaits() {
+    _coalescedWaits.incrementAndGet();
+  }
+
+  public void incrementBackgroundRefreshes() {
+    _backgroundRefreshes.incrementAndGet();
+  }
+
+  public void addComputeTime(long computeTime) {
+    _computeTime.addAndGet(computeTime);
+  }
+
+  @Override
+  public String toString() {
+    return "hits=" + getHits() + " misses=" + getMisses() + " coalescedWaits="
+        + getCoalescedWaits() + " backgroundRefreshes="
+        + getBackgroundRefreshes() + " computeTime=" + getComputeTime();
+  }
+}
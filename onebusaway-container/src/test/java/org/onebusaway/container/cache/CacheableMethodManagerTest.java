@@ -18,6 +18,11 @@ package org.onebusaway.container.cache;
 import static org.junit.Assert.assertEquals;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.sf.ehcache.CacheManager;
 
@@ -64,5 +69,172 @@ public class CacheableMethodManagerTest {
 
     assertEquals("test", value);
     assertEquals(2, impl.getEvalauteBeanWithParameterAnnotationCount());
+
+    cacheManager.shutdown();
+  }
+
+  @Test
+  public void testCoalesceConcurrentRequests() throws Throwable {
+
+    CacheableMethodKeyFactoryManager factoryManager = new CacheableMethodKeyFactoryManager();
+    CacheManager cacheManager = new CacheManager(getClass().getResource(
+        "ehcache-test.xml"));
+
+    final CacheableMethodManager manager = new CacheableMethodManager();
+    manager.setCacheableMethodKeyFactoryManager(factoryManager);
+    manager.setCacheManager(cacheManager);
+
+    MockServiceImpl impl = new MockServiceImpl();
+    CountDownLatch latch = new CountDownLatch(1);
+    impl.setEvaluateWithCoalescingLatch(latch);
+
+    Method method = MockServiceImpl.class.getMethod("evaluateWithCoalescing",
+        String.class);
+
+    final ProceedingJoinPoint pjpA = ProceedingJoinPointFactory.create(impl,
+        impl, MockService.class, method, "a");
+    final ProceedingJoinPoint pjpB = ProceedingJoinPointFactory.create(impl,
+        impl, MockService.class, method, "a");
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    Future<Object> futureA = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return evaluate(manager, pjpA);
+      }
+    });
+
+    while (impl.getEvaluateWithCoalescingCount() == 0)
+      Thread.sleep(10);
+
+    Future<Object> futureB = executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return evaluate(manager, pjpB);
+      }
+    });
+
+    String cacheName = MockServiceImpl.class.getName()
+        + ".evaluateWithCoalescing";
+    while (manager.getStatistics(cacheName).getCoalescedWaits() == 0)
+      Thread.sleep(10);
+
+    latch.countDown();
+
+    assertEquals("a", futureA.get());
+    assertEquals("a", futureB.get());
+    assertEquals(1, impl.getEvaluateWithCoalescingCount());
+
+    CacheableMethodStatistics statistics = manager.getStatistics(cacheName);
+    assertEquals(1, statistics.getMisses());
+    assertEquals(1, statistics.getCoalescedWaits());
+
+    executor.shutdown();
+    cacheManager.shutdown();
+  }
+
+  @Test
+  public void testClearCaches() throws Throwable {
+
+    CacheableMethodKeyFactoryManager factoryManager = new CacheableMethodKeyFactoryManager();
+    CacheManager cacheManager = new CacheManager(getClass().getResource(
+        "ehcache-test.xml"));
+
+    CacheableMethodManager manager = new CacheableMethodManager();
+    manager.setCacheableMethodKeyFactoryManager(factoryManager);
+    manager.setCacheManager(cacheManager);
+
+    MockServiceImpl impl = new MockServiceImpl();
+    Method method = MockServiceImpl.class.getMethod(
+        "evalauteBeanWithParameterAnnotation", MockBean.class, Boolean.TYPE);
+
+    MockBean bean = new MockBean();
+    bean.setId("id");
+
+    ProceedingJoinPoint pjp = ProceedingJoinPointFactory.create(impl, impl,
+        MockService.class, method, bean, false);
+
+    manager.evaluate(pjp);
+    manager.evaluate(pjp);
+    assertEquals(1, impl.getEvalauteBeanWithParameterAnnotationCount());
+
+    String cacheName = MockServiceImpl.class.getName()
+        + ".evalauteBeanWithParameterAnnotation";
+    assertEquals(1, manager.getHitCountForCache(cacheName));
+    assertEquals(1, manager.getMissCountForCache(cacheName));
+
+    manager.clearCaches();
+
+    manager.evaluate(pjp);
+    assertEquals(2, impl.getEvalauteBeanWithParameterAnnotationCount());
+    assertEquals(2, manager.getMissCountForCache(cacheName));
+
+    cacheManager.shutdown();
+  }
+
+  @Test
+  public void testRefreshAfter() throws Throwable {
+
+    CacheableMethodKeyFactoryManager factoryManager = new CacheableMethodKeyFactoryManager();
+    CacheManager cacheManager = new CacheManager(getClass().getResource(
+        "ehcache-test.xml"));
+
+    CacheableMethodManager manager = new CacheableMethodManager();
+    manager.setCacheableMethodKeyFactoryManager(factoryManager);
+    manager.setCacheManager(cacheManager);
+
+    MockServiceImpl impl = new MockServiceImpl();
+    Method method = MockServiceImpl.class.getMethod("evaluateWithRefresh",
+        String.class);
+
+    ProceedingJoinPoint pjp = ProceedingJoinPointFactory.create(impl, impl,
+        MockService.class, method, "a");
+
+    assertEquals("a-1", manager.evaluate(pjp));
+    assertEquals("a-1", manager.evaluate(pjp));
+    assertEquals(1, impl.getEvaluateWithRefreshCount());
+
+    /**
+     * Let the entry go stale and hold up the background refresh, so that
+     * repeated calls all see the stale value
+     */
+    Thread.sleep(1100);
+    CountDownLatch latch = new CountDownLatch(1);
+    impl.setEvaluateWithRefreshLatch(latch);
+
+    for (int i = 0; i < 3; i++) {
+      ProceedingJoinPoint stalePjp = ProceedingJoinPointFactory.create(impl,
+          impl, MockService.class, method, "a");
+      assertEquals("a-1", manager.evaluate(stalePjp));
+    }
+
+    latch.countDown();
+
+    String cacheName = MockServiceImpl.class.getName() + ".evaluateWithRefresh";
+    CacheableMethodStatistics statistics = manager.getStatistics(cacheName);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!"a-2".equals(manager.evaluate(pjp))
+        && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+
+    assertEquals("a-2", manager.evaluate(pjp));
+    assertEquals(2, impl.getEvaluateWithRefreshCount());
+    assertEquals(1, statistics.getBackgroundRefreshes());
+    assertEquals(1, statistics.getMisses());
+
+    manager.stop();
+    cacheManager.shutdown();
+  }
+
+  private static Object evaluate(CacheableMethodManager manager,
+      ProceedingJoinPoint pjp) throws Exception {
+    try {
+      return manager.evaluate(pjp);
+    } catch (Exception ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    }
   }
 }
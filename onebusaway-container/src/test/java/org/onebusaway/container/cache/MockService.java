@@ -30,4 +30,8 @@ public interface MockService {
 
   public String evalauteBeanWithoutParameterAnnotation(MockBean bean,
       boolean forceRefresh);
+
+  public String evaluateWithCoalescing(String value);
+
+  public String evaluateWithRefresh(String value);
 }
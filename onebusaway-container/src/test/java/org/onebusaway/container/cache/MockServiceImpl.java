@@ -15,14 +15,41 @@
  */
 package org.onebusaway.container.cache;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MockServiceImpl implements MockService {
 
   private int _evalauteBeanWithParameterAnnotationCount;
 
+  private AtomicInteger _evaluateWithCoalescingCount = new AtomicInteger();
+
+  private CountDownLatch _evaluateWithCoalescingLatch = new CountDownLatch(0);
+
+  private AtomicInteger _evaluateWithRefreshCount = new AtomicInteger();
+
+  private CountDownLatch _evaluateWithRefreshLatch = new CountDownLatch(0);
+
   public int getEvalauteBeanWithParameterAnnotationCount() {
     return _evalauteBeanWithParameterAnnotationCount;
   }
 
+  public int getEvaluateWithCoalescingCount() {
+    return _evaluateWithCoalescingCount.get();
+  }
+
+  public void setEvaluateWithCoalescingLatch(CountDownLatch latch) {
+    _evaluateWithCoalescingLatch = latch;
+  }
+
+  public int getEvaluateWithRefreshCount() {
+    return _evaluateWithRefreshCount.get();
+  }
+
+  public void setEvaluateWithRefreshLatch(CountDownLatch latch) {
+    _evaluateWithRefreshLatch = latch;
+  }
+
   /****
    * {@link MockService} Interface
    ****/
@@ -61,4 +88,27 @@ public class MockServiceImpl implements MockService {
     return "test";
   }
 
+  @Override
+  @Cacheable(coalesceConcurrentRequests = true)
+  public String evaluateWithCoalescing(String value) {
+    _evaluateWithCoalescingCount.incrementAndGet();
+    try {
+      _evaluateWithCoalescingLatch.await();
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return value;
+  }
+
+  @Override
+  @Cacheable(refreshAfter = 1)
+  public String evaluateWithRefresh(String value) {
+    int count = _evaluateWithRefreshCount.incrementAndGet();
+    try {
+      _evaluateWithRefreshLatch.await();
+    } catch (InterruptedException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return value + "-" + count;
+  }
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations;
+
+/**
+ * Determines how a {@link FederatedServiceExecutor} handles a federated
+ * service that fails or times out while the remaining services succeed.
+ */
+public enum EPartialResultPolicy {
+
+  /**
+   * The first failure is thrown to the caller and outstanding calls are
+   * cancelled
+   */
+  FAIL_FAST,
+
+  /**
+   * Failures are logged and the results of the remaining services are
+   * returned. An exception is thrown only if every service fails.
+   */
+  BEST_EFFORT
+}
@@ -0,0 +1,445 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.onebusaway.exceptions.ServiceException;
+import org.onebusaway.federations.annotations.FederatedByAggregateMethod;
+import org.onebusaway.federations.annotations.FederatedByEntityIdsMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invokes a method on a set of {@link FederatedService} instances concurrently,
+ * gathering the results. Used to fan out {@link FederatedByAggregateMethod}
+ * calls, and {@link FederatedByEntityIdsMethod} calls whose ids span multiple
+ * services, so that querying a set of remote federated services takes as long
+ * as the slowest service, rather than the sum of them all.
+ *
+ * Calls run on a shared, bounded thread pool. When the pool and its queue are
+ * saturated, further calls are rejected and treated as failed, rather than run
+ * on the calling thread, where they could not be held to the timeout. Each
+ * call is given the same timeout, measured from when the fan-out starts. How a
+ * failed, rejected or timed out service affects the overall call is determined
+ * by the {@link EPartialResultPolicy}.
+ *
+ * The executor is opt-in: it is only used by a
+ * {@link FederatedServiceFactoryBean} that has one set.
+ *
+ * Call count, error count, timeout count and latency are tracked for each
+ * service, keyed by the service's string representation, which is the service
+ * url for Hessian proxies.
+ *
+ * @author bdferris
+ * @see FederatedServiceFactoryBean#setExecutor(FederatedServiceExecutor)
+ */
+public class FederatedServiceExecutor {
+
+  private static Logger _log = LoggerFactory.getLogger(FederatedServiceExecutor.class);
+
+  private int _threads = 16;
+
+  private int _queueCapacity = 256;
+
+  private long _timeout = 10 * 1000;
+
+  private EPartialResultPolicy _partialResultPolicy = EPartialResultPolicy.FAIL_FAST;
+
+  private ThreadPoolExecutor _executor;
+
+  private ConcurrentMap<String, NodeStats> _statsByNode = new ConcurrentHashMap<String, NodeStats>();
+
+  /**
+   * @param threads the maximum number of concurrent service calls, shared
+   *          across all fan-outs
+   */
+  public void setThreads(int threads) {
+    _threads = threads;
+  }
+
+  /**
+   * @param queueCapacity the number of service calls that can wait for a
+   *          thread before further calls are rejected
+   */
+  public void setQueueCapacity(int queueCapacity) {
+    _queueCapacity = queueCapacity;
+  }
+
+  /**
+   * @param timeout time to wait for each service, in ms, or zero to wait
+   *          indefinitely
+   */
+  public void setTimeout(long timeout) {
+    _timeout = timeout;
+  }
+
+  public void setPartialResultPolicy(EPartialResultPolicy partialResultPolicy) {
+    _partialResultPolicy = partialResultPolicy;
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    if (_executor != null) {
+      _executor.shutdownNow();
+      _executor = null;
+    }
+  }
+
+  /**
+   * @return call statistics for each service, keyed by the string
+   *         representation of the service
+   */
+  public Map<String, NodeStats> getStatsByNode() {
+    return Collections.unmodifiableMap(_statsByNode);
+  }
+
+  /**
+   * Invokes the method on each of the services concurrently.
+   *
+   * @param services
+   * @param method
+   * @param args
+   * @return the results of the services that responded, in the iteration order
+   *         of the services
+   * @throws IllegalAccessException
+   * @throws InvocationTargetException wrapping an exception thrown by a
+   *           service method
+   */
+  public List<Object> invokeAll(Collection<? extends FederatedService> services,
+      Method method, Object[] args) throws IllegalAccessException,
+      InvocationTargetException {
+
+    List<NodeCall> calls = new ArrayList<NodeCall>(services.size());
+    for (FederatedService service : services)
+      calls.add(new NodeCall(service, method, args));
+
+    return invokeCalls(calls, method);
+  }
+
+  /**
+   * Invokes the method on each of the services concurrently, with a separate
+   * set of arguments for each service.
+   *
+   * @param services
+   * @param method
+   * @param argsByService the arguments for each service, in the same order as
+   *          the services
+   * @return the results of the services that responded, in the order of the
+   *         services
+   * @throws IllegalAccessException
+   * @throws InvocationTargetException wrapping an exception thrown by a
+   *           service method
+   */
+  public List<Object> invokeAll(List<? extends FederatedService> services,
+      Method method, List<Object[]> argsByService)
+      throws IllegalAccessException, InvocationTargetException {
+
+    if (services.size() != argsByService.size())
+      throw new IllegalArgumentException(
+          "expected arguments for each federated service");
+
+    List<NodeCall> calls = new ArrayList<NodeCall>(services.size());
+    for (int i = 0; i < services.size(); i++)
+      calls.add(new NodeCall(services.get(i), method, argsByService.get(i)));
+
+    return invokeCalls(calls, method);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private List<Object> invokeCalls(List<NodeCall> calls, Method method)
+      throws IllegalAccessException, InvocationTargetException {
+
+    List<Object> results = new ArrayList<Object>(calls.size());
+
+    /**
+     * No point in handing off a single call to another thread
+     */
+    if (calls.size() == 1) {
+      try {
+        results.add(calls.get(0).call());
+      } catch (Exception ex) {
+        rethrow(ex);
+      }
+      return results;
+    }
+
+    ThreadPoolExecutor executor = getExecutor();
+
+    /**
+     * A null future marks a call rejected by the saturated pool
+     */
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(calls.size());
+    for (NodeCall call : calls) {
+      Future<Object> future = null;
+      try {
+        future = executor.submit(call);
+      } catch (RejectedExecutionException ex) {
+        call.getStats().recordRejection();
+      }
+      futures.add(future);
+    }
+
+    long deadline = _timeout > 0 ? System.currentTimeMillis() + _timeout
+        : Long.MAX_VALUE;
+
+    Throwable firstFailure = null;
+
+    for (int i = 0; i < futures.size(); i++) {
+
+      Future<Object> future = futures.get(i);
+      NodeCall call = calls.get(i);
+      Throwable failure = null;
+
+      try {
+        if (future == null) {
+          failure = new ServiceException("too many concurrent calls, rejected "
+              + method.getName() + " on federated service " + call.getNode());
+        } else if (_timeout > 0) {
+          long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+          results.add(future.get(remaining, TimeUnit.MILLISECONDS));
+        } else {
+          results.add(future.get());
+        }
+      } catch (TimeoutException ex) {
+        future.cancel(true);
+        call.getStats().recordTimeout();
+        failure = new ServiceException("timeout invoking " + method.getName()
+            + " on federated service " + call.getNode());
+      } catch (ExecutionException ex) {
+        failure = ex.getCause();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        cancelAll(futures);
+        throw new ServiceException("interrupted invoking " + method.getName(),
+            ex);
+      }
+
+      if (failure == null)
+        continue;
+
+      if (_partialResultPolicy == EPartialResultPolicy.FAIL_FAST) {
+        cancelAll(futures);
+        rethrow(failure);
+      }
+
+      _log.warn("error invoking " + method.getName() + " on federated service "
+          + call.getNode(), failure);
+      if (firstFailure == null)
+        firstFailure = failure;
+    }
+
+    if (results.isEmpty() && firstFailure != null)
+      rethrow(firstFailure);
+
+    return results;
+  }
+
+  private synchronized ThreadPoolExecutor getExecutor() {
+    if (_executor == null) {
+      _executor = new ThreadPoolExecutor(_threads, _threads, 60,
+          TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(_queueCapacity),
+          new NamedThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+      _executor.allowCoreThreadTimeOut(true);
+    }
+    return _executor;
+  }
+
+  private NodeStats getStatsForNode(String node) {
+    NodeStats stats = _statsByNode.get(node);
+    if (stats == null) {
+      stats = new NodeStats();
+      NodeStats existing = _statsByNode.putIfAbsent(node, stats);
+      if (existing != null)
+        stats = existing;
+    }
+    return stats;
+  }
+
+  private static void cancelAll(List<Future<Object>> futures) {
+    for (Future<Object> future : futures) {
+      if (future != null)
+        future.cancel(true);
+    }
+  }
+
+  private static void rethrow(Throwable ex) throws IllegalAccessException,
+      InvocationTargetException {
+    if (ex instanceof InvocationTargetException)
+      throw (InvocationTargetException) ex;
+    if (ex instanceof IllegalAccessException)
+      throw (IllegalAccessException) ex;
+    if (ex instanceof RuntimeException)
+      throw (RuntimeException) ex;
+    if (ex instanceof Error)
+      throw (Error) ex;
+    throw new ServiceException(ex);
+  }
+
+  private class NodeCall implements Callable<Object> {
+
+    private final FederatedService _service;
+
+    private final Method _method;
+
+    private final Object[] _args;
+
+    private final String _node;
+
+    private final NodeStats _stats;
+
+    public NodeCall(FederatedService service, Method method, Object[] args) {
+      _service = service;
+      _method = method;
+      _args = args;
+      _node = service.toString();
+      _stats = getStatsForNode(_node);
+    }
+
+    public String getNode() {
+      return _node;
+    }
+
+    public NodeStats getStats() {
+      return _stats;
+    }
+
+    @Override
+    public Object call() throws Exception {
+      long t1 = System.currentTimeMillis();
+      boolean success = false;
+      try {
+        Object result = _method.invoke(_service, _args);
+        success = true;
+        return result;
+      } finally {
+        _stats.recordCall(System.currentTimeMillis() - t1, success);
+      }
+    }
+  }
+
+  public static class NodeStats {
+
+    private final AtomicLong _callCount = new AtomicLong();
+
+    private final AtomicLong _errorCount = new AtomicLong();
+
+    private final AtomicLong _timeoutCount = new AtomicLong();
+
+    private final AtomicLong _rejectedCount = new AtomicLong();
+
+    private final AtomicLong _totalLatency = new AtomicLong();
+
+    private volatile long _lastLatency = 0;
+
+    void recordCall(long latency, boolean success) {
+      _callCount.incrementAndGet();
+      if (!success)
+        _errorCount.incrementAndGet();
+      _totalLatency.addAndGet(latency);
+      _lastLatency = latency;
+    }
+
+    void recordTimeout() {
+      _timeoutCount.incrementAndGet();
+    }
+
+    void recordRejection() {
+      _rejectedCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of completed calls, successful or not
+     */
+    public long getCallCount() {
+      return _callCount.get();
+    }
+
+    /**
+     * @return the number of calls that threw an exception
+     */
+    public long getErrorCount() {
+      return _errorCount.get();
+    }
+
+    /**
+     * @return the number of calls abandoned after the timeout
+     */
+    public long getTimeoutCount() {
+      return _timeoutCount.get();
+    }
+
+    /**
+     * @return the number of calls rejected because the thread pool and its
+     *         queue were saturated
+     */
+    public long getRejectedCount() {
+      return _rejectedCount.get();
+    }
+
+    /**
+     * @return mean latency of completed calls, in ms
+     */
+    public double getMeanLatency() {
+      long count = _callCount.get();
+      return count == 0 ? 0 : ((double) _totalLatency.get()) / count;
+    }
+
+    /**
+     * @return latency of the most recently completed call, in ms
+     */
+    public long getLastLatency() {
+      return _lastLatency;
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger _count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "FederatedServiceExecutor-"
+          + _count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
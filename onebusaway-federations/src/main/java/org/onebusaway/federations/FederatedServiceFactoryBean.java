@@ -20,6 +20,8 @@ import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.onebusaway.federations.annotations.FederatedByAggregateMethod;
+import org.onebusaway.federations.annotations.FederatedByEntityIdsMethod;
 import org.onebusaway.federations.annotations.FederatedServiceMethodInvocationHandler;
 import org.onebusaway.federations.annotations.FederatedServiceMethodInvocationHandlerFactory;
 import org.springframework.beans.factory.FactoryBean;
@@ -37,13 +39,17 @@ import org.springframework.beans.factory.config.AbstractFactoryBean;
  * </bean>
  * </pre>
  * 
+ * By default, {@link FederatedByAggregateMethod} methods query each federated
+ * service in turn. Concurrent queries are opt-in: set an executor to enable
+ * them, see {@link #setExecutor(FederatedServiceExecutor)}.
+ * 
  * @author bdferris
  * @see FederatedService
  * @see FederatedServiceCollection
  */
 public class FederatedServiceFactoryBean extends AbstractFactoryBean<Object> {
 
-  private static FederatedServiceMethodInvocationHandlerFactory _handlerFactory = new FederatedServiceMethodInvocationHandlerFactory();
+  private FederatedServiceMethodInvocationHandlerFactory _handlerFactory = new FederatedServiceMethodInvocationHandlerFactory();
 
   private Class<?> _serviceInterface;
 
@@ -57,6 +63,16 @@ public class FederatedServiceFactoryBean extends AbstractFactoryBean<Object> {
     _collection = collection;
   }
 
+  /**
+   * @param executor used to invoke {@link FederatedByAggregateMethod} methods
+   *          on all federated services concurrently, along with
+   *          {@link FederatedByEntityIdsMethod} methods whose ids span
+   *          multiple services
+   */
+  public void setExecutor(FederatedServiceExecutor executor) {
+    _handlerFactory.setExecutor(executor);
+  }
+
   @Override
   public Class<?> getObjectType() {
     return _serviceInterface;
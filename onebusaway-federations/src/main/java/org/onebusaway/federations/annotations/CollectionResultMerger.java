@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.annotations;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link FederatedServiceResultMerger} for methods that return a
+ * {@link List}, whose results are concatenated, or a {@link Map}, whose results
+ * are combined.
+ * 
+ * <pre class="code">
+ * @FederatedByEntityIdsMethod(merger = CollectionResultMerger.class)
+ * public List<String> getValuesForIds(Set<String> entityIds);
+ * </pre>
+ * 
+ * @author bdferris
+ */
+public class CollectionResultMerger implements FederatedServiceResultMerger {
+
+  @Override
+  public Object merge(Method method, List<Object> results) {
+
+    Class<?> returnType = method.getReturnType();
+
+    if (List.class.isAssignableFrom(returnType)) {
+      List<Object> merged = new ArrayList<Object>();
+      for (Object result : results)
+        merged.addAll((List<?>) result);
+      return merged;
+    }
+
+    if (Map.class.isAssignableFrom(returnType)) {
+      Map<Object, Object> merged = new HashMap<Object, Object>();
+      for (Object result : results)
+        merged.putAll((Map<?, ?>) result);
+      return merged;
+    }
+
+    throw new IllegalArgumentException("unsupported merge type: "
+        + returnType.getName());
+  }
+}
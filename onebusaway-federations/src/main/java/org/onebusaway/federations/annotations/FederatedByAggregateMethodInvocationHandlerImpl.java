@@ -18,6 +18,7 @@ package org.onebusaway.federations.annotations;
 import org.onebusaway.exceptions.ServiceAreaServiceException;
 import org.onebusaway.federations.FederatedService;
 import org.onebusaway.federations.FederatedServiceCollection;
+import org.onebusaway.federations.FederatedServiceExecutor;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -36,8 +37,21 @@ class FederatedByAggregateMethodInvocationHandlerImpl implements FederatedServic
 
   private EMethodAggregationType _aggregationType;
 
+  private FederatedServiceExecutor _executor;
+
   public FederatedByAggregateMethodInvocationHandlerImpl(EMethodAggregationType aggregationType) {
+    this(aggregationType, null);
+  }
+
+  /**
+   * @param aggregationType
+   * @param executor if not null, services are invoked concurrently with the
+   *          executor, otherwise one after another
+   */
+  public FederatedByAggregateMethodInvocationHandlerImpl(
+      EMethodAggregationType aggregationType, FederatedServiceExecutor executor) {
     _aggregationType = aggregationType;
+    _executor = executor;
   }
   
   public EMethodAggregationType getAggregationType() {
@@ -47,6 +61,10 @@ class FederatedByAggregateMethodInvocationHandlerImpl implements FederatedServic
   public Object invoke(FederatedServiceCollection collection, Method method, Object[] args)
       throws ServiceAreaServiceException, IllegalArgumentException, IllegalAccessException, InvocationTargetException {
 
+    if (_executor != null)
+      return aggregateResults(_executor.invokeAll(collection.getAllServices(),
+          method, args));
+
     List<Object> results = new ArrayList<Object>();
 
     for (FederatedService service : collection.getAllServices())
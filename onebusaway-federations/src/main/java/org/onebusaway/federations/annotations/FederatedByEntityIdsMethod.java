@@ -33,6 +33,16 @@ import org.onebusaway.federations.FederatedService;
  * public String getValueForIds(Set<String> entityId);
  * </pre>
  * 
+ * By default, all the ids must belong to agencies served by the same
+ * {@link FederatedService}. If a {@link #merger()} is specified, ids spanning
+ * multiple services are partitioned by service, the method is invoked on each
+ * service with just its ids, and the results are combined by the merger.
+ * 
+ * <pre class="code">
+ * @FederatedByEntityIdsMethod(merger = CollectionResultMerger.class)
+ * public List<String> getValuesForIds(Set<String> entityId);
+ * </pre>
+ * 
  * @author bdferris
  * @see FederatedServiceMethodInvocationHandlerFactory
  * @see FederatedByEntityIdsMethodInvocationHandlerImpl
@@ -41,4 +51,11 @@ import org.onebusaway.federations.FederatedService;
 @Target(value = ElementType.METHOD)
 public @interface FederatedByEntityIdsMethod {
   public int argument() default 0;
+
+  /**
+   * Merges results when the ids span multiple federated services. The default,
+   * {@link FederatedServiceResultMerger} itself, means results are not merged
+   * and the ids must all belong to one service.
+   */
+  public Class<? extends FederatedServiceResultMerger> merger() default FederatedServiceResultMerger.class;
 }
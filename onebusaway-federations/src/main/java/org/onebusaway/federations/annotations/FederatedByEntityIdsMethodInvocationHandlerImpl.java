@@ -18,16 +18,28 @@ package org.onebusaway.federations.annotations;
 import org.onebusaway.exceptions.ServiceException;
 import org.onebusaway.federations.FederatedService;
 import org.onebusaway.federations.FederatedServiceCollection;
+import org.onebusaway.federations.FederatedServiceExecutor;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Provides a {@link FederatedServiceMethodInvocationHandler} implementation for
  * the {@link FederatedByEntityIdsMethod} annotation.
  * 
+ * With a {@link FederatedServiceResultMerger}, the entity ids are partitioned
+ * by the federated service that owns them. If they span multiple services, the
+ * method is invoked on each service with just its ids, concurrently when an
+ * executor is available, and the results are merged.
+ * 
  * @author bdferris
  */
 class FederatedByEntityIdsMethodInvocationHandlerImpl implements
@@ -35,20 +47,50 @@ class FederatedByEntityIdsMethodInvocationHandlerImpl implements
 
   private int _argumentIndex;
 
+  private FederatedServiceResultMerger _merger;
+
+  private FederatedServiceExecutor _executor;
+
   public FederatedByEntityIdsMethodInvocationHandlerImpl(int argumentIndex) {
+    this(argumentIndex, null, null);
+  }
+
+  /**
+   * @param argumentIndex
+   * @param merger if null, all entity ids must belong to the same service
+   * @param executor if null, services are invoked one after another
+   */
+  public FederatedByEntityIdsMethodInvocationHandlerImpl(int argumentIndex,
+      FederatedServiceResultMerger merger, FederatedServiceExecutor executor) {
     _argumentIndex = argumentIndex;
+    _merger = merger;
+    _executor = executor;
   }
 
   public int getArgumentIndex() {
     return _argumentIndex;
   }
 
+  public FederatedServiceResultMerger getMerger() {
+    return _merger;
+  }
+
   @SuppressWarnings("unchecked")
   public Object invoke(FederatedServiceCollection collection, Method method,
       Object[] args) throws ServiceException, IllegalArgumentException,
       IllegalAccessException, InvocationTargetException {
 
     Iterable<String> entityIds = (Iterable<String>) args[_argumentIndex];
+
+    if (_merger != null) {
+      Map<FederatedService, List<String>> idsByService = getEntityIdsByService(
+          collection, entityIds);
+      if (idsByService.size() == 1)
+        return method.invoke(idsByService.keySet().iterator().next(), args);
+      if (idsByService.size() > 1)
+        return invokeAndMerge(method, args, entityIds, idsByService);
+    }
+
     Set<String> agencyIds = new HashSet<String>();
     for (String entityId : entityIds)
       agencyIds.add(AgencyIdSupport.getAgencyIdFromEntityId(entityId));
@@ -56,4 +98,71 @@ class FederatedByEntityIdsMethodInvocationHandlerImpl implements
     return method.invoke(service, args);
   }
 
+  /****
+   * Private Methods
+   ****/
+
+  private Map<FederatedService, List<String>> getEntityIdsByService(
+      FederatedServiceCollection collection, Iterable<String> entityIds) {
+
+    Map<String, FederatedService> servicesByAgencyId = new HashMap<String, FederatedService>();
+    Map<FederatedService, List<String>> idsByService = new LinkedHashMap<FederatedService, List<String>>();
+
+    for (String entityId : entityIds) {
+
+      String agencyId = AgencyIdSupport.getAgencyIdFromEntityId(entityId);
+      FederatedService service = servicesByAgencyId.get(agencyId);
+      if (service == null) {
+        service = collection.getServiceForAgencyId(agencyId);
+        servicesByAgencyId.put(agencyId, service);
+      }
+
+      List<String> ids = idsByService.get(service);
+      if (ids == null) {
+        ids = new ArrayList<String>();
+        idsByService.put(service, ids);
+      }
+      ids.add(entityId);
+    }
+
+    return idsByService;
+  }
+
+  private Object invokeAndMerge(Method method, Object[] args,
+      Iterable<String> entityIds,
+      Map<FederatedService, List<String>> idsByService)
+      throws IllegalAccessException, InvocationTargetException {
+
+    List<FederatedService> services = new ArrayList<FederatedService>();
+    List<Object[]> argsByService = new ArrayList<Object[]>();
+
+    for (Map.Entry<FederatedService, List<String>> entry : idsByService.entrySet()) {
+      Object[] serviceArgs = args.clone();
+      serviceArgs[_argumentIndex] = createEntityIds(entityIds, entry.getValue());
+      services.add(entry.getKey());
+      argsByService.add(serviceArgs);
+    }
+
+    List<Object> results = null;
+
+    if (_executor != null) {
+      results = _executor.invokeAll(services, method, argsByService);
+    } else {
+      results = new ArrayList<Object>();
+      for (int i = 0; i < services.size(); i++)
+        results.add(method.invoke(services.get(i), argsByService.get(i)));
+    }
+
+    return _merger.merge(method, results);
+  }
+
+  /**
+   * @return a collection of the same general type as the original argument
+   */
+  private static Iterable<String> createEntityIds(Iterable<String> original,
+      List<String> ids) {
+    if (original instanceof Set<?>)
+      return new LinkedHashSet<String>(ids);
+    return ids;
+  }
 }
@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.onebusaway.exceptions.ServiceException;
+import org.onebusaway.federations.FederatedServiceExecutor;
 
 /**
  * This factory can be used to examine a Method signature and create an
@@ -39,6 +40,18 @@ import org.onebusaway.exceptions.ServiceException;
  */
 public class FederatedServiceMethodInvocationHandlerFactory {
 
+  private FederatedServiceExecutor _executor;
+
+  /**
+   * @param executor if set, {@link FederatedByAggregateMethod} methods, and
+   *          {@link FederatedByEntityIdsMethod} methods whose ids span
+   *          multiple services, invoke their services concurrently with the
+   *          executor
+   */
+  public void setExecutor(FederatedServiceExecutor executor) {
+    _executor = executor;
+  }
+
   public FederatedServiceMethodInvocationHandler getHandlerForMethod(
       Method method) {
 
@@ -61,7 +74,7 @@ public class FederatedServiceMethodInvocationHandlerFactory {
     FederatedByEntityIdsMethod ann1 = method.getAnnotation(FederatedByEntityIdsMethod.class);
     if (ann1 != null)
       return new FederatedByEntityIdsMethodInvocationHandlerImpl(
-          ann1.argument());
+          ann1.argument(), getResultMerger(ann1.merger()), _executor);
 
     FederatedByBoundsMethod ann2 = method.getAnnotation(FederatedByBoundsMethod.class);
     if (ann2 != null)
@@ -78,7 +91,7 @@ public class FederatedServiceMethodInvocationHandlerFactory {
     if (ann4 != null) {
       EMethodAggregationType aggregationType = getAggregationTypeForMethod(method);
       return new FederatedByAggregateMethodInvocationHandlerImpl(
-          aggregationType);
+          aggregationType, _executor);
     }
 
     FederatedByCoordinateBoundsMethod ann5 = method.getAnnotation(FederatedByCoordinateBoundsMethod.class);
@@ -112,6 +125,19 @@ public class FederatedServiceMethodInvocationHandlerFactory {
         "No FederatedService method annotation for method: " + method);
   }
 
+  private FederatedServiceResultMerger getResultMerger(
+      Class<? extends FederatedServiceResultMerger> mergerClass) {
+    if (mergerClass == FederatedServiceResultMerger.class)
+      return null;
+    try {
+      return mergerClass.newInstance();
+    } catch (Exception ex) {
+      throw new ServiceException(
+          "error creating FederatedServiceResultMerger of type " + mergerClass,
+          ex);
+    }
+  }
+
   private EMethodAggregationType getAggregationTypeForMethod(Method method) {
     Class<?> returnType = method.getReturnType();
     if (List.class.isAssignableFrom(returnType))
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.annotations;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.onebusaway.federations.FederatedService;
+
+/**
+ * Merges the results of invoking a method on multiple {@link FederatedService}
+ * instances into a single result. Used by {@link FederatedByEntityIdsMethod}
+ * when the entity ids passed to a method span multiple federated services and
+ * the method is called once per service with just the ids it owns.
+ * 
+ * Implementations must have a public no-arg constructor.
+ * 
+ * @author bdferris
+ * @see FederatedByEntityIdsMethod#merger()
+ * @see CollectionResultMerger
+ */
+public interface FederatedServiceResultMerger {
+
+  /**
+   * @param method the method that was invoked
+   * @param results the non-empty results from each federated service
+   * @return the merged result
+   */
+  public Object merge(Method method, List<Object> results);
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.hessian;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A servlet {@link Filter} that adds gzip compression to Hessian services, for
+ * clients using {@link HessianTransportProxyFactory}. Hessian requests with a
+ * "Content-Encoding: gzip" header are decompressed, and responses to Hessian
+ * requests with an "Accept-Encoding" header that includes gzip are compressed.
+ * Other requests pass through untouched.
+ * 
+ * <pre class="code">
+ * <filter>
+ *   <filter-name>hessianCompressionFilter</filter-name>
+ *   <filter-class>org.onebusaway.federations.hessian.HessianCompressionFilter</filter-class>
+ * </filter>
+ * <filter-mapping>
+ *   <filter-name>hessianCompressionFilter</filter-name>
+ *   <url-pattern>/remoting/*</url-pattern>
+ * </filter-mapping>
+ * </pre>
+ * 
+ * @author bdferris
+ */
+public class HessianCompressionFilter implements Filter {
+
+  private static final String GZIP = "gzip";
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+
+  }
+
+  @Override
+  public void destroy() {
+
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse res,
+      FilterChain chain) throws IOException, ServletException {
+
+    HttpServletRequest request = (HttpServletRequest) req;
+    HttpServletResponse response = (HttpServletResponse) res;
+
+    String contentType = request.getContentType();
+    if (contentType == null || !contentType.contains("hessian")) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    if (GZIP.equalsIgnoreCase(request.getHeader("Content-Encoding")))
+      request = new DecompressingRequest(request);
+
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null
+        || !acceptEncoding.toLowerCase().contains(GZIP)) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    CompressingResponse compressingResponse = new CompressingResponse(
+        response);
+    try {
+      chain.doFilter(request, compressingResponse);
+    } finally {
+      compressingResponse.finish();
+    }
+  }
+
+  private static class DecompressingRequest extends HttpServletRequestWrapper {
+
+    private ServletInputStream _inputStream;
+
+    public DecompressingRequest(HttpServletRequest request) {
+      super(request);
+    }
+
+    @Override
+    public synchronized ServletInputStream getInputStream() throws IOException {
+      if (_inputStream == null)
+        _inputStream = new ServletInputStreamImpl(new GZIPInputStream(
+            super.getInputStream()));
+      return _inputStream;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      if ("Content-Encoding".equalsIgnoreCase(name))
+        return null;
+      return super.getHeader(name);
+    }
+
+    @Override
+    public int getContentLength() {
+      return -1;
+    }
+  }
+
+  private static class CompressingResponse extends HttpServletResponseWrapper {
+
+    private GZIPOutputStream _gzipStream;
+
+    private ServletOutputStream _outputStream;
+
+    private PrintWriter _writer;
+
+    public CompressingResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    @Override
+    public synchronized ServletOutputStream getOutputStream()
+        throws IOException {
+      if (_writer != null)
+        throw new IllegalStateException("getWriter() already called");
+      if (_outputStream == null)
+        _outputStream = new ServletOutputStreamImpl(getGzipStream());
+      return _outputStream;
+    }
+
+    @Override
+    public synchronized PrintWriter getWriter() throws IOException {
+      if (_outputStream != null)
+        throw new IllegalStateException("getOutputStream() already called");
+      if (_writer == null)
+        _writer = new PrintWriter(new OutputStreamWriter(getGzipStream(),
+            getCharacterEncoding()));
+      return _writer;
+    }
+
+    /**
+     * The content length of the uncompressed response doesn't apply
+     */
+    @Override
+    public void setContentLength(int len) {
+
+    }
+
+    @Override
+    public synchronized void flushBuffer() throws IOException {
+      if (_writer != null)
+        _writer.flush();
+      if (_gzipStream != null)
+        _gzipStream.flush();
+      super.flushBuffer();
+    }
+
+    public synchronized void finish() throws IOException {
+      if (_writer != null)
+        _writer.flush();
+      if (_gzipStream != null)
+        _gzipStream.finish();
+    }
+
+    private GZIPOutputStream getGzipStream() throws IOException {
+      if (_gzipStream == null) {
+        HttpServletResponse response = (HttpServletResponse) getResponse();
+        response.setHeader("Content-Encoding", GZIP);
+        _gzipStream = new GZIPOutputStream(response.getOutputStream());
+      }
+      return _gzipStream;
+    }
+  }
+
+  private static class ServletInputStreamImpl extends ServletInputStream {
+
+    private final InputStream _in;
+
+    public ServletInputStreamImpl(InputStream in) {
+      _in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return _in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return _in.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      _in.close();
+    }
+  }
+
+  private static class ServletOutputStreamImpl extends ServletOutputStream {
+
+    private final GZIPOutputStream _out;
+
+    public ServletOutputStreamImpl(GZIPOutputStream out) {
+      _out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      _out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      _out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      _out.flush();
+    }
+
+    /**
+     * The compressed stream is finished by the filter, once the response is
+     * complete
+     */
+    @Override
+    public void close() throws IOException {
+      _out.finish();
+    }
+  }
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.hessian;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.caucho.hessian.client.HessianConnectionException;
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * Proxies service interface method calls to a remote Hessian service for
+ * {@link HessianTransportProxyFactory}.
+ *
+ * @author bdferris
+ */
+class HessianTransportInvocationHandler implements InvocationHandler {
+
+  private static final String CONTENT_TYPE_HESSIAN = "x-application/hessian";
+
+  private static final String GZIP = "gzip";
+
+  private final HessianTransportProxyFactory _factory;
+
+  private final URL _url;
+
+  public HessianTransportInvocationHandler(HessianTransportProxyFactory factory,
+      URL url) {
+    _factory = factory;
+    _url = url;
+  }
+
+  public URL getUrl() {
+    return _url;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args)
+      throws Throwable {
+
+    if (method.getDeclaringClass() == Object.class)
+      return invokeObjectMethod(proxy, method, args);
+
+    String methodName = method.getName();
+    HessianTransportStats stats = _factory.getStatsForMethod(methodName);
+    long timeout = _factory.getTimeoutForMethod(methodName);
+
+    long t1 = System.currentTimeMillis();
+    long deadline = timeout > 0 ? t1 + timeout : Long.MAX_VALUE;
+    boolean success = false;
+
+    Semaphore permits = _factory.getPermitsForHost(_url);
+    if (permits != null
+        && !permits.tryAcquire(getRemaining(deadline), TimeUnit.MILLISECONDS)) {
+      stats.recordDeadlineExceeded();
+      stats.recordCall(System.currentTimeMillis() - t1, false);
+      throw new HessianConnectionException("deadline of " + timeout
+          + "ms exceeded waiting for a connection to " + _url);
+    }
+
+    try {
+      Object value = invokeRemote(method, args, stats, timeout, deadline);
+      success = true;
+      return value;
+    } finally {
+      if (permits != null)
+        permits.release();
+      stats.recordCall(System.currentTimeMillis() - t1, success);
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private Object invokeRemote(Method method, Object[] args,
+      HessianTransportStats stats, long timeout, long deadline)
+      throws Throwable {
+
+    byte[] body = serializeCall(method.getName(), args);
+    boolean compressRequest = _factory.isCompressRequests()
+        && body.length >= _factory.getCompressionThreshold();
+    if (compressRequest)
+      body = compress(body);
+
+    HttpURLConnection connection = (HttpURLConnection) _url.openConnection();
+
+    AtomicBoolean deadlineExceeded = new AtomicBoolean();
+    ScheduledFuture<?> watchdog = null;
+    if (timeout > 0)
+      watchdog = _factory.scheduleDeadline(new DeadlineTask(connection,
+          deadlineExceeded), getRemaining(deadline));
+
+    try {
+
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setUseCaches(false);
+      connection.setConnectTimeout((int) Math.min(_factory.getConnectTimeout(),
+          getRemaining(deadline)));
+      if (timeout > 0)
+        connection.setReadTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+      connection.setRequestProperty("Content-Type", CONTENT_TYPE_HESSIAN);
+      if (_factory.isAcceptCompressedResponses())
+        connection.setRequestProperty("Accept-Encoding", GZIP);
+      if (compressRequest)
+        connection.setRequestProperty("Content-Encoding", GZIP);
+      connection.setFixedLengthStreamingMode(body.length);
+
+      OutputStream out = connection.getOutputStream();
+      out.write(body);
+      out.close();
+      stats.addRequestBytes(body.length);
+
+      int code = connection.getResponseCode();
+      if (code != HttpURLConnection.HTTP_OK) {
+        drainAndClose(connection.getErrorStream());
+        throw new HessianConnectionException(_url + " returned HTTP " + code
+            + " " + connection.getResponseMessage() + " for "
+            + method.getName());
+      }
+
+      CountingInputStream counting = new CountingInputStream(
+          connection.getInputStream());
+      InputStream in = counting;
+
+      try {
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding()))
+          in = new GZIPInputStream(in);
+        HessianInput hessianInput = new HessianInput(in);
+        hessianInput.setSerializerFactory(_factory.getSerializerFactory());
+        return hessianInput.readReply(method.getReturnType());
+      } finally {
+        /**
+         * Reading the response to the end allows the connection to be reused
+         */
+        drainAndClose(in);
+        stats.addResponseBytes(counting.getCount());
+      }
+
+    } catch (IOException ex) {
+      /**
+       * Either the watchdog disconnected us or the read timed out first
+       */
+      if (deadlineExceeded.get() || System.currentTimeMillis() >= deadline) {
+        stats.recordDeadlineExceeded();
+        throw new HessianConnectionException("deadline of " + timeout
+            + "ms exceeded invoking " + method.getName() + " on " + _url, ex);
+      }
+      throw new HessianConnectionException("error invoking "
+          + method.getName() + " on " + _url, ex);
+    } finally {
+      if (watchdog != null)
+        watchdog.cancel(false);
+    }
+  }
+
+  private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+    String name = method.getName();
+    if (name.equals("equals")) {
+      Object other = args[0];
+      if (other == null || !Proxy.isProxyClass(other.getClass()))
+        return false;
+      InvocationHandler handler = Proxy.getInvocationHandler(other);
+      if (!(handler instanceof HessianTransportInvocationHandler))
+        return false;
+      return _url.toString().equals(
+          ((HessianTransportInvocationHandler) handler).getUrl().toString());
+    } else if (name.equals("hashCode")) {
+      return _url.toString().hashCode();
+    } else if (name.equals("toString")) {
+      return "HessianTransportProxy[" + _url + "]";
+    }
+    throw new UnsupportedOperationException(name);
+  }
+
+  private byte[] serializeCall(String methodName, Object[] args)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HessianOutput out = new HessianOutput(bytes);
+    out.setSerializerFactory(_factory.getSerializerFactory());
+    out.call(methodName, args);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] compress(byte[] body) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2);
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(body);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static long getRemaining(long deadline) {
+    if (deadline == Long.MAX_VALUE)
+      return Integer.MAX_VALUE;
+    return Math.max(deadline - System.currentTimeMillis(), 1);
+  }
+
+  private static void drainAndClose(InputStream in) {
+    if (in == null)
+      return;
+    try {
+      byte[] buffer = new byte[4096];
+      while (in.read(buffer) >= 0)
+        ;
+    } catch (IOException ex) {
+
+    } finally {
+      try {
+        in.close();
+      } catch (IOException ex) {
+
+      }
+    }
+  }
+
+  private static class DeadlineTask implements Runnable {
+
+    private final HttpURLConnection _connection;
+
+    private final AtomicBoolean _deadlineExceeded;
+
+    public DeadlineTask(HttpURLConnection connection,
+        AtomicBoolean deadlineExceeded) {
+      _connection = connection;
+      _deadlineExceeded = deadlineExceeded;
+    }
+
+    @Override
+    public void run() {
+      _deadlineExceeded.set(true);
+      _connection.disconnect();
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long _count = 0;
+
+    public CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    public long getCount() {
+      return _count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0)
+        _count++;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0)
+        _count += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      _count += skipped;
+      return skipped;
+    }
+  }
+}
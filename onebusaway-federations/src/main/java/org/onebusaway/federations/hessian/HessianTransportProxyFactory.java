@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.hessian;
+
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.onebusaway.federations.impl.DynamicFederatedServiceCollectionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.caucho.hessian.client.HessianProxyFactory;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Creates Hessian service proxies, as {@link HessianProxyFactory} does, with a
+ * transport tuned for high-volume calls between OneBusAway tiers:
+ *
+ * <ul>
+ * <li>Connections are reused through HTTP keep-alive. Responses are always
+ * read to the end so their connection can be returned to the JDK's keep-alive
+ * cache, and concurrent connections to each host can be limited with
+ * {@link #setMaxConnectionsPerHost(int)}. Note that the JDK only keeps
+ * {@code http.maxConnections} idle connections per host alive, five by
+ * default, so that system property should be raised to match a higher
+ * limit.</li>
+ * <li>Responses are requested gzip compressed, and requests can optionally be
+ * gzip compressed. The remote service must be behind a
+ * {@link HessianCompressionFilter} for compressed requests, while compressed
+ * responses are only used when the remote service supports them.</li>
+ * <li>Each call can be given a deadline, with per-method overrides. A call
+ * that exceeds its deadline is aborted with a
+ * {@link com.caucho.hessian.client.HessianConnectionException}.</li>
+ * <li>Call count, errors, latency and bytes transferred are tracked for each
+ * method, and exported through JMX if {@link #setMbeanServer(MBeanServer)} is
+ * set.</li>
+ * </ul>
+ *
+ * As with {@link HessianProxyFactory}, connections, connection time and call
+ * time are unbounded by default. Limits must be set explicitly.
+ *
+ * Overloaded methods are not supported, as with the default
+ * {@link HessianProxyFactory} configuration.
+ *
+ * @author bdferris
+ * @see HessianTransportProxyFactoryBean
+ * @see DynamicFederatedServiceCollectionImpl
+ */
+public class HessianTransportProxyFactory {
+
+  private static Logger _log = LoggerFactory.getLogger(HessianTransportProxyFactory.class);
+
+  private SerializerFactory _serializerFactory = new SerializerFactory();
+
+  private int _maxConnectionsPerHost = 0;
+
+  private int _connectTimeout = 0;
+
+  private long _timeout = 0;
+
+  private Map<String, Long> _methodTimeouts = new HashMap<String, Long>();
+
+  private boolean _compressRequests = false;
+
+  private boolean _acceptCompressedResponses = true;
+
+  private int _compressionThreshold = 1024;
+
+  private final ConcurrentMap<String, Semaphore> _permitsByHost = new ConcurrentHashMap<String, Semaphore>();
+
+  private final ConcurrentMap<String, HessianTransportStats> _statsByMethod = new ConcurrentHashMap<String, HessianTransportStats>();
+
+  private ScheduledExecutorService _deadlineExecutor;
+
+  private volatile MBeanServer _mbeanServer;
+
+  private String _name = "default";
+
+  /**
+   * @param maxConnectionsPerHost the maximum number of concurrent calls to a
+   *          single host, or zero for no limit. Additional calls wait for a
+   *          connection, up to their deadline.
+   */
+  public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+    _maxConnectionsPerHost = maxConnectionsPerHost;
+  }
+
+  /**
+   * @param connectTimeout in ms, or zero for no timeout
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    _connectTimeout = connectTimeout;
+  }
+
+  /**
+   * @param timeout the default deadline for a call, in ms, or zero for no
+   *          deadline
+   */
+  public void setTimeout(long timeout) {
+    _timeout = timeout;
+  }
+
+  /**
+   * @param methodTimeouts deadlines in ms, keyed by method name, overriding
+   *          {@link #setTimeout(long)}
+   */
+  public void setMethodTimeouts(Map<String, Long> methodTimeouts) {
+    _methodTimeouts = new HashMap<String, Long>(methodTimeouts);
+  }
+
+  /**
+   * @param compressRequests true if request bodies larger than the compression
+   *          threshold should be gzip compressed. The remote service must be
+   *          behind a {@link HessianCompressionFilter}.
+   */
+  public void setCompressRequests(boolean compressRequests) {
+    _compressRequests = compressRequests;
+  }
+
+  public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+    _acceptCompressedResponses = acceptCompressedResponses;
+  }
+
+  /**
+   * @param compressionThreshold request bodies smaller than this, in bytes,
+   *          are never compressed
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    _compressionThreshold = compressionThreshold;
+  }
+
+  public void setSerializerFactory(SerializerFactory serializerFactory) {
+    _serializerFactory = serializerFactory;
+  }
+
+  /**
+   * @param mbeanServer if set, the statistics of each method are registered
+   *          as a {@link HessianTransportStatsMBean}
+   */
+  public void setMbeanServer(MBeanServer mbeanServer) {
+    _mbeanServer = mbeanServer;
+  }
+
+  /**
+   * @param name distinguishes the statistics of this factory from those of
+   *          other factories in JMX
+   */
+  public void setName(String name) {
+    _name = name;
+  }
+
+  /**
+   * @return request statistics, keyed by method name
+   */
+  public Map<String, HessianTransportStats> getStatsByMethod() {
+    return Collections.unmodifiableMap(_statsByMethod);
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    if (_deadlineExecutor != null) {
+      _deadlineExecutor.shutdownNow();
+      _deadlineExecutor = null;
+    }
+    MBeanServer mbeanServer = _mbeanServer;
+    _mbeanServer = null;
+    if (mbeanServer != null) {
+      for (String methodName : _statsByMethod.keySet())
+        unregisterStats(mbeanServer, methodName);
+    }
+  }
+
+  /**
+   * @param api the service interface
+   * @param url the url of the remote Hessian service
+   * @return a proxy for the remote service, implementing the service interface
+   * @throws MalformedURLException
+   */
+  public Object create(Class<?> api, String url) throws MalformedURLException {
+    HessianTransportInvocationHandler handler = new HessianTransportInvocationHandler(
+        this, new URL(url));
+    return Proxy.newProxyInstance(api.getClassLoader(), new Class<?>[] {api},
+        handler);
+  }
+
+  /****
+   * Package Methods
+   ****/
+
+  SerializerFactory getSerializerFactory() {
+    return _serializerFactory;
+  }
+
+  int getConnectTimeout() {
+    return _connectTimeout;
+  }
+
+  long getTimeoutForMethod(String methodName) {
+    Long timeout = _methodTimeouts.get(methodName);
+    return timeout != null ? timeout : _timeout;
+  }
+
+  boolean isCompressRequests() {
+    return _compressRequests;
+  }
+
+  boolean isAcceptCompressedResponses() {
+    return _acceptCompressedResponses;
+  }
+
+  int getCompressionThreshold() {
+    return _compressionThreshold;
+  }
+
+  /**
+   * @return the connection permits for the host, or null if connections are
+   *         not limited
+   */
+  Semaphore getPermitsForHost(URL url) {
+    if (_maxConnectionsPerHost <= 0)
+      return null;
+    String host = url.getHost() + ":" + url.getPort();
+    Semaphore permits = _permitsByHost.get(host);
+    if (permits == null) {
+      permits = new Semaphore(_maxConnectionsPerHost);
+      Semaphore existing = _permitsByHost.putIfAbsent(host, permits);
+      if (existing != null)
+        permits = existing;
+    }
+    return permits;
+  }
+
+  HessianTransportStats getStatsForMethod(String methodName) {
+    HessianTransportStats stats = _statsByMethod.get(methodName);
+    if (stats == null) {
+      stats = new HessianTransportStats();
+      HessianTransportStats existing = _statsByMethod.putIfAbsent(methodName,
+          stats);
+      MBeanServer mbeanServer = _mbeanServer;
+      if (existing != null)
+        stats = existing;
+      else if (mbeanServer != null)
+        registerStats(mbeanServer, methodName, stats);
+    }
+    return stats;
+  }
+
+  synchronized ScheduledFuture<?> scheduleDeadline(Runnable task, long delay) {
+    if (_deadlineExecutor == null)
+      _deadlineExecutor = Executors.newSingleThreadScheduledExecutor(new DeadlineThreadFactory());
+    return _deadlineExecutor.schedule(task, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private ObjectName getObjectName(String methodName) throws Exception {
+    return new ObjectName("org.onebusaway.federations.hessian:type="
+        + HessianTransportStats.class.getSimpleName() + ",name="
+        + ObjectName.quote(_name) + ",method=" + ObjectName.quote(methodName));
+  }
+
+  private void registerStats(MBeanServer mbeanServer, String methodName,
+      HessianTransportStats stats) {
+    try {
+      mbeanServer.registerMBean(stats, getObjectName(methodName));
+    } catch (Exception ex) {
+      _log.warn("error registering hessian transport stats for method "
+          + methodName, ex);
+    }
+  }
+
+  private void unregisterStats(MBeanServer mbeanServer, String methodName) {
+    try {
+      mbeanServer.unregisterMBean(getObjectName(methodName));
+    } catch (Exception ex) {
+      _log.warn("error unregistering hessian transport stats for method "
+          + methodName, ex);
+    }
+  }
+
+  private static class DeadlineThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "HessianTransportDeadlines");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
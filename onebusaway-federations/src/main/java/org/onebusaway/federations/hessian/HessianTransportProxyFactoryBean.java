@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.hessian;
+
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.config.AbstractFactoryBean;
+
+/**
+ * A Spring {@link FactoryBean} for creating a remote Hessian service proxy
+ * with a {@link HessianTransportProxyFactory}, as a drop-in replacement for
+ * Spring's {@code HessianProxyFactoryBean}.
+ * 
+ * <pre class="code">
+ * <bean class="org.onebusaway.federations.hessian.HessianTransportProxyFactoryBean">
+ *   <property name="serviceUrl" value="http://host/remoting/transit-data-service"/>
+ *   <property name="serviceInterface" value="some.package.SomeServiceInterface"/>
+ *   <property name="proxyFactory" ref="hessianTransportProxyFactory" />
+ * </bean>
+ * </pre>
+ * 
+ * If no proxy factory is specified, a factory with default settings is used.
+ * 
+ * @author bdferris
+ */
+public class HessianTransportProxyFactoryBean extends
+    AbstractFactoryBean<Object> {
+
+  private HessianTransportProxyFactory _proxyFactory;
+
+  private boolean _defaultProxyFactory = false;
+
+  private String _serviceUrl;
+
+  private Class<?> _serviceInterface;
+
+  public void setProxyFactory(HessianTransportProxyFactory proxyFactory) {
+    _proxyFactory = proxyFactory;
+  }
+
+  public void setServiceUrl(String serviceUrl) {
+    _serviceUrl = serviceUrl;
+  }
+
+  public void setServiceInterface(Class<?> serviceInterface) {
+    _serviceInterface = serviceInterface;
+  }
+
+  @Override
+  public Class<?> getObjectType() {
+    return _serviceInterface;
+  }
+
+  @Override
+  protected Object createInstance() throws Exception {
+
+    if (!_serviceInterface.isInterface())
+      throw new IllegalArgumentException("service "
+          + _serviceInterface.getName() + " is not an interface");
+
+    if (_proxyFactory == null) {
+      _proxyFactory = new HessianTransportProxyFactory();
+      _defaultProxyFactory = true;
+    }
+
+    return _proxyFactory.create(_serviceInterface, _serviceUrl);
+  }
+
+  @Override
+  protected void destroyInstance(Object instance) throws Exception {
+    if (_defaultProxyFactory)
+      _proxyFactory.stop();
+  }
+}
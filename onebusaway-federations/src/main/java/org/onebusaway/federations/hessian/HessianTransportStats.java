@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.hessian;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request statistics for a single service method, as tracked by
+ * {@link HessianTransportProxyFactory}. Byte counts are as sent over the wire,
+ * after any compression.
+ * 
+ * @author bdferris
+ */
+public class HessianTransportStats implements HessianTransportStatsMBean {
+
+  private final AtomicLong _callCount = new AtomicLong();
+
+  private final AtomicLong _errorCount = new AtomicLong();
+
+  private final AtomicLong _deadlineExceededCount = new AtomicLong();
+
+  private final AtomicLong _totalLatency = new AtomicLong();
+
+  private final AtomicLong _requestBytes = new AtomicLong();
+
+  private final AtomicLong _responseBytes = new AtomicLong();
+
+  void recordCall(long latency, boolean success) {
+    _callCount.incrementAndGet();
+    if (!success)
+      _errorCount.incrementAndGet();
+    _totalLatency.addAndGet(latency);
+  }
+
+  void recordDeadlineExceeded() {
+    _deadlineExceededCount.incrementAndGet();
+  }
+
+  void addRequestBytes(long bytes) {
+    _requestBytes.addAndGet(bytes);
+  }
+
+  void addResponseBytes(long bytes) {
+    _responseBytes.addAndGet(bytes);
+  }
+
+  public long getCallCount() {
+    return _callCount.get();
+  }
+
+  /**
+   * @return the number of calls that threw an exception, including exceptions
+   *         thrown by the remote service
+   */
+  public long getErrorCount() {
+    return _errorCount.get();
+  }
+
+  public long getDeadlineExceededCount() {
+    return _deadlineExceededCount.get();
+  }
+
+  /**
+   * @return mean call latency, in ms
+   */
+  public double getMeanLatency() {
+    long count = _callCount.get();
+    return count == 0 ? 0 : ((double) _totalLatency.get()) / count;
+  }
+
+  public long getRequestBytes() {
+    return _requestBytes.get();
+  }
+
+  public long getResponseBytes() {
+    return _responseBytes.get();
+  }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.hessian;
+
+/**
+ * JMX management interface for {@link HessianTransportStats}, registered per
+ * method when {@link HessianTransportProxyFactory#setMbeanServer(javax.management.MBeanServer)}
+ * is set.
+ */
+public interface HessianTransportStatsMBean {
+
+  public long getCallCount();
+
+  public long getErrorCount();
+
+  public long getDeadlineExceededCount();
+
+  public double getMeanLatency();
+
+  public long getRequestBytes();
+
+  public long getResponseBytes();
+}
@@ -32,12 +32,12 @@ import org.onebusaway.federations.FederatedService;
 import org.onebusaway.federations.FederatedServiceCollection;
 import org.onebusaway.federations.FederatedServiceRegistry;
 import org.onebusaway.federations.FederatedServiceRegistryEntry;
+import org.onebusaway.federations.hessian.HessianTransportProxyFactory;
 import org.onebusaway.geospatial.model.CoordinateBounds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.caucho.hessian.client.HessianConnectionException;
-import com.caucho.hessian.client.HessianProxyFactory;
 import com.caucho.hessian.client.HessianRuntimeException;
 
 /**
@@ -46,8 +46,8 @@ import com.caucho.hessian.client.HessianRuntimeException;
  * instance given a target service interface + parameters and our service
  * collection is updated as is appropriate. It's assumed that all services
  * published by the {@link FederatedServiceRegistry} have been exported as a
- * Hessian rpc service, as we'll be using {@link HessianProxyFactory} to create
- * proxy service instances from the service urls.
+ * Hessian rpc service, as we'll be using {@link HessianTransportProxyFactory}
+ * to create proxy service instances from the service urls.
  * 
  * @author bdferris
  */
@@ -56,7 +56,7 @@ public class DynamicFederatedServiceCollectionImpl extends
 
   private static Logger _log = LoggerFactory.getLogger(DynamicFederatedServiceCollectionImpl.class);
 
-  private HessianProxyFactory _proxyFactory = new HessianProxyFactory();
+  private HessianTransportProxyFactory _proxyFactory = new HessianTransportProxyFactory();
 
   private ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor();
 
@@ -75,6 +75,16 @@ public class DynamicFederatedServiceCollectionImpl extends
 
   private Map<String, String> _queryProperties = new HashMap<String, String>();
 
+  /**
+   * Override the default proxy factory, to tune connection limits, timeouts
+   * and compression for remote services
+   * 
+   * @param proxyFactory
+   */
+  public void setProxyFactory(HessianTransportProxyFactory proxyFactory) {
+    _proxyFactory = proxyFactory;
+  }
+
   public void setRegistry(FederatedServiceRegistry registry) {
     _registry = registry;
   }
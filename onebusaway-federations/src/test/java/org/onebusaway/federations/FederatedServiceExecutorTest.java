@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.exceptions.ServiceException;
+import org.onebusaway.federations.impl.SimpleFederatedServiceImpl;
+
+public class FederatedServiceExecutorTest {
+
+  private FederatedServiceExecutor _executor;
+
+  private Method _method;
+
+  @Before
+  public void setup() throws Exception {
+    _executor = new FederatedServiceExecutor();
+    _method = SimpleFederatedService.class.getDeclaredMethod("getValuesAsList");
+  }
+
+  @After
+  public void teardown() {
+    _executor.stop();
+  }
+
+  @Test
+  public void testConcurrent() throws Exception {
+
+    List<StubService> services = Arrays.asList(new StubService("a", 200),
+        new StubService("b", 200), new StubService("c", 200));
+
+    long t1 = System.currentTimeMillis();
+    List<Object> results = _executor.invokeAll(services, _method,
+        new Object[] {});
+    long t2 = System.currentTimeMillis();
+
+    assertEquals(3, results.size());
+    assertEquals(Arrays.asList("a"), results.get(0));
+    assertEquals(Arrays.asList("b"), results.get(1));
+    assertEquals(Arrays.asList("c"), results.get(2));
+    assertTrue("took " + (t2 - t1) + "ms", t2 - t1 < 500);
+
+    FederatedServiceExecutor.NodeStats stats = _executor.getStatsByNode().get(
+        "stub-a");
+    assertEquals(1, stats.getCallCount());
+    assertEquals(0, stats.getErrorCount());
+    assertTrue(stats.getLastLatency() >= 150);
+  }
+
+  @Test
+  public void testFailFast() throws Exception {
+
+    _executor.setPartialResultPolicy(EPartialResultPolicy.FAIL_FAST);
+
+    List<StubService> services = Arrays.asList(new StubService("a", 0),
+        new FailingStubService("b"));
+
+    try {
+      _executor.invokeAll(services, _method, new Object[] {});
+      fail();
+    } catch (InvocationTargetException ex) {
+      assertEquals(IllegalStateException.class, ex.getCause().getClass());
+    }
+
+    assertEquals(1, _executor.getStatsByNode().get("stub-b").getErrorCount());
+  }
+
+  @Test
+  public void testBestEffort() throws Exception {
+
+    _executor.setPartialResultPolicy(EPartialResultPolicy.BEST_EFFORT);
+
+    List<StubService> services = Arrays.asList(new StubService("a", 0),
+        new FailingStubService("b"), new StubService("c", 0));
+
+    List<Object> results = _executor.invokeAll(services, _method,
+        new Object[] {});
+
+    assertEquals(2, results.size());
+    assertEquals(Arrays.asList("a"), results.get(0));
+    assertEquals(Arrays.asList("c"), results.get(1));
+  }
+
+  @Test
+  public void testSaturated() throws Exception {
+
+    _executor.setThreads(1);
+    _executor.setQueueCapacity(1);
+    _executor.setPartialResultPolicy(EPartialResultPolicy.BEST_EFFORT);
+
+    List<StubService> services = Arrays.asList(new StubService("a", 100),
+        new StubService("b", 100), new StubService("c", 100));
+
+    /**
+     * The third call is rejected instead of running on the calling thread
+     */
+    List<Object> results = _executor.invokeAll(services, _method,
+        new Object[] {});
+
+    assertEquals(2, results.size());
+    assertEquals(Arrays.asList("a"), results.get(0));
+    assertEquals(Arrays.asList("b"), results.get(1));
+    assertEquals(1, _executor.getStatsByNode().get("stub-c").getRejectedCount());
+    assertEquals(0, _executor.getStatsByNode().get("stub-c").getCallCount());
+  }
+
+  @Test
+  public void testBestEffortAllFailed() throws Exception {
+
+    _executor.setPartialResultPolicy(EPartialResultPolicy.BEST_EFFORT);
+
+    List<StubService> services = Arrays.asList(new FailingStubService("a"),
+        new FailingStubService("b"));
+
+    try {
+      _executor.invokeAll(services, _method, new Object[] {});
+      fail();
+    } catch (InvocationTargetException ex) {
+      assertEquals(IllegalStateException.class, ex.getCause().getClass());
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+
+    _executor.setTimeout(100);
+    _executor.setPartialResultPolicy(EPartialResultPolicy.BEST_EFFORT);
+
+    List<StubService> services = Arrays.asList(new StubService("a", 0),
+        new StubService("b", 5000));
+
+    long t1 = System.currentTimeMillis();
+    List<Object> results = _executor.invokeAll(services, _method,
+        new Object[] {});
+    long t2 = System.currentTimeMillis();
+
+    assertEquals(1, results.size());
+    assertEquals(Arrays.asList("a"), results.get(0));
+    assertTrue("took " + (t2 - t1) + "ms", t2 - t1 < 1000);
+    assertEquals(1, _executor.getStatsByNode().get("stub-b").getTimeoutCount());
+
+    _executor.setPartialResultPolicy(EPartialResultPolicy.FAIL_FAST);
+
+    try {
+      _executor.invokeAll(services, _method, new Object[] {});
+      fail();
+    } catch (ServiceException ex) {
+
+    }
+  }
+
+  private static class StubService extends SimpleFederatedServiceImpl {
+
+    private final String _name;
+
+    private final long _delay;
+
+    public StubService(String name, long delay) {
+      super(null, name);
+      _name = name;
+      _delay = delay;
+    }
+
+    @Override
+    public List<String> getValuesAsList() {
+      if (_delay > 0) {
+        try {
+          Thread.sleep(_delay);
+        } catch (InterruptedException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+      List<String> values = new ArrayList<String>();
+      values.add(_name);
+      return values;
+    }
+
+    @Override
+    public String toString() {
+      return "stub-" + _name;
+    }
+  }
+
+  private static class FailingStubService extends StubService {
+
+    public FailingStubService(String name) {
+      super(name, 0);
+    }
+
+    @Override
+    public List<String> getValuesAsList() {
+      throw new IllegalStateException();
+    }
+  }
+}
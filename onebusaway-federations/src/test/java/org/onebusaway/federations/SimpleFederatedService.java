@@ -18,6 +18,7 @@ package org.onebusaway.federations;
 import org.onebusaway.federations.FederatedService;
 import org.onebusaway.federations.annotations.FederatedByEntityIdMethod;
 import org.onebusaway.federations.annotations.FederatedByEntityIdsMethod;
+import org.onebusaway.federations.annotations.CollectionResultMerger;
 import org.onebusaway.federations.annotations.FederatedByAggregateMethod;
 import org.onebusaway.federations.annotations.FederatedByBoundsMethod;
 import org.onebusaway.federations.annotations.FederatedByCoordinateBoundsMethod;
@@ -51,6 +52,9 @@ public interface SimpleFederatedService extends FederatedService {
   @FederatedByEntityIdsMethod(argument=1)
   public String getValueForValueAndIds(String value, Set<String> entityId);
   
+  @FederatedByEntityIdsMethod(merger=CollectionResultMerger.class)
+  public List<String> getValuesForIds(Set<String> entityIds);
+  
   @FederatedByBoundsMethod
   public String getValueForBounds(double lat1, double lon1, double lat2, double lon2);
   
@@ -16,14 +16,21 @@
 package org.onebusaway.federations.annotations;
 
 import org.onebusaway.federations.FederatedServiceCollection;
+import org.onebusaway.federations.FederatedServiceExecutor;
 import org.onebusaway.federations.SimpleFederatedService;
 import org.onebusaway.federations.impl.FederatedServiceCollectionImpl;
 
+import static org.junit.Assert.assertEquals;
+
 import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 public class FederatedByAgencyIdsMethodInvocationHandlerImplTest {
@@ -71,4 +78,64 @@ public class FederatedByAgencyIdsMethodInvocationHandlerImplTest {
 
     Mockito.verify(mockService).getValueForValueAndIds("value",ids);
   }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testMergeAcrossServices() throws Exception {
+
+    SimpleFederatedService serviceA = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(serviceA.getValuesForIds(ids("a_1", "a_2"))).thenReturn(
+        Arrays.asList("a_1", "a_2"));
+
+    SimpleFederatedService serviceB = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(serviceB.getValuesForIds(ids("b_1"))).thenReturn(
+        Arrays.asList("b_1"));
+
+    FederatedServiceCollection mockCollection = Mockito.mock(FederatedServiceCollectionImpl.class);
+    Mockito.when(mockCollection.getServiceForAgencyId("a")).thenReturn(serviceA);
+    Mockito.when(mockCollection.getServiceForAgencyId("b")).thenReturn(serviceB);
+
+    Method method = SimpleFederatedService.class.getDeclaredMethod("getValuesForIds", Set.class);
+    Object[] args = {ids("a_1", "b_1", "a_2")};
+
+    FederatedServiceExecutor executor = new FederatedServiceExecutor();
+    FederatedServiceMethodInvocationHandler handler = new FederatedByEntityIdsMethodInvocationHandlerImpl(
+        0, new CollectionResultMerger(), executor);
+    List<String> results = (List<String>) handler.invoke(mockCollection, method, args);
+    executor.stop();
+
+    Mockito.verify(serviceA).getValuesForIds(ids("a_1", "a_2"));
+    Mockito.verify(serviceB).getValuesForIds(ids("b_1"));
+
+    assertEquals(Arrays.asList("a_1", "a_2", "b_1"), results);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testMergeSingleService() throws Exception {
+
+    SimpleFederatedService serviceA = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(serviceA.getValuesForIds(ids("a_1", "a_2"))).thenReturn(
+        Arrays.asList("a_1", "a_2"));
+
+    FederatedServiceCollection mockCollection = Mockito.mock(FederatedServiceCollectionImpl.class);
+    Mockito.when(mockCollection.getServiceForAgencyId("a")).thenReturn(serviceA);
+
+    Method method = SimpleFederatedService.class.getDeclaredMethod("getValuesForIds", Set.class);
+    Set<String> ids = ids("a_1", "a_2");
+    Object[] args = {ids};
+
+    FederatedServiceMethodInvocationHandler handler = new FederatedByEntityIdsMethodInvocationHandlerImpl(
+        0, new CollectionResultMerger(), null);
+    List<String> results = (List<String>) handler.invoke(mockCollection, method, args);
+
+    Mockito.verify(serviceA).getValuesForIds(ids);
+    assertEquals(Arrays.asList("a_1", "a_2"), results);
+  }
+
+  private static Set<String> ids(String... ids) {
+    Set<String> values = new LinkedHashSet<String>();
+    Collections.addAll(values, ids);
+    return values;
+  }
 }
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 
 import org.onebusaway.federations.FederatedService;
 import org.onebusaway.federations.FederatedServiceCollection;
+import org.onebusaway.federations.FederatedServiceExecutor;
 import org.onebusaway.federations.SimpleFederatedService;
 import org.onebusaway.federations.impl.FederatedServiceCollectionImpl;
 
@@ -70,6 +71,40 @@ public class FederatedByAggregateMethodInvocationHandlerImplTest {
     assertEquals("d",results.get(4));
   }
   
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testListWithExecutor() throws Exception {
+
+    SimpleFederatedService mockServiceA = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(mockServiceA.getValuesAsList()).thenReturn(Arrays.asList("a","b"));
+    
+    SimpleFederatedService mockServiceB = Mockito.mock(SimpleFederatedService.class);
+    Mockito.when(mockServiceB.getValuesAsList()).thenReturn(Arrays.asList("c"));
+    
+    Set<FederatedService> services = new HashSet<FederatedService>();
+    services.add(mockServiceA);
+    services.add(mockServiceB);
+    
+    FederatedServiceCollection mockCollection = Mockito.mock(FederatedServiceCollectionImpl.class);
+    Mockito.when(mockCollection.getAllServices()).thenReturn(services);
+
+    Method method = SimpleFederatedService.class.getDeclaredMethod("getValuesAsList");
+
+    FederatedServiceExecutor executor = new FederatedServiceExecutor();
+    FederatedServiceMethodInvocationHandler handler = new FederatedByAggregateMethodInvocationHandlerImpl(EMethodAggregationType.LIST, executor);
+    List<String> results = (List<String>) handler.invoke(mockCollection, method, new Object[] {});
+    executor.stop();
+
+    Mockito.verify(mockServiceA).getValuesAsList();
+    Mockito.verify(mockServiceB).getValuesAsList();
+
+    assertEquals(3,results.size());
+    Collections.sort(results);
+    assertEquals("a",results.get(0));
+    assertEquals("b",results.get(1));
+    assertEquals("c",results.get(2));
+  }
+  
   @SuppressWarnings("unchecked")
   @Test
   public void testMap() throws Exception {
@@ -16,6 +16,8 @@
 package org.onebusaway.federations.annotations;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.onebusaway.federations.CoordinateBoundsTestBean;
 import org.onebusaway.federations.SimpleFederatedService;
@@ -76,6 +78,18 @@ public class FederatedServiceMethodInvocationHandlerFactoryTest {
     FederatedServiceMethodInvocationHandler handler = _factory.getHandlerForMethod(method);
     FederatedByEntityIdsMethodInvocationHandlerImpl impl = (FederatedByEntityIdsMethodInvocationHandlerImpl) handler;
     assertEquals(0, impl.getArgumentIndex());
+    assertNull(impl.getMerger());
+  }
+
+  @Test
+  public void testGetValuesForIds() throws SecurityException,
+      NoSuchMethodException {
+    Method method = SimpleFederatedService.class.getDeclaredMethod(
+        "getValuesForIds", Set.class);
+    FederatedServiceMethodInvocationHandler handler = _factory.getHandlerForMethod(method);
+    FederatedByEntityIdsMethodInvocationHandlerImpl impl = (FederatedByEntityIdsMethodInvocationHandlerImpl) handler;
+    assertEquals(0, impl.getArgumentIndex());
+    assertTrue(impl.getMerger() instanceof CollectionResultMerger);
   }
 
   @Test
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.federations.hessian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.servlet.Context;
+import org.mortbay.jetty.servlet.ServletHolder;
+import org.onebusaway.federations.SimpleFederatedService;
+import org.onebusaway.federations.impl.SimpleFederatedServiceImpl;
+import org.onebusaway.geospatial.model.CoordinateBounds;
+
+import com.caucho.hessian.client.HessianConnectionException;
+import com.caucho.hessian.server.HessianServlet;
+
+public class HessianTransportProxyFactoryTest {
+
+  private static final int PORT = 9998;
+
+  private static final String URL = "http://localhost:" + PORT
+      + "/service/service";
+
+  private Server _server;
+
+  private HessianTransportProxyFactory _factory;
+
+  @Before
+  public void start() throws Exception {
+
+    Map<String, List<CoordinateBounds>> agencies = new HashMap<String, List<CoordinateBounds>>();
+    agencies.put("A", Arrays.asList(new CoordinateBounds(0, 0, 10, 10)));
+
+    SimpleFederatedServiceImpl service = new SimpleFederatedServiceImpl(
+        agencies, "A") {
+      @Override
+      public String getValueForLocation(double lat, double lon) {
+        try {
+          Thread.sleep(2000);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        return super.getValueForLocation(lat, lon);
+      }
+    };
+
+    HessianServlet servlet = new HessianServlet();
+    servlet.setHome(service);
+    servlet.setHomeAPI(SimpleFederatedService.class);
+
+    _server = new Server(PORT);
+    Context context = new Context(_server, "/service", Context.SESSIONS);
+    context.addFilter(HessianCompressionFilter.class, "/*", Handler.DEFAULT);
+    context.addServlet(new ServletHolder(servlet), "/*");
+    _server.start();
+
+    _factory = new HessianTransportProxyFactory();
+  }
+
+  @After
+  public void stop() throws Exception {
+    _factory.stop();
+    _server.stop();
+  }
+
+  @Test
+  public void testCall() throws Exception {
+
+    SimpleFederatedService service = (SimpleFederatedService) _factory.create(
+        SimpleFederatedService.class, URL);
+
+    assertEquals("A", service.getValueForId("1"));
+    assertEquals("A", service.getValueForId("2"));
+    assertEquals(1,
+        service.getAgencyIdsWithCoverageArea().get("A").size());
+
+    HessianTransportStats stats = _factory.getStatsByMethod().get(
+        "getValueForId");
+    assertEquals(2, stats.getCallCount());
+    assertEquals(0, stats.getErrorCount());
+    assertTrue(stats.getRequestBytes() > 0);
+    assertTrue(stats.getResponseBytes() > 0);
+  }
+
+  @Test
+  public void testCompression() throws Exception {
+
+    _factory.setCompressRequests(true);
+
+    SimpleFederatedService service = (SimpleFederatedService) _factory.create(
+        SimpleFederatedService.class, URL);
+
+    Set<String> ids = new LinkedHashSet<String>();
+    for (int i = 0; i < 5000; i++)
+      ids.add("entity-id-" + i);
+
+    List<String> values = service.getValuesForIds(ids);
+    assertEquals(new ArrayList<String>(ids), values);
+
+    /**
+     * The ids are over 70k uncompressed, in both directions
+     */
+    HessianTransportStats stats = _factory.getStatsByMethod().get(
+        "getValuesForIds");
+    assertEquals(1, stats.getCallCount());
+    assertTrue(stats.getRequestBytes() < 35000);
+    assertTrue(stats.getResponseBytes() < 35000);
+  }
+
+  @Test
+  public void testDeadline() throws Exception {
+
+    Map<String, Long> methodTimeouts = new HashMap<String, Long>();
+    methodTimeouts.put("getValueForLocation", 200L);
+    _factory.setMethodTimeouts(methodTimeouts);
+
+    SimpleFederatedService service = (SimpleFederatedService) _factory.create(
+        SimpleFederatedService.class, URL);
+
+    long t1 = System.currentTimeMillis();
+    try {
+      service.getValueForLocation(1, 1);
+      fail();
+    } catch (HessianConnectionException ex) {
+
+    }
+    assertTrue(System.currentTimeMillis() - t1 < 1500);
+
+    HessianTransportStats stats = _factory.getStatsByMethod().get(
+        "getValueForLocation");
+    assertEquals(1, stats.getCallCount());
+    assertEquals(1, stats.getErrorCount());
+    assertEquals(1, stats.getDeadlineExceededCount());
+
+    // Other methods are unaffected
+    assertEquals("A", service.getValueForId("1"));
+  }
+
+  @Test
+  public void testMBeanServer() throws Exception {
+
+    MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+    _factory.setMbeanServer(mbeanServer);
+    _factory.setName("test");
+
+    SimpleFederatedService service = (SimpleFederatedService) _factory.create(
+        SimpleFederatedService.class, URL);
+    service.getValueForId("1");
+
+    ObjectName name = new ObjectName(
+        "org.onebusaway.federations.hessian:type=HessianTransportStats,name=\"test\",method=\"getValueForId\"");
+    assertEquals(1L, mbeanServer.getAttribute(name, "CallCount"));
+
+    _factory.stop();
+    assertFalse(mbeanServer.isRegistered(name));
+  }
+}
@@ -15,6 +15,7 @@
  */
 package org.onebusaway.federations.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -71,6 +72,11 @@ public class SimpleFederatedServiceImpl implements SimpleFederatedService {
     return _value;
   }
 
+  @Override
+  public List<String> getValuesForIds(Set<String> entityIds) {
+    return new ArrayList<String>(entityIds);
+  }
+
   @Override
   public String getValueForLocation(double lat, double lon) {
     return _value;
@@ -15,27 +15,66 @@
  */
 package org.onebusaway.presentation.impl.transit_data;
 
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import javax.annotation.PostConstruct;
 
 import net.sf.ehcache.Cache;
 
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.onebusaway.container.cache.CacheableMethodManager;
 import org.onebusaway.transit_data.model.ArrivalsAndDeparturesQueryBean;
+import org.onebusaway.transit_data.services.ECachePolicy;
+import org.onebusaway.transit_data.services.TransitDataCachePolicy;
 import org.onebusaway.transit_data.services.TransitDataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
  * To reduce the load on the {@link TransitDataService}, we can
  * opportunistically cache a lot of stuff on the client side.
- * 
+ *
+ * Any {@link TransitDataService} method annotated with
+ * {@link TransitDataCachePolicy} is cached, using the method arguments as the
+ * cache key. {@link ECachePolicy#STATIC} results are cached for the static
+ * cache time-to-live, while {@link ECachePolicy#REALTIME} results are only
+ * cached for the arrival and departure cache window.
+ *
+ * Since static results are only valid for the transit data bundle that
+ * produced them, we periodically check
+ * {@link TransitDataService#getActiveBundleId()} and clear all caches when the
+ * active bundle changes.
+ *
+ * Per-method hit and miss counts are exported through JMX.
+ *
  * @author bdferris
  */
 @Aspect
+@ManagedResource("org.onebusaway.presentation.impl.transit_data:name=TransitDataServiceCachingInterceptor")
 public class TransitDataServiceCachingInterceptor extends
     CacheableMethodManager {
 
+  private static Logger _log = LoggerFactory.getLogger(TransitDataServiceCachingInterceptor.class);
+
+  /**
+   * Cache policies for annotated {@link TransitDataService} methods, keyed by
+   * method signature
+   */
+  private final Map<String, ECachePolicy> _policiesByMethod = new HashMap<String, ECachePolicy>();
+
   /**
    * Time, in seconds, that arrival and departure records should be cached
    */
@@ -46,16 +85,70 @@ public class TransitDataServiceCachingInterceptor extends
    */
   private int _arrivalAndDepartureCacheSize = 5000;
 
+  /**
+   * Time, in seconds, that static records should be cached
+   */
+  private int _staticCacheTimeToLive = 60 * 60;
+
+  /**
+   * Number of static records per method that should be kept in cache memory
+   */
+  private int _staticCacheSize = 1000;
+
+  /**
+   * Time, in seconds, between checks for a change of active bundle
+   */
+  private int _bundleCheckInterval = 60;
+
+  private ScheduledExecutorService _executor;
+
+  /**
+   * The underlying service, captured from the first cached call, so that we
+   * can check the active bundle without going back through the interceptor
+   */
+  private volatile TransitDataService _transitDataService;
+
+  private volatile String _activeBundleId;
+
+  public TransitDataServiceCachingInterceptor() {
+    for (Method method : TransitDataService.class.getMethods()) {
+      TransitDataCachePolicy policy = method.getAnnotation(TransitDataCachePolicy.class);
+      if (policy != null)
+        _policiesByMethod.put(
+            getMethodKey(method.getName(), method.getParameterTypes()),
+            policy.value());
+    }
+  }
+
   @PostConstruct
   public void setup() {
     _cacheableMethodKeyFactoryManager.addCacheableObjectKeyFactory(
         ArrivalsAndDeparturesQueryBean.class,
         new ArrivalsAndDeparturesQueryBeanCacheableObjectKeyFactory(
             _arrivalAndDepartureCacheWindow));
+
+    if (_bundleCheckInterval > 0) {
+      _executor = Executors.newSingleThreadScheduledExecutor(new BundleCheckThreadFactory());
+      _executor.scheduleWithFixedDelay(new BundleCheckTask(),
+          _bundleCheckInterval, _bundleCheckInterval, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Also called on {@link javax.annotation.PreDestroy}, through
+   * {@link CacheableMethodManager#stop()}
+   */
+  @Override
+  public synchronized void stop() {
+    if (_executor != null) {
+      _executor.shutdownNow();
+      _executor = null;
+    }
+    super.stop();
   }
 
   /**
-   * 
+   *
    * @param arrivalAndDepartureCacheWindow in seconds
    */
   public void setArrivalAndDepartureCacheWindow(
@@ -67,50 +160,131 @@ public class TransitDataServiceCachingInterceptor extends
     _arrivalAndDepartureCacheSize = arrivalAndDepartureCacheSize;
   }
 
-  @Around("execution(* org.onebusaway.transit_data.services.TransitDataService.getRoute(..))")
-  public Object getRoute(ProceedingJoinPoint pjp) throws Throwable {
-    return evaluate(pjp);
+  /**
+   *
+   * @param staticCacheTimeToLive in seconds
+   */
+  public void setStaticCacheTimeToLive(int staticCacheTimeToLive) {
+    _staticCacheTimeToLive = staticCacheTimeToLive;
   }
 
-  @Around("execution(* org.onebusaway.transit_data.services.TransitDataService.getStop(..))")
-  public Object getStop(ProceedingJoinPoint pjp) throws Throwable {
-    return evaluate(pjp);
+  public void setStaticCacheSize(int staticCacheSize) {
+    _staticCacheSize = staticCacheSize;
   }
 
-  @Around("execution(* org.onebusaway.transit_data.services.TransitDataService.getStopsForRoute(..))")
-  public Object getStopsForRoute(ProceedingJoinPoint pjp) throws Throwable {
-    return evaluate(pjp);
+  /**
+   *
+   * @param bundleCheckInterval in seconds, or zero to disable checking for a
+   *          change of active bundle
+   */
+  public void setBundleCheckInterval(int bundleCheckInterval) {
+    _bundleCheckInterval = bundleCheckInterval;
   }
 
-  @Around("execution(* org.onebusaway.transit_data.services.TransitDataService.getSingleTripDetails(..))")
-  public Object getSingleTripDetails(ProceedingJoinPoint pjp) throws Throwable {
-    return evaluate(pjp);
+  @ManagedAttribute
+  public String getActiveBundleId() {
+    return _activeBundleId;
   }
 
-  @Around("execution(* org.onebusaway.transit_data.services.TransitDataService.getStopWithArrivalsAndDepartures(..))")
-  public Object getStopWithArrivalsAndDepartures(ProceedingJoinPoint pjp)
+  @Around("execution(* org.onebusaway.transit_data.services.TransitDataService.*(..))")
+  public Object evaluateTransitDataServiceMethod(ProceedingJoinPoint pjp)
       throws Throwable {
+
+    if (getCachePolicy(pjp) == null)
+      return pjp.proceed();
+
+    /**
+     * Record the active bundle before anything is cached, so results from the
+     * current bundle are cleared when it changes
+     */
+    if (_transitDataService == null) {
+      _transitDataService = (TransitDataService) pjp.getTarget();
+      new BundleCheckTask().run();
+    }
+
     return evaluate(pjp);
   }
 
+  /**
+   * Clears all caches if the active bundle of the underlying
+   * {@link TransitDataService} has changed since the last check
+   */
+  public void checkActiveBundle() {
+
+    TransitDataService service = _transitDataService;
+    if (service == null)
+      return;
+
+    String bundleId = service.getActiveBundleId();
+    String previousBundleId = _activeBundleId;
+    _activeBundleId = bundleId;
+
+    if (previousBundleId != null && !previousBundleId.equals(bundleId)) {
+      _log.info("active bundle changed from " + previousBundleId + " to "
+          + bundleId + ": clearing transit data caches");
+      clearCaches();
+    }
+  }
+
   @Override
   protected Cache createCache(ProceedingJoinPoint pjp, String name) {
 
-    if (name.equals("org.onebusaway.transit_data.services.TransitDataService.getStopWithArrivalsAndDepartures")) {
+    if (getCachePolicy(pjp) == ECachePolicy.REALTIME) {
       // _arrivalAndDepartureCacheSize elements in memory
-      // do overflow to disk
+      // no overflow to disk
       // not eternal
       // max lifetime is the arrival and departure cache window
       // max idle-time is the arrival and departure cache window
-      return new Cache(name, _arrivalAndDepartureCacheSize, true, false,
+      return new Cache(name, _arrivalAndDepartureCacheSize, false, false,
           _arrivalAndDepartureCacheWindow, _arrivalAndDepartureCacheWindow);
     }
 
-    // 1000 elements in memory
-    // overflow to disk
+    // _staticCacheSize elements in memory
+    // no overflow to disk: every region is flushed on a bundle change, and
+    // evicted static results are cheaper to fetch again than to spool
     // not eternal
-    // max lifetime is an hour
-    // max idle-time is an hour
-    return new Cache(name, 1000, true, false, 60 * 60, 60 * 60);
+    // max lifetime is the static cache time-to-live
+    // max idle-time is the static cache time-to-live
+    return new Cache(name, _staticCacheSize, false, false,
+        _staticCacheTimeToLive, _staticCacheTimeToLive);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private ECachePolicy getCachePolicy(ProceedingJoinPoint pjp) {
+    Signature sig = pjp.getSignature();
+    if (!(sig instanceof MethodSignature))
+      return null;
+    Method method = ((MethodSignature) sig).getMethod();
+    return _policiesByMethod.get(getMethodKey(method.getName(),
+        method.getParameterTypes()));
+  }
+
+  private static String getMethodKey(String name, Class<?>[] parameterTypes) {
+    return name + Arrays.toString(parameterTypes);
+  }
+
+  private class BundleCheckTask implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        checkActiveBundle();
+      } catch (Throwable ex) {
+        _log.warn("error checking active bundle", ex);
+      }
+    }
+  }
+
+  private static class BundleCheckThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "TransitDataServiceCachingInterceptor");
+      thread.setDaemon(true);
+      return thread;
+    }
   }
 }
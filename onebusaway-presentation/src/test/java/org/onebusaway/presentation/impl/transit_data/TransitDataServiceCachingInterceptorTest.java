@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.presentation.impl.transit_data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.ehcache.CacheManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.container.cache.CacheableMethodKeyFactoryManager;
+import org.onebusaway.transit_data.model.AgencyBean;
+import org.onebusaway.transit_data.services.TransitDataService;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+public class TransitDataServiceCachingInterceptorTest {
+
+  private CacheManager _cacheManager;
+
+  private TransitDataServiceCachingInterceptor _interceptor;
+
+  private StubTransitDataService _stub;
+
+  private TransitDataService _service;
+
+  @Before
+  public void setup() {
+
+    _cacheManager = new CacheManager();
+
+    _interceptor = new TransitDataServiceCachingInterceptor();
+    _interceptor.setCacheManager(_cacheManager);
+    _interceptor.setCacheableMethodKeyFactoryManager(new CacheableMethodKeyFactoryManager());
+    _interceptor.setBundleCheckInterval(0);
+    _interceptor.setup();
+
+    _stub = new StubTransitDataService("bundleA");
+
+    AspectJProxyFactory factory = new AspectJProxyFactory(
+        Proxy.newProxyInstance(TransitDataService.class.getClassLoader(),
+            new Class<?>[] {TransitDataService.class}, _stub));
+    factory.addAspect(_interceptor);
+    _service = factory.getProxy();
+  }
+
+  @After
+  public void teardown() {
+    _interceptor.stop();
+    _cacheManager.shutdown();
+  }
+
+  @Test
+  public void testCachePolicy() throws Exception {
+
+    /**
+     * getAgency(String) is annotated with TransitDataCachePolicy
+     */
+    assertEquals("1", _service.getAgency("1").getId());
+    assertEquals("1", _service.getAgency("1").getId());
+    assertEquals(1, _stub.getCount("getAgency"));
+
+    assertEquals("2", _service.getAgency("2").getId());
+    assertEquals(2, _stub.getCount("getAgency"));
+
+    /**
+     * getActiveBundleId() is not annotated, so it always goes through
+     */
+    int count = _stub.getCount("getActiveBundleId");
+    _service.getActiveBundleId();
+    _service.getActiveBundleId();
+    assertEquals(count + 2, _stub.getCount("getActiveBundleId"));
+  }
+
+  @Test
+  public void testBundleChange() throws Exception {
+
+    _service.getAgency("1");
+    assertEquals("bundleA", _interceptor.getActiveBundleId());
+
+    /**
+     * No change of bundle, so the cache is kept
+     */
+    _interceptor.checkActiveBundle();
+    _service.getAgency("1");
+    assertEquals(1, _stub.getCount("getAgency"));
+
+    _stub.setActiveBundleId("bundleB");
+    _interceptor.checkActiveBundle();
+    assertEquals("bundleB", _interceptor.getActiveBundleId());
+
+    _service.getAgency("1");
+    assertEquals(2, _stub.getCount("getAgency"));
+
+    _service.getAgency("1");
+    assertEquals(2, _stub.getCount("getAgency"));
+  }
+
+  private static class StubTransitDataService implements InvocationHandler {
+
+    private final Map<String, Integer> _counts = new HashMap<String, Integer>();
+
+    private volatile String _activeBundleId;
+
+    public StubTransitDataService(String activeBundleId) {
+      _activeBundleId = activeBundleId;
+    }
+
+    public void setActiveBundleId(String activeBundleId) {
+      _activeBundleId = activeBundleId;
+    }
+
+    public synchronized int getCount(String methodName) {
+      Integer count = _counts.get(methodName);
+      return count == null ? 0 : count;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+
+      String name = method.getName();
+
+      synchronized (this) {
+        _counts.put(name, getCount(name) + 1);
+      }
+
+      if (name.equals("getActiveBundleId"))
+        return _activeBundleId;
+
+      if (name.equals("getAgency")) {
+        AgencyBean agency = new AgencyBean();
+        agency.setId((String) args[0]);
+        return agency;
+      }
+
+      if (name.equals("hashCode"))
+        return System.identityHashCode(proxy);
+      if (name.equals("equals"))
+        return proxy == args[0];
+      if (name.equals("toString"))
+        return "StubTransitDataService";
+
+      throw new UnsupportedOperationException(name);
+    }
+  }
+}
@@ -16,9 +16,14 @@
  */
 package org.onebusaway.transit_data_federation.bundle;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -28,9 +33,13 @@ import java.util.Set;
 import java.util.UUID;
 
 import org.onebusaway.collections.CollectionsLibrary;
+import org.onebusaway.collections.FactoryMap;
 import org.onebusaway.container.ContainerLibrary;
 import org.onebusaway.container.spring.PropertyOverrideConfigurer;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.services.GtfsRelationalDao;
 import org.onebusaway.transit_data_federation.bundle.model.GtfsBundle;
+import org.onebusaway.transit_data_federation.bundle.TaskGraphExecutor.TaskTiming;
 import org.onebusaway.transit_data_federation.bundle.model.TaskDefinition;
 import org.onebusaway.transit_data_federation.impl.DirectedGraph;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
@@ -55,6 +64,18 @@ import org.springframework.context.ConfigurableApplicationContext;
  * and disabled by passing {@link Stages} arguments to methods like
  * {@link #setStageToSkip(Stages)}. All stages are enabled by default.
  * 
+ * Tasks are run by a {@link TaskGraphExecutor}, which respects the before and
+ * after constraints of each {@link TaskDefinition}. By default tasks run one at
+ * a time, but independent tasks can be run concurrently with
+ * {@link #setTaskThreads(int)}. The name of each completed task is recorded in
+ * the {@value #TASK_PROGRESS_FILE} file of the output path, so that a failed
+ * build can be resumed with {@link #setResume(boolean)}. The {@value #GTFS_TASK}
+ * task is always run again on resume when GTFS is held in memory, since its
+ * only output is the contents of the in-memory {@link GtfsRelationalDao}. A
+ * per-task timing
+ * report is printed, and written to {@value #TASK_TIMINGS_FILE}, when the
+ * build completes.
+ * 
  * The build process is configured using Spring and additional context config
  * paths can be specified to add to the Spring container (see
  * {@link #setContextPaths(List)}). The core config is kept in the resource:
@@ -68,6 +89,12 @@ public class FederatedTransitDataBundleCreator {
 
   private static final String BUNDLE_RESOURCE = "classpath:org/onebusaway/transit_data_federation/bundle/application-context-bundle-creator.xml";
 
+  private static final String TASK_PROGRESS_FILE = "bundle-task-progress.txt";
+
+  private static final String TASK_TIMINGS_FILE = "bundle-task-timings.txt";
+
+  private static final String GTFS_TASK = "gtfs";
+
   private ConfigurableApplicationContext _context;
 
   private List<String> _contextPaths = new ArrayList<String>();
@@ -90,6 +117,12 @@ public class FederatedTransitDataBundleCreator {
 
   private String _bundleKey;
 
+  private int _taskThreads = 1;
+
+  private boolean _resume = false;
+
+  private Set<String> _completedTasks = Collections.emptySet();
+
   /**
    * 
    * @param context
@@ -150,6 +183,27 @@ public class FederatedTransitDataBundleCreator {
     _additionalBeanPropertyOverrides = props;
   }
 
+  /**
+   * Tasks must be safe to run concurrently with any task they aren't ordered
+   * against. Notably, this isn't true of tasks sharing a database-backed
+   * GtfsRelationalDao.
+   * 
+   * @param taskThreads the maximum number of tasks to run concurrently
+   */
+  public void setTaskThreads(int taskThreads) {
+    _taskThreads = taskThreads;
+  }
+
+  /**
+   * 
+   * @param resume if true, tasks completed by a previous build to the same
+   *          output path are skipped, except for the {@value #GTFS_TASK} task
+   *          when GTFS is loaded into an in-memory GtfsRelationalDao
+   */
+  public void setResume(boolean resume) {
+    _resume = resume;
+  }
+
   /**
    * Build the bundle!
    * 
@@ -162,6 +216,14 @@ public class FederatedTransitDataBundleCreator {
 
     _outputPath.mkdirs();
 
+    File progressFile = new File(_outputPath, TASK_PROGRESS_FILE);
+    if (_resume) {
+      _completedTasks = readCompletedTasks(progressFile);
+    } else {
+      _completedTasks = Collections.emptySet();
+      progressFile.delete();
+    }
+
     setSystemProperties();
 
     ConfigurableApplicationContext context = _context;
@@ -174,6 +236,9 @@ public class FederatedTransitDataBundleCreator {
       closeContextOnCompletion = true;
     }
 
+    if (_resume)
+      _completedTasks = getTasksToResumeAfter(context, _completedTasks);
+
     List<TaskDefinition> taskDefinitions = getTaskList(context);
     Set<String> taskNames = getReducedTaskList(taskDefinitions);
 
@@ -181,23 +246,33 @@ public class FederatedTransitDataBundleCreator {
     FederatedTransitDataBundle bundle = context.getBean(FederatedTransitDataBundle.class);
     clearExistingCacheFiles(bundle);
 
+    Map<String, List<String>> dependencies = getTaskDependencies(taskDefinitions);
+
+    TaskGraphExecutor executor = new TaskGraphExecutor();
+    executor.setThreads(_taskThreads);
+
     for (TaskDefinition def : taskDefinitions) {
       String taskName = def.getTaskName();
+      Runnable task = null;
       if (taskNames.contains(taskName)) {
-        System.out.println("== " + taskName + " =====>");
-        Runnable task = getTask(context, def.getTask(), def.getTaskBeanName());
+        task = getTask(context, def.getTask(), def.getTaskBeanName());
         if (task == null)
           throw new IllegalStateException("unknown task bean with name: "
               + taskName);
-        task.run();
+        task = new TaskWrapper(taskName, task, progressFile);
       } else {
-        Runnable task = getTask(context, def.getTaskWhenSkipped(),
+        task = getTask(context, def.getTaskWhenSkipped(),
             def.getTaskWhenSkippedBeanName());
-        if (task != null) {
-          System.out.println("== skipping " + taskName + " =====>");
-          task.run();
-        }
+        if (task != null)
+          task = new TaskWrapper("skipping " + taskName, task, null);
       }
+      executor.addTask(taskName, task, dependencies.get(taskName));
+    }
+
+    try {
+      executor.run();
+    } finally {
+      writeTimingReport(executor);
     }
 
     // We don't need this context anymore
@@ -234,6 +309,8 @@ public class FederatedTransitDataBundleCreator {
   }
 
   private boolean isDatabaseResetNeeded() {
+    if (_completedTasks.contains("start"))
+      return false;
     if (_skipToTask != null)
       return "start".equals(_skipToTask);
     if (!_onlyTasks.isEmpty())
@@ -339,6 +416,54 @@ public class FederatedTransitDataBundleCreator {
     return taskDefinitionsInOrder;
   }
 
+  /**
+   * The {@value #GTFS_TASK} task only fills the GtfsRelationalDao. When that
+   * dao is held in memory, its contents were lost with the previous build, so
+   * we run the task again instead of leaving every later task an empty dao.
+   */
+  private Set<String> getTasksToResumeAfter(ApplicationContext context,
+      Set<String> completedTasks) {
+
+    if (!completedTasks.contains(GTFS_TASK))
+      return completedTasks;
+
+    Map<String, GtfsRelationalDao> daos = context.getBeansOfType(GtfsRelationalDao.class);
+    for (GtfsRelationalDao dao : daos.values()) {
+      if (dao instanceof GtfsRelationalDaoImpl) {
+        System.out.println("== gtfs is held in memory, so " + GTFS_TASK
+            + " will run again =====>");
+        Set<String> tasks = new HashSet<String>(completedTasks);
+        tasks.remove(GTFS_TASK);
+        return tasks;
+      }
+    }
+
+    return completedTasks;
+  }
+
+  private Map<String, List<String>> getTaskDependencies(
+      List<TaskDefinition> taskDefinitions) {
+
+    Map<String, List<String>> dependencies = new FactoryMap<String, List<String>>(
+        new ArrayList<String>());
+
+    for (TaskDefinition taskDefinition : taskDefinitions) {
+
+      String taskName = taskDefinition.getTaskName();
+      dependencies.get(taskName);
+
+      String before = taskDefinition.getBeforeTaskName();
+      if (before != null)
+        dependencies.get(before).add(taskName);
+
+      List<String> afters = taskDefinition.getAfterTaskNames();
+      if (!CollectionsLibrary.isEmpty(afters))
+        dependencies.get(taskName).addAll(afters);
+    }
+
+    return dependencies;
+  }
+
   private Map<String, TaskDefinition> getTaskDefinitionsByName(
       Map<String, TaskDefinition> taskDefinitions) {
     Map<String, TaskDefinition> taskDefinitionsByTaskName = new HashMap<String, TaskDefinition>();
@@ -395,6 +520,7 @@ public class FederatedTransitDataBundleCreator {
       tasks.retainAll(_onlyTasks);
 
     tasks.removeAll(_skipTasks);
+    tasks.removeAll(_completedTasks);
 
     return new HashSet<String>(tasks);
   }
@@ -403,4 +529,101 @@ public class FederatedTransitDataBundleCreator {
     return _onlyTasks.contains(taskDef.getTaskName())
         || _includeTasks.contains(taskDef.getTaskName()) || taskDef.isEnabled();
   }
+
+  private Set<String> readCompletedTasks(File progressFile) throws IOException {
+
+    Set<String> completedTasks = new HashSet<String>();
+
+    if (!progressFile.exists())
+      return completedTasks;
+
+    BufferedReader reader = new BufferedReader(new FileReader(progressFile));
+    try {
+      String line = null;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0)
+          completedTasks.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+
+    if (!completedTasks.isEmpty())
+      System.out.println("== resuming after completed tasks: "
+          + completedTasks);
+
+    return completedTasks;
+  }
+
+  private synchronized void recordCompletedTask(File progressFile,
+      String taskName) {
+    try {
+      PrintWriter writer = new PrintWriter(new FileWriter(progressFile, true));
+      writer.println(taskName);
+      writer.close();
+    } catch (IOException ex) {
+      throw new IllegalStateException("error recording completed task: "
+          + taskName, ex);
+    }
+  }
+
+  private void writeTimingReport(TaskGraphExecutor executor) throws IOException {
+
+    List<TaskTiming> timings = executor.getTimings();
+    if (timings.isEmpty())
+      return;
+
+    long totalTaskTime = 0;
+    for (TaskTiming timing : timings)
+      totalTaskTime += timing.getDuration();
+
+    PrintWriter writer = new PrintWriter(new FileWriter(new File(_outputPath,
+        TASK_TIMINGS_FILE)));
+    try {
+      writer.println("task\tstart(ms)\tduration(ms)\tthread");
+      System.out.println("== task timings =====>");
+      for (TaskTiming timing : timings) {
+        writer.println(timing.getTaskName() + "\t" + timing.getStartTime()
+            + "\t" + timing.getDuration() + "\t" + timing.getThreadName());
+        System.out.println(timing.getTaskName() + ": start="
+            + timing.getStartTime() + "ms duration=" + timing.getDuration()
+            + "ms thread=" + timing.getThreadName());
+      }
+      System.out.println("wallTime=" + executor.getWallTime()
+          + "ms totalTaskTime=" + totalTaskTime + "ms");
+    } finally {
+      writer.close();
+    }
+  }
+
+  private class TaskWrapper implements Runnable {
+
+    private final String _label;
+
+    private final Runnable _task;
+
+    private final File _progressFile;
+
+    /**
+     * 
+     * @param label
+     * @param task
+     * @param progressFile if not null, the file where task completion is
+     *          recorded
+     */
+    public TaskWrapper(String label, Runnable task, File progressFile) {
+      _label = label;
+      _task = task;
+      _progressFile = progressFile;
+    }
+
+    @Override
+    public void run() {
+      System.out.println("== " + _label + " =====>");
+      _task.run();
+      if (_progressFile != null)
+        recordCompletedTask(_progressFile, _label);
+    }
+  }
 }
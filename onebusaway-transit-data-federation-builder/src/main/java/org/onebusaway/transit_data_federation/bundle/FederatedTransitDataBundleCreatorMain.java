@@ -85,6 +85,10 @@ public class FederatedTransitDataBundleCreatorMain {
 
   private static final String ARG_OSM = "osm";
 
+  private static final String ARG_TASK_THREADS = "taskThreads";
+
+  private static final String ARG_RESUME = "resume";
+
   public static void main(String[] args) throws Exception {
     System.out.println(System.getProperties());
     FederatedTransitDataBundleCreatorMain main = new FederatedTransitDataBundleCreatorMain();
@@ -173,6 +177,14 @@ public class FederatedTransitDataBundleCreatorMain {
       if (commandLine.hasOption(ARG_RANDOMIZE_CACHE_DIR))
         creator.setRandomizeCacheDir(true);
 
+      if (commandLine.hasOption(ARG_TASK_THREADS)) {
+        int taskThreads = Integer.parseInt(commandLine.getOptionValue(ARG_TASK_THREADS));
+        creator.setTaskThreads(taskThreads);
+      }
+
+      if (commandLine.hasOption(ARG_RESUME))
+        creator.setResume(true);
+
       if (commandLine.hasOption(ARG_BUNDLE_KEY)) {
         String key = commandLine.getOptionValue(ARG_BUNDLE_KEY);
         creator.setBundleKey(key);
@@ -243,6 +255,8 @@ public class FederatedTransitDataBundleCreatorMain {
     options.addOption(ARG_RANDOMIZE_CACHE_DIR, false, "");
     options.addOption(ARG_ADDITIONAL_RESOURCES_DIRECTORY, true, "");
     options.addOption(ARG_OSM, true, "");
+    options.addOption(ARG_TASK_THREADS, true, "");
+    options.addOption(ARG_RESUME, false, "");
 
     Option dOption = new Option("D", "use value for given property");
     dOption.setArgName("property=value");
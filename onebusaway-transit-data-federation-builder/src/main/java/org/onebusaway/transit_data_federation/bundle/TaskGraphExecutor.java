@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.bundle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a graph of bundle building tasks on a thread pool, starting each task
+ * once all the tasks it depends on have completed. Independent tasks run
+ * concurrently, up to {@link #setThreads(int)} at a time, so the total build
+ * time approaches the length of the longest chain of dependent tasks.
+ * 
+ * When more tasks are ready to run than there are free threads, tasks are
+ * started in the order they were added. With a single thread, tasks run one at
+ * a time in exactly the order they were added, so adding tasks in topological
+ * order reproduces a sequential build.
+ * 
+ * If a task fails, no further tasks are started, and the failure is rethrown
+ * from {@link #run()} once running tasks have finished.
+ * 
+ * @author bdferris
+ * @see FederatedTransitDataBundleCreator
+ */
+public class TaskGraphExecutor {
+
+  private final Map<String, TaskNode> _nodes = new LinkedHashMap<String, TaskNode>();
+
+  private int _threads = 1;
+
+  private final List<TaskTiming> _timings = Collections.synchronizedList(new ArrayList<TaskTiming>());
+
+  private long _wallTime = 0;
+
+  /**
+   * 
+   * @param threads the maximum number of tasks run concurrently
+   */
+  public void setThreads(int threads) {
+    _threads = threads;
+  }
+
+  /**
+   * 
+   * @param taskName
+   * @param task the task to run, or null if the task is a no-op that only
+   *          orders other tasks
+   * @param dependencies the names of tasks that must complete before this task
+   *          starts
+   */
+  public void addTask(String taskName, Runnable task,
+      Collection<String> dependencies) {
+    if (_nodes.containsKey(taskName))
+      throw new IllegalArgumentException("duplicate task: name=" + taskName);
+    _nodes.put(taskName, new TaskNode(taskName, _nodes.size(), task,
+        dependencies));
+  }
+
+  /**
+   * Runs all tasks, respecting their dependencies
+   * 
+   * @throws UnknownTaskException if a task depends on a task that was not added
+   */
+  public void run() throws UnknownTaskException {
+
+    Map<String, List<TaskNode>> dependents = new HashMap<String, List<TaskNode>>();
+    PriorityQueue<TaskNode> ready = new PriorityQueue<TaskNode>();
+
+    for (TaskNode node : _nodes.values()) {
+      for (String dependency : node.getDependencies()) {
+        if (!_nodes.containsKey(dependency))
+          throw new UnknownTaskException(dependency);
+        List<TaskNode> nodes = dependents.get(dependency);
+        if (nodes == null) {
+          nodes = new ArrayList<TaskNode>();
+          dependents.put(dependency, nodes);
+        }
+        nodes.add(node);
+      }
+      if (node.getRemainingDependencies() == 0)
+        ready.add(node);
+    }
+
+    int threads = Math.max(_threads, 1);
+    _timings.clear();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new TaskThreadFactory());
+    CompletionService<TaskNode> completionService = new ExecutorCompletionService<TaskNode>(
+        executor);
+
+    long tStart = System.currentTimeMillis();
+    int running = 0;
+    int completed = 0;
+    Throwable failure = null;
+
+    try {
+      while (true) {
+
+        while (failure == null && running < threads && !ready.isEmpty()) {
+          completionService.submit(new TaskCall(ready.poll(), tStart));
+          running++;
+        }
+
+        if (running == 0)
+          break;
+
+        Future<TaskNode> future = completionService.take();
+        running--;
+
+        try {
+          TaskNode node = future.get();
+          completed++;
+          List<TaskNode> nodes = dependents.get(node.getName());
+          if (nodes != null) {
+            for (TaskNode dependent : nodes) {
+              if (dependent.decrementRemainingDependencies() == 0)
+                ready.add(dependent);
+            }
+          }
+        } catch (ExecutionException ex) {
+          if (failure == null)
+            failure = ex.getCause();
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted running tasks", ex);
+    } finally {
+      executor.shutdownNow();
+      _wallTime = System.currentTimeMillis() - tStart;
+    }
+
+    if (failure != null) {
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+      if (failure instanceof Error)
+        throw (Error) failure;
+      throw new IllegalStateException(failure);
+    }
+
+    if (completed < _nodes.size())
+      throw new IllegalStateException("task dependency cycle detected");
+  }
+
+  /**
+   * 
+   * @return timings for each task that was run, in order of completion
+   */
+  public List<TaskTiming> getTimings() {
+    synchronized (_timings) {
+      return new ArrayList<TaskTiming>(_timings);
+    }
+  }
+
+  /**
+   * 
+   * @return the elapsed time of the last call to {@link #run()}, in ms
+   */
+  public long getWallTime() {
+    return _wallTime;
+  }
+
+  /**
+   * Timing of a single task, relative to the start of the run
+   */
+  public static class TaskTiming {
+
+    private final String _taskName;
+
+    private final long _startTime;
+
+    private final long _duration;
+
+    private final String _threadName;
+
+    public TaskTiming(String taskName, long startTime, long duration,
+        String threadName) {
+      _taskName = taskName;
+      _startTime = startTime;
+      _duration = duration;
+      _threadName = threadName;
+    }
+
+    public String getTaskName() {
+      return _taskName;
+    }
+
+    /**
+     * @return time the task started, in ms since the start of the run
+     */
+    public long getStartTime() {
+      return _startTime;
+    }
+
+    /**
+     * @return task duration, in ms
+     */
+    public long getDuration() {
+      return _duration;
+    }
+
+    public String getThreadName() {
+      return _threadName;
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private class TaskCall implements Callable<TaskNode> {
+
+    private final TaskNode _node;
+
+    private final long _tStart;
+
+    public TaskCall(TaskNode node, long tStart) {
+      _node = node;
+      _tStart = tStart;
+    }
+
+    @Override
+    public TaskNode call() {
+      Runnable task = _node.getTask();
+      if (task != null) {
+        long t1 = System.currentTimeMillis();
+        task.run();
+        long t2 = System.currentTimeMillis();
+        _timings.add(new TaskTiming(_node.getName(), t1 - _tStart, t2 - t1,
+            Thread.currentThread().getName()));
+      }
+      return _node;
+    }
+  }
+
+  private static class TaskNode implements Comparable<TaskNode> {
+
+    private final String _name;
+
+    private final int _index;
+
+    private final Runnable _task;
+
+    private final List<String> _dependencies;
+
+    private int _remainingDependencies;
+
+    public TaskNode(String name, int index, Runnable task,
+        Collection<String> dependencies) {
+      _name = name;
+      _index = index;
+      _task = task;
+      _dependencies = new ArrayList<String>(dependencies);
+      _remainingDependencies = _dependencies.size();
+    }
+
+    public String getName() {
+      return _name;
+    }
+
+    public Runnable getTask() {
+      return _task;
+    }
+
+    public List<String> getDependencies() {
+      return _dependencies;
+    }
+
+    public int getRemainingDependencies() {
+      return _remainingDependencies;
+    }
+
+    public int decrementRemainingDependencies() {
+      return --_remainingDependencies;
+    }
+
+    @Override
+    public int compareTo(TaskNode o) {
+      return _index - o._index;
+    }
+  }
+
+  private static class TaskThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger _count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "TaskGraphExecutor-"
+          + _count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -40,7 +40,13 @@ public class ShapePointHelper {
     _gtfsDao = gtfsDao;
   }
 
-  public ShapePoints getShapePointsForShapeId(AgencyAndId shapeId) {
+  /**
+   * Synchronized, since tasks that share the helper can run concurrently. This
+   * also serializes their use of the lazily-built shape point relation of the
+   * in-memory GtfsRelationalDao, which is not thread-safe.
+   */
+  public synchronized ShapePoints getShapePointsForShapeId(
+      AgencyAndId shapeId) {
 
     ShapePoints shapePoints = _cache.get(shapeId);
     if (shapePoints == null) {
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.transit_data_federation.bundle.model.TaskDefinition;
+import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.springframework.context.support.GenericApplicationContext;
+
+public class FederatedTransitDataBundleCreatorTest {
+
+  private File _outputPath;
+
+  private CountingTask _gtfsTask;
+
+  private CountingTask _aTask;
+
+  private CountingTask _bTask;
+
+  @Before
+  public void setup() throws IOException {
+    _outputPath = File.createTempFile(
+        "FederatedTransitDataBundleCreatorTest-", "");
+    _outputPath.delete();
+    _outputPath.mkdirs();
+
+    _gtfsTask = new CountingTask();
+    _aTask = new CountingTask();
+    _bTask = new CountingTask();
+  }
+
+  @After
+  public void teardown() {
+    deleteRecursively(_outputPath);
+  }
+
+  @Test
+  public void testResumeWithDatabase() throws Exception {
+
+    _bTask.setFailing(true);
+    runAndExpectFailure(createContext(false));
+
+    _bTask.setFailing(false);
+    run(createContext(false), true);
+
+    assertEquals(1, _gtfsTask.getCount());
+    assertEquals(1, _aTask.getCount());
+    assertEquals(2, _bTask.getCount());
+  }
+
+  @Test
+  public void testResumeWithInMemoryGtfs() throws Exception {
+
+    _bTask.setFailing(true);
+    runAndExpectFailure(createContext(true));
+
+    _bTask.setFailing(false);
+    run(createContext(true), true);
+
+    /**
+     * The in-memory dao doesn't survive the failed build, so gtfs runs again
+     */
+    assertEquals(2, _gtfsTask.getCount());
+    assertEquals(1, _aTask.getCount());
+    assertEquals(2, _bTask.getCount());
+  }
+
+  @Test
+  public void testWithoutResume() throws Exception {
+
+    run(createContext(true), false);
+    run(createContext(true), false);
+
+    assertEquals(2, _gtfsTask.getCount());
+    assertEquals(2, _aTask.getCount());
+    assertEquals(2, _bTask.getCount());
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private GenericApplicationContext createContext(boolean inMemoryGtfs) {
+
+    GenericApplicationContext context = new GenericApplicationContext();
+
+    context.getBeanFactory().registerSingleton("bundle",
+        new FederatedTransitDataBundle(_outputPath));
+
+    if (inMemoryGtfs)
+      context.getBeanFactory().registerSingleton("gtfsRelationalDaoImpl",
+          new GtfsRelationalDaoImpl());
+
+    context.getBeanFactory().registerSingleton("task_start",
+        createTask("start", null, new CountingTask()));
+    context.getBeanFactory().registerSingleton("task_gtfs",
+        createTask("gtfs", "start", _gtfsTask));
+    context.getBeanFactory().registerSingleton("task_a",
+        createTask("a", "gtfs", _aTask));
+    context.getBeanFactory().registerSingleton("task_b",
+        createTask("b", "a", _bTask));
+
+    context.refresh();
+    return context;
+  }
+
+  private TaskDefinition createTask(String taskName, String afterTaskName,
+      Runnable task) {
+    TaskDefinition def = new TaskDefinition();
+    def.setTaskName(taskName);
+    if (afterTaskName != null)
+      def.setAfterTaskName(afterTaskName);
+    def.setTask(task);
+    return def;
+  }
+
+  private void run(GenericApplicationContext context, boolean resume)
+      throws Exception {
+    FederatedTransitDataBundleCreator creator = new FederatedTransitDataBundleCreator();
+    creator.setContext(context);
+    creator.setOutputPath(_outputPath);
+    creator.setResume(resume);
+    try {
+      creator.run();
+    } finally {
+      context.close();
+    }
+  }
+
+  private void runAndExpectFailure(GenericApplicationContext context)
+      throws Exception {
+    try {
+      run(context, false);
+      fail();
+    } catch (IllegalStateException ex) {
+
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files)
+        deleteRecursively(child);
+    }
+    file.delete();
+  }
+
+  private static class CountingTask implements Runnable {
+
+    private int _count = 0;
+
+    private boolean _failing = false;
+
+    public void setFailing(boolean failing) {
+      _failing = failing;
+    }
+
+    public int getCount() {
+      return _count;
+    }
+
+    @Override
+    public void run() {
+      _count++;
+      if (_failing)
+        throw new IllegalStateException("task failed");
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.onebusaway.transit_data_federation.bundle.TaskGraphExecutor.TaskTiming;
+
+public class TaskGraphExecutorTest {
+
+  private final List<String> _runOrder = Collections.synchronizedList(new ArrayList<String>());
+
+  @Test
+  public void testSequentialOrder() throws Exception {
+
+    TaskGraphExecutor executor = new TaskGraphExecutor();
+    executor.addTask("a", new RecordingTask("a"), deps());
+    executor.addTask("b", new RecordingTask("b"), deps("a"));
+    executor.addTask("c", new RecordingTask("c"), deps("a"));
+    executor.addTask("d", new RecordingTask("d"), deps("b", "c"));
+    executor.run();
+
+    assertEquals(Arrays.asList("a", "b", "c", "d"), _runOrder);
+
+    List<TaskTiming> timings = executor.getTimings();
+    assertEquals(4, timings.size());
+    assertEquals("a", timings.get(0).getTaskName());
+  }
+
+  @Test
+  public void testIndependentTasksRunConcurrently() throws Exception {
+
+    /**
+     * b and c each wait for the other to start, so they can only complete if
+     * they run concurrently
+     */
+    CountDownLatch latch = new CountDownLatch(2);
+
+    TaskGraphExecutor executor = new TaskGraphExecutor();
+    executor.setThreads(2);
+    executor.addTask("a", new RecordingTask("a"), deps());
+    executor.addTask("b", new LatchTask("b", latch), deps("a"));
+    executor.addTask("c", new LatchTask("c", latch), deps("a"));
+    executor.addTask("d", new RecordingTask("d"), deps("b", "c"));
+    executor.run();
+
+    assertEquals(4, _runOrder.size());
+    assertEquals("a", _runOrder.get(0));
+    assertEquals("d", _runOrder.get(3));
+  }
+
+  @Test
+  public void testNullTask() throws Exception {
+
+    TaskGraphExecutor executor = new TaskGraphExecutor();
+    executor.addTask("a", null, deps());
+    executor.addTask("b", new RecordingTask("b"), deps("a"));
+    executor.run();
+
+    assertEquals(Arrays.asList("b"), _runOrder);
+    assertEquals(1, executor.getTimings().size());
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+
+    TaskGraphExecutor executor = new TaskGraphExecutor();
+    executor.setThreads(2);
+    executor.addTask("a", new RecordingTask("a"), deps());
+    executor.addTask("b", new Runnable() {
+      public void run() {
+        throw new IllegalStateException("b failed");
+      }
+    }, deps("a"));
+    executor.addTask("c", new RecordingTask("c"), deps("b"));
+
+    try {
+      executor.run();
+      fail();
+    } catch (IllegalStateException ex) {
+      assertEquals("b failed", ex.getMessage());
+    }
+
+    assertEquals(Arrays.asList("a"), _runOrder);
+  }
+
+  @Test
+  public void testUnknownDependency() throws Exception {
+
+    TaskGraphExecutor executor = new TaskGraphExecutor();
+    executor.addTask("a", new RecordingTask("a"), deps("b"));
+
+    try {
+      executor.run();
+      fail();
+    } catch (UnknownTaskException ex) {
+      assertEquals("b", ex.getTaskName());
+    }
+  }
+
+  @Test
+  public void testCycle() throws Exception {
+
+    TaskGraphExecutor executor = new TaskGraphExecutor();
+    executor.addTask("a", new RecordingTask("a"), deps("b"));
+    executor.addTask("b", new RecordingTask("b"), deps("a"));
+
+    try {
+      executor.run();
+      fail();
+    } catch (IllegalStateException ex) {
+      assertTrue(_runOrder.isEmpty());
+    }
+  }
+
+  private static List<String> deps(String... names) {
+    return Arrays.asList(names);
+  }
+
+  private class RecordingTask implements Runnable {
+
+    private final String _name;
+
+    public RecordingTask(String name) {
+      _name = name;
+    }
+
+    @Override
+    public void run() {
+      _runOrder.add(_name);
+    }
+  }
+
+  private class LatchTask extends RecordingTask {
+
+    private final CountDownLatch _latch;
+
+    public LatchTask(String name, CountDownLatch latch) {
+      super(name);
+      _latch = latch;
+    }
+
+    @Override
+    public void run() {
+      _latch.countDown();
+      try {
+        if (!_latch.await(10, TimeUnit.SECONDS))
+          throw new IllegalStateException("tasks did not run concurrently");
+      } catch (InterruptedException ex) {
+        throw new IllegalStateException(ex);
+      }
+      super.run();
+    }
+  }
+}
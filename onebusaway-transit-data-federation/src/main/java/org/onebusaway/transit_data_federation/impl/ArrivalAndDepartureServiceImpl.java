@@ -58,6 +58,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -100,37 +101,66 @@ class ArrivalAndDepartureServiceImpl implements ArrivalAndDepartureService {
   @Override
   public List<ArrivalAndDepartureInstance> getArrivalsAndDeparturesForStopInTimeRange(
       StopEntry stop, TargetTime targetTime, long fromTime, long toTime) {
+    Map<StopEntry, List<ArrivalAndDepartureInstance>> instancesByStop = getArrivalsAndDeparturesForStopsInTimeRange(
+        Collections.singleton(stop), targetTime, fromTime, toTime);
+    return instancesByStop.get(stop);
+  }
+
+  @Override
+  public Map<StopEntry, List<ArrivalAndDepartureInstance>> getArrivalsAndDeparturesForStopsInTimeRange(
+      Collection<StopEntry> stops, TargetTime targetTime, long fromTime,
+      long toTime) {
 
     // We add a buffer before and after to catch late and early buses
     Date fromTimeBuffered = new Date(fromTime - _blockStatusService.getRunningLateWindow() * 1000);
     Date toTimeBuffered = new Date(toTime + _blockStatusService.getRunningEarlyWindow() * 1000);
 
-    List<StopTimeInstance> stis = _stopTimeService.getStopTimeInstancesInTimeRange(
-        stop, fromTimeBuffered, toTimeBuffered,
-        EFrequencyStopTimeBehavior.INCLUDE_UNSPECIFIED);
-
     long frequencyOffsetTime = Math.max(targetTime.getTargetTime(), fromTime);
 
-    Map<BlockInstance, List<StopTimeInstance>> stisByBlockId = getStopTimeInstancesByBlockInstance(stis);
+    /**
+     * Block instances frequently serve several of the requested stops, so we
+     * only look up the real-time locations of each block instance once
+     */
+    Map<BlockInstance, List<BlockLocation>> locationsByBlockInstance = new HashMap<BlockInstance, List<BlockLocation>>();
 
-    List<ArrivalAndDepartureInstance> instances = new ArrayList<ArrivalAndDepartureInstance>();
+    Map<StopEntry, List<ArrivalAndDepartureInstance>> instancesByStop = new HashMap<StopEntry, List<ArrivalAndDepartureInstance>>();
 
-    for (Map.Entry<BlockInstance, List<StopTimeInstance>> entry : stisByBlockId.entrySet()) {
+    for (StopEntry stop : stops) {
 
-      BlockInstance blockInstance = entry.getKey();
-      List<BlockLocation> locations = _blockLocationService.getLocationsForBlockInstance(
-          blockInstance, targetTime);
+      if (instancesByStop.containsKey(stop))
+        continue;
+
+      List<StopTimeInstance> stis = _stopTimeService.getStopTimeInstancesInTimeRange(
+          stop, fromTimeBuffered, toTimeBuffered,
+          EFrequencyStopTimeBehavior.INCLUDE_UNSPECIFIED);
+
+      Map<BlockInstance, List<StopTimeInstance>> stisByBlockId = getStopTimeInstancesByBlockInstance(stis);
+
+      List<ArrivalAndDepartureInstance> instances = new ArrayList<ArrivalAndDepartureInstance>();
+
+      for (Map.Entry<BlockInstance, List<StopTimeInstance>> entry : stisByBlockId.entrySet()) {
 
-      List<StopTimeInstance> stisForBlock = entry.getValue();
+        BlockInstance blockInstance = entry.getKey();
+        List<BlockLocation> locations = locationsByBlockInstance.get(blockInstance);
+        if (locations == null) {
+          locations = _blockLocationService.getLocationsForBlockInstance(
+              blockInstance, targetTime);
+          locationsByBlockInstance.put(blockInstance, locations);
+        }
+
+        List<StopTimeInstance> stisForBlock = entry.getValue();
 
-      for (StopTimeInstance sti : stisForBlock) {
+        for (StopTimeInstance sti : stisForBlock) {
 
-        applyRealTimeToStopTimeInstance(sti, targetTime, fromTime, toTime,
-            frequencyOffsetTime, blockInstance, locations, instances);
+          applyRealTimeToStopTimeInstance(sti, targetTime, fromTime, toTime,
+              frequencyOffsetTime, blockInstance, locations, instances);
+        }
       }
+
+      instancesByStop.put(stop, instances);
     }
 
-    return instances;
+    return instancesByStop;
   }
 
   @Override
@@ -17,6 +17,7 @@ package org.onebusaway.transit_data_federation.impl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
@@ -54,7 +55,13 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
 
   private TransitGraphDao _transitGraphDao;
 
-  private Map<ServiceIdActivation, List<Date>> _serviceDatesByServiceIds = new HashMap<ServiceIdActivation, List<Date>>();
+  private volatile Map<ServiceIdActivation, List<Date>> _serviceDatesByServiceIds = Collections.emptyMap();
+
+  /**
+   * Replaced as a whole when calendar data is refreshed, so a reader always
+   * sees either the old or the new calendar, never a mix of both
+   */
+  private volatile ServiceDatesMemo _serviceDatesMemo = ServiceDatesMemo.EMPTY;
 
   private double _serviceDateRangeCacheInterval = 4 * 60 * 60;
 
@@ -172,6 +179,11 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
       ServiceIdActivation serviceIds, ServiceInterval interval, Date from,
       Date to) {
 
+    ServiceDatesMemo memo = _serviceDatesMemo;
+    int memoId = memo.getId(serviceIds);
+    if (memoId != -1)
+      return memo.getServiceDatesWithinRange(memoId, interval, from, to);
+
     if (_serviceDateRangeCache == null)
       return getServiceDatesWithinRangeExact(serviceIds, interval, from, to);
 
@@ -200,6 +212,11 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
   public boolean areServiceIdsActiveOnServiceDate(
       ServiceIdActivation serviceIds, Date serviceDate) {
 
+    ServiceDatesMemo memo = _serviceDatesMemo;
+    int memoId = memo.getId(serviceIds);
+    if (memoId != -1)
+      return memo.isActiveOnServiceDate(memoId, serviceDate);
+
     List<LocalizedServiceId> activeServiceIds = serviceIds.getActiveServiceIds();
     List<LocalizedServiceId> inactiveServiceIds = serviceIds.getInactiveServiceIds();
 
@@ -410,8 +427,6 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
       _serviceDateRangeCache.removeAll();
     }
     
-    _serviceDatesByServiceIds.clear();
-    
     Set<ServiceIdActivation> allServiceIds = determineAllServiceIds();
 
     Date lowerBounds = null;
@@ -428,12 +443,22 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
       upperBounds = c.getTime();
     }
 
+    Map<ServiceIdActivation, List<Date>> serviceDatesByServiceIds = new HashMap<ServiceIdActivation, List<Date>>();
+    Map<ServiceIdActivation, List<Date>> allServiceDatesByServiceIds = new HashMap<ServiceIdActivation, List<Date>>();
+
     for (ServiceIdActivation serviceIds : allServiceIds) {
 
       List<Date> dates = computeServiceDatesForServiceIds(serviceIds,
           lowerBounds, upperBounds);
-      _serviceDatesByServiceIds.put(serviceIds, dates);
+      serviceDatesByServiceIds.put(serviceIds, dates);
+
+      if (lowerBounds != null || upperBounds != null)
+        dates = computeServiceDatesForServiceIds(serviceIds, null, null);
+      allServiceDatesByServiceIds.put(serviceIds, dates);
     }
+
+    _serviceDatesByServiceIds = serviceDatesByServiceIds;
+    _serviceDatesMemo = new ServiceDatesMemo(allServiceDatesByServiceIds);
   }
 
   private Set<ServiceIdActivation> determineAllServiceIds() {
@@ -481,6 +506,94 @@ public class ExtendedCalendarServiceImpl implements ExtendedCalendarService {
     return dates;
   }
 
+  /**
+   * An immutable snapshot of the full set of service dates for each
+   * {@link ServiceIdActivation} in the transit graph. Each activation is
+   * interned to a small integer id, and its service dates are kept as a sorted
+   * array of times alongside the matching {@link Date} instances, so that
+   * finding the service dates active in a time range is a pair of binary
+   * searches returning a view of a shared list, with no {@link Date}
+   * allocation or set intersection.
+   */
+  private static final class ServiceDatesMemo {
+
+    public static final ServiceDatesMemo EMPTY = new ServiceDatesMemo(
+        Collections.<ServiceIdActivation, List<Date>> emptyMap());
+
+    private final Map<ServiceIdActivation, Integer> _idsByServiceIds = new HashMap<ServiceIdActivation, Integer>();
+
+    private final long[][] _serviceDateTimes;
+
+    private final List<List<Date>> _serviceDates;
+
+    public ServiceDatesMemo(Map<ServiceIdActivation, List<Date>> datesByServiceIds) {
+
+      int n = datesByServiceIds.size();
+      _serviceDateTimes = new long[n][];
+      _serviceDates = new ArrayList<List<Date>>(n);
+
+      for (Map.Entry<ServiceIdActivation, List<Date>> entry : datesByServiceIds.entrySet()) {
+
+        int id = _serviceDates.size();
+        List<Date> dates = entry.getValue();
+
+        long[] times = new long[dates.size()];
+        for (int i = 0; i < times.length; i++)
+          times[i] = dates.get(i).getTime();
+
+        _idsByServiceIds.put(entry.getKey(), id);
+        _serviceDateTimes[id] = times;
+        _serviceDates.add(Collections.unmodifiableList(new ArrayList<Date>(
+            dates)));
+      }
+    }
+
+    /**
+     * @return the interned id of the service ids, or -1 if not memoized
+     */
+    public int getId(ServiceIdActivation serviceIds) {
+      Integer id = _idsByServiceIds.get(serviceIds);
+      return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the service dates whose interval, from the min arrival to the
+     *         max departure inclusive, overlaps the specified time range
+     */
+    public List<Date> getServiceDatesWithinRange(int id,
+        ServiceInterval interval, Date from, Date to) {
+      long[] times = _serviceDateTimes[id];
+      long timeFrom = from.getTime() - interval.getMaxDeparture() * 1000L;
+      long timeTo = to.getTime() - interval.getMinArrival() * 1000L;
+      int fromIndex = lowerBound(times, timeFrom);
+      int toIndex = lowerBound(times, timeTo + 1);
+      if (fromIndex >= toIndex)
+        return Collections.emptyList();
+      return _serviceDates.get(id).subList(fromIndex, toIndex);
+    }
+
+    public boolean isActiveOnServiceDate(int id, Date serviceDate) {
+      return Arrays.binarySearch(_serviceDateTimes[id], serviceDate.getTime()) >= 0;
+    }
+
+    /**
+     * @return the index of the first element greater than or equal to the
+     *         specified value
+     */
+    private static int lowerBound(long[] values, long value) {
+      int low = 0;
+      int high = values.length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (values[mid] < value)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+      return low;
+    }
+  }
+
   private class ServiceDateRangeKey {
     private final Serializable _serviceIds;
     private final int _fromStopTime;
@@ -24,7 +24,7 @@ import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.gtfs.impl.calendar.CalendarServiceImpl;
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
-import org.onebusaway.utility.ObjectSerializationLibrary;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -33,17 +33,24 @@ public class RefreshableCalendarServiceImpl extends CalendarServiceImpl {
 
   private FederatedTransitDataBundle _bundle;
 
+  private BundleArtifactLoader _artifactLoader;
+
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
   }
 
+  @Autowired
+  public void setArtifactLoader(BundleArtifactLoader artifactLoader) {
+    _artifactLoader = artifactLoader;
+  }
+
   @PostConstruct
   @Refreshable(dependsOn = RefreshableResources.CALENDAR_DATA)
   public void setup() throws IOException, ClassNotFoundException {
     File path = _bundle.getCalendarServiceDataPath();
     if (path.exists()) {
-      CalendarServiceData data = ObjectSerializationLibrary.readObject(path);
+      CalendarServiceData data = _artifactLoader.readObject(path);
       setData(data);
     } else {
       setData(new CalendarServiceData());
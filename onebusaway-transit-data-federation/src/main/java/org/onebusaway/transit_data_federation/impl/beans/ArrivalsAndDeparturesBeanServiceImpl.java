@@ -17,9 +17,11 @@
 package org.onebusaway.transit_data_federation.impl.beans;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -170,42 +172,48 @@ public class ArrivalsAndDeparturesBeanServiceImpl implements
     long fromTime = time - minutesBefore * 60 * 1000;
     long toTime = time + minutesAfter * 60 * 1000;
 
-    long nonFrequencyFromTime = time - query.getMinutesBefore() * 60 * 1000;
-    long nonFrequencyToTime = time + query.getMinutesAfter() * 60 * 1000;
-
-    long frequencyFromTime = time - query.getFrequencyMinutesBefore() * 60
-        * 1000;
-    long frequencyToTime = time + query.getFrequencyMinutesAfter() * 60 * 1000;
-
     TargetTime target = new TargetTime(time, time);
 
     List<ArrivalAndDepartureInstance> instances = _arrivalAndDepartureService.getArrivalsAndDeparturesForStopInTimeRange(
         stop, target, fromTime, toTime);
 
-    List<ArrivalAndDepartureBean> beans = new ArrayList<ArrivalAndDepartureBean>();
+    return getInstancesAsBeans(instances, query,
+        new HashMap<AgencyAndId, StopBean>());
+  }
 
-    Map<AgencyAndId, StopBean> stopBeanCache = new HashMap<AgencyAndId, StopBean>();
+  @Override
+  public Map<AgencyAndId, List<ArrivalAndDepartureBean>> getArrivalsAndDeparturesByStopIds(
+      Collection<AgencyAndId> stopIds, ArrivalsAndDeparturesQueryBean query) {
 
-    for (ArrivalAndDepartureInstance instance : instances) {
+    Map<AgencyAndId, StopEntry> stopsById = new LinkedHashMap<AgencyAndId, StopEntry>();
+    for (AgencyAndId stopId : stopIds)
+      stopsById.put(stopId, _transitGraphDao.getStopEntryForId(stopId, true));
 
-      FrequencyEntry frequency = instance.getFrequency();
+    long time = query.getTime();
 
-      long from = frequency != null ? frequencyFromTime : nonFrequencyFromTime;
-      long to = frequency != null ? frequencyToTime : nonFrequencyToTime;
+    int minutesBefore = Math.max(query.getMinutesBefore(),
+        query.getFrequencyMinutesBefore());
+    int minutesAfter = Math.max(query.getMinutesAfter(),
+        query.getFrequencyMinutesAfter());
 
-      if (!isArrivalAndDepartureInRange(instance, from, to))
-        continue;
+    long fromTime = time - minutesBefore * 60 * 1000;
+    long toTime = time + minutesAfter * 60 * 1000;
 
-      ArrivalAndDepartureBean bean = getStopTimeInstanceAsBean(time, instance,
-          stopBeanCache);
-      applyBlockLocationToBean(instance, bean, time);
-      applySituationsToBean(time, instance, bean);
-      beans.add(bean);
-    }
+    TargetTime target = new TargetTime(time, time);
 
-    Collections.sort(beans, new ArrivalAndDepartureComparator());
+    Map<StopEntry, List<ArrivalAndDepartureInstance>> instancesByStop = _arrivalAndDepartureService.getArrivalsAndDeparturesForStopsInTimeRange(
+        stopsById.values(), target, fromTime, toTime);
 
-    return beans;
+    Map<AgencyAndId, List<ArrivalAndDepartureBean>> beansByStopId = new LinkedHashMap<AgencyAndId, List<ArrivalAndDepartureBean>>();
+    Map<AgencyAndId, StopBean> stopBeanCache = new HashMap<AgencyAndId, StopBean>();
+
+    for (Map.Entry<AgencyAndId, StopEntry> entry : stopsById.entrySet()) {
+      List<ArrivalAndDepartureInstance> instances = instancesByStop.get(entry.getValue());
+      beansByStopId.put(entry.getKey(),
+          getInstancesAsBeans(instances, query, stopBeanCache));
+    }
+
+    return beansByStopId;
   }
 
   @Override
@@ -259,6 +267,44 @@ public class ArrivalsAndDeparturesBeanServiceImpl implements
    * Private Methods
    ****/
 
+  private List<ArrivalAndDepartureBean> getInstancesAsBeans(
+      List<ArrivalAndDepartureInstance> instances,
+      ArrivalsAndDeparturesQueryBean query,
+      Map<AgencyAndId, StopBean> stopBeanCache) {
+
+    long time = query.getTime();
+
+    long nonFrequencyFromTime = time - query.getMinutesBefore() * 60 * 1000;
+    long nonFrequencyToTime = time + query.getMinutesAfter() * 60 * 1000;
+
+    long frequencyFromTime = time - query.getFrequencyMinutesBefore() * 60
+        * 1000;
+    long frequencyToTime = time + query.getFrequencyMinutesAfter() * 60 * 1000;
+
+    List<ArrivalAndDepartureBean> beans = new ArrayList<ArrivalAndDepartureBean>();
+
+    for (ArrivalAndDepartureInstance instance : instances) {
+
+      FrequencyEntry frequency = instance.getFrequency();
+
+      long from = frequency != null ? frequencyFromTime : nonFrequencyFromTime;
+      long to = frequency != null ? frequencyToTime : nonFrequencyToTime;
+
+      if (!isArrivalAndDepartureInRange(instance, from, to))
+        continue;
+
+      ArrivalAndDepartureBean bean = getStopTimeInstanceAsBean(time, instance,
+          stopBeanCache);
+      applyBlockLocationToBean(instance, bean, time);
+      applySituationsToBean(time, instance, bean);
+      beans.add(bean);
+    }
+
+    Collections.sort(beans, new ArrivalAndDepartureComparator());
+
+    return beans;
+  }
+
   private ArrivalAndDepartureBean getStopTimeInstanceAsBean(long time,
       ArrivalAndDepartureInstance instance,
       Map<AgencyAndId, StopBean> stopBeanCache) {
@@ -94,13 +94,15 @@ class StopWithArrivalsAndDeparturesBeanServiceImpl implements
     Map<String, ServiceAlertBean> situationsById = new HashMap<String, ServiceAlertBean>();
     Counter<TimeZone> timeZones = new Counter<TimeZone>();
 
+    Map<AgencyAndId, List<ArrivalAndDepartureBean>> arrivalsAndDeparturesByStopId = _arrivalsAndDeparturesBeanService.getArrivalsAndDeparturesByStopIds(
+        ids, query);
+
     for (AgencyAndId id : ids) {
 
       StopBean stopBean = _stopBeanService.getStopForId(id);
       stops.add(stopBean);
 
-      List<ArrivalAndDepartureBean> arrivalsAndDepartures = _arrivalsAndDeparturesBeanService.getArrivalsAndDeparturesByStopId(
-          id, query);
+      List<ArrivalAndDepartureBean> arrivalsAndDepartures = arrivalsAndDeparturesByStopId.get(id);
       allArrivalsAndDepartures.addAll(arrivalsAndDepartures);
 
       List<AgencyAndId> nearbyStopIds = _nearbyStopsBeanService.getNearbyStops(
@@ -0,0 +1,358 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.blocks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.calendar.ServiceInterval;
+import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
+import org.onebusaway.transit_data_federation.services.blocks.BlockLayoverIndex;
+import org.onebusaway.transit_data_federation.services.blocks.BlockTripIndex;
+import org.onebusaway.transit_data_federation.services.blocks.FrequencyBlockTripIndex;
+import org.onebusaway.transit_data_federation.services.blocks.FrequencyServiceIntervalBlock;
+import org.onebusaway.transit_data_federation.services.blocks.InstanceState;
+import org.onebusaway.transit_data_federation.services.blocks.LayoverIntervalBlock;
+import org.onebusaway.transit_data_federation.services.blocks.ServiceIntervalBlock;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.FrequencyEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.ServiceIdActivation;
+
+/**
+ * A precomputed index over the activity windows of all the trips, layovers
+ * and frequency-based trips in a set of {@link BlockTripIndex},
+ * {@link BlockLayoverIndex} and {@link FrequencyBlockTripIndex} indices.
+ *
+ * Activity windows are grouped by {@link ServiceIdActivation}, so that service
+ * dates only need to be resolved once per group instead of once per index. The
+ * windows in each group are stored as an implicit augmented interval tree:
+ * parallel arrays sorted by start time, where each node additionally records
+ * the maximum end time in its subtree. For a particular service date, finding
+ * the k windows that overlap a time range then costs O(log n + k).
+ *
+ * The index also remembers the lists it was built from, so callers can cheaply
+ * detect when the underlying block indices have been reloaded.
+ *
+ * @author bdferris
+ * @see BlockCalendarServiceImpl
+ */
+final class BlockActivityIntervalIndex {
+
+  private final List<BlockTripIndex> _blockTripIndices;
+
+  private final List<BlockLayoverIndex> _blockLayoverIndices;
+
+  private final List<FrequencyBlockTripIndex> _frequencyBlockTripIndices;
+
+  private final List<ServiceIdGroup> _groups;
+
+  private BlockActivityIntervalIndex(List<BlockTripIndex> blockTripIndices,
+      List<BlockLayoverIndex> blockLayoverIndices,
+      List<FrequencyBlockTripIndex> frequencyBlockTripIndices,
+      List<ServiceIdGroup> groups) {
+    _blockTripIndices = blockTripIndices;
+    _blockLayoverIndices = blockLayoverIndices;
+    _frequencyBlockTripIndices = frequencyBlockTripIndices;
+    _groups = groups;
+  }
+
+  public static BlockActivityIntervalIndex create(
+      List<BlockTripIndex> blockTripIndices,
+      List<BlockLayoverIndex> blockLayoverIndices,
+      List<FrequencyBlockTripIndex> frequencyBlockTripIndices) {
+
+    Map<ServiceIdActivation, GroupBuilder> builders = new HashMap<ServiceIdActivation, GroupBuilder>();
+
+    for (BlockTripIndex index : blockTripIndices) {
+      ServiceIntervalBlock intervals = index.getServiceIntervalBlock();
+      GroupBuilder builder = getBuilder(builders, index.getServiceIds());
+      builder.extendRange(intervals.getRange());
+      int[] minArrivals = intervals.getMinArrivals();
+      int[] maxDepartures = intervals.getMaxDepartures();
+      for (int i = 0; i < minArrivals.length; i++)
+        builder.add(minArrivals[i], maxDepartures[i],
+            index.getTrips().get(i).getBlockConfiguration(), null);
+    }
+
+    for (BlockLayoverIndex index : blockLayoverIndices) {
+      LayoverIntervalBlock intervals = index.getLayoverIntervalBlock();
+      GroupBuilder builder = getBuilder(builders, index.getServiceIds());
+      builder.extendRange(intervals.getRange());
+      int[] startTimes = intervals.getStartTimes();
+      int[] endTimes = intervals.getEndTimes();
+      for (int i = 0; i < startTimes.length; i++)
+        builder.add(startTimes[i], endTimes[i],
+            index.getTrips().get(i).getBlockConfiguration(), null);
+    }
+
+    for (FrequencyBlockTripIndex index : frequencyBlockTripIndices) {
+      FrequencyServiceIntervalBlock intervals = index.getServiceIntervalBlock();
+      GroupBuilder builder = getBuilder(builders, index.getServiceIds());
+      builder.extendRange(intervals.getRange());
+      int[] startTimes = intervals.getStartTimes();
+      int[] endTimes = intervals.getEndTimes();
+      for (int i = 0; i < startTimes.length; i++)
+        builder.add(startTimes[i], endTimes[i],
+            index.getTrips().get(i).getBlockConfiguration(),
+            index.getFrequencies().get(i));
+    }
+
+    List<ServiceIdGroup> groups = new ArrayList<ServiceIdGroup>(
+        builders.size());
+    for (GroupBuilder builder : builders.values())
+      groups.add(builder.build());
+
+    return new BlockActivityIntervalIndex(blockTripIndices,
+        blockLayoverIndices, frequencyBlockTripIndices, groups);
+  }
+
+  /**
+   *
+   * @return true if this index was built from exactly the specified index
+   *         lists, as opposed to equivalent copies
+   */
+  public boolean isBuiltFrom(List<BlockTripIndex> blockTripIndices,
+      List<BlockLayoverIndex> blockLayoverIndices,
+      List<FrequencyBlockTripIndex> frequencyBlockTripIndices) {
+    return _blockTripIndices == blockTripIndices
+        && _blockLayoverIndices == blockLayoverIndices
+        && _frequencyBlockTripIndices == frequencyBlockTripIndices;
+  }
+
+  public List<ServiceIdGroup> getGroups() {
+    return _groups;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static GroupBuilder getBuilder(
+      Map<ServiceIdActivation, GroupBuilder> builders,
+      ServiceIdActivation serviceIds) {
+    GroupBuilder builder = builders.get(serviceIds);
+    if (builder == null) {
+      builder = new GroupBuilder(serviceIds);
+      builders.put(serviceIds, builder);
+    }
+    return builder;
+  }
+
+  /**
+   * All activity windows sharing a common {@link ServiceIdActivation}.
+   */
+  public static final class ServiceIdGroup {
+
+    private final ServiceIdActivation _serviceIds;
+
+    private final ServiceInterval _range;
+
+    private final int[] _startTimes;
+
+    private final int[] _endTimes;
+
+    private final int[] _maxEndTimes;
+
+    private final BlockConfigurationEntry[] _blocks;
+
+    private final FrequencyEntry[] _frequencies;
+
+    private ServiceIdGroup(ServiceIdActivation serviceIds,
+        ServiceInterval range, int[] startTimes, int[] endTimes,
+        BlockConfigurationEntry[] blocks, FrequencyEntry[] frequencies) {
+      _serviceIds = serviceIds;
+      _range = range;
+      _startTimes = startTimes;
+      _endTimes = endTimes;
+      _blocks = blocks;
+      _frequencies = frequencies;
+      _maxEndTimes = new int[startTimes.length];
+      computeMaxEndTimes(0, startTimes.length);
+    }
+
+    public ServiceIdActivation getServiceIds() {
+      return _serviceIds;
+    }
+
+    /**
+     * @return the union of the service intervals of all activity windows in
+     *         the group
+     */
+    public ServiceInterval getRange() {
+      return _range;
+    }
+
+    public int size() {
+      return _startTimes.length;
+    }
+
+    /**
+     * Adds a {@link BlockInstance} for each activity window that overlaps the
+     * specified time range on the specified service date. An activity window
+     * overlaps if it ends at or after the start of the range and begins
+     * strictly before the end of the range.
+     *
+     * @param serviceDate
+     * @param timeFrom
+     * @param timeTo
+     * @param results
+     */
+    public void getActiveBlocks(long serviceDate, long timeFrom, long timeTo,
+        Collection<BlockInstance> results) {
+      int scheduledTimeFrom = (int) ((timeFrom - serviceDate) / 1000);
+      int scheduledTimeTo = (int) ((timeTo - serviceDate) / 1000);
+      InstanceState state = new InstanceState(serviceDate);
+      query(0, _startTimes.length, scheduledTimeFrom, scheduledTimeTo,
+          serviceDate, state, results);
+    }
+
+    private void query(int from, int to, int scheduledTimeFrom,
+        int scheduledTimeTo, long serviceDate, InstanceState state,
+        Collection<BlockInstance> results) {
+
+      if (from >= to)
+        return;
+
+      int mid = (from + to) >>> 1;
+
+      /**
+       * Nothing in this subtree ends late enough
+       */
+      if (_maxEndTimes[mid] < scheduledTimeFrom)
+        return;
+
+      query(from, mid, scheduledTimeFrom, scheduledTimeTo, serviceDate, state,
+          results);
+
+      /**
+       * This node, and everything to its right, starts too late
+       */
+      if (_startTimes[mid] >= scheduledTimeTo)
+        return;
+
+      if (_endTimes[mid] >= scheduledTimeFrom) {
+        FrequencyEntry frequency = _frequencies[mid];
+        InstanceState instanceState = frequency == null ? state
+            : new InstanceState(serviceDate, frequency);
+        results.add(new BlockInstance(_blocks[mid], instanceState));
+      }
+
+      query(mid + 1, to, scheduledTimeFrom, scheduledTimeTo, serviceDate,
+          state, results);
+    }
+
+    private int computeMaxEndTimes(int from, int to) {
+      if (from >= to)
+        return Integer.MIN_VALUE;
+      int mid = (from + to) >>> 1;
+      int max = _endTimes[mid];
+      max = Math.max(max, computeMaxEndTimes(from, mid));
+      max = Math.max(max, computeMaxEndTimes(mid + 1, to));
+      _maxEndTimes[mid] = max;
+      return max;
+    }
+  }
+
+  private static final class GroupBuilder {
+
+    private final ServiceIdActivation _serviceIds;
+
+    private final List<Window> _windows = new ArrayList<Window>();
+
+    private int _minArrival = Integer.MAX_VALUE;
+
+    private int _minDeparture = Integer.MAX_VALUE;
+
+    private int _maxArrival = Integer.MIN_VALUE;
+
+    private int _maxDeparture = Integer.MIN_VALUE;
+
+    public GroupBuilder(ServiceIdActivation serviceIds) {
+      _serviceIds = serviceIds;
+    }
+
+    public void extendRange(ServiceInterval range) {
+      _minArrival = Math.min(_minArrival, range.getMinArrival());
+      _minDeparture = Math.min(_minDeparture, range.getMinDeparture());
+      _maxArrival = Math.max(_maxArrival, range.getMaxArrival());
+      _maxDeparture = Math.max(_maxDeparture, range.getMaxDeparture());
+    }
+
+    public void add(int startTime, int endTime, BlockConfigurationEntry block,
+        FrequencyEntry frequency) {
+      _windows.add(new Window(startTime, endTime, block, frequency));
+    }
+
+    public ServiceIdGroup build() {
+
+      Collections.sort(_windows, new WindowStartTimeComparator());
+
+      int n = _windows.size();
+      int[] startTimes = new int[n];
+      int[] endTimes = new int[n];
+      BlockConfigurationEntry[] blocks = new BlockConfigurationEntry[n];
+      FrequencyEntry[] frequencies = new FrequencyEntry[n];
+
+      for (int i = 0; i < n; i++) {
+        Window window = _windows.get(i);
+        startTimes[i] = window.startTime;
+        endTimes[i] = window.endTime;
+        blocks[i] = window.block;
+        frequencies[i] = window.frequency;
+      }
+
+      ServiceInterval range = new ServiceInterval(_minArrival, _minDeparture,
+          _maxArrival, _maxDeparture);
+
+      return new ServiceIdGroup(_serviceIds, range, startTimes, endTimes,
+          blocks, frequencies);
+    }
+  }
+
+  private static final class Window {
+
+    private final int startTime;
+
+    private final int endTime;
+
+    private final BlockConfigurationEntry block;
+
+    private final FrequencyEntry frequency;
+
+    public Window(int startTime, int endTime, BlockConfigurationEntry block,
+        FrequencyEntry frequency) {
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.block = block;
+      this.frequency = frequency;
+    }
+  }
+
+  private static final class WindowStartTimeComparator implements
+      Comparator<Window> {
+
+    @Override
+    public int compare(Window o1, Window o2) {
+      return o1.startTime < o2.startTime ? -1
+          : (o1.startTime == o2.startTime ? 0 : 1);
+    }
+  }
+}
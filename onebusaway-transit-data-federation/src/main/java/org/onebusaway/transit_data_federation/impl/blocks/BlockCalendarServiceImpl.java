@@ -24,11 +24,16 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.onebusaway.collections.Min;
 import org.onebusaway.container.cache.Cacheable;
+import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.calendar.ServiceInterval;
+import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.impl.blocks.BlockActivityIntervalIndex.ServiceIdGroup;
 import org.onebusaway.transit_data_federation.services.ExtendedCalendarService;
 import org.onebusaway.transit_data_federation.services.blocks.BlockCalendarService;
 import org.onebusaway.transit_data_federation.services.blocks.BlockIndexService;
@@ -57,6 +62,14 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
 
   private TransitGraphDao _transitGraphDao;
 
+  /**
+   * Lazily built from the system-wide block indices and rebuilt whenever the
+   * {@link BlockIndexService} hands us a different set of indices.
+   */
+  private volatile BlockActivityIntervalIndex _activityIndex;
+
+  private final ConcurrentMap<String, BlockActivityIntervalIndex> _activityIndicesByAgencyId = new ConcurrentHashMap<String, BlockActivityIntervalIndex>();
+
   @Autowired
   public void setCalendarService(ExtendedCalendarService calendarService) {
     _calendarService = calendarService;
@@ -72,6 +85,18 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
     _transitGraphDao = transitGraphDao;
   }
 
+  /**
+   * Drops the activity indices built from the previous block data. They are
+   * rebuilt lazily from the new block indices on the next query.
+   */
+  @Refreshable(dependsOn = {
+      RefreshableResources.TRANSIT_GRAPH,
+      RefreshableResources.BLOCK_INDEX_DATA})
+  public void clearActivityIndices() {
+    _activityIndex = null;
+    _activityIndicesByAgencyId.clear();
+  }
+
   /****
    * {@link BlockCalendarService} Interface
    ****/
@@ -156,8 +181,16 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
     List<BlockTripIndex> indices = _blockIndexService.getBlockTripIndices();
     List<BlockLayoverIndex> layoverIndices = _blockIndexService.getBlockLayoverIndices();
     List<FrequencyBlockTripIndex> frequencyIndices = _blockIndexService.getFrequencyBlockTripIndices();
-    return getActiveBlocksInTimeRange(indices, layoverIndices,
-        frequencyIndices, timeFrom, timeTo);
+
+    BlockActivityIntervalIndex activityIndex = _activityIndex;
+    if (activityIndex == null
+        || !activityIndex.isBuiltFrom(indices, layoverIndices, frequencyIndices)) {
+      activityIndex = BlockActivityIntervalIndex.create(indices,
+          layoverIndices, frequencyIndices);
+      _activityIndex = activityIndex;
+    }
+
+    return getActiveBlocksInTimeRange(activityIndex, timeFrom, timeTo);
   }
 
   @Override
@@ -166,8 +199,16 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
     List<BlockTripIndex> indices = _blockIndexService.getBlockTripIndicesForAgencyId(agencyId);
     List<BlockLayoverIndex> layoverIndices = _blockIndexService.getBlockLayoverIndicesForAgencyId(agencyId);
     List<FrequencyBlockTripIndex> frequencyIndices = _blockIndexService.getFrequencyBlockTripIndicesForAgencyId(agencyId);
-    return getActiveBlocksInTimeRange(indices, layoverIndices,
-        frequencyIndices, timeFrom, timeTo);
+
+    BlockActivityIntervalIndex activityIndex = _activityIndicesByAgencyId.get(agencyId);
+    if (activityIndex == null
+        || !activityIndex.isBuiltFrom(indices, layoverIndices, frequencyIndices)) {
+      activityIndex = BlockActivityIntervalIndex.create(indices,
+          layoverIndices, frequencyIndices);
+      _activityIndicesByAgencyId.put(agencyId, activityIndex);
+    }
+
+    return getActiveBlocksInTimeRange(activityIndex, timeFrom, timeTo);
   }
 
   @Override
@@ -205,6 +246,27 @@ class BlockCalendarServiceImpl implements BlockCalendarService {
    * Private Methods
    ****/
 
+  private List<BlockInstance> getActiveBlocksInTimeRange(
+      BlockActivityIntervalIndex activityIndex, long timeFrom, long timeTo) {
+
+    Set<BlockInstance> instances = new HashSet<BlockInstance>();
+
+    Date dateFrom = new Date(timeFrom);
+    Date dateTo = new Date(timeTo);
+
+    for (ServiceIdGroup group : activityIndex.getGroups()) {
+
+      Collection<Date> serviceDates = _calendarService.getServiceDatesWithinRange(
+          group.getServiceIds(), group.getRange(), dateFrom, dateTo);
+
+      for (Date serviceDate : serviceDates)
+        group.getActiveBlocks(serviceDate.getTime(), timeFrom, timeTo,
+            instances);
+    }
+
+    return new ArrayList<BlockInstance>(instances);
+  }
+
   private boolean allServiceIdsAreActiveForServiceDate(
       BlockConfigurationEntry configuration, Date serviceDate) {
 
@@ -54,6 +54,7 @@ import org.onebusaway.transit_data_federation.services.blocks.BlockTripIndex;
 import org.onebusaway.transit_data_federation.services.blocks.FrequencyBlockTripIndex;
 import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocation;
 import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocationService;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
 import org.onebusaway.transit_data_federation.services.shapes.ProjectedShapePointService;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
@@ -61,7 +62,6 @@ import org.onebusaway.transit_data_federation.services.transit_graph.BlockTripEn
 import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
 import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
-import org.onebusaway.utility.ObjectSerializationLibrary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -77,6 +77,8 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
 
   private FederatedTransitDataBundle _bundle;
 
+  private BundleArtifactLoader _artifactLoader;
+
   private TransitGraphDao _transitGraphDao;
 
   private BlockCalendarService _blockCalendarService;
@@ -98,6 +100,11 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
     _bundle = bundle;
   }
 
+  @Autowired
+  public void setArtifactLoader(BundleArtifactLoader artifactLoader) {
+    _artifactLoader = artifactLoader;
+  }
+
   @Autowired
   public void setTransitGraphDao(TransitGraphDao transitGraphDao) {
     _transitGraphDao = transitGraphDao;
@@ -322,7 +329,7 @@ class BlockGeospatialServiceImpl implements BlockGeospatialService {
 
     _log.info("loading shape point geospatial index...");
 
-    Map<CoordinateBounds, List<AgencyAndId>> shapeIdsByGridCell = ObjectSerializationLibrary.readObject(path);
+    Map<CoordinateBounds, List<AgencyAndId>> shapeIdsByGridCell = _artifactLoader.readObject(path);
 
     _log.info("block shape geospatial nodes: " + shapeIdsByGridCell.size());
 
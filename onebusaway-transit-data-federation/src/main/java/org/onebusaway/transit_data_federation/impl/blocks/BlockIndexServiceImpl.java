@@ -50,13 +50,13 @@ import org.onebusaway.transit_data_federation.services.blocks.FrequencyBlockTrip
 import org.onebusaway.transit_data_federation.services.blocks.FrequencyBlockTripIndexData;
 import org.onebusaway.transit_data_federation.services.blocks.FrequencyStopTripIndex;
 import org.onebusaway.transit_data_federation.services.blocks.HasBlockTrips;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockTripEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
-import org.onebusaway.utility.ObjectSerializationLibrary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -69,6 +69,8 @@ public class BlockIndexServiceImpl implements BlockIndexService {
 
   private FederatedTransitDataBundle _bundle;
 
+  private BundleArtifactLoader _artifactLoader;
+
   private TransitGraphDao _graphDao;
 
   private BlockIndexFactoryService _factory;
@@ -104,6 +106,11 @@ public class BlockIndexServiceImpl implements BlockIndexService {
     _bundle = bundle;
   }
 
+  @Autowired
+  public void setArtifactLoader(BundleArtifactLoader artifactLoader) {
+    _artifactLoader = artifactLoader;
+  }
+
   @Autowired
   public void setBlockIndexFactoryService(
       BlockIndexFactoryService blockIndexFactoryService) {
@@ -316,7 +323,7 @@ public class BlockIndexServiceImpl implements BlockIndexService {
 
       _log.info("loading block trip indices data");
 
-      List<BlockTripIndexData> datas = ObjectSerializationLibrary.readObject(path);
+      List<BlockTripIndexData> datas = _artifactLoader.readObject(path);
 
       _blockTripIndices = new ArrayList<BlockTripIndex>(datas.size());
       for (BlockTripIndexData data : datas)
@@ -344,7 +351,7 @@ public class BlockIndexServiceImpl implements BlockIndexService {
 
       _log.info("loading block layover indices data");
 
-      List<BlockLayoverIndexData> datas = ObjectSerializationLibrary.readObject(path);
+      List<BlockLayoverIndexData> datas = _artifactLoader.readObject(path);
 
       _blockLayoverIndices = new ArrayList<BlockLayoverIndex>(datas.size());
       for (BlockLayoverIndexData data : datas)
@@ -372,7 +379,7 @@ public class BlockIndexServiceImpl implements BlockIndexService {
 
       _log.info("loading frequency block trip indices data");
 
-      List<FrequencyBlockTripIndexData> datas = ObjectSerializationLibrary.readObject(path);
+      List<FrequencyBlockTripIndexData> datas = _artifactLoader.readObject(path);
 
       _frequencyBlockTripIndices = new ArrayList<FrequencyBlockTripIndex>(
           datas.size());
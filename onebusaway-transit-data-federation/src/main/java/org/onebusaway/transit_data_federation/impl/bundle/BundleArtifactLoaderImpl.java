@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.bundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.onebusaway.transit_data_federation.impl.DirectedGraph;
+import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
+import org.onebusaway.utility.ObjectSerializationLibrary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Deserializes the artifacts of the transit data bundle in parallel as soon as
+ * the loader is constructed, which happens before the first
+ * {@link org.onebusaway.container.refresh.Refreshable} initializer that needs
+ * it. Initializers then pick up their artifact through
+ * {@link #readObject(File)}, blocking only if that particular artifact is still
+ * being read, while Spring goes on wiring the rest of the context.
+ *
+ * Artifacts are grouped by the {@link RefreshableResources} name they back,
+ * and the resources form a dependency graph that mirrors the order in which
+ * their initializers consume them. Artifacts carry no deserialization-time
+ * dependencies on each other, so the graph only decides the order in which
+ * reads are queued: dependencies first, larger files first among peers.
+ *
+ * Preloaded artifacts are handed off once and then forgotten. Anything still
+ * unclaimed once the application context has been refreshed is discarded, as
+ * is any preloaded artifact whose file changed on disk since it was read.
+ * Later reads, such as those made by a bundle rebuild refresh, go straight to
+ * disk.
+ *
+ * @author bdferris
+ */
+@Component
+@ManagedResource("org.onebusaway.transit_data_federation.impl.bundle:name=BundleArtifactLoaderImpl")
+public class BundleArtifactLoaderImpl implements BundleArtifactLoader,
+    ApplicationListener<ContextRefreshedEvent> {
+
+  private static Logger _log = LoggerFactory.getLogger(BundleArtifactLoaderImpl.class);
+
+  private FederatedTransitDataBundle _bundle;
+
+  private boolean _preload = true;
+
+  private int _parallelism = Runtime.getRuntime().availableProcessors();
+
+  private ExecutorService _executor;
+
+  private final ConcurrentMap<File, PendingArtifact> _pendingArtifacts = new ConcurrentHashMap<File, PendingArtifact>();
+
+  private final ConcurrentMap<String, Long> _loadTimesByArtifact = new ConcurrentHashMap<String, Long>();
+
+  private final ConcurrentMap<String, Long> _waitTimesByArtifact = new ConcurrentHashMap<String, Long>();
+
+  private volatile long _preloadStartTime = 0;
+
+  private volatile long _preloadDuration = 0;
+
+  private final AtomicInteger _preloadsRemaining = new AtomicInteger();
+
+  @Autowired
+  public void setBundle(FederatedTransitDataBundle bundle) {
+    _bundle = bundle;
+  }
+
+  /**
+   * @param preload when false, artifacts are only read on demand
+   */
+  public void setPreload(boolean preload) {
+    _preload = preload;
+  }
+
+  /**
+   * @param parallelism the maximum number of artifacts deserialized at once
+   */
+  public void setParallelism(int parallelism) {
+    _parallelism = parallelism;
+  }
+
+  @PostConstruct
+  public void start() {
+
+    if (!_preload || _bundle == null)
+      return;
+
+    List<Artifact> artifacts = new ArrayList<Artifact>();
+    for (Artifact artifact : getArtifactsInLoadOrder(getArtifacts())) {
+      if (artifact.getPath().exists())
+        artifacts.add(artifact);
+    }
+
+    if (artifacts.isEmpty())
+      return;
+
+    _executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(_parallelism, artifacts.size())),
+        new ArtifactLoaderThreadFactory());
+
+    _preloadStartTime = System.currentTimeMillis();
+    _preloadsRemaining.set(artifacts.size());
+
+    _log.info("preloading " + artifacts.size() + " bundle artifacts");
+
+    for (Artifact artifact : artifacts) {
+      File path = artifact.getPath();
+      long lastModified = path.lastModified();
+      Future<Object> future = _executor.submit(new ArtifactTask(artifact));
+      _pendingArtifacts.put(path, new PendingArtifact(artifact, future,
+          lastModified));
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    discardPendingArtifacts();
+    if (_executor != null)
+      _executor.shutdownNow();
+  }
+
+  @ManagedAttribute
+  public long getPreloadDuration() {
+    return _preloadDuration;
+  }
+
+  @ManagedAttribute
+  public int getPendingArtifactCount() {
+    return _pendingArtifacts.size();
+  }
+
+  /****
+   * {@link BundleArtifactLoader} Interface
+   ****/
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T readObject(File path) throws IOException,
+      ClassNotFoundException {
+
+    PendingArtifact pending = _pendingArtifacts.remove(path);
+
+    if (pending != null) {
+      if (pending.getLastModified() == path.lastModified()) {
+        long t0 = System.currentTimeMillis();
+        Object object = pending.get();
+        _waitTimesByArtifact.put(path.getName(), System.currentTimeMillis()
+            - t0);
+        return (T) object;
+      }
+      _log.info("bundle artifact changed since it was preloaded: " + path);
+      pending.cancel();
+    }
+
+    long t0 = System.currentTimeMillis();
+    T object = ObjectSerializationLibrary.readObject(path);
+    _loadTimesByArtifact.put(path.getName(), System.currentTimeMillis() - t0);
+    return object;
+  }
+
+  @ManagedAttribute
+  @Override
+  public Map<String, Long> getArtifactLoadTimes() {
+    return new HashMap<String, Long>(_loadTimesByArtifact);
+  }
+
+  /**
+   * @return the time, in milliseconds, each initializer spent blocked waiting
+   *         for its preloaded artifact, keyed by artifact name
+   */
+  @ManagedAttribute
+  public Map<String, Long> getArtifactWaitTimes() {
+    return new HashMap<String, Long>(_waitTimesByArtifact);
+  }
+
+  /****
+   * {@link ApplicationListener} Interface
+   ****/
+
+  @Override
+  public void onApplicationEvent(ContextRefreshedEvent event) {
+    discardPendingArtifacts();
+    if (_executor != null) {
+      _executor.shutdown();
+      _executor = null;
+    }
+  }
+
+  /****
+   * Package-Private Methods
+   ****/
+
+  /**
+   * Orders artifacts so that every artifact is queued after the artifacts of
+   * the resources it depends on. Among artifacts that are ready at the same
+   * time, the larger files are queued first.
+   */
+  static List<Artifact> getArtifactsInLoadOrder(List<Artifact> artifacts) {
+
+    Map<String, List<Artifact>> artifactsByResource = new LinkedHashMap<String, List<Artifact>>();
+    DirectedGraph<String> graph = new DirectedGraph<String>();
+
+    for (Artifact artifact : artifacts) {
+      List<Artifact> forResource = artifactsByResource.get(artifact.getResourceName());
+      if (forResource == null) {
+        forResource = new ArrayList<Artifact>();
+        artifactsByResource.put(artifact.getResourceName(), forResource);
+      }
+      forResource.add(artifact);
+      graph.addNode(artifact.getResourceName());
+    }
+
+    for (Artifact artifact : artifacts) {
+      for (String dependency : artifact.getDependsOn()) {
+        if (artifactsByResource.containsKey(dependency))
+          graph.addEdge(dependency, artifact.getResourceName());
+      }
+    }
+
+    final Map<String, Long> sizesByResource = new HashMap<String, Long>();
+    for (Map.Entry<String, List<Artifact>> entry : artifactsByResource.entrySet()) {
+      long size = 0;
+      for (Artifact artifact : entry.getValue())
+        size += artifact.getPath().length();
+      sizesByResource.put(entry.getKey(), size);
+    }
+
+    List<String> resourceOrder;
+    try {
+      resourceOrder = graph.getTopologicalSort(new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+          long s1 = sizesByResource.get(o1);
+          long s2 = sizesByResource.get(o2);
+          if (s1 != s2)
+            return s1 > s2 ? -1 : 1;
+          return o1.compareTo(o2);
+        }
+      });
+    } catch (IllegalStateException ex) {
+      throw new IllegalStateException(
+          "cycle in bundle artifact dependencies: " + graph.getEdges(), ex);
+    }
+
+    List<Artifact> ordered = new ArrayList<Artifact>(artifacts.size());
+    for (String resourceName : resourceOrder)
+      ordered.addAll(artifactsByResource.get(resourceName));
+    return ordered;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private List<Artifact> getArtifacts() {
+
+    List<Artifact> artifacts = new ArrayList<Artifact>();
+
+    artifacts.add(new Artifact(RefreshableResources.TRANSIT_GRAPH,
+        _bundle.getTransitGraphPath()));
+    artifacts.add(new Artifact(RefreshableResources.CALENDAR_DATA,
+        _bundle.getCalendarServiceDataPath()));
+    artifacts.add(new Artifact(RefreshableResources.NARRATIVE_DATA,
+        _bundle.getNarrativeProviderPath(), RefreshableResources.TRANSIT_GRAPH));
+    artifacts.add(new Artifact(RefreshableResources.BLOCK_INDEX_DATA,
+        _bundle.getBlockTripIndicesPath(), RefreshableResources.TRANSIT_GRAPH));
+    artifacts.add(new Artifact(RefreshableResources.BLOCK_INDEX_DATA,
+        _bundle.getBlockLayoverIndicesPath(),
+        RefreshableResources.TRANSIT_GRAPH));
+    artifacts.add(new Artifact(RefreshableResources.BLOCK_INDEX_DATA,
+        _bundle.getFrequencyBlockTripIndicesPath(),
+        RefreshableResources.TRANSIT_GRAPH));
+    artifacts.add(new Artifact(RefreshableResources.STOP_TRANSFER_DATA,
+        _bundle.getStopTransfersPath(), RefreshableResources.TRANSIT_GRAPH));
+    artifacts.add(new Artifact(RefreshableResources.SHAPE_GEOSPATIAL_INDEX,
+        _bundle.getShapeGeospatialIndexDataPath(),
+        RefreshableResources.TRANSIT_GRAPH,
+        RefreshableResources.BLOCK_INDEX_DATA));
+    artifacts.add(new Artifact(RefreshableResources.TRANSFER_PATTERNS,
+        _bundle.getSerializedTransferPatternsPath(),
+        RefreshableResources.TRANSIT_GRAPH));
+
+    return artifacts;
+  }
+
+  private void discardPendingArtifacts() {
+    for (File path : new ArrayList<File>(_pendingArtifacts.keySet())) {
+      PendingArtifact pending = _pendingArtifacts.remove(path);
+      if (pending != null) {
+        _log.info("discarding unclaimed bundle artifact: " + path);
+        pending.cancel();
+      }
+    }
+  }
+
+  private void handleArtifactLoaded(Artifact artifact, long loadTime) {
+
+    _loadTimesByArtifact.put(artifact.getPath().getName(), loadTime);
+
+    _log.info("loaded bundle artifact " + artifact.getResourceName() + " "
+        + artifact.getPath().getName() + " in " + loadTime + " ms");
+
+    if (_preloadsRemaining.decrementAndGet() == 0) {
+      _preloadDuration = System.currentTimeMillis() - _preloadStartTime;
+      logLoadTimes();
+    }
+  }
+
+  private void logLoadTimes() {
+
+    List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(
+        _loadTimesByArtifact.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+      @Override
+      public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+        return o2.getValue().compareTo(o1.getValue());
+      }
+    });
+
+    long total = 0;
+    StringBuilder b = new StringBuilder();
+    for (Map.Entry<String, Long> entry : entries) {
+      total += entry.getValue();
+      b.append("\n  ").append(entry.getKey()).append(": ").append(
+          entry.getValue()).append(" ms");
+    }
+
+    _log.info("bundle artifacts preloaded in " + _preloadDuration
+        + " ms (sum of artifact load times=" + total + " ms):" + b);
+  }
+
+  static class Artifact {
+
+    private final String _resourceName;
+
+    private final File _path;
+
+    private final String[] _dependsOn;
+
+    public Artifact(String resourceName, File path, String... dependsOn) {
+      _resourceName = resourceName;
+      _path = path;
+      _dependsOn = dependsOn;
+    }
+
+    public String getResourceName() {
+      return _resourceName;
+    }
+
+    public File getPath() {
+      return _path;
+    }
+
+    public String[] getDependsOn() {
+      return _dependsOn;
+    }
+
+    @Override
+    public String toString() {
+      return _resourceName + ":" + _path.getName();
+    }
+  }
+
+  private static class PendingArtifact {
+
+    private final Artifact _artifact;
+
+    private final Future<Object> _future;
+
+    private final long _lastModified;
+
+    public PendingArtifact(Artifact artifact, Future<Object> future,
+        long lastModified) {
+      _artifact = artifact;
+      _future = future;
+      _lastModified = lastModified;
+    }
+
+    public long getLastModified() {
+      return _lastModified;
+    }
+
+    public void cancel() {
+      _future.cancel(true);
+    }
+
+    public Object get() throws IOException, ClassNotFoundException {
+      try {
+        return _future.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted waiting for artifact "
+            + _artifact, ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException)
+          throw (IOException) cause;
+        if (cause instanceof ClassNotFoundException)
+          throw (ClassNotFoundException) cause;
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw new IllegalStateException("error loading artifact " + _artifact,
+            cause);
+      }
+    }
+  }
+
+  private class ArtifactTask implements Callable<Object> {
+
+    private final Artifact _artifact;
+
+    public ArtifactTask(Artifact artifact) {
+      _artifact = artifact;
+    }
+
+    @Override
+    public Object call() throws Exception {
+      long t0 = System.currentTimeMillis();
+      try {
+        return ObjectSerializationLibrary.readObject(_artifact.getPath());
+      } finally {
+        handleArtifactLoaded(_artifact, System.currentTimeMillis() - t0);
+      }
+    }
+  }
+
+  private static class ArtifactLoaderThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger _index = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "BundleArtifactLoader-"
+          + _index.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
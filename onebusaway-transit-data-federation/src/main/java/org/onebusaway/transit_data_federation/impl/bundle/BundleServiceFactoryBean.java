@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.bundle;
+
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.config.AbstractFactoryBean;
+
+/**
+ * A Spring {@link FactoryBean} for a proxy to a service in whichever bundle is
+ * active, as returned by
+ * {@link HotSwapBundleManagementServiceImpl#getBundleService(Class)}.
+ */
+public class BundleServiceFactoryBean extends AbstractFactoryBean<Object> {
+
+  private HotSwapBundleManagementServiceImpl _bundleManagementService;
+
+  private Class<?> _serviceInterface;
+
+  public void setBundleManagementService(
+      HotSwapBundleManagementServiceImpl bundleManagementService) {
+    _bundleManagementService = bundleManagementService;
+  }
+
+  public void setServiceInterface(Class<?> serviceInterface) {
+    _serviceInterface = serviceInterface;
+  }
+
+  @Override
+  public Class<?> getObjectType() {
+    return _serviceInterface;
+  }
+
+  @Override
+  protected Object createInstance() throws Exception {
+    return _bundleManagementService.getBundleService(_serviceInterface);
+  }
+}
@@ -0,0 +1,606 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.bundle;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.onebusaway.container.refresh.RefreshService;
+import org.onebusaway.transit_data.services.TransitDataService;
+import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.services.bundle.BundleManagementService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.PropertyOverrideConfigurer;
+import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jmx.export.annotation.AnnotationJmxAttributeSource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.MetadataNamingStrategy;
+import org.springframework.jmx.export.naming.ObjectNamingStrategy;
+import org.springframework.jmx.support.ObjectNameManager;
+
+/**
+ * A {@link BundleManagementService} that can switch between transit data
+ * bundles without a restart and without exposing a half-refreshed bundle to
+ * requests.
+ *
+ * Each bundle is a sub-directory of the bundle root path, named by its bundle
+ * id. Every bundle gets its own application context, built from
+ * {@link #setConfigLocations(List)} with {@code bundlePath} pointing at the
+ * bundle directory, so the transit graph, block indices and every other
+ * {@link org.onebusaway.container.refresh.Refreshable} resource of the next
+ * bundle are loaded into a separate set of objects while the current bundle
+ * keeps serving. Once the next context is fully initialized it replaces the
+ * current one with a single atomic swap. The previous context is closed after
+ * the requests already running against it have drained, or after the drain
+ * timeout has expired.
+ *
+ * This class is intentionally not a {@code @Component}: deployments that want
+ * hot swapping declare it in an outer context that does not itself load the
+ * transit data federation. Callers in the outer context reach the active
+ * bundle through the proxies returned by {@link #getBundleService(Class)},
+ * typically declared with {@link BundleServiceFactoryBean}:
+ *
+ * <pre>
+ * &lt;bean id="transitDataService" class="org.onebusaway.transit_data_federation.impl.bundle.BundleServiceFactoryBean"&gt;
+ *   &lt;property name="bundleManagementService" ref="bundleManagementService" /&gt;
+ *   &lt;property name="serviceInterface" value="org.onebusaway.transit_data.services.TransitDataService" /&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ *
+ * Real-time data sources, such as GtfsRealtimeSource, belong in the outer
+ * context as well, so they keep polling across swaps. Their
+ * {@link org.onebusaway.realtime.api.VehicleLocationListener},
+ * {@link org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao}
+ * and other bundle-scoped dependencies should be such proxies, so that updates
+ * always reach the active bundle. After each swap, the outer
+ * {@link RefreshService} is asked to refresh every bundle resource (see
+ * {@link RefreshableResources}), so that sources drop anything derived from the
+ * previous bundle and re-send their current state on their next update.
+ * Real-time state held inside a bundle context, such as the vehicle location
+ * caches, refers to that bundle's graph and is not migrated: the next bundle
+ * starts empty and fills up from the sources' next updates.
+ *
+ * Within each bundle context, the bundle id is reported by
+ * {@link TrivialBundleManagementServiceImpl#getActiveBundleId()}, and managed
+ * resources are registered with an additional {@code bundle} key, so the
+ * overlapping contexts don't clash on JMX object names.
+ *
+ * @author bdferris
+ */
+@ManagedResource("org.onebusaway.transit_data_federation.impl.bundle:name=HotSwapBundleManagementServiceImpl")
+public class HotSwapBundleManagementServiceImpl implements
+    BundleManagementService {
+
+  private static Logger _log = LoggerFactory.getLogger(HotSwapBundleManagementServiceImpl.class);
+
+  private static final String DEFAULT_CONFIG_LOCATION = "classpath:org/onebusaway/transit_data_federation/application-context.xml";
+
+  /**
+   * Resources loaded from the bundle, refreshed in the outer context after
+   * each swap
+   */
+  private static final List<String> BUNDLE_RESOURCES = Arrays.asList(
+      RefreshableResources.CALENDAR_DATA,
+      RefreshableResources.ROUTE_COLLECTIONS_DATA,
+      RefreshableResources.ROUTE_COLLECTION_SEARCH_DATA,
+      RefreshableResources.STOP_SEARCH_DATA,
+      RefreshableResources.WALK_PLANNER_GRAPH,
+      RefreshableResources.TRANSIT_GRAPH,
+      RefreshableResources.BLOCK_INDEX_DATA,
+      RefreshableResources.BLOCK_INDEX_SERVICE,
+      RefreshableResources.STOP_TRANSFER_DATA,
+      RefreshableResources.STOP_GEOSPATIAL_INDEX,
+      RefreshableResources.SHAPE_GEOSPATIAL_INDEX,
+      RefreshableResources.TRANSFER_PATTERNS,
+      RefreshableResources.NARRATIVE_DATA);
+
+  private static final String BUNDLE_MANAGEMENT_SERVICE_BEAN_NAME = "trivialBundleManagementServiceImpl";
+
+  private static final String MBEAN_EXPORTER_BEAN_NAME = "mbeanExporter";
+
+  private File _bundleRootPath;
+
+  private String _initialBundleId;
+
+  private List<String> _configLocations = Arrays.asList(DEFAULT_CONFIG_LOCATION);
+
+  private Properties _properties = new Properties();
+
+  private int _drainTimeout = 60;
+
+  private RefreshService _refreshService;
+
+  private final AtomicReference<BundleContext> _activeBundle = new AtomicReference<BundleContext>();
+
+  private ExecutorService _executor;
+
+  private volatile long _lastLoadDuration = 0;
+
+  private volatile long _lastDrainDuration = 0;
+
+  private volatile long _lastOverlapDuration = 0;
+
+  private final AtomicInteger _swapCount = new AtomicInteger();
+
+  /**
+   * @param bundleRootPath a directory whose sub-directories are bundles, named
+   *          by bundle id
+   */
+  public void setBundleRootPath(File bundleRootPath) {
+    _bundleRootPath = bundleRootPath;
+  }
+
+  /**
+   * @param initialBundleId the bundle to load at startup. Defaults to the last
+   *          bundle id in lexicographic order.
+   */
+  public void setInitialBundleId(String initialBundleId) {
+    _initialBundleId = initialBundleId;
+  }
+
+  /**
+   * @param configLocations the Spring config locations used to build the
+   *          application context for each bundle
+   */
+  public void setConfigLocations(List<String> configLocations) {
+    _configLocations = configLocations;
+  }
+
+  /**
+   * @param properties additional placeholder values made available to each
+   *          bundle context, in addition to {@code bundlePath}
+   */
+  public void setProperties(Properties properties) {
+    _properties = properties;
+  }
+
+  /**
+   * @param drainTimeout time, in seconds, to wait for in-flight requests on
+   *          the previous bundle before it is closed regardless
+   */
+  public void setDrainTimeout(int drainTimeout) {
+    _drainTimeout = drainTimeout;
+  }
+
+  /**
+   * @param refreshService the refresh service of the outer context, notified
+   *          of every bundle resource after each swap
+   */
+  @Autowired(required = false)
+  public void setRefreshService(RefreshService refreshService) {
+    _refreshService = refreshService;
+  }
+
+  @PostConstruct
+  public void start() {
+    _executor = Executors.newSingleThreadExecutor();
+    String bundleId = _initialBundleId;
+    if (bundleId == null) {
+      List<String> bundleIds = getAvailableBundleIds();
+      if (bundleIds.isEmpty())
+        throw new IllegalStateException("no bundles found in "
+            + _bundleRootPath);
+      bundleId = bundleIds.get(bundleIds.size() - 1);
+    }
+    swapToBundle(bundleId);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (_executor != null)
+      _executor.shutdownNow();
+    BundleContext active = _activeBundle.getAndSet(null);
+    if (active != null)
+      active.close();
+  }
+
+  /****
+   * {@link BundleManagementService} Interface
+   ****/
+
+  @ManagedAttribute
+  @Override
+  public String getActiveBundleId() {
+    BundleContext active = _activeBundle.get();
+    return active != null ? active.getBundleId() : null;
+  }
+
+  /****
+   * Bundle-Scoped Services
+   ****/
+
+  public TransitDataService getTransitDataService() {
+    return getBundleService(TransitDataService.class);
+  }
+
+  /**
+   * @param serviceInterface an interface implemented by a bean in each bundle
+   *          context
+   * @return a proxy that dispatches each call to the bean in whichever bundle
+   *         is active when the call starts
+   */
+  public <T> T getBundleService(Class<T> serviceInterface) {
+    Object proxy = Proxy.newProxyInstance(
+        serviceInterface.getClassLoader(),
+        new Class<?>[] {serviceInterface},
+        new BundleServiceInvocationHandler(serviceInterface));
+    return serviceInterface.cast(proxy);
+  }
+
+  /****
+   * Bundle Swapping
+   ****/
+
+  @ManagedAttribute
+  public List<String> getAvailableBundleIds() {
+    List<String> bundleIds = new ArrayList<String>();
+    File[] files = _bundleRootPath.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory())
+          bundleIds.add(file.getName());
+      }
+    }
+    Collections.sort(bundleIds);
+    return bundleIds;
+  }
+
+  /**
+   * Loads the specified bundle in the background and makes it active once it
+   * is fully initialized.
+   */
+  @ManagedOperation
+  public Future<?> switchToBundle(final String bundleId) {
+    return _executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          swapToBundle(bundleId);
+        } catch (Throwable ex) {
+          _log.error("error switching to bundle " + bundleId, ex);
+        }
+      }
+    });
+  }
+
+  @ManagedAttribute
+  public long getLastLoadDuration() {
+    return _lastLoadDuration;
+  }
+
+  @ManagedAttribute
+  public long getLastDrainDuration() {
+    return _lastDrainDuration;
+  }
+
+  /**
+   * @return time, in ms, that both the previous and the next bundle were held
+   *         in memory during the last swap: from the start of loading the next
+   *         bundle until the previous bundle was closed, so the load and the
+   *         drain together
+   */
+  @ManagedAttribute
+  public long getLastOverlapDuration() {
+    return _lastOverlapDuration;
+  }
+
+  @ManagedAttribute
+  public int getSwapCount() {
+    return _swapCount.get();
+  }
+
+  @ManagedAttribute
+  public int getInFlightRequestCount() {
+    BundleContext active = _activeBundle.get();
+    return active != null ? active.getInFlightRequestCount() : 0;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void swapToBundle(String bundleId) {
+
+    BundleContext previous = _activeBundle.get();
+    if (previous != null && previous.getBundleId().equals(bundleId)) {
+      _log.info("bundle already active: " + bundleId);
+      return;
+    }
+
+    File bundlePath = new File(_bundleRootPath, bundleId);
+    if (!bundlePath.isDirectory())
+      throw new IllegalArgumentException("unknown bundle: " + bundleId);
+
+    _log.info("loading bundle " + bundleId);
+
+    long t0 = System.currentTimeMillis();
+
+    BundleContext next = new BundleContext(bundleId, createContext(bundleId,
+        bundlePath));
+
+    _lastLoadDuration = System.currentTimeMillis() - t0;
+
+    _log.info("bundle " + bundleId + " loaded in " + _lastLoadDuration
+        + " ms");
+
+    _activeBundle.set(next);
+    _swapCount.incrementAndGet();
+
+    /**
+     * Only now that the next bundle is active, so anything rebuilt by the
+     * refresh is built from it
+     */
+    refreshOuterContext();
+
+    if (previous == null)
+      return;
+
+    _log.info("swapped bundle " + previous.getBundleId() + " for " + bundleId
+        + ", draining in-flight requests");
+
+    long t1 = System.currentTimeMillis();
+    if (!previous.drain(_drainTimeout * 1000L))
+      _log.warn("closing bundle " + previous.getBundleId() + " with "
+          + previous.getInFlightRequestCount() + " requests still in flight");
+    _lastDrainDuration = System.currentTimeMillis() - t1;
+
+    previous.close();
+
+    _lastOverlapDuration = System.currentTimeMillis() - t0;
+
+    _log.info("released bundle " + previous.getBundleId() + " after "
+        + _lastOverlapDuration + " ms with both bundles loaded");
+  }
+
+  private void refreshOuterContext() {
+    if (_refreshService == null)
+      return;
+    for (String resource : BUNDLE_RESOURCES) {
+      try {
+        _refreshService.refresh(resource);
+      } catch (Throwable ex) {
+        _log.error("error refreshing " + resource + " after bundle swap", ex);
+      }
+    }
+  }
+
+  private ConfigurableApplicationContext createContext(final String bundleId,
+      File bundlePath) {
+
+    ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
+        _configLocations.toArray(new String[_configLocations.size()]), false);
+
+    Properties properties = new Properties();
+    properties.putAll(_properties);
+    properties.setProperty("bundlePath", bundlePath.getAbsolutePath());
+
+    PropertyPlaceholderConfigurer placeholders = new PropertyPlaceholderConfigurer();
+    placeholders.setProperties(properties);
+    placeholders.setIgnoreUnresolvablePlaceholders(true);
+    context.addBeanFactoryPostProcessor(placeholders);
+
+    /**
+     * Bundle contexts overlap during a swap, so keep them from clashing on the
+     * shared cache manager name, and have the bundle report its own id
+     */
+    Properties overrides = new Properties();
+    overrides.setProperty("cacheManager.cacheManagerName",
+        "org.onebusaway.cacheManager." + bundleId);
+    overrides.setProperty(BUNDLE_MANAGEMENT_SERVICE_BEAN_NAME
+        + ".activeBundleId", bundleId);
+    PropertyOverrideConfigurer overrideConfigurer = new PropertyOverrideConfigurer();
+    overrideConfigurer.setProperties(overrides);
+    overrideConfigurer.setIgnoreInvalidKeys(true);
+    context.addBeanFactoryPostProcessor(overrideConfigurer);
+
+    /**
+     * ... and on managed resource names, so that closing the previous context
+     * only unregisters its own resources
+     */
+    context.addBeanFactoryPostProcessor(new BeanFactoryPostProcessor() {
+      @Override
+      public void postProcessBeanFactory(
+          ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        if (!beanFactory.containsBeanDefinition(MBEAN_EXPORTER_BEAN_NAME))
+          return;
+        BeanDefinition exporter = beanFactory.getBeanDefinition(MBEAN_EXPORTER_BEAN_NAME);
+        exporter.getPropertyValues().addPropertyValue("namingStrategy",
+            new BundleNamingStrategy(bundleId));
+      }
+    });
+
+    context.refresh();
+    return context;
+  }
+
+  /**
+   * An application context for a single bundle, along with a count of the
+   * requests currently running against it. Once the count is set to -1 the
+   * context accepts no further requests.
+   */
+  private static class BundleContext {
+
+    private final String _bundleId;
+
+    private final ConfigurableApplicationContext _context;
+
+    private final AtomicInteger _inFlight = new AtomicInteger();
+
+    private final ConcurrentMap<Class<?>, Object> _beansByType = new ConcurrentHashMap<Class<?>, Object>();
+
+    public BundleContext(String bundleId, ConfigurableApplicationContext context) {
+      _bundleId = bundleId;
+      _context = context;
+    }
+
+    public String getBundleId() {
+      return _bundleId;
+    }
+
+    public <T> T getBean(Class<T> type) {
+      Object bean = _beansByType.get(type);
+      if (bean == null) {
+        Map<?, ?> beans = _context.getBeansOfType(type);
+        if (beans.size() != 1)
+          throw new IllegalStateException("expected exactly one bean of type "
+              + type.getName() + " in bundle " + _bundleId + " but found "
+              + beans.size());
+        bean = beans.values().iterator().next();
+        _beansByType.put(type, bean);
+      }
+      return type.cast(bean);
+    }
+
+    public int getInFlightRequestCount() {
+      return Math.max(0, _inFlight.get());
+    }
+
+    public boolean acquire() {
+      while (true) {
+        int n = _inFlight.get();
+        if (n < 0)
+          return false;
+        if (_inFlight.compareAndSet(n, n + 1))
+          return true;
+      }
+    }
+
+    public void release() {
+      _inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return true if all in-flight requests completed within the timeout
+     */
+    public boolean drain(long timeout) {
+      long deadline = System.currentTimeMillis() + timeout;
+      while (!_inFlight.compareAndSet(0, -1)) {
+        if (System.currentTimeMillis() >= deadline) {
+          _inFlight.set(-1);
+          return false;
+        }
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          _inFlight.set(-1);
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public void close() {
+      _context.close();
+    }
+  }
+
+  /**
+   * Names managed resources from their {@link ManagedResource} annotations,
+   * with the bundle id as an additional key
+   */
+  private static class BundleNamingStrategy implements ObjectNamingStrategy {
+
+    private final MetadataNamingStrategy _metadataNamingStrategy = new MetadataNamingStrategy(
+        new AnnotationJmxAttributeSource());
+
+    private final String _bundleId;
+
+    public BundleNamingStrategy(String bundleId) {
+      _bundleId = bundleId;
+    }
+
+    @Override
+    public ObjectName getObjectName(Object managedBean, String beanKey)
+        throws MalformedObjectNameException {
+      ObjectName objName = _metadataNamingStrategy.getObjectName(managedBean,
+          beanKey);
+      return ObjectNameManager.getInstance(objName.getCanonicalName()
+          + ",bundle=" + ObjectName.quote(_bundleId));
+    }
+  }
+
+  private class BundleServiceInvocationHandler implements InvocationHandler {
+
+    private final Class<?> _serviceInterface;
+
+    public BundleServiceInvocationHandler(Class<?> serviceInterface) {
+      _serviceInterface = serviceInterface;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+
+      if (method.getDeclaringClass() == Object.class)
+        return method.invoke(this, args);
+
+      while (true) {
+
+        BundleContext bundle = _activeBundle.get();
+        if (bundle == null)
+          throw new IllegalStateException("no active bundle");
+
+        /**
+         * If the bundle was retired between the read and the acquire, retry
+         * against its replacement
+         */
+        if (!bundle.acquire())
+          continue;
+
+        try {
+          Object target = bundle.getBean(_serviceInterface);
+          return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+          throw ex.getCause();
+        } finally {
+          bundle.release();
+        }
+      }
+    }
+  }
+}
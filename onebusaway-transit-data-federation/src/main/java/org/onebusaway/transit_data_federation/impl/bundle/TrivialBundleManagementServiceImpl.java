@@ -18,12 +18,23 @@ package org.onebusaway.transit_data_federation.impl.bundle;
 import org.onebusaway.transit_data_federation.services.bundle.BundleManagementService;
 import org.springframework.stereotype.Component;
 
+/**
+ * Reports the id of the one bundle this context was loaded from, if known.
+ * {@link HotSwapBundleManagementServiceImpl} sets it in each bundle context it
+ * creates.
+ */
 @Component
 public class TrivialBundleManagementServiceImpl implements BundleManagementService {
 
+	private String _activeBundleId;
+
+	public void setActiveBundleId(String activeBundleId) {
+		_activeBundleId = activeBundleId;
+	}
+
 	@Override
 	public String getActiveBundleId() {
-		return null;
+		return _activeBundleId;
 	}
 
 }
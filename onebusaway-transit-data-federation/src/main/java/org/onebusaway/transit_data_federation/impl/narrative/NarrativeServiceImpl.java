@@ -31,9 +31,9 @@ import org.onebusaway.transit_data_federation.model.narrative.StopNarrative;
 import org.onebusaway.transit_data_federation.model.narrative.StopTimeNarrative;
 import org.onebusaway.transit_data_federation.model.narrative.TripNarrative;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
 import org.onebusaway.transit_data_federation.services.narrative.NarrativeService;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
-import org.onebusaway.utility.ObjectSerializationLibrary;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -44,11 +44,18 @@ public class NarrativeServiceImpl implements NarrativeService {
 
   private FederatedTransitDataBundle _bundle;
 
+  private BundleArtifactLoader _artifactLoader;
+
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
   }
 
+  @Autowired
+  public void setArtifactLoader(BundleArtifactLoader artifactLoader) {
+    _artifactLoader = artifactLoader;
+  }
+
   public void setStopTimeNarrativeProvider(NarrativeProviderImpl provider) {
     _provider = provider;
   }
@@ -58,7 +65,7 @@ public class NarrativeServiceImpl implements NarrativeService {
   public void setup() throws IOException, ClassNotFoundException {
     File path = _bundle.getNarrativeProviderPath();
     if (path.exists()) {
-      _provider = ObjectSerializationLibrary.readObject(path);
+      _provider = _artifactLoader.readObject(path);
     } else {
       _provider = new NarrativeProviderImpl();
     }
@@ -17,9 +17,9 @@ package org.onebusaway.transit_data_federation.impl.realtime;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
@@ -52,9 +52,16 @@ class BlockLocationRecordCacheImpl implements BlockLocationRecordCache {
 
   private ConcurrentMap<BlockLocationRecordKey, BlockLocationRecordCollection> _recordsByKey = new ConcurrentHashMap<BlockLocationRecordKey, BlockLocationRecordCollection>();
 
-  private ConcurrentMap<AgencyAndId, List<BlockLocationRecordKey>> _keysByVehicleId = new ConcurrentHashMap<AgencyAndId, List<BlockLocationRecordKey>>();
+  private ConcurrentMap<AgencyAndId, Set<BlockLocationRecordKey>> _keysByVehicleId = new ConcurrentHashMap<AgencyAndId, Set<BlockLocationRecordKey>>();
 
-  private ConcurrentMap<BlockInstance, List<BlockLocationRecordKey>> _keysByBlockInstance = new ConcurrentHashMap<BlockInstance, List<BlockLocationRecordKey>>();
+  private ConcurrentMap<BlockInstance, Set<BlockLocationRecordKey>> _keysByBlockInstance = new ConcurrentHashMap<BlockInstance, Set<BlockLocationRecordKey>>();
+
+  /**
+   * Tracks the measured last update time of each key, so that stale records
+   * can be found without scanning the entire cache
+   */
+  private TimeBucketedEvictionQueue<BlockLocationRecordKey> _evictionQueue = new TimeBucketedEvictionQueue<BlockLocationRecordKey>(
+      10 * 1000);
 
   /**
    * By default, we keep around 20 minutes of cache entries
@@ -138,6 +145,7 @@ class BlockLocationRecordCacheImpl implements BlockLocationRecordCache {
       if (records == null) {
         addKeyToMap(_keysByVehicleId, vehicleId, key);
         addKeyToMap(_keysByBlockInstance, blockInstance, key);
+        _evictionQueue.touch(key, newRecords.getMeasuredLastUpdateTime());
       }
     }
 
@@ -145,13 +153,14 @@ class BlockLocationRecordCacheImpl implements BlockLocationRecordCache {
       records = records.addRecord(blockInstance, record,
           _blockLocationRecordCacheWindowSize * 1000);
       _recordsByKey.put(key, records);
+      _evictionQueue.touch(key, records.getMeasuredLastUpdateTime());
     }
   }
 
   @Override
   public void clearRecordsForVehicleId(AgencyAndId vehicleId) {
 
-    List<BlockLocationRecordKey> keysForVehicleId = _keysByVehicleId.remove(vehicleId);
+    Set<BlockLocationRecordKey> keysForVehicleId = _keysByVehicleId.remove(vehicleId);
 
     if (keysForVehicleId != null) {
       List<BlockLocationRecordKey> keys = new ArrayList<BlockLocationRecordKey>(
@@ -162,17 +171,21 @@ class BlockLocationRecordCacheImpl implements BlockLocationRecordCache {
   }
 
   public void clearStaleRecords(long time) {
-    Iterator<Entry<BlockLocationRecordKey, BlockLocationRecordCollection>> it = _recordsByKey.entrySet().iterator();
-    while (it.hasNext()) {
-      Entry<BlockLocationRecordKey, BlockLocationRecordCollection> entry = it.next();
-      BlockLocationRecordKey key = entry.getKey();
-      BlockLocationRecordCollection value = entry.getValue();
+    for (BlockLocationRecordKey key : _evictionQueue.pollExpired(time)) {
+      BlockLocationRecordCollection value = _recordsByKey.get(key);
+      if (value == null)
+        continue;
       if (value.getMeasuredLastUpdateTime() < time) {
         if (_log.isDebugEnabled())
           _log.debug("pruning block location record cache for vehicle="
               + key.getVehicleId() + " block=" + key.getBlockInstance());
-        it.remove();
-        removeRecordsForKey(key, false);
+        if (_recordsByKey.remove(key, value))
+          removeRecordsForKey(key, false);
+        else
+          touchIfPresent(key);
+      } else {
+        // The records were updated while we were evicting
+        _evictionQueue.touch(key, value.getMeasuredLastUpdateTime());
       }
     }
   }
@@ -181,11 +194,17 @@ class BlockLocationRecordCacheImpl implements BlockLocationRecordCache {
    * Private Methods
    ****/
 
+  private void touchIfPresent(BlockLocationRecordKey key) {
+    BlockLocationRecordCollection records = _recordsByKey.get(key);
+    if (records != null)
+      _evictionQueue.touch(key, records.getMeasuredLastUpdateTime());
+  }
+
   private <K> List<BlockLocationRecordCollection> getRecordsFromMap(
-      ConcurrentMap<K, List<BlockLocationRecordKey>> map, K subKey) {
+      ConcurrentMap<K, Set<BlockLocationRecordKey>> map, K subKey) {
 
     List<BlockLocationRecordCollection> allRecords = new ArrayList<BlockLocationRecordCollection>();
-    List<BlockLocationRecordKey> keys = map.get(subKey);
+    Set<BlockLocationRecordKey> keys = map.get(subKey);
 
     if (keys != null) {
       for (BlockLocationRecordKey key : keys) {
@@ -199,73 +218,59 @@ class BlockLocationRecordCacheImpl implements BlockLocationRecordCache {
   }
 
   private <K> void addKeyToMap(
-      ConcurrentMap<K, List<BlockLocationRecordKey>> map, K subKey,
+      ConcurrentMap<K, Set<BlockLocationRecordKey>> map, K subKey,
       BlockLocationRecordKey key) {
 
     while (true) {
 
-      List<BlockLocationRecordKey> keys = map.get(subKey);
+      Set<BlockLocationRecordKey> keys = map.get(subKey);
 
       if (keys == null) {
-        List<BlockLocationRecordKey> newKeys = Arrays.asList(key);
+        Set<BlockLocationRecordKey> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<BlockLocationRecordKey, Boolean>());
         keys = map.putIfAbsent(subKey, newKeys);
         if (keys == null)
-          return;
+          keys = newKeys;
       }
 
-      List<BlockLocationRecordKey> origCopy = new ArrayList<BlockLocationRecordKey>(
-          keys);
-
-      if (origCopy.contains(key))
-        return;
-
-      List<BlockLocationRecordKey> extendedCopy = new ArrayList<BlockLocationRecordKey>(
-          origCopy);
-      extendedCopy.add(key);
-
-      if (map.replace(subKey, origCopy, extendedCopy))
-        return;
+      /**
+       * Writers synchronize on the set so that a set can't be removed from the
+       * map as empty while we are adding to it. If the set was removed before
+       * we got to it, we try again with a fresh set.
+       */
+      synchronized (keys) {
+        if (map.get(subKey) == keys) {
+          keys.add(key);
+          return;
+        }
+      }
     }
   }
 
   private void removeRecordsForKey(BlockLocationRecordKey key,
       boolean removeRecords) {
 
-    if (removeRecords)
+    if (removeRecords) {
       _recordsByKey.remove(key);
+      _evictionQueue.remove(key);
+    }
 
     removeKeyFromMap(_keysByBlockInstance, key, key.getBlockInstance());
     removeKeyFromMap(_keysByVehicleId, key, key.getVehicleId());
   }
 
   private <K> void removeKeyFromMap(
-      ConcurrentMap<K, List<BlockLocationRecordKey>> map,
+      ConcurrentMap<K, Set<BlockLocationRecordKey>> map,
       BlockLocationRecordKey key, K subKey) {
 
-    while (true) {
-
-      List<BlockLocationRecordKey> keys = map.get(subKey);
-
-      if (keys == null)
-        return;
-
-      List<BlockLocationRecordKey> origCopy = new ArrayList<BlockLocationRecordKey>(
-          keys);
+    Set<BlockLocationRecordKey> keys = map.get(subKey);
 
-      if (!origCopy.contains(key))
-        return;
+    if (keys == null)
+      return;
 
-      List<BlockLocationRecordKey> reducedCopy = new ArrayList<BlockLocationRecordKey>(
-          origCopy);
-      reducedCopy.remove(key);
-
-      if (reducedCopy.isEmpty()) {
-        if (map.remove(subKey, origCopy))
-          return;
-      } else {
-        if (map.replace(subKey, origCopy, reducedCopy))
-          return;
-      }
+    synchronized (keys) {
+      keys.remove(key);
+      if (keys.isEmpty())
+        map.remove(subKey, keys);
     }
   }
 
@@ -19,7 +19,9 @@ import java.sql.SQLException;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -50,11 +52,25 @@ public class BlockLocationRecordDaoImpl implements BlockLocationRecordDao {
 
   private AtomicInteger _savedRecordCount = new AtomicInteger();
 
+  private int _batchSize = 1000;
+
   @Autowired
   public void setSessionFactory(SessionFactory sessionFactory) {
     _template = new HibernateTemplate(sessionFactory);
   }
 
+  /**
+   * The number of records inserted between each flush of the session in
+   * {@link #saveBlockLocationRecords(List)}. This should match the
+   * "hibernate.jdbc.batch_size" property, so that each flush is sent as a
+   * single JDBC batch.
+   * 
+   * @param batchSize
+   */
+  public void setBatchSize(int batchSize) {
+    _batchSize = batchSize;
+  }
+
   @ManagedAttribute
   public int getSavedRecordCount() {
     return _savedRecordCount.intValue();
@@ -70,9 +86,41 @@ public class BlockLocationRecordDaoImpl implements BlockLocationRecordDao {
     _savedRecordCount.incrementAndGet();
   }
 
+  /**
+   * Records are immutable and always new, so rather than saveOrUpdate each
+   * record we insert them in batches, flushing and clearing the session after
+   * each batch so it doesn't grow with the number of records.
+   */
   @Override
-  public void saveBlockLocationRecords(List<BlockLocationRecord> records) {
-    _template.saveOrUpdateAll(records);
+  public void saveBlockLocationRecords(final List<BlockLocationRecord> records) {
+
+    if (records.isEmpty())
+      return;
+
+    _template.execute(new HibernateCallback<Object>() {
+
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException,
+          SQLException {
+
+        session.setCacheMode(CacheMode.IGNORE);
+        session.setFlushMode(FlushMode.MANUAL);
+
+        int count = 0;
+        for (BlockLocationRecord record : records) {
+          session.save(record);
+          if (++count % _batchSize == 0) {
+            session.flush();
+            session.clear();
+          }
+        }
+
+        session.flush();
+        session.clear();
+        return null;
+      }
+    });
+
     _savedRecordCount.addAndGet(records.size());
   }
 
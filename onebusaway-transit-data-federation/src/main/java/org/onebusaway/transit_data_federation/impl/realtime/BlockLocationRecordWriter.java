@@ -0,0 +1,303 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronously persists {@link BlockLocationRecord} records to a
+ * {@link BlockLocationRecordDao} in batches.
+ *
+ * Records are added to a bounded, non-blocking queue so the realtime update
+ * path never waits on the database. A background thread drains the queue every
+ * flush interval, saving at most batch size records per call to the dao. When
+ * the database falls behind and the queue reaches its capacity, records are
+ * dropped according to the {@link EOverflowPolicy}.
+ */
+public class BlockLocationRecordWriter {
+
+  private static Logger _log = LoggerFactory.getLogger(BlockLocationRecordWriter.class);
+
+  public enum EOverflowPolicy {
+
+    /**
+     * Discard the record being added, keeping the records already queued
+     */
+    DROP_NEWEST,
+
+    /**
+     * Discard the oldest queued record to make room for the record being added
+     */
+    DROP_OLDEST
+  }
+
+  private final Queue<BlockLocationRecord> _queue = new ConcurrentLinkedQueue<BlockLocationRecord>();
+
+  /**
+   * {@link ConcurrentLinkedQueue#size()} is O(n), so we track the size
+   * ourselves
+   */
+  private final AtomicInteger _queueSize = new AtomicInteger();
+
+  private BlockLocationRecordDao _blockLocationRecordDao;
+
+  private int _capacity = 100000;
+
+  private int _batchSize = 500;
+
+  private long _flushInterval = 1000;
+
+  private EOverflowPolicy _overflowPolicy = EOverflowPolicy.DROP_OLDEST;
+
+  private ScheduledExecutorService _executor;
+
+  /****
+   * Stats
+   ****/
+
+  private final AtomicLong _insertedCount = new AtomicLong();
+
+  private final AtomicLong _droppedCount = new AtomicLong();
+
+  private final AtomicLong _failedCount = new AtomicLong();
+
+  private volatile long _lastInsertDuration = 0;
+
+  private volatile long _lastInsertCount = 0;
+
+  private volatile double _lastInsertRate = 0;
+
+  public void setBlockLocationRecordDao(
+      BlockLocationRecordDao blockLocationRecordDao) {
+    _blockLocationRecordDao = blockLocationRecordDao;
+  }
+
+  /**
+   * @param capacity the maximum number of records waiting to be persisted
+   */
+  public void setCapacity(int capacity) {
+    _capacity = capacity;
+  }
+
+  /**
+   * @param batchSize the maximum number of records saved in a single call to
+   *          the dao
+   */
+  public void setBatchSize(int batchSize) {
+    _batchSize = batchSize;
+  }
+
+  /**
+   * @param flushInterval time between flushes of the queue, in ms
+   */
+  public void setFlushInterval(long flushInterval) {
+    _flushInterval = flushInterval;
+  }
+
+  public void setOverflowPolicy(EOverflowPolicy overflowPolicy) {
+    _overflowPolicy = overflowPolicy;
+  }
+
+  public synchronized void start() {
+    if (_executor == null) {
+      _executor = Executors.newSingleThreadScheduledExecutor(new WriterThreadFactory());
+      _executor.scheduleWithFixedDelay(new FlushTask(), _flushInterval,
+          _flushInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stops the background writer, making a final attempt to persist any queued
+   * records
+   */
+  public void stop() {
+    ScheduledExecutorService executor = null;
+    synchronized (this) {
+      executor = _executor;
+      _executor = null;
+    }
+    if (executor == null)
+      return;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(_flushInterval, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdownNow();
+    flush();
+  }
+
+  public void addRecords(List<BlockLocationRecord> records) {
+    for (BlockLocationRecord record : records)
+      addRecord(record);
+  }
+
+  public void addRecord(BlockLocationRecord record) {
+
+    if (_queueSize.incrementAndGet() > _capacity) {
+      switch (_overflowPolicy) {
+        case DROP_NEWEST:
+          _queueSize.decrementAndGet();
+          _droppedCount.incrementAndGet();
+          return;
+        case DROP_OLDEST:
+          if (_queue.poll() != null) {
+            _queueSize.decrementAndGet();
+            _droppedCount.incrementAndGet();
+          }
+          break;
+      }
+    }
+
+    _queue.add(record);
+  }
+
+  /**
+   * Persists all currently queued records, in batches of at most batch size
+   * records. Called periodically by the background writer.
+   */
+  public synchronized void flush() {
+
+    List<BlockLocationRecord> batch = new ArrayList<BlockLocationRecord>(
+        Math.min(_batchSize, Math.max(_queueSize.get(), 1)));
+
+    long count = 0;
+    long t1 = System.currentTimeMillis();
+
+    while (true) {
+
+      batch.clear();
+      while (batch.size() < _batchSize) {
+        BlockLocationRecord record = _queue.poll();
+        if (record == null)
+          break;
+        _queueSize.decrementAndGet();
+        batch.add(record);
+      }
+
+      if (batch.isEmpty())
+        break;
+
+      try {
+        _blockLocationRecordDao.saveBlockLocationRecords(batch);
+        count += batch.size();
+      } catch (Throwable ex) {
+        _failedCount.addAndGet(batch.size());
+        _log.error("error writing block location records to dao", ex);
+      }
+    }
+
+    if (count == 0)
+      return;
+
+    long t2 = System.currentTimeMillis();
+    long duration = t2 - t1;
+
+    _insertedCount.addAndGet(count);
+    _lastInsertDuration = duration;
+    _lastInsertCount = count;
+    _lastInsertRate = count * 1000.0 / Math.max(duration, 1);
+  }
+
+  /****
+   * Stats
+   ****/
+
+  public int getQueueSize() {
+    return _queueSize.get();
+  }
+
+  /**
+   * @return the total number of records persisted
+   */
+  public long getInsertedCount() {
+    return _insertedCount.get();
+  }
+
+  /**
+   * @return the total number of records dropped because the queue was full
+   */
+  public long getDroppedCount() {
+    return _droppedCount.get();
+  }
+
+  /**
+   * @return the total number of records lost to dao errors
+   */
+  public long getFailedCount() {
+    return _failedCount.get();
+  }
+
+  /**
+   * @return duration of the last flush, in ms
+   */
+  public long getLastInsertDuration() {
+    return _lastInsertDuration;
+  }
+
+  /**
+   * @return the number of records persisted by the last flush
+   */
+  public long getLastInsertCount() {
+    return _lastInsertCount;
+  }
+
+  /**
+   * @return records persisted per second during the last flush
+   */
+  public double getLastInsertRate() {
+    return _lastInsertRate;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private class FlushTask implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        flush();
+      } catch (Throwable ex) {
+        _log.error("error flushing block location records", ex);
+      }
+    }
+  }
+
+  private static class WriterThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "BlockLocationRecordWriter");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -26,9 +26,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
@@ -134,25 +131,9 @@ public class BlockLocationServiceImpl implements BlockLocationService,
 
   /**
    * We queue up block location records so they can be bulk persisted to the
-   * database
+   * database in the background
    */
-  private List<BlockLocationRecord> _recordPersistenceQueue = new ArrayList<BlockLocationRecord>();
-
-  /**
-   * Used to schedule periodic flushes to the database of the block location
-   * records queue
-   */
-  private ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor();
-
-  /**
-   * Block location record persistence stats - last record insert duration
-   */
-  private volatile long _lastInsertDuration = 0;
-
-  /**
-   * Block location record persistence stats - last record insert count
-   */
-  private volatile long _lastInsertCount = 0;
+  private BlockLocationRecordWriter _recordWriter = new BlockLocationRecordWriter();
 
   /**
    * Records the number of times block location record cache requests fall
@@ -220,6 +201,44 @@ public class BlockLocationServiceImpl implements BlockLocationService,
     _persistBlockLocationRecords = persistBlockLocationRecords;
   }
 
+  /**
+   * The maximum number of {@link BlockLocationRecord} records waiting to be
+   * persisted. Once full, records are dropped according to
+   * {@link #setPersistenceOverflowPolicy(String)}.
+   * 
+   * @param capacity
+   */
+  @ConfigurationParameter
+  public void setPersistenceQueueCapacity(int capacity) {
+    _recordWriter.setCapacity(capacity);
+  }
+
+  /**
+   * @param batchSize the maximum number of records written to the database in
+   *          a single batch
+   */
+  @ConfigurationParameter
+  public void setPersistenceBatchSize(int batchSize) {
+    _recordWriter.setBatchSize(batchSize);
+  }
+
+  /**
+   * @param flushInterval time between writes of queued records to the
+   *          database, in ms
+   */
+  @ConfigurationParameter
+  public void setPersistenceFlushInterval(long flushInterval) {
+    _recordWriter.setFlushInterval(flushInterval);
+  }
+
+  /**
+   * @param overflowPolicy one of {@link BlockLocationRecordWriter.EOverflowPolicy}
+   */
+  @ConfigurationParameter
+  public void setPersistenceOverflowPolicy(String overflowPolicy) {
+    _recordWriter.setOverflowPolicy(BlockLocationRecordWriter.EOverflowPolicy.valueOf(overflowPolicy));
+  }
+
   /**
    * When true, we will interpolate the current location of a transit vehicle
    * based on the last know location of the bus and the schedule deviation of
@@ -252,12 +271,37 @@ public class BlockLocationServiceImpl implements BlockLocationService,
 
   @ManagedAttribute
   public long getLastInsertDuration() {
-    return _lastInsertDuration;
+    return _recordWriter.getLastInsertDuration();
   }
 
   @ManagedAttribute
   public long getLastInsertCount() {
-    return _lastInsertCount;
+    return _recordWriter.getLastInsertCount();
+  }
+
+  @ManagedAttribute
+  public double getLastInsertRate() {
+    return _recordWriter.getLastInsertRate();
+  }
+
+  @ManagedAttribute
+  public int getPersistenceQueueSize() {
+    return _recordWriter.getQueueSize();
+  }
+
+  @ManagedAttribute
+  public long getPersistenceInsertedCount() {
+    return _recordWriter.getInsertedCount();
+  }
+
+  @ManagedAttribute
+  public long getPersistenceDroppedCount() {
+    return _recordWriter.getDroppedCount();
+  }
+
+  @ManagedAttribute
+  public long getPersistenceFailedCount() {
+    return _recordWriter.getFailedCount();
   }
 
   @ManagedAttribute
@@ -271,14 +315,15 @@ public class BlockLocationServiceImpl implements BlockLocationService,
 
   @PostConstruct
   public void start() {
-    if (_persistBlockLocationRecords)
-      _executor.scheduleAtFixedRate(new PredictionWriter(), 0, 1,
-          TimeUnit.SECONDS);
+    if (_persistBlockLocationRecords) {
+      _recordWriter.setBlockLocationRecordDao(_blockLocationRecordDao);
+      _recordWriter.start();
+    }
   }
 
   @PreDestroy
   public void stop() {
-    _executor.shutdownNow();
+    _recordWriter.stop();
   }
 
   /****
@@ -496,7 +541,7 @@ public class BlockLocationServiceImpl implements BlockLocationService,
     if (_persistBlockLocationRecords) {
       List<BlockLocationRecord> blockLocationRecords = getVehicleLocationRecordAsBlockLocationRecord(
           blockInstance, record, scheduledBlockLocation);
-      addPredictionToPersistenceQueue(blockLocationRecords);
+      _recordWriter.addRecords(blockLocationRecords);
     }
   }
 
@@ -961,43 +1006,6 @@ public class BlockLocationServiceImpl implements BlockLocationService,
     return recordsByKey;
   }
 
-  private void addPredictionToPersistenceQueue(List<BlockLocationRecord> records) {
-    synchronized (_recordPersistenceQueue) {
-      _recordPersistenceQueue.addAll(records);
-    }
-  }
-
-  private List<BlockLocationRecord> getPredictionPersistenceQueue() {
-    synchronized (_recordPersistenceQueue) {
-      List<BlockLocationRecord> queue = new ArrayList<BlockLocationRecord>(
-          _recordPersistenceQueue);
-      _recordPersistenceQueue.clear();
-      return queue;
-    }
-  }
-
-  private class PredictionWriter implements Runnable {
-
-    @Override
-    public void run() {
-
-      try {
-        List<BlockLocationRecord> queue = getPredictionPersistenceQueue();
-
-        if (queue.isEmpty())
-          return;
-
-        long t1 = System.currentTimeMillis();
-        _blockLocationRecordDao.saveBlockLocationRecords(queue);
-        long t2 = System.currentTimeMillis();
-        _lastInsertDuration = t2 - t1;
-        _lastInsertCount = queue.size();
-      } catch (Throwable ex) {
-        _log.error("error writing block location records to dao", ex);
-      }
-    }
-  }
-
   private interface RecordStrategy {
 
     public List<VehicleLocationCacheElements> getRecordsFromCache();
@@ -0,0 +1,473 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.realtime.api.VehicleLocationRecord;
+import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
+import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocation;
+import org.onebusaway.transit_data_federation.services.realtime.ScheduleDeviationSamples;
+import org.onebusaway.transit_data_federation.services.realtime.VehicleLocationCacheElement;
+import org.onebusaway.transit_data_federation.services.realtime.VehicleLocationCacheElements;
+import org.onebusaway.transit_data_federation.services.realtime.VehicleLocationRecordCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An allocation-light alternative to {@link VehicleLocationRecordCacheImpl}.
+ *
+ * Vehicle ids and block instances are interned to int handles when first seen.
+ * Per-vehicle state (current block instance handle and oldest cached update
+ * time) is kept in primitive arrays indexed by vehicle handle, and the block
+ * instance => vehicle reverse index is kept as small int arrays indexed by
+ * block instance handle. Vehicle handles are recycled once a vehicle's records
+ * are cleared or expire, and block instance handles are recycled once no
+ * vehicle is serving the block instance anymore, so the arrays only grow with
+ * the number of vehicles active at once.
+ *
+ * Elements older than the cache window are pruned as each record is added, and
+ * vehicles that have stopped reporting are found with a
+ * {@link TimeBucketedEvictionQueue} keyed by vehicle handle, so eviction only
+ * visits vehicles that are actually stale.
+ *
+ * Reads are lock-free. For each block instance, we maintain an immutable list
+ * of the current {@link VehicleLocationCacheElements} for all vehicles serving
+ * that block, rebuilt when one of those vehicles reports. Since reads are far
+ * more frequent than writes, {@link #getRecordsForBlockInstance(BlockInstance)}
+ * returns that read-only list directly instead of building a new one on every
+ * call. Writes are serialized on the cache itself.
+ *
+ * This implementation is not registered automatically. To use it, define it
+ * as a bean with primary="true" so that it is wired in place of
+ * {@link VehicleLocationRecordCacheImpl}.
+ *
+ * @author bdferris
+ * @see VehicleLocationRecordCacheImpl
+ */
+public class CompactVehicleLocationRecordCacheImpl implements
+    VehicleLocationRecordCache {
+
+  private static Logger _log = LoggerFactory.getLogger(CompactVehicleLocationRecordCacheImpl.class);
+
+  private static final int NO_BLOCK_INSTANCE = -1;
+
+  private static final int[] EMPTY_HANDLES = new int[0];
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final ConcurrentMap<AgencyAndId, Integer> _vehicleHandles = new ConcurrentHashMap<AgencyAndId, Integer>();
+
+  private final ConcurrentMap<BlockInstance, Integer> _blockInstanceHandles = new ConcurrentHashMap<BlockInstance, Integer>();
+
+  /**
+   * Tracks the measured last update time of each vehicle handle, so that stale
+   * vehicles can be found without scanning every handle
+   */
+  private final TimeBucketedEvictionQueue<Integer> _evictionQueue = new TimeBucketedEvictionQueue<Integer>(
+      10 * 1000);
+
+  /****
+   * Per-vehicle state, indexed by vehicle handle
+   ****/
+
+  private int _vehicleCount = 0;
+
+  private int[] _freeVehicleHandles = new int[INITIAL_CAPACITY];
+
+  private int _freeVehicleHandleCount = 0;
+
+  private AgencyAndId[] _vehicleIds = new AgencyAndId[INITIAL_CAPACITY];
+
+  private volatile AtomicReferenceArray<VehicleLocationCacheElements> _elementsByVehicle = new AtomicReferenceArray<VehicleLocationCacheElements>(
+      INITIAL_CAPACITY);
+
+  private int[] _blockInstanceHandleByVehicle = newHandleArray(INITIAL_CAPACITY);
+
+  private long[] _oldestUpdateTimeByVehicle = new long[INITIAL_CAPACITY];
+
+  /****
+   * Per-block-instance state, indexed by block instance handle
+   ****/
+
+  private int _blockInstanceCount = 0;
+
+  private int[] _freeBlockInstanceHandles = new int[INITIAL_CAPACITY];
+
+  private int _freeBlockInstanceHandleCount = 0;
+
+  private BlockInstance[] _blockInstances = new BlockInstance[INITIAL_CAPACITY];
+
+  private int[][] _vehicleHandlesByBlockInstance = new int[INITIAL_CAPACITY][];
+
+  private volatile AtomicReferenceArray<List<VehicleLocationCacheElements>> _recordsByBlockInstance = new AtomicReferenceArray<List<VehicleLocationCacheElements>>(
+      INITIAL_CAPACITY);
+
+  /**
+   * By default, we keep around 20 minutes of cache entries
+   */
+  private int _blockLocationRecordCacheWindowSize = 20 * 60;
+
+  private int _cacheEvictionFrequency = 1;
+
+  private ScheduledExecutorService _executor;
+
+  private ScheduledFuture<?> _evictionHandler;
+
+  /**
+   * Controls how far back in time we include records in the
+   * {@link VehicleLocationCacheElements} for each active vehicle.
+   *
+   * @param windowSize in seconds
+   */
+  public void setBlockLocationRecordCacheWindowSize(int windowSize) {
+    _blockLocationRecordCacheWindowSize = windowSize;
+  }
+
+  /**
+   *
+   * @param cacheEvictionFrequency frequency, in minutes
+   */
+  public void setCacheEvictionFrequency(int cacheEvictionFrequency) {
+    _cacheEvictionFrequency = cacheEvictionFrequency;
+  }
+
+  @PostConstruct
+  public void start() {
+    _executor = Executors.newScheduledThreadPool(1);
+    _evictionHandler = _executor.scheduleAtFixedRate(
+        new CacheEvictionHandler(), _cacheEvictionFrequency,
+        _cacheEvictionFrequency, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (_evictionHandler != null)
+      _evictionHandler.cancel(true);
+    if (_executor != null)
+      _executor.shutdownNow();
+  }
+
+  /****
+   * {@link VehicleLocationRecordCache} Interface
+   ****/
+
+  @Override
+  public VehicleLocationCacheElements getRecordForVehicleId(
+      AgencyAndId vehicleId) {
+    Integer vehicleHandle = _vehicleHandles.get(vehicleId);
+    if (vehicleHandle == null)
+      return null;
+    AtomicReferenceArray<VehicleLocationCacheElements> elementsByVehicle = _elementsByVehicle;
+    if (vehicleHandle >= elementsByVehicle.length())
+      return null;
+    VehicleLocationCacheElements elements = elementsByVehicle.get(vehicleHandle);
+    /**
+     * The handle may have been recycled for another vehicle since we looked it
+     * up
+     */
+    if (elements == null
+        || !vehicleId.equals(elements.getLastElement().getRecord().getVehicleId()))
+      return null;
+    return elements;
+  }
+
+  @Override
+  public List<VehicleLocationCacheElements> getRecordsForBlockInstance(
+      BlockInstance blockInstance) {
+    Integer blockInstanceHandle = _blockInstanceHandles.get(blockInstance);
+    if (blockInstanceHandle == null)
+      return Collections.emptyList();
+    AtomicReferenceArray<List<VehicleLocationCacheElements>> recordsByBlockInstance = _recordsByBlockInstance;
+    if (blockInstanceHandle >= recordsByBlockInstance.length())
+      return Collections.emptyList();
+    List<VehicleLocationCacheElements> records = recordsByBlockInstance.get(blockInstanceHandle);
+    if (records == null)
+      return Collections.emptyList();
+    return records;
+  }
+
+  @Override
+  public synchronized VehicleLocationCacheElements addRecord(
+      BlockInstance blockInstance, VehicleLocationRecord record,
+      ScheduledBlockLocation scheduledBlockLocation,
+      ScheduleDeviationSamples samples) {
+
+    int vehicleHandle = getOrCreateVehicleHandle(record.getVehicleId());
+    int blockInstanceHandle = _blockInstanceHandleByVehicle[vehicleHandle];
+
+    VehicleLocationCacheElements elements = _elementsByVehicle.get(vehicleHandle);
+
+    /**
+     * If the block instance of a vehicle has changed mid-stream, we close off
+     * the previous elements and remove the block=>vid mapping
+     */
+    if (blockInstanceHandle != NO_BLOCK_INSTANCE
+        && !_blockInstances[blockInstanceHandle].equals(blockInstance)) {
+      detachVehicle(vehicleHandle);
+      blockInstanceHandle = NO_BLOCK_INSTANCE;
+      elements = null;
+    }
+
+    if (blockInstanceHandle == NO_BLOCK_INSTANCE) {
+      blockInstanceHandle = getOrCreateBlockInstanceHandle(blockInstance);
+      _blockInstanceHandleByVehicle[vehicleHandle] = blockInstanceHandle;
+      _vehicleHandlesByBlockInstance[blockInstanceHandle] = appendHandle(
+          _vehicleHandlesByBlockInstance[blockInstanceHandle], vehicleHandle);
+      elements = new VehicleLocationCacheElements(blockInstance);
+    }
+
+    VehicleLocationCacheElement element = new VehicleLocationCacheElement(
+        record, scheduledBlockLocation, samples);
+    VehicleLocationCacheElements extended = elements.extend(element);
+
+    if (extended == elements)
+      return elements;
+
+    if (elements.isEmpty())
+      _oldestUpdateTimeByVehicle[vehicleHandle] = element.getMeasuredLastUpdateTime();
+
+    /**
+     * Stale vehicles are evicted as a whole, so we prune old elements from
+     * active vehicles as they are updated
+     */
+    long pruneTime = element.getMeasuredLastUpdateTime()
+        - _blockLocationRecordCacheWindowSize * 1000;
+    if (_oldestUpdateTimeByVehicle[vehicleHandle] < pruneTime) {
+      extended = extended.pruneOlderThanTime(pruneTime);
+      _oldestUpdateTimeByVehicle[vehicleHandle] = extended.getElements().get(0).getMeasuredLastUpdateTime();
+    }
+
+    _evictionQueue.touch(vehicleHandle, element.getMeasuredLastUpdateTime());
+    _elementsByVehicle.set(vehicleHandle, extended);
+    rebuildRecordsForBlockInstance(blockInstanceHandle);
+
+    return extended;
+  }
+
+  @Override
+  public synchronized void clearRecordsForVehicleId(AgencyAndId vehicleId) {
+    Integer vehicleHandle = _vehicleHandles.get(vehicleId);
+    if (vehicleHandle != null)
+      releaseVehicleHandle(vehicleHandle);
+  }
+
+  public synchronized void clearStaleRecords(long time) {
+
+    for (int vehicleHandle : _evictionQueue.pollExpired(time)) {
+      if (_log.isDebugEnabled())
+        _log.debug("pruning block location record cache for vehicle="
+            + _vehicleIds[vehicleHandle] + " block="
+            + _blockInstances[_blockInstanceHandleByVehicle[vehicleHandle]]);
+      releaseVehicleHandle(vehicleHandle);
+    }
+  }
+
+  /**
+   * @return the number of vehicle handles allocated so far, including free
+   *         handles awaiting reuse
+   */
+  synchronized int getVehicleHandleCapacity() {
+    return _vehicleCount;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * Removes any cached elements for the specified vehicle, along with the
+   * block instance => vehicle mapping, releasing the block instance handle if
+   * no other vehicles are serving it.
+   */
+  private void detachVehicle(int vehicleHandle) {
+
+    int blockInstanceHandle = _blockInstanceHandleByVehicle[vehicleHandle];
+    if (blockInstanceHandle == NO_BLOCK_INSTANCE)
+      return;
+
+    _blockInstanceHandleByVehicle[vehicleHandle] = NO_BLOCK_INSTANCE;
+    _elementsByVehicle.set(vehicleHandle, null);
+
+    int[] vehicleHandles = removeHandle(
+        _vehicleHandlesByBlockInstance[blockInstanceHandle], vehicleHandle);
+
+    if (vehicleHandles.length == 0) {
+      releaseBlockInstanceHandle(blockInstanceHandle);
+    } else {
+      _vehicleHandlesByBlockInstance[blockInstanceHandle] = vehicleHandles;
+      rebuildRecordsForBlockInstance(blockInstanceHandle);
+    }
+  }
+
+  /**
+   * Detaches the specified vehicle and releases its handle for reuse.
+   */
+  private void releaseVehicleHandle(int vehicleHandle) {
+    detachVehicle(vehicleHandle);
+    _evictionQueue.remove(vehicleHandle);
+    _vehicleHandles.remove(_vehicleIds[vehicleHandle]);
+    _vehicleIds[vehicleHandle] = null;
+    if (_freeVehicleHandleCount == _freeVehicleHandles.length)
+      _freeVehicleHandles = Arrays.copyOf(_freeVehicleHandles,
+          _freeVehicleHandles.length * 2);
+    _freeVehicleHandles[_freeVehicleHandleCount++] = vehicleHandle;
+  }
+
+  private void rebuildRecordsForBlockInstance(int blockInstanceHandle) {
+    int[] vehicleHandles = _vehicleHandlesByBlockInstance[blockInstanceHandle];
+    VehicleLocationCacheElements[] records = new VehicleLocationCacheElements[vehicleHandles.length];
+    for (int i = 0; i < vehicleHandles.length; i++)
+      records[i] = _elementsByVehicle.get(vehicleHandles[i]);
+    _recordsByBlockInstance.set(blockInstanceHandle,
+        Collections.unmodifiableList(Arrays.asList(records)));
+  }
+
+  private int getOrCreateVehicleHandle(AgencyAndId vehicleId) {
+
+    Integer vehicleHandle = _vehicleHandles.get(vehicleId);
+    if (vehicleHandle != null)
+      return vehicleHandle;
+
+    int handle;
+    if (_freeVehicleHandleCount > 0) {
+      handle = _freeVehicleHandles[--_freeVehicleHandleCount];
+    } else {
+      handle = _vehicleCount++;
+      ensureVehicleCapacity(_vehicleCount);
+    }
+
+    _vehicleIds[handle] = vehicleId;
+    _blockInstanceHandleByVehicle[handle] = NO_BLOCK_INSTANCE;
+    _vehicleHandles.put(vehicleId, handle);
+    return handle;
+  }
+
+  private int getOrCreateBlockInstanceHandle(BlockInstance blockInstance) {
+
+    Integer blockInstanceHandle = _blockInstanceHandles.get(blockInstance);
+    if (blockInstanceHandle != null)
+      return blockInstanceHandle;
+
+    int handle;
+    if (_freeBlockInstanceHandleCount > 0) {
+      handle = _freeBlockInstanceHandles[--_freeBlockInstanceHandleCount];
+    } else {
+      handle = _blockInstanceCount++;
+      ensureBlockInstanceCapacity(_blockInstanceCount);
+    }
+
+    _blockInstances[handle] = blockInstance;
+    _vehicleHandlesByBlockInstance[handle] = EMPTY_HANDLES;
+    _blockInstanceHandles.put(blockInstance, handle);
+    return handle;
+  }
+
+  private void releaseBlockInstanceHandle(int blockInstanceHandle) {
+    _blockInstanceHandles.remove(_blockInstances[blockInstanceHandle]);
+    _recordsByBlockInstance.set(blockInstanceHandle, null);
+    _blockInstances[blockInstanceHandle] = null;
+    _vehicleHandlesByBlockInstance[blockInstanceHandle] = null;
+    if (_freeBlockInstanceHandleCount == _freeBlockInstanceHandles.length)
+      _freeBlockInstanceHandles = Arrays.copyOf(_freeBlockInstanceHandles,
+          _freeBlockInstanceHandles.length * 2);
+    _freeBlockInstanceHandles[_freeBlockInstanceHandleCount++] = blockInstanceHandle;
+  }
+
+  private void ensureVehicleCapacity(int capacity) {
+    int currentCapacity = _blockInstanceHandleByVehicle.length;
+    if (capacity <= currentCapacity)
+      return;
+    int newCapacity = Math.max(capacity, currentCapacity * 2);
+
+    int[] blockInstanceHandles = Arrays.copyOf(_blockInstanceHandleByVehicle,
+        newCapacity);
+    Arrays.fill(blockInstanceHandles, currentCapacity, newCapacity,
+        NO_BLOCK_INSTANCE);
+    _blockInstanceHandleByVehicle = blockInstanceHandles;
+    _oldestUpdateTimeByVehicle = Arrays.copyOf(_oldestUpdateTimeByVehicle,
+        newCapacity);
+    _vehicleIds = Arrays.copyOf(_vehicleIds, newCapacity);
+    _elementsByVehicle = copyOf(_elementsByVehicle, newCapacity);
+  }
+
+  private void ensureBlockInstanceCapacity(int capacity) {
+    int currentCapacity = _blockInstances.length;
+    if (capacity <= currentCapacity)
+      return;
+    int newCapacity = Math.max(capacity, currentCapacity * 2);
+    _blockInstances = Arrays.copyOf(_blockInstances, newCapacity);
+    _vehicleHandlesByBlockInstance = Arrays.copyOf(
+        _vehicleHandlesByBlockInstance, newCapacity);
+    _recordsByBlockInstance = copyOf(_recordsByBlockInstance, newCapacity);
+  }
+
+  private static <T> AtomicReferenceArray<T> copyOf(
+      AtomicReferenceArray<T> array, int newCapacity) {
+    AtomicReferenceArray<T> copy = new AtomicReferenceArray<T>(newCapacity);
+    for (int i = 0; i < array.length(); i++)
+      copy.set(i, array.get(i));
+    return copy;
+  }
+
+  private static int[] newHandleArray(int capacity) {
+    int[] handles = new int[capacity];
+    Arrays.fill(handles, NO_BLOCK_INSTANCE);
+    return handles;
+  }
+
+  private static int[] appendHandle(int[] handles, int handle) {
+    int[] updated = Arrays.copyOf(handles, handles.length + 1);
+    updated[handles.length] = handle;
+    return updated;
+  }
+
+  private static int[] removeHandle(int[] handles, int handle) {
+    for (int i = 0; i < handles.length; i++) {
+      if (handles[i] == handle) {
+        if (handles.length == 1)
+          return EMPTY_HANDLES;
+        int[] updated = new int[handles.length - 1];
+        System.arraycopy(handles, 0, updated, 0, i);
+        System.arraycopy(handles, i + 1, updated, i, handles.length - i - 1);
+        return updated;
+      }
+    }
+    return handles;
+  }
+
+  private class CacheEvictionHandler implements Runnable {
+
+    @Override
+    public void run() {
+      clearStaleRecords(System.currentTimeMillis()
+          - _blockLocationRecordCacheWindowSize * 1000);
+    }
+  }
+}
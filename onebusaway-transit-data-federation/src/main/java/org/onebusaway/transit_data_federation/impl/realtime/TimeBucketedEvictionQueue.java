@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Tracks the last update time of a set of keys so that keys that haven't been
+ * updated since a given time can be found without examining every key.
+ *
+ * Keys are grouped into fixed-size time buckets by their last update time.
+ * Updating a key moves it from its old bucket to its new one, and
+ * {@link #pollExpired(long)} only visits the buckets that are older than the
+ * expiration time, so eviction cost scales with the number of expiring keys
+ * rather than the total number of keys. Only the single bucket straddling the
+ * expiration time is examined key by key.
+ *
+ * All operations are thread-safe. Update times for a given key are expected to
+ * be non-decreasing, as is the case for measured update times.
+ *
+ * @author bdferris
+ * @param <K> the key type
+ */
+public class TimeBucketedEvictionQueue<K> {
+
+  private final long _bucketSize;
+
+  private final ConcurrentMap<K, Long> _timesByKey = new ConcurrentHashMap<K, Long>();
+
+  private final ConcurrentNavigableMap<Long, Set<K>> _keysByBucket = new ConcurrentSkipListMap<Long, Set<K>>();
+
+  /**
+   *
+   * @param bucketSize the width of each time bucket, in milliseconds
+   */
+  public TimeBucketedEvictionQueue(long bucketSize) {
+    if (bucketSize <= 0)
+      throw new IllegalArgumentException("bucketSize must be positive");
+    _bucketSize = bucketSize;
+  }
+
+  /**
+   * Record that the specified key was updated at the specified time.
+   *
+   * @param key
+   * @param time in milliseconds
+   */
+  public void touch(K key, long time) {
+
+    Long previousTime = _timesByKey.put(key, time);
+    long bucket = getBucketForTime(time);
+
+    if (previousTime != null) {
+      long previousBucket = getBucketForTime(previousTime);
+      if (previousBucket == bucket)
+        return;
+      addToBucket(bucket, key);
+      Set<K> previousKeys = _keysByBucket.get(previousBucket);
+      if (previousKeys != null)
+        previousKeys.remove(key);
+    } else {
+      addToBucket(bucket, key);
+    }
+  }
+
+  /**
+   * Stop tracking the specified key.
+   *
+   * @param key
+   */
+  public void remove(K key) {
+    Long time = _timesByKey.remove(key);
+    if (time == null)
+      return;
+    Set<K> keys = _keysByBucket.get(getBucketForTime(time));
+    if (keys != null)
+      keys.remove(key);
+  }
+
+  /**
+   * Removes and returns all keys whose last update time is strictly before the
+   * specified time.
+   *
+   * @param time in milliseconds
+   * @return the expired keys, which are no longer tracked
+   */
+  public List<K> pollExpired(long time) {
+
+    List<K> expired = new ArrayList<K>();
+    long boundaryBucket = getBucketForTime(time);
+
+    while (true) {
+
+      Map.Entry<Long, Set<K>> entry = _keysByBucket.firstEntry();
+      if (entry == null)
+        break;
+
+      long bucket = entry.getKey();
+      Set<K> keys = entry.getValue();
+
+      if (bucket > boundaryBucket)
+        break;
+
+      if (bucket < boundaryBucket) {
+        /**
+         * Every key in the bucket is expired, so we drop the bucket as a whole
+         */
+        _keysByBucket.remove(bucket, keys);
+        for (K key : keys) {
+          Long keyTime = _timesByKey.get(key);
+          if (keyTime != null && getBucketForTime(keyTime) == bucket
+              && _timesByKey.remove(key, keyTime))
+            expired.add(key);
+        }
+      } else {
+        /**
+         * The bucket straddling the expiration time is only partially expired
+         */
+        for (Iterator<K> it = keys.iterator(); it.hasNext();) {
+          K key = it.next();
+          Long keyTime = _timesByKey.get(key);
+          if (keyTime == null || getBucketForTime(keyTime) != bucket) {
+            it.remove();
+          } else if (keyTime < time && _timesByKey.remove(key, keyTime)) {
+            it.remove();
+            expired.add(key);
+          }
+        }
+        break;
+      }
+    }
+
+    return expired;
+  }
+
+  /**
+   * @return the number of keys currently being tracked
+   */
+  public int size() {
+    return _timesByKey.size();
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private long getBucketForTime(long time) {
+    return time / _bucketSize;
+  }
+
+  private void addToBucket(long bucket, K key) {
+    while (true) {
+      Set<K> keys = _keysByBucket.get(bucket);
+      if (keys == null) {
+        Set<K> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+        keys = _keysByBucket.putIfAbsent(bucket, newKeys);
+        if (keys == null)
+          keys = newKeys;
+      }
+      keys.add(key);
+      /**
+       * If the bucket was concurrently expired and dropped, we try again with
+       * a fresh bucket
+       */
+      if (_keysByBucket.get(bucket) == keys)
+        return;
+    }
+  }
+}
@@ -16,9 +16,7 @@
 package org.onebusaway.transit_data_federation.impl.realtime;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -60,6 +58,13 @@ public class VehicleLocationRecordCacheImpl implements VehicleLocationRecordCach
 
   private ConcurrentMap<BlockInstance, Set<AgencyAndId>> _vehicleIdsByBlockInstance = new ConcurrentHashMap<BlockInstance, Set<AgencyAndId>>();
 
+  /**
+   * Tracks the measured last update time of each vehicle, so that stale
+   * entries can be found without scanning the entire cache
+   */
+  private TimeBucketedEvictionQueue<AgencyAndId> _evictionQueue = new TimeBucketedEvictionQueue<AgencyAndId>(
+      10 * 1000);
+
   /**
    * By default, we keep around 20 minutes of cache entries
    */
@@ -188,6 +193,18 @@ public class VehicleLocationRecordCacheImpl implements VehicleLocationRecordCach
       if (!cacheEntry.addElement(record, scheduledBlockLocation, samples))
         continue;
 
+      /**
+       * Stale entries are evicted as a whole, so we prune old elements from
+       * active entries as they are updated
+       */
+      long now = System.currentTimeMillis();
+      cacheEntry.pruneOlderThanTime(now - _blockLocationRecordCacheWindowSize
+          * 1000);
+
+      VehicleLocationCacheElements elements = cacheEntry.getElements();
+      _evictionQueue.touch(vehicleId, elements.isEmpty() ? now
+          : elements.getLastElement().getMeasuredLastUpdateTime());
+
       BlockInstance existingBlockInstance = cacheEntry.getBlockInstance();
       if (!blockInstance.equals(existingBlockInstance))
         ConcurrentCollectionsLibrary.removeFromMapValueSet(
@@ -195,7 +212,7 @@ public class VehicleLocationRecordCacheImpl implements VehicleLocationRecordCach
 
       // Ensure the block => vehicle mapping is set
 
-      return cacheEntry.getElements();
+      return elements;
 
     }
   }
@@ -204,6 +221,7 @@ public class VehicleLocationRecordCacheImpl implements VehicleLocationRecordCach
   public void clearRecordsForVehicleId(AgencyAndId vehicleId) {
 
     VehicleLocationCacheEntry record = _entriesByVehicleId.remove(vehicleId);
+    _evictionQueue.remove(vehicleId);
 
     if (record != null) {
       ConcurrentCollectionsLibrary.removeFromMapValueSet(
@@ -213,23 +231,26 @@ public class VehicleLocationRecordCacheImpl implements VehicleLocationRecordCach
 
   public void clearStaleRecords(long time) {
 
-    Iterator<Entry<AgencyAndId, VehicleLocationCacheEntry>> it = _entriesByVehicleId.entrySet().iterator();
+    for (AgencyAndId vehicleId : _evictionQueue.pollExpired(time)) {
 
-    while (it.hasNext()) {
-
-      Entry<AgencyAndId, VehicleLocationCacheEntry> entry = it.next();
-      AgencyAndId vehicleId = entry.getKey();
-      VehicleLocationCacheEntry cacheEntry = entry.getValue();
+      VehicleLocationCacheEntry cacheEntry = _entriesByVehicleId.get(vehicleId);
+      if (cacheEntry == null)
+        continue;
 
       if (cacheEntry.closeIfStale(time)) {
 
         if (_log.isDebugEnabled())
           _log.debug("pruning block location record cache for vehicle="
               + vehicleId + " block=" + cacheEntry.getBlockInstance());
-        it.remove();
+        _entriesByVehicleId.remove(vehicleId, cacheEntry);
         ConcurrentCollectionsLibrary.removeFromMapValueSet(
             _vehicleIdsByBlockInstance, cacheEntry.getBlockInstance(),
             vehicleId);
+      } else {
+        // The entry was updated while we were evicting
+        VehicleLocationCacheElements elements = cacheEntry.getElements();
+        _evictionQueue.touch(vehicleId,
+            elements.getLastElement().getMeasuredLastUpdateTime());
       }
     }
   }
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes a batch of realtime entities across a pool of worker threads,
+ * partitioned by vehicle id.
+ *
+ * All the entities for a given vehicle are assigned to the same partition and
+ * processed in the order they appear in the batch, and
+ * {@link #execute(List, PartitionedHandler)} doesn't return until the whole
+ * batch has been processed. As long as batches are submitted one at a time,
+ * the updates for each vehicle are therefore applied in order, while different
+ * vehicles are processed in parallel.
+ *
+ * With a single thread, or before {@link #start()}, batches are processed on
+ * the calling thread.
+ */
+public class VehiclePartitionedExecutor {
+
+  public interface PartitionedHandler<T> {
+
+    /**
+     * @return the vehicle id, or some other key that is stable for a vehicle,
+     *         used to assign the entity to a partition
+     */
+    public Object getPartitionKey(T entity);
+
+    public void handle(T entity);
+  }
+
+  private final String _name;
+
+  private int _threads = Runtime.getRuntime().availableProcessors();
+
+  private ExecutorService _executor;
+
+  public VehiclePartitionedExecutor(String name) {
+    _name = name;
+  }
+
+  /**
+   * @param threads the number of worker threads, defaulting to the number of
+   *          available processors
+   */
+  public void setThreads(int threads) {
+    _threads = threads;
+  }
+
+  public int getThreads() {
+    return _threads;
+  }
+
+  public synchronized void start() {
+    if (_threads > 1 && _executor == null)
+      _executor = Executors.newFixedThreadPool(_threads, new NamedThreadFactory(
+          _name));
+  }
+
+  public synchronized void stop() {
+    if (_executor != null) {
+      _executor.shutdownNow();
+      _executor = null;
+    }
+  }
+
+  public <T> void execute(List<T> entities, PartitionedHandler<T> handler) {
+
+    ExecutorService executor = _executor;
+
+    if (executor == null || entities.size() < 2) {
+      for (T entity : entities)
+        handler.handle(entity);
+      return;
+    }
+
+    int partitionCount = Math.min(_threads, entities.size());
+    List<List<T>> partitions = new ArrayList<List<T>>(partitionCount);
+    for (int i = 0; i < partitionCount; i++)
+      partitions.add(new ArrayList<T>());
+
+    for (T entity : entities) {
+      Object key = handler.getPartitionKey(entity);
+      int index = key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE)
+          % partitionCount;
+      partitions.get(index).add(entity);
+    }
+
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(partitionCount);
+    for (List<T> partition : partitions) {
+      if (!partition.isEmpty())
+        futures.add(executor.submit(new PartitionTask<T>(partition, handler)));
+    }
+
+    RuntimeException failure = null;
+
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        for (Future<Void> other : futures)
+          other.cancel(true);
+        throw new IllegalStateException("interrupted processing " + _name, ex);
+      } catch (ExecutionException ex) {
+        if (failure == null)
+          failure = asRuntimeException(ex.getCause());
+      }
+    }
+
+    if (failure != null)
+      throw failure;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static RuntimeException asRuntimeException(Throwable cause) {
+    if (cause instanceof RuntimeException)
+      return (RuntimeException) cause;
+    if (cause instanceof Error)
+      throw (Error) cause;
+    return new IllegalStateException(cause);
+  }
+
+  private static class PartitionTask<T> implements Callable<Void> {
+
+    private final List<T> _entities;
+
+    private final PartitionedHandler<T> _handler;
+
+    public PartitionTask(List<T> entities, PartitionedHandler<T> handler) {
+      _entities = entities;
+      _handler = handler;
+    }
+
+    @Override
+    public Void call() {
+      for (T entity : _entities)
+        _handler.handle(entity);
+      return null;
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    private final String _name;
+
+    private final AtomicInteger _count = new AtomicInteger();
+
+    public NamedThreadFactory(String name) {
+      _name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, _name + "-" + _count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2011 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockTripEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+
+/**
+ * Precomputed tables for matching GTFS-realtime stop time updates against the
+ * stop times of a {@link BlockConfigurationEntry}, by GTFS stop sequence or by
+ * stop id, in O(log n).
+ *
+ * Stop times are addressed by their position in the block. For each trip we
+ * keep its range of positions and its GTFS stop sequences sorted alongside
+ * their positions. For each stop id we keep the sorted positions of the stop
+ * times that visit it, so the visits within a trip are found by binary search,
+ * and the visit closest to a given time by a second binary search, relying on
+ * stop times being non-decreasing along the block.
+ */
+final class BlockStopTimeLookup {
+
+  private static final int[] NO_POSITIONS = {};
+
+  private final BlockStopTimeEntry[] _stopTimes;
+
+  private final int[] _arrivalTimes;
+
+  private final int[] _departureTimes;
+
+  /**
+   * Index of the first stop time of each trip, plus the total stop time count
+   */
+  private final int[] _tripStarts;
+
+  /**
+   * For each trip, its GTFS stop sequences in ascending order
+   */
+  private final int[][] _sequencesByTrip;
+
+  /**
+   * For each trip, the position of the stop time for each entry in
+   * {@link #_sequencesByTrip}
+   */
+  private final int[][] _sequencePositionsByTrip;
+
+  private final Map<String, int[]> _positionsByStopId;
+
+  public BlockStopTimeLookup(BlockConfigurationEntry blockConfiguration) {
+
+    List<BlockTripEntry> trips = blockConfiguration.getTrips();
+
+    int n = 0;
+    for (BlockTripEntry trip : trips)
+      n += trip.getStopTimes().size();
+
+    _stopTimes = new BlockStopTimeEntry[n];
+    _arrivalTimes = new int[n];
+    _departureTimes = new int[n];
+    _tripStarts = new int[trips.size() + 1];
+    _sequencesByTrip = new int[trips.size()][];
+    _sequencePositionsByTrip = new int[trips.size()][];
+
+    Map<String, List<Integer>> positionsByStopId = new HashMap<String, List<Integer>>();
+
+    int position = 0;
+
+    for (int t = 0; t < trips.size(); t++) {
+
+      _tripStarts[t] = position;
+      List<BlockStopTimeEntry> stopTimes = trips.get(t).getStopTimes();
+      long[] sequencesAndPositions = new long[stopTimes.size()];
+
+      for (int i = 0; i < stopTimes.size(); i++) {
+
+        BlockStopTimeEntry blockStopTime = stopTimes.get(i);
+        StopTimeEntry stopTime = blockStopTime.getStopTime();
+
+        _stopTimes[position] = blockStopTime;
+        _arrivalTimes[position] = stopTime.getArrivalTime();
+        _departureTimes[position] = stopTime.getDepartureTime();
+
+        /**
+         * Pack the sequence into the high bits so a single sort orders by
+         * sequence and then position
+         */
+        sequencesAndPositions[i] = ((long) stopTime.getGtfsSequence() << 32)
+            | position;
+
+        String stopId = stopTime.getStop().getId().getId();
+        List<Integer> positions = positionsByStopId.get(stopId);
+        if (positions == null) {
+          positions = new ArrayList<Integer>(2);
+          positionsByStopId.put(stopId, positions);
+        }
+        positions.add(position);
+
+        position++;
+      }
+
+      Arrays.sort(sequencesAndPositions);
+      int[] sequences = new int[sequencesAndPositions.length];
+      int[] sequencePositions = new int[sequencesAndPositions.length];
+      for (int i = 0; i < sequencesAndPositions.length; i++) {
+        sequences[i] = (int) (sequencesAndPositions[i] >> 32);
+        sequencePositions[i] = (int) sequencesAndPositions[i];
+      }
+      _sequencesByTrip[t] = sequences;
+      _sequencePositionsByTrip[t] = sequencePositions;
+    }
+
+    _tripStarts[trips.size()] = position;
+
+    _positionsByStopId = new HashMap<String, int[]>(
+        positionsByStopId.size() * 4 / 3 + 1);
+    for (Map.Entry<String, List<Integer>> entry : positionsByStopId.entrySet()) {
+      List<Integer> positions = entry.getValue();
+      int[] values = new int[positions.size()];
+      for (int i = 0; i < values.length; i++)
+        values[i] = positions.get(i);
+      _positionsByStopId.put(entry.getKey(), values);
+    }
+  }
+
+  /**
+   * @param tripIndex the index of the trip within the block configuration
+   * @param gtfsSequence
+   * @return the stop time of the trip with the specified GTFS stop sequence,
+   *         or null if not found. If the sequence is repeated, the last such
+   *         stop time is returned.
+   */
+  public BlockStopTimeEntry getStopTimeForSequence(int tripIndex,
+      int gtfsSequence) {
+    int[] sequences = _sequencesByTrip[tripIndex];
+    int index = Arrays.binarySearch(sequences, gtfsSequence);
+    if (index < 0)
+      return null;
+    while (index + 1 < sequences.length && sequences[index + 1] == gtfsSequence)
+      index++;
+    return _stopTimes[_sequencePositionsByTrip[tripIndex][index]];
+  }
+
+  /**
+   * @param tripIndex the index of the trip within the block configuration
+   * @param stopId
+   * @param time seconds since the service date
+   * @return the stop time of the trip at the specified stop whose arrival or
+   *         departure time is closest to the specified time, preferring the
+   *         earlier stop time on a tie, or null if the trip doesn't visit the
+   *         stop
+   */
+  public BlockStopTimeEntry getStopTimeForStopId(int tripIndex, String stopId,
+      int time) {
+
+    int[] positions = _positionsByStopId.get(stopId);
+    if (positions == null)
+      positions = NO_POSITIONS;
+
+    int from = lowerBound(positions, 0, positions.length,
+        _tripStarts[tripIndex]);
+    int to = lowerBound(positions, from, positions.length,
+        _tripStarts[tripIndex + 1]);
+
+    if (from == to)
+      return null;
+
+    /**
+     * Find the first visit departing at or after the target time. The closest
+     * visit is either that one or the one before it.
+     */
+    int lo = from;
+    int hi = to;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (_departureTimes[positions[mid]] < time)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+
+    int best = -1;
+    int bestDelta = Integer.MAX_VALUE;
+    for (int i = Math.max(from, lo - 1); i < Math.min(to, lo + 1); i++) {
+      int p = positions[i];
+      int delta = Math.min(Math.abs(_departureTimes[p] - time),
+          Math.abs(_arrivalTimes[p] - time));
+      if (delta < bestDelta) {
+        best = p;
+        bestDelta = delta;
+      }
+    }
+
+    return _stopTimes[best];
+  }
+
+  /**
+   * @return the index of the first value in the range that is >= key
+   */
+  private static int lowerBound(int[] values, int from, int to, int key) {
+    while (from < to) {
+      int mid = (from + to) >>> 1;
+      if (values[mid] < key)
+        from = mid + 1;
+      else
+        to = mid;
+    }
+    return from;
+  }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2011 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ExtensionRegistry;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtimeConstants;
+
+/**
+ * Polls a single GTFS-realtime feed, keeping the most recent full view of the
+ * feed between polls.
+ *
+ * Each {@link #fetch()} is a conditional request when the feed is served over
+ * HTTP, using the ETag and Last-Modified headers of the previous response.
+ * Unmodified responses, and responses whose header timestamp matches the
+ * previous feed, leave the feed unchanged, so {@link #isUpdated()} can be used
+ * to skip reprocessing it. DIFFERENTIAL feeds are merged by entity id into the
+ * previous feed, and the result is presented as a FULL_DATASET feed, with the
+ * ids of deleted entities available through {@link #getDeletedEntityIds()}.
+ *
+ * Changes accumulate until {@link #markApplied()} is called, so a feed fetched
+ * during a refresh that fails part way through is still applied by the next.
+ *
+ * Instances are not thread-safe.
+ */
+class GtfsRealtimeFeedFetcher {
+
+  private static final Logger _log = LoggerFactory.getLogger(GtfsRealtimeFeedFetcher.class);
+
+  private final String _name;
+
+  private final URL _url;
+
+  private final ExtensionRegistry _registry;
+
+  private Map<String, String> _headersMap;
+
+  private String _etag;
+
+  private long _lastModified = 0;
+
+  private FeedMessage _feed;
+
+  /**
+   * The entities of the current feed by id, only maintained for DIFFERENTIAL
+   * feeds
+   */
+  private Map<String, FeedEntity> _entitiesById;
+
+  private List<String> _deletedEntityIds = new ArrayList<String>();
+
+  private boolean _updated = false;
+
+  private long _fetchLatency = 0;
+
+  private long _parseLatency = 0;
+
+  public GtfsRealtimeFeedFetcher(String name, URL url,
+      ExtensionRegistry registry) {
+    _name = name;
+    _url = url;
+    _registry = registry;
+  }
+
+  public void setHeadersMap(Map<String, String> headersMap) {
+    _headersMap = headersMap;
+  }
+
+  public String getName() {
+    return _name;
+  }
+
+  /**
+   * @return the current full view of the feed, or an empty feed if the url is
+   *         null
+   */
+  public FeedMessage getFeed() {
+    return _feed;
+  }
+
+  /**
+   * @return true if the feed has changed since {@link #markApplied()} was last
+   *         called
+   */
+  public boolean isUpdated() {
+    return _updated;
+  }
+
+  /**
+   * @return ids of the entities removed from a DIFFERENTIAL feed since
+   *         {@link #markApplied()} was last called
+   */
+  public List<String> getDeletedEntityIds() {
+    return Collections.unmodifiableList(_deletedEntityIds);
+  }
+
+  public void markApplied() {
+    _updated = false;
+    _deletedEntityIds.clear();
+  }
+
+  /**
+   * Has the current feed, if any, applied again by the next refresh, as if it
+   * had just been fetched
+   */
+  public void markUpdated() {
+    if (_feed != null)
+      _updated = true;
+  }
+
+  /**
+   * @return time spent requesting and downloading the feed in the last
+   *         {@link #fetch()}, in ms
+   */
+  public long getFetchLatency() {
+    return _fetchLatency;
+  }
+
+  /**
+   * @return time spent parsing the feed in the last {@link #fetch()}, in ms
+   */
+  public long getParseLatency() {
+    return _parseLatency;
+  }
+
+  public void fetch() throws IOException {
+
+    _fetchLatency = 0;
+    _parseLatency = 0;
+
+    if (_url == null) {
+      if (_feed == null) {
+        _feed = createEmptyFeed();
+        _updated = true;
+      }
+      return;
+    }
+
+    long t0 = System.currentTimeMillis();
+
+    URLConnection connection = _url.openConnection();
+    setHeadersToUrlConnection(connection);
+
+    HttpURLConnection httpConnection = null;
+    if (connection instanceof HttpURLConnection) {
+      httpConnection = (HttpURLConnection) connection;
+      if (_feed != null && _etag != null)
+        connection.setRequestProperty("If-None-Match", _etag);
+      if (_feed != null && _lastModified > 0)
+        connection.setIfModifiedSince(_lastModified);
+    }
+
+    if (httpConnection != null
+        && httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      closeQuietly(connection);
+      _fetchLatency = System.currentTimeMillis() - t0;
+      return;
+    }
+
+    String etag = connection.getHeaderField("ETag");
+    if (_feed != null && etag != null && etag.equals(_etag)) {
+      closeQuietly(connection);
+      _fetchLatency = System.currentTimeMillis() - t0;
+      return;
+    }
+
+    byte[] content = readFully(connection);
+    long t1 = System.currentTimeMillis();
+    _fetchLatency = t1 - t0;
+
+    FeedMessage message = FeedMessage.parseFrom(content, _registry);
+    _parseLatency = System.currentTimeMillis() - t1;
+
+    _etag = etag;
+    _lastModified = connection.getLastModified();
+
+    applyFeed(message);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void applyFeed(FeedMessage message) {
+
+    FeedHeader header = message.getHeader();
+
+    if (_feed != null && header.hasTimestamp()
+        && _feed.getHeader().hasTimestamp()
+        && header.getTimestamp() == _feed.getHeader().getTimestamp()) {
+      return;
+    }
+
+    if (header.getIncrementality() != Incrementality.DIFFERENTIAL) {
+      _feed = message;
+      _entitiesById = null;
+      _deletedEntityIds.clear();
+      _updated = true;
+      return;
+    }
+
+    if (_entitiesById == null) {
+      _entitiesById = new LinkedHashMap<String, FeedEntity>();
+      if (_feed != null) {
+        for (FeedEntity entity : _feed.getEntityList())
+          _entitiesById.put(entity.getId(), entity);
+      }
+    }
+
+    for (FeedEntity entity : message.getEntityList()) {
+      if (entity.getIsDeleted()) {
+        if (_entitiesById.remove(entity.getId()) != null)
+          _deletedEntityIds.add(entity.getId());
+      } else {
+        _entitiesById.put(entity.getId(), entity);
+        _deletedEntityIds.remove(entity.getId());
+      }
+    }
+
+    FeedMessage.Builder builder = FeedMessage.newBuilder();
+    FeedHeader.Builder headerBuilder = FeedHeader.newBuilder(header);
+    headerBuilder.setIncrementality(Incrementality.FULL_DATASET);
+    builder.setHeader(headerBuilder);
+    builder.addAllEntity(_entitiesById.values());
+
+    _feed = builder.build();
+    _updated = true;
+  }
+
+  private FeedMessage createEmptyFeed() {
+    FeedMessage.Builder builder = FeedMessage.newBuilder();
+    FeedHeader.Builder header = FeedHeader.newBuilder();
+    header.setGtfsRealtimeVersion(GtfsRealtimeConstants.VERSION);
+    builder.setHeader(header);
+    return builder.build();
+  }
+
+  private byte[] readFully(URLConnection connection) throws IOException {
+    InputStream in = connection.getInputStream();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(
+          connection.getContentLength(), 4096));
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) != -1)
+        out.write(buffer, 0, n);
+      return out.toByteArray();
+    } finally {
+      try {
+        in.close();
+      } catch (IOException ex) {
+        _log.error("error closing url stream " + _url);
+      }
+    }
+  }
+
+  private void closeQuietly(URLConnection connection) {
+    try {
+      connection.getInputStream().close();
+    } catch (IOException ex) {
+      // a 304 response has no body to drain
+    }
+  }
+
+  private void setHeadersToUrlConnection(URLConnection urlConnection) {
+    if (_headersMap != null) {
+      for (Map.Entry<String, String> headerEntry : _headersMap.entrySet()) {
+        urlConnection.setRequestProperty(headerEntry.getKey(),
+            headerEntry.getValue());
+      }
+    }
+  }
+}
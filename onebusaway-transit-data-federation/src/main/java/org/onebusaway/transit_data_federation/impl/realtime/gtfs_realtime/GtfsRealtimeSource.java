@@ -16,18 +16,25 @@
 package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -35,9 +42,13 @@ import java.util.concurrent.TimeUnit;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.realtime.api.VehicleLocationListener;
 import org.onebusaway.realtime.api.VehicleLocationRecord;
+import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.impl.realtime.VehiclePartitionedExecutor;
+import org.onebusaway.transit_data_federation.impl.realtime.VehiclePartitionedExecutor.PartitionedHandler;
 import org.onebusaway.transit_data_federation.services.AgencyService;
 import org.onebusaway.transit_data_federation.services.blocks.BlockCalendarService;
 import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts;
@@ -51,10 +62,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import com.google.protobuf.ExtensionRegistry;
 import com.google.transit.realtime.GtfsRealtime.Alert;
 import com.google.transit.realtime.GtfsRealtime.FeedEntity;
-import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
-import com.google.transit.realtime.GtfsRealtime.TripUpdate;
-import com.google.transit.realtime.GtfsRealtimeConstants;
 import com.google.transit.realtime.GtfsRealtimeOneBusAway;
 
 public class GtfsRealtimeSource implements MonitoredDataSource {
@@ -63,6 +71,12 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
 
   private static final ExtensionRegistry _registry = ExtensionRegistry.newInstance();
 
+  public static final String TRIP_UPDATES = "tripUpdates";
+
+  public static final String VEHICLE_POSITIONS = "vehiclePositions";
+
+  public static final String ALERTS = "alerts";
+
   static {
     _registry.add(GtfsRealtimeOneBusAway.obaFeedEntity);
     _registry.add(GtfsRealtimeOneBusAway.obaTripUpdate);
@@ -82,6 +96,25 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
 
   private ScheduledFuture<?> _refreshTask;
 
+  /**
+   * The three feeds are fetched concurrently on their own threads, rather than
+   * on the shared scheduled executor that runs the refresh task
+   */
+  private ExecutorService _fetchExecutorService;
+
+  /**
+   * Trip updates and vehicle positions are matched and applied in parallel,
+   * partitioned by vehicle
+   */
+  private VehiclePartitionedExecutor _updateExecutor = new VehiclePartitionedExecutor(
+      "GtfsRealtimeSource");
+
+  private GtfsRealtimeFeedFetcher _tripUpdatesFetcher;
+
+  private GtfsRealtimeFeedFetcher _vehiclePositionsFetcher;
+
+  private GtfsRealtimeFeedFetcher _alertsFetcher;
+
   private URL _tripUpdatesUrl;
 
   private URL _vehiclePositionsUrl;
@@ -89,6 +122,8 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
   private URL _alertsUrl;
 
   private int _refreshInterval = 30;
+
+  private int _maxUnchangedRecordAge = 120;
   
   private Map<String,String> _headersMap;
   
@@ -103,7 +138,7 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
    * poll the GTFS-realtime feeds. We keep track of the timestamp of last update
    * for each vehicle id.
    */
-  private Map<AgencyAndId, Date> _lastVehicleUpdate = new HashMap<AgencyAndId, Date>();
+  private Map<AgencyAndId, Date> _lastVehicleUpdate = new ConcurrentHashMap<AgencyAndId, Date>();
 
   /**
    * We keep track of alerts, only pushing them to the underlying
@@ -168,6 +203,25 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
   public void setRefreshInterval(int refreshInterval) {
     _refreshInterval = refreshInterval;
   }
+
+  /**
+   * Vehicles whose trip updates and position are unchanged apart from their
+   * timestamps reuse the previously computed block location for up to this
+   * long, rather than being matched against the schedule again.
+   * 
+   * @param maxUnchangedRecordAge in seconds, or zero to disable reuse
+   */
+  public void setMaxUnchangedRecordAge(int maxUnchangedRecordAge) {
+    _maxUnchangedRecordAge = maxUnchangedRecordAge;
+  }
+
+  /**
+   * @param processingThreads the number of threads used to apply vehicle
+   *          updates, defaulting to the number of available processors
+   */
+  public void setProcessingThreads(int processingThreads) {
+    _updateExecutor.setThreads(processingThreads);
+  }
   
   public void setHeadersMap(Map<String,String> headersMap) {
 	_headersMap = headersMap;
@@ -217,10 +271,18 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
     _tripsLibrary = new GtfsRealtimeTripLibrary();
     _tripsLibrary.setBlockCalendarService(_blockCalendarService);
     _tripsLibrary.setEntitySource(_entitySource);
+    _tripsLibrary.setMaxUnchangedRecordAge(_maxUnchangedRecordAge * 1000L);
 
     _alertLibrary = new GtfsRealtimeAlertLibrary();
     _alertLibrary.setEntitySource(_entitySource);
 
+    _tripUpdatesFetcher = createFetcher(TRIP_UPDATES, _tripUpdatesUrl);
+    _vehiclePositionsFetcher = createFetcher(VEHICLE_POSITIONS,
+        _vehiclePositionsUrl);
+    _alertsFetcher = createFetcher(ALERTS, _alertsUrl);
+    _fetchExecutorService = Executors.newFixedThreadPool(3);
+    _updateExecutor.start();
+
     if (_refreshInterval > 0) {
       _refreshTask = _scheduledExecutorService.scheduleAtFixedRate(
           new RefreshTask(), 0, _refreshInterval, TimeUnit.SECONDS);
@@ -233,15 +295,62 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
       _refreshTask.cancel(true);
       _refreshTask = null;
     }
+    if (_fetchExecutorService != null) {
+      _fetchExecutorService.shutdownNow();
+      _fetchExecutorService = null;
+    }
+    _updateExecutor.stop();
+  }
+
+  /**
+   * Stop time lookups and cached records refer to the previous transit graph.
+   * The services we send updates to may have been replaced along with the
+   * graph, such as after a bundle swap, so forget what we have already sent
+   * and apply the current feeds again on the next refresh.
+   */
+  @Refreshable(dependsOn = RefreshableResources.TRANSIT_GRAPH)
+  public synchronized void handleTransitGraphRefresh() {
+    if (_tripsLibrary != null)
+      _tripsLibrary.clearCaches();
+    _lastVehicleUpdate.clear();
+    _alertsById.clear();
+    for (GtfsRealtimeFeedFetcher fetcher : Arrays.asList(_tripUpdatesFetcher,
+        _vehiclePositionsFetcher, _alertsFetcher)) {
+      if (fetcher != null)
+        fetcher.markUpdated();
+    }
   }
 
-  public void refresh() throws IOException {
-    FeedMessage tripUpdates = readOrReturnDefault(_tripUpdatesUrl);
-    FeedMessage vehiclePositions = readOrReturnDefault(_vehiclePositionsUrl);
-    FeedMessage alerts = readOrReturnDefault(_alertsUrl);
-    MonitoredResult result = new MonitoredResult();
-    result.setAgencyIds(_agencyIds);
-    handeUpdates(result, tripUpdates, vehiclePositions, alerts);
+  /**
+   * Fetches the three feeds concurrently and applies whichever have changed
+   * since the last refresh.
+   */
+  public synchronized void refresh() throws IOException {
+
+    List<GtfsRealtimeFeedFetcher> fetchers = Arrays.asList(
+        _tripUpdatesFetcher, _vehiclePositionsFetcher, _alertsFetcher);
+    fetchAll(fetchers);
+
+    boolean vehiclesUpdated = _tripUpdatesFetcher.isUpdated()
+        || _vehiclePositionsFetcher.isUpdated();
+
+    MonitoredResult result = null;
+    if (vehiclesUpdated) {
+      result = new MonitoredResult();
+      result.setAgencyIds(_agencyIds);
+    } else if (_monitoredResult != null) {
+      result = new MonitoredResult(_monitoredResult);
+    } else {
+      result = new MonitoredResult();
+      result.setAgencyIds(_agencyIds);
+    }
+
+    for (GtfsRealtimeFeedFetcher fetcher : fetchers) {
+      result.setFetchLatency(fetcher.getName(), fetcher.getFetchLatency());
+      result.setParseLatency(fetcher.getName(), fetcher.getParseLatency());
+    }
+
+    handeUpdates(result, vehiclesUpdated);
     // update reference in a thread safe manner
     _monitoredResult = result;
   }
@@ -250,43 +359,104 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
    * Private Methods
    ****/
 
+  private GtfsRealtimeFeedFetcher createFetcher(String name, URL url) {
+    GtfsRealtimeFeedFetcher fetcher = new GtfsRealtimeFeedFetcher(name, url,
+        _registry);
+    fetcher.setHeadersMap(_headersMap);
+    return fetcher;
+  }
+
+  private void fetchAll(List<GtfsRealtimeFeedFetcher> fetchers)
+      throws IOException {
+
+    if (_fetchExecutorService == null) {
+      for (GtfsRealtimeFeedFetcher fetcher : fetchers)
+        fetcher.fetch();
+      return;
+    }
+
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (GtfsRealtimeFeedFetcher fetcher : fetchers)
+      futures.add(_fetchExecutorService.submit(new FetchTask(fetcher)));
+
+    try {
+      for (Future<Void> future : futures)
+        future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted fetching GTFS-realtime feeds");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IllegalStateException(cause);
+    } finally {
+      for (Future<Void> future : futures)
+        future.cancel(true);
+    }
+  }
+
   /**
    * 
-   * @param tripUpdates
-   * @param vehiclePositions
-   * @param alerts
+   * @param result
+   * @param vehiclesUpdated true if either the trip updates or the vehicle
+   *          positions feed has changed
    */
-  private synchronized void handeUpdates(MonitoredResult result, FeedMessage tripUpdates,
-      FeedMessage vehiclePositions, FeedMessage alerts) {
+  private synchronized void handeUpdates(MonitoredResult result,
+      boolean vehiclesUpdated) {
+
+    if (vehiclesUpdated) {
+      long t0 = System.currentTimeMillis();
+      List<CombinedTripUpdatesAndVehiclePosition> combinedUpdates = _tripsLibrary.groupTripUpdatesAndVehiclePositions(result,
+          _tripUpdatesFetcher.getFeed(), _vehiclePositionsFetcher.getFeed());
+      result.setRecordsTotal(combinedUpdates.size());
+      handleCombinedUpdates(result, combinedUpdates);
+      /**
+       * Trip updates and vehicle positions are applied together
+       */
+      long latency = System.currentTimeMillis() - t0;
+      result.setApplyLatency(TRIP_UPDATES, latency);
+      result.setApplyLatency(VEHICLE_POSITIONS, latency);
+      _tripUpdatesFetcher.markApplied();
+      _vehiclePositionsFetcher.markApplied();
+    }
 
-    List<CombinedTripUpdatesAndVehiclePosition> combinedUpdates = _tripsLibrary.groupTripUpdatesAndVehiclePositions(result,
-        tripUpdates, vehiclePositions);
-    result.setRecordsTotal(combinedUpdates.size());
-    handleCombinedUpdates(result, combinedUpdates);
-    handleAlerts(alerts);
+    if (_alertsFetcher.isUpdated()) {
+      long t0 = System.currentTimeMillis();
+      handleAlerts(_alertsFetcher.getFeed(),
+          _alertsFetcher.getDeletedEntityIds());
+      result.setApplyLatency(ALERTS, System.currentTimeMillis() - t0);
+      _alertsFetcher.markApplied();
+    }
   }
 
-  private void handleCombinedUpdates(MonitoredResult result,
+  private void handleCombinedUpdates(final MonitoredResult result,
       List<CombinedTripUpdatesAndVehiclePosition> updates) {
 
-    Set<AgencyAndId> seenVehicles = new HashSet<AgencyAndId>();
-
-    for (CombinedTripUpdatesAndVehiclePosition update : updates) {
-      VehicleLocationRecord record = _tripsLibrary.createVehicleLocationRecordForUpdate(result, update);
-      if (record != null) {
-        if (record.getTripId() != null) {
-          result.addUnmatchedTripId(record.getTripId().toString());
-        }
-        AgencyAndId vehicleId = record.getVehicleId();
-        seenVehicles.add(vehicleId);
-        Date timestamp = new Date(record.getTimeOfRecord());
-        Date prev = _lastVehicleUpdate.get(vehicleId);
-        if (prev == null || prev.before(timestamp)) {
-          _vehicleLocationListener.handleVehicleLocationRecord(record);
-          _lastVehicleUpdate.put(vehicleId, timestamp);
-        }
-      }
-    }
+    final Set<AgencyAndId> seenVehicles = Collections.newSetFromMap(new ConcurrentHashMap<AgencyAndId, Boolean>());
+
+    _updateExecutor.execute(updates,
+        new PartitionedHandler<CombinedTripUpdatesAndVehiclePosition>() {
+
+          @Override
+          public Object getPartitionKey(
+              CombinedTripUpdatesAndVehiclePosition update) {
+            /**
+             * Records use the block id as the vehicle id when the feed doesn't
+             * provide one
+             */
+            if (update.block.getVehicleId() != null)
+              return update.block.getVehicleId();
+            return update.block.getBlockEntry().getId();
+          }
+
+          @Override
+          public void handle(CombinedTripUpdatesAndVehiclePosition update) {
+            handleCombinedUpdate(result, update, seenVehicles);
+          }
+        });
 
     Calendar c = Calendar.getInstance();
     c.add(Calendar.MINUTE, -15);
@@ -304,7 +474,42 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
     }
   }
 
-  private void handleAlerts(FeedMessage alerts) {
+  private void handleCombinedUpdate(MonitoredResult result,
+      CombinedTripUpdatesAndVehiclePosition update,
+      Set<AgencyAndId> seenVehicles) {
+    VehicleLocationRecord record = _tripsLibrary.createVehicleLocationRecordForUpdate(result, update);
+    if (record != null) {
+      if (record.getTripId() != null) {
+        result.addUnmatchedTripId(record.getTripId().toString());
+      }
+      AgencyAndId vehicleId = record.getVehicleId();
+      seenVehicles.add(vehicleId);
+      Date timestamp = new Date(record.getTimeOfRecord());
+      Date prev = _lastVehicleUpdate.get(vehicleId);
+      if (prev == null || prev.before(timestamp)) {
+        _vehicleLocationListener.handleVehicleLocationRecord(record);
+        _lastVehicleUpdate.put(vehicleId, timestamp);
+      }
+    }
+  }
+
+  /**
+   * Updates and removals are sent to the service alerts service in two
+   * batches, so only the last operation on each alert is kept, and the order
+   * of the batches doesn't matter
+   */
+  private void handleAlerts(FeedMessage alerts, List<String> deletedEntityIds) {
+
+    Map<AgencyAndId, ServiceAlert.Builder> serviceAlertsToUpdate = new LinkedHashMap<AgencyAndId, ServiceAlert.Builder>();
+    Set<AgencyAndId> serviceAlertIdsToRemove = new LinkedHashSet<AgencyAndId>();
+
+    for (String entityId : deletedEntityIds) {
+      AgencyAndId id = createId(entityId);
+      _alertsById.remove(id);
+      serviceAlertsToUpdate.remove(id);
+      serviceAlertIdsToRemove.add(id);
+    }
+
     for (FeedEntity entity : alerts.getEntityList()) {
       Alert alert = entity.getAlert();
       if (alert == null) {
@@ -316,7 +521,8 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
 
       if (entity.getIsDeleted()) {
         _alertsById.remove(id);
-        _serviceAlertService.removeServiceAlert(id);
+        serviceAlertsToUpdate.remove(id);
+        serviceAlertIdsToRemove.add(id);
       } else {
         ServiceAlert.Builder serviceAlertBuilder = _alertLibrary.getAlertAsServiceAlert(
             id, alert, _alertAgencyIdMap);
@@ -324,72 +530,43 @@ public class GtfsRealtimeSource implements MonitoredDataSource {
         ServiceAlert existingAlert = _alertsById.get(id);
         if (existingAlert == null || !existingAlert.equals(serviceAlert)) {
           _alertsById.put(id, serviceAlert);
-          _serviceAlertService.createOrUpdateServiceAlert(serviceAlertBuilder,
-              _agencyIds.get(0));
+          serviceAlertIdsToRemove.remove(id);
+          serviceAlertsToUpdate.put(id, serviceAlertBuilder);
         }
       }
     }
+
+    if (!serviceAlertsToUpdate.isEmpty())
+      _serviceAlertService.createOrUpdateServiceAlerts(
+          new ArrayList<ServiceAlert.Builder>(serviceAlertsToUpdate.values()),
+          _agencyIds.get(0));
+    if (!serviceAlertIdsToRemove.isEmpty())
+      _serviceAlertService.removeServiceAlerts(new ArrayList<AgencyAndId>(
+          serviceAlertIdsToRemove));
   }
 
   private AgencyAndId createId(String id) {
     return new AgencyAndId(_agencyIds.get(0), id);
   }
 
-  /**
-   * 
-   * @param url
-   * @return a {@link FeedMessage} constructed from the protocol buffer conent
-   *         of the specified url, or a default empty {@link FeedMessage} if the
-   *         url is null
-   * @throws IOException
-   */
-  private FeedMessage readOrReturnDefault(URL url) throws IOException {
-    if (url == null) {
-      FeedMessage.Builder builder = FeedMessage.newBuilder();
-      FeedHeader.Builder header = FeedHeader.newBuilder();
-      header.setGtfsRealtimeVersion(GtfsRealtimeConstants.VERSION);
-      builder.setHeader(header);
-      return builder.build();
+  /****
+   *
+   ****/
+
+  private static class FetchTask implements Callable<Void> {
+
+    private final GtfsRealtimeFeedFetcher _fetcher;
+
+    public FetchTask(GtfsRealtimeFeedFetcher fetcher) {
+      _fetcher = fetcher;
     }
-    return readFeedFromUrl(url);
-  }
 
-  /**
-   * 
-   * @param url the {@link URL} to read from
-   * @return a {@link FeedMessage} constructed from the protocol buffer content
-   *         of the specified url
-   * @throws IOException
-   */
-  private FeedMessage readFeedFromUrl(URL url) throws IOException {
-   URLConnection urlConnection = url.openConnection();
-   setHeadersToUrlConnection(urlConnection);
-   InputStream in = urlConnection.getInputStream();
-    try {
-      return FeedMessage.parseFrom(in, _registry);
-    } finally {
-      try {
-        in.close();
-      } catch (IOException ex) {
-        _log.error("error closing url stream " + url);
-      }
+    @Override
+    public Void call() throws IOException {
+      _fetcher.fetch();
+      return null;
     }
   }
-/**
- * Set the headers to the urlConnection if any
- * @param urlConnection
- * @return, the urlConnection with the headers set
- */
-  private void setHeadersToUrlConnection(URLConnection urlConnection) {
-   if (_headersMap != null) {
-	  for (Map.Entry<String, String> headerEntry : _headersMap.entrySet()) {
-	    urlConnection.setRequestProperty(headerEntry.getKey(), headerEntry.getValue());
-	  }
-	}
-  }
-  /****
-   *
-   ****/
 
   private class RefreshTask implements Runnable {
 
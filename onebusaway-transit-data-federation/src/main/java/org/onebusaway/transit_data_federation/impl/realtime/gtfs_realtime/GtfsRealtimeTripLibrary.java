@@ -20,12 +20,15 @@ package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.onebusaway.collections.FactoryMap;
 import org.onebusaway.collections.MappingLibrary;
-import org.onebusaway.collections.Min;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.realtime.api.VehicleLocationRecord;
 import org.onebusaway.transit_data_federation.services.blocks.BlockCalendarService;
@@ -65,6 +68,16 @@ class GtfsRealtimeTripLibrary {
    */
   private long _currentTime = 0;
 
+  /**
+   * The record most recently built for each block, used to skip block matching
+   * for updates whose content hasn't changed since the previous poll
+   */
+  private ConcurrentMap<BlockDescriptor, CachedRecord> _recordsByBlock = new ConcurrentHashMap<BlockDescriptor, CachedRecord>();
+
+  private long _maxUnchangedRecordAge = 2 * 60 * 1000;
+
+  private ConcurrentMap<BlockConfigurationEntry, BlockStopTimeLookup> _stopTimeLookups = new ConcurrentHashMap<BlockConfigurationEntry, BlockStopTimeLookup>();
+
   public void setEntitySource(GtfsRealtimeEntitySource entitySource) {
     _entitySource = entitySource;
   }
@@ -81,6 +94,29 @@ class GtfsRealtimeTripLibrary {
     _currentTime = currentTime;
   }
 
+  /**
+   * An update whose trip updates and vehicle position are unchanged, ignoring
+   * timestamps, reuses the previously built record with only its time of
+   * record refreshed. Since the best schedule deviation also depends on the
+   * current time, the record is rebuilt in full once it is older than this.
+   * 
+   * @param maxUnchangedRecordAge in ms, or zero to always rebuild records
+   */
+  public void setMaxUnchangedRecordAge(long maxUnchangedRecordAge) {
+    _maxUnchangedRecordAge = maxUnchangedRecordAge;
+    if (maxUnchangedRecordAge <= 0)
+      _recordsByBlock.clear();
+  }
+
+  /**
+   * Discard everything derived from the transit graph, for when it is
+   * reloaded
+   */
+  public void clearCaches() {
+    _recordsByBlock.clear();
+    _stopTimeLookups.clear();
+  }
+
   public List<CombinedTripUpdatesAndVehiclePosition> groupTripUpdatesAndVehiclePositions(
       FeedMessage tripUpdates, FeedMessage vehiclePositions) {
     return groupTripUpdatesAndVehiclePositions(null, tripUpdates, vehiclePositions);
@@ -129,6 +165,16 @@ class GtfsRealtimeTripLibrary {
       updates.add(update);
     }
 
+    /**
+     * Forget records for blocks that have dropped out of the feed
+     */
+    if (!_recordsByBlock.isEmpty()) {
+      Set<BlockDescriptor> blocks = new HashSet<BlockDescriptor>();
+      for (CombinedTripUpdatesAndVehiclePosition update : updates)
+        blocks.add(update.block);
+      _recordsByBlock.keySet().retainAll(blocks);
+    }
+
     return updates;
   }
 
@@ -147,15 +193,26 @@ class GtfsRealtimeTripLibrary {
     public VehicleLocationRecord createVehicleLocationRecordForUpdate(MonitoredResult result,
         CombinedTripUpdatesAndVehiclePosition update) {
 
+    BlockDescriptor blockDescriptor = update.block;
+
+    UpdateFingerprint fingerprint = null;
+    if (_maxUnchangedRecordAge > 0) {
+      fingerprint = new UpdateFingerprint(update);
+      CachedRecord cached = _recordsByBlock.get(blockDescriptor);
+      if (cached != null && cached.fingerprint.equals(fingerprint)
+          && currentTime() - cached.createdAt <= _maxUnchangedRecordAge) {
+        return refreshRecord(result, cached, update);
+      }
+    }
 
     VehicleLocationRecord record = new VehicleLocationRecord();
     record.setTimeOfRecord(currentTime());
 
-    BlockDescriptor blockDescriptor = update.block;
-
     record.setBlockId(blockDescriptor.getBlockEntry().getId());
 
-    applyTripUpdatesToRecord(result, blockDescriptor, update.tripUpdates, record);
+    List<TripUpdate> matchedTripUpdates = new ArrayList<TripUpdate>();
+    boolean matched = applyTripUpdatesToRecord(result, blockDescriptor,
+        update.tripUpdates, record, matchedTripUpdates);
 
     if (update.vehiclePosition != null) {
       applyVehiclePositionToRecord(update.vehiclePosition, record);
@@ -166,14 +223,7 @@ class GtfsRealtimeTripLibrary {
      */
     record.setVehicleId(record.getBlockId());
 
-    if (result != null) {
-      if (record.getTripId() != null) {
-        result.addMatchedTripId(record.getTripId().toString());
-      } else {
-        // we don't have a tripId, use the BlockId instead
-        result.addMatchedTripId(record.getBlockId().toString());
-      }
-    }
+    addMatchedTripId(result, record);
     
     if (blockDescriptor.getVehicleId() != null) {
       String agencyId = record.getBlockId().getAgencyId();
@@ -181,6 +231,16 @@ class GtfsRealtimeTripLibrary {
           blockDescriptor.getVehicleId()));
     }
 
+    if (fingerprint != null) {
+      if (matched) {
+        _recordsByBlock.put(blockDescriptor, new CachedRecord(fingerprint,
+            new VehicleLocationRecord(record), getIndices(update.tripUpdates,
+                matchedTripUpdates), currentTime()));
+      } else {
+        _recordsByBlock.remove(blockDescriptor);
+      }
+    }
+
     return record;
   }
 
@@ -188,6 +248,42 @@ class GtfsRealtimeTripLibrary {
    * 
    ****/
 
+  private void addMatchedTripId(MonitoredResult result,
+      VehicleLocationRecord record) {
+    if (result != null) {
+      if (record.getTripId() != null) {
+        result.addMatchedTripId(record.getTripId().toString());
+      } else {
+        // we don't have a tripId, use the BlockId instead
+        result.addMatchedTripId(record.getBlockId().toString());
+      }
+    }
+  }
+
+  /**
+   * Copy a previously built record for an unchanged update. As in a full
+   * rebuild, the time of record is the timestamp of the last matched trip
+   * update that has one, read from the current update: the fingerprint
+   * guarantees its trip updates are the ones matched before, in the same
+   * order.
+   */
+  private VehicleLocationRecord refreshRecord(MonitoredResult result,
+      CachedRecord cached, CombinedTripUpdatesAndVehiclePosition update) {
+
+    VehicleLocationRecord record = new VehicleLocationRecord(cached.record);
+
+    long timestamp = 0;
+    for (int index : cached.matchedTripUpdateIndices) {
+      long tripUpdateTimestamp = getTimestamp(update.tripUpdates.get(index));
+      if (tripUpdateTimestamp != 0)
+        timestamp = tripUpdateTimestamp;
+    }
+    record.setTimeOfRecord(timestamp != 0 ? timestamp : currentTime());
+
+    addMatchedTripId(result, record);
+    return record;
+  }
+
   private boolean determineIfTripUpdatesIncludeVehicleIds(
       Collection<BlockDescriptor> blockDescriptors) {
 
@@ -328,8 +424,14 @@ class GtfsRealtimeTripLibrary {
     return blockDescriptor;
   }
 
-  private void applyTripUpdatesToRecord(MonitoredResult result, BlockDescriptor blockDescriptor,
-      List<TripUpdate> tripUpdates, VehicleLocationRecord record) {
+  /**
+   * @param matchedTripUpdates if not null, receives the trip updates matched
+   *          to the block, in the order they were applied
+   * @return false if no active instance of the block could be found
+   */
+  private boolean applyTripUpdatesToRecord(MonitoredResult result, BlockDescriptor blockDescriptor,
+      List<TripUpdate> tripUpdates, VehicleLocationRecord record,
+      List<TripUpdate> matchedTripUpdates) {
 
     BlockEntry block = blockDescriptor.getBlockEntry();
     long t = currentTime();
@@ -347,7 +449,7 @@ class GtfsRealtimeTripLibrary {
       }
       _log.warn("could not find any active schedules instance for the specified block="
           + block.getId() + " tripUpdates=" + tripUpdates);
-      return;
+      return false;
     }
 
     /**
@@ -357,6 +459,7 @@ class GtfsRealtimeTripLibrary {
     BlockInstance instance = instances.get(0);
     BlockConfigurationEntry blockConfiguration = instance.getBlock();
     List<BlockTripEntry> blockTrips = blockConfiguration.getTrips();
+    BlockStopTimeLookup lookup = getStopTimeLookup(blockConfiguration);
 
     Map<String, List<TripUpdate>> tripUpdatesByTripId = MappingLibrary.mapToValueList(
         tripUpdates, "trip.tripId");
@@ -366,7 +469,8 @@ class GtfsRealtimeTripLibrary {
 
     List<TimepointPredictionRecord> timepointPredictions = new ArrayList<TimepointPredictionRecord>();
 
-    for (BlockTripEntry blockTrip : blockTrips) {
+    for (int tripIndex = 0; tripIndex < blockTrips.size(); tripIndex++) {
+      BlockTripEntry blockTrip = blockTrips.get(tripIndex);
       TripEntry trip = blockTrip.getTrip();
       AgencyAndId tripId = trip.getId();
       List<TripUpdate> updatesForTrip = tripUpdatesByTripId.get(tripId.getId());
@@ -374,6 +478,9 @@ class GtfsRealtimeTripLibrary {
       if (updatesForTrip != null) {
         for (TripUpdate tripUpdate : updatesForTrip) {
 
+          if (matchedTripUpdates != null)
+            matchedTripUpdates.add(tripUpdate);
+
           /**
            * TODO: delete this code once all upstream systems have been
            * migrated the new "delay" and "timestamp" fields.
@@ -389,10 +496,6 @@ class GtfsRealtimeTripLibrary {
               best.isInPast = false;
               best.scheduleDeviation = delay;
             }
-            
-            if (obaTripUpdate.hasTimestamp()) {
-              best.timestamp = obaTripUpdate.getTimestamp() * 1000;
-            }
           }
 
           if (tripUpdate.hasDelay()) {
@@ -403,13 +506,15 @@ class GtfsRealtimeTripLibrary {
             best.isInPast = false;
             best.scheduleDeviation = tripUpdate.getDelay();
           }
-          if (tripUpdate.hasTimestamp()) {
-            best.timestamp = tripUpdate.getTimestamp() * 1000;
+
+          long timestamp = getTimestamp(tripUpdate);
+          if (timestamp != 0) {
+            best.timestamp = timestamp;
           }
 
           for (StopTimeUpdate stopTimeUpdate : tripUpdate.getStopTimeUpdateList()) {
             BlockStopTimeEntry blockStopTime = getBlockStopTimeForStopTimeUpdate(
-                tripUpdate, stopTimeUpdate, blockTrip.getStopTimes(),
+                tripUpdate, stopTimeUpdate, lookup, tripIndex,
                 instance.getServiceDate());
             if (blockStopTime == null)
               continue;
@@ -459,19 +564,71 @@ class GtfsRealtimeTripLibrary {
       record.setTimeOfRecord(best.timestamp);
     }
     record.setTimepointPredictions(timepointPredictions);
+    return true;
+  }
+
+  /**
+   * @return the timestamp of the trip update in ms, preferring the standard
+   *         field to the OneBusAway extension, or zero if it has neither
+   */
+  private static long getTimestamp(TripUpdate tripUpdate) {
+    if (tripUpdate.hasTimestamp())
+      return tripUpdate.getTimestamp() * 1000;
+    /**
+     * TODO: delete this code once all upstream systems have been migrated the
+     * new "timestamp" field.
+     */
+    if (tripUpdate.hasExtension(GtfsRealtimeOneBusAway.obaTripUpdate)) {
+      OneBusAwayTripUpdate obaTripUpdate = tripUpdate.getExtension(GtfsRealtimeOneBusAway.obaTripUpdate);
+      if (obaTripUpdate.hasTimestamp())
+        return obaTripUpdate.getTimestamp() * 1000;
+    }
+    return 0;
+  }
+
+  /**
+   * @return the position of each of the matched trip updates in the list of
+   *         all trip updates, compared by identity
+   */
+  private static int[] getIndices(List<TripUpdate> tripUpdates,
+      List<TripUpdate> matchedTripUpdates) {
+    int[] indices = new int[matchedTripUpdates.size()];
+    for (int i = 0; i < indices.length; i++) {
+      TripUpdate matched = matchedTripUpdates.get(i);
+      for (int j = 0; j < tripUpdates.size(); j++) {
+        if (tripUpdates.get(j) == matched) {
+          indices[i] = j;
+          break;
+        }
+      }
+    }
+    return indices;
+  }
+
+  private BlockStopTimeLookup getStopTimeLookup(
+      BlockConfigurationEntry blockConfiguration) {
+    BlockStopTimeLookup lookup = _stopTimeLookups.get(blockConfiguration);
+    if (lookup == null) {
+      lookup = new BlockStopTimeLookup(blockConfiguration);
+      BlockStopTimeLookup existing = _stopTimeLookups.putIfAbsent(
+          blockConfiguration, lookup);
+      if (existing != null)
+        lookup = existing;
+    }
+    return lookup;
   }
 
   private BlockStopTimeEntry getBlockStopTimeForStopTimeUpdate(
       TripUpdate tripUpdate, StopTimeUpdate stopTimeUpdate,
-      List<BlockStopTimeEntry> stopTimes, long serviceDate) {
+      BlockStopTimeLookup lookup, int tripIndex, long serviceDate) {
 
     if (stopTimeUpdate.hasStopSequence()) {
       int stopSequence = stopTimeUpdate.getStopSequence();
 
-      Map<Integer, BlockStopTimeEntry> sequenceToStopTime = MappingLibrary.mapToValue(stopTimes, "stopTime.gtfsSequence");
+      BlockStopTimeEntry blockStopTime = lookup.getStopTimeForSequence(
+          tripIndex, stopSequence);
 
-      if (sequenceToStopTime.containsKey(stopSequence)) {
-        BlockStopTimeEntry blockStopTime = sequenceToStopTime.get(stopSequence);
+      if (blockStopTime != null) {
         if (!stopTimeUpdate.hasStopId()) {
           return blockStopTime;
         }
@@ -490,21 +647,10 @@ class GtfsRealtimeTripLibrary {
 
     if (stopTimeUpdate.hasStopId()) {
       int time = getTimeForStopTimeUpdate(stopTimeUpdate, serviceDate);
-      String stopId = stopTimeUpdate.getStopId();
       // There could be loops, meaning a stop could appear multiple times along
-      // a trip. To get around this.
-      Min<BlockStopTimeEntry> bestMatches = new Min<BlockStopTimeEntry>();
-      for (BlockStopTimeEntry blockStopTime : stopTimes) {
-        if (blockStopTime.getStopTime().getStop().getId().getId().equals(stopId)) {
-          StopTimeEntry stopTime = blockStopTime.getStopTime();
-          int departureDelta = Math.abs(stopTime.getDepartureTime() - time);
-          int arrivalDelta = Math.abs(stopTime.getArrivalTime() - time);
-          bestMatches.add(departureDelta, blockStopTime);
-          bestMatches.add(arrivalDelta, blockStopTime);
-        }
-      }
-      if (!bestMatches.isEmpty())
-        return bestMatches.getMinElement();
+      // a trip, so we pick the visit closest in time.
+      return lookup.getStopTimeForStopId(tripIndex, stopTimeUpdate.getStopId(),
+          time);
     }
 
     return null;
@@ -589,6 +735,79 @@ class GtfsRealtimeTripLibrary {
     return System.currentTimeMillis();
   }
 
+  /**
+   * The content of an update with all timestamps cleared, so that a feed
+   * which only bumps its timestamps compares equal to the previous poll
+   */
+  private static class UpdateFingerprint {
+
+    private final List<TripUpdate> _tripUpdates;
+
+    private final VehiclePosition _vehiclePosition;
+
+    public UpdateFingerprint(CombinedTripUpdatesAndVehiclePosition update) {
+      _tripUpdates = new ArrayList<TripUpdate>(update.tripUpdates.size());
+      for (TripUpdate tripUpdate : update.tripUpdates)
+        _tripUpdates.add(stripTimestamps(tripUpdate));
+      _vehiclePosition = update.vehiclePosition == null ? null
+          : update.vehiclePosition.toBuilder().clearTimestamp().build();
+    }
+
+    @Override
+    public int hashCode() {
+      return _tripUpdates.hashCode() * 31
+          + (_vehiclePosition == null ? 0 : _vehiclePosition.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof UpdateFingerprint))
+        return false;
+      UpdateFingerprint other = (UpdateFingerprint) obj;
+      if (!_tripUpdates.equals(other._tripUpdates))
+        return false;
+      if (_vehiclePosition == null)
+        return other._vehiclePosition == null;
+      return _vehiclePosition.equals(other._vehiclePosition);
+    }
+
+    private static TripUpdate stripTimestamps(TripUpdate tripUpdate) {
+      TripUpdate.Builder builder = tripUpdate.toBuilder();
+      builder.clearTimestamp();
+      if (tripUpdate.hasExtension(GtfsRealtimeOneBusAway.obaTripUpdate)) {
+        OneBusAwayTripUpdate obaTripUpdate = tripUpdate.getExtension(GtfsRealtimeOneBusAway.obaTripUpdate);
+        builder.setExtension(GtfsRealtimeOneBusAway.obaTripUpdate,
+            obaTripUpdate.toBuilder().clearTimestamp().build());
+      }
+      return builder.build();
+    }
+  }
+
+  private static class CachedRecord {
+
+    public final UpdateFingerprint fingerprint;
+
+    public final VehicleLocationRecord record;
+
+    /**
+     * Positions of the matched trip updates, in the order they were applied
+     */
+    public final int[] matchedTripUpdateIndices;
+
+    public final long createdAt;
+
+    public CachedRecord(UpdateFingerprint fingerprint,
+        VehicleLocationRecord record, int[] matchedTripUpdateIndices,
+        long createdAt) {
+      this.fingerprint = fingerprint;
+      this.record = record;
+      this.matchedTripUpdateIndices = matchedTripUpdateIndices;
+      this.createdAt = createdAt;
+    }
+  }
+
   private static class BestScheduleDeviation {
     public int delta = Integer.MAX_VALUE;
     public int scheduleDeviation = 0;
@@ -16,8 +16,10 @@
 package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.onebusaway.geospatial.model.CoordinateBounds;
@@ -35,8 +37,31 @@ public class MonitoredResult {
   private Set<CoordinatePoint> _allCoordinates = new HashSet<CoordinatePoint>();
   private int _recordsTotal = 0;
   private long _lastUpdate = 0; // we want the default to be very very old, to catch stale updates
+  private Map<String, Long> _fetchLatencies = new HashMap<String, Long>();
+  private Map<String, Long> _parseLatencies = new HashMap<String, Long>();
+  private Map<String, Long> _applyLatencies = new HashMap<String, Long>();
+
+  public MonitoredResult() {
+
+  }
+
+  /**
+   * Copies the matching results of a previous poll, for when none of the feeds
+   * have changed since. Latencies are not copied.
+   */
+  public MonitoredResult(MonitoredResult result) {
+    _agencyIds = result._agencyIds;
+    _unmatchedTripIds = result._unmatchedTripIds;
+    _matchedTripIds = result._matchedTripIds;
+    _unmatchedStopIds = result._unmatchedStopIds;
+    _matchedStopIds = result._matchedStopIds;
+    _unmatchedBlockIds = result._unmatchedBlockIds;
+    _allCoordinates = result._allCoordinates;
+    _recordsTotal = result._recordsTotal;
+    _lastUpdate = result._lastUpdate;
+  }
   
-  public void addUnmatchedTripId(String tripId) {
+  public synchronized void addUnmatchedTripId(String tripId) {
     _unmatchedTripIds.add(tripId);
   }
 
@@ -44,7 +69,7 @@ public class MonitoredResult {
     return _unmatchedTripIds;
   }
 
-  public void addUnmatchedStopId(String stopId) {
+  public synchronized void addUnmatchedStopId(String stopId) {
 	  _unmatchedStopIds.add(stopId);
   }
   
@@ -52,7 +77,7 @@ public class MonitoredResult {
 	  return _unmatchedStopIds;
   }
   
-  public void addMatchedStopId(String stopId) {
+  public synchronized void addMatchedStopId(String stopId) {
 	  _matchedStopIds.add(stopId);
   }
   
@@ -60,7 +85,7 @@ public class MonitoredResult {
 	  return _matchedStopIds;
   }
   
-  public void addUnmatchedBlockId(AgencyAndId id) {
+  public synchronized void addUnmatchedBlockId(AgencyAndId id) {
     _unmatchedBlockIds.add(id);
   }
 
@@ -76,12 +101,12 @@ public class MonitoredResult {
     return _recordsTotal;
   }
 
-  public void addRecordTotal() {
+  public synchronized void addRecordTotal() {
     _recordsTotal = _recordsTotal + 1;
     
   }
 
-  public void addAgencyId(String agencyId) {
+  public synchronized void addAgencyId(String agencyId) {
     _agencyIds.add(agencyId);
   }
   
@@ -109,7 +134,7 @@ public class MonitoredResult {
     this._matchedTripIds = allTripIds;
   }
 
-  public void addMatchedTripId(String tripId) {
+  public synchronized void addMatchedTripId(String tripId) {
     this._matchedTripIds.add(tripId);
   }
 
@@ -117,13 +142,47 @@ public class MonitoredResult {
     return _allCoordinates;
   }
 
-  public void addLatLon(float latitude, float longitude) {
+  public synchronized void addLatLon(float latitude, float longitude) {
     CoordinatePoint cp = new CoordinatePoint(latitude, longitude);
     _allCoordinates.add(cp);
   }
 
-  public void addLatLon(double latitude, double longitude) {
+  public synchronized void addLatLon(double latitude, double longitude) {
     CoordinatePoint cp = new CoordinatePoint(latitude, longitude);
     _allCoordinates.add(cp);
   }
+
+  /**
+   * @return time spent downloading each feed, in ms, by feed name
+   */
+  public Map<String, Long> getFetchLatencies() {
+    return _fetchLatencies;
+  }
+
+  public void setFetchLatency(String feed, long latency) {
+    _fetchLatencies.put(feed, latency);
+  }
+
+  /**
+   * @return time spent parsing each feed, in ms, by feed name
+   */
+  public Map<String, Long> getParseLatencies() {
+    return _parseLatencies;
+  }
+
+  public void setParseLatency(String feed, long latency) {
+    _parseLatencies.put(feed, latency);
+  }
+
+  /**
+   * @return time spent applying each feed, in ms, by feed name. Only feeds
+   *         that changed since the previous poll are applied.
+   */
+  public Map<String, Long> getApplyLatencies() {
+    return _applyLatencies;
+  }
+
+  public void setApplyLatency(String feed, long latency) {
+    _applyLatencies.put(feed, latency);
+  }
 }
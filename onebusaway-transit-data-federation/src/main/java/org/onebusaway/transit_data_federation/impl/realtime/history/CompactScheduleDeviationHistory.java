@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.history;
+
+import java.util.Arrays;
+
+import org.onebusaway.transit_data_federation.services.realtime.ScheduleDeviationHistogram;
+import org.onebusaway.utility.InterpolationLibrary;
+
+/**
+ * A read-only, primitive-array form of {@link ScheduleDeviationHistory}: the
+ * schedule time axis is a single float array and the deviation samples are
+ * flattened into one float array, sample-major.
+ *
+ * {@link #getHistogram(int, int)} computes the same histogram as
+ * {@link RealTimeHistoryServiceImpl} did from the full history, but makes two
+ * passes over the samples instead of materializing the deviation column, so
+ * the only allocation is the histogram itself.
+ *
+ * @author bdferris
+ */
+public final class CompactScheduleDeviationHistory {
+
+  private static final ScheduleDeviationHistogram EMPTY_HISTOGRAM = new ScheduleDeviationHistogram(
+      new int[0], new int[0]);
+
+  private final float[] _scheduleTimes;
+
+  private final float[] _scheduleDeviations;
+
+  private final int _numberOfSamples;
+
+  private CompactScheduleDeviationHistory(float[] scheduleTimes,
+      float[] scheduleDeviations, int numberOfSamples) {
+    _scheduleTimes = scheduleTimes;
+    _scheduleDeviations = scheduleDeviations;
+    _numberOfSamples = numberOfSamples;
+  }
+
+  public static CompactScheduleDeviationHistory create(
+      ScheduleDeviationHistory history) {
+
+    double[] scheduleTimes = history.getScheduleTimes();
+    double[][] scheduleDeviations = history.getScheduleDeviations();
+
+    int n = scheduleTimes.length;
+    int samples = scheduleDeviations.length;
+
+    float[] times = new float[n];
+    for (int i = 0; i < n; i++)
+      times[i] = (float) scheduleTimes[i];
+
+    float[] deviations = new float[samples * n];
+    for (int s = 0; s < samples; s++) {
+      double[] row = scheduleDeviations[s];
+      for (int i = 0; i < n; i++)
+        deviations[s * n + i] = (float) row[i];
+    }
+
+    return new CompactScheduleDeviationHistory(times, deviations, samples);
+  }
+
+  public int getNumberOfSamples() {
+    return _numberOfSamples;
+  }
+
+  /**
+   * @param scheduleTime the schedule time, in seconds since the start of the
+   *          service date, at which to sample the deviations
+   * @param stepSizeInSeconds the histogram bin width
+   * @return a histogram of the non-NaN schedule deviations of each sample at
+   *         the specified schedule time
+   */
+  public ScheduleDeviationHistogram getHistogram(int scheduleTime,
+      int stepSizeInSeconds) {
+
+    int n = _scheduleTimes.length;
+
+    if (n == 0 || _numberOfSamples == 0)
+      return EMPTY_HISTOGRAM;
+
+    /**
+     * Either a column to read directly, or the upper column of a pair to
+     * interpolate between
+     */
+    int index = Arrays.binarySearch(_scheduleTimes, scheduleTime);
+    boolean interpolate = false;
+
+    if (index < 0) {
+      index = -(index + 1);
+      if (index == n)
+        index = n - 1;
+      else if (index > 0)
+        interpolate = true;
+    }
+
+    int count = 0;
+    double first = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+
+    for (int s = 0; s < _numberOfSamples; s++) {
+      double value = getDeviation(s, index, interpolate, scheduleTime);
+      if (Double.isNaN(value))
+        continue;
+      if (count == 0)
+        first = value;
+      count++;
+      if (value < min)
+        min = value;
+      if (value > max)
+        max = value;
+    }
+
+    if (count == 0)
+      return EMPTY_HISTOGRAM;
+
+    if (max - min == 0)
+      return new ScheduleDeviationHistogram(new int[] {(int) first},
+          new int[] {count});
+
+    int halfStep = stepSizeInSeconds / 2;
+
+    int from = (int) (Math.floor((min - halfStep) / stepSizeInSeconds) * stepSizeInSeconds)
+        + halfStep;
+    int to = (int) (Math.ceil((max + halfStep) / stepSizeInSeconds) * stepSizeInSeconds)
+        - halfStep;
+    int columns = (to - from) / stepSizeInSeconds;
+
+    int[] scheduleDeviations = new int[columns];
+    int[] counts = new int[columns];
+
+    for (int i = 0; i < columns; i++)
+      scheduleDeviations[i] = from + stepSizeInSeconds * i + halfStep;
+
+    for (int s = 0; s < _numberOfSamples; s++) {
+      double value = getDeviation(s, index, interpolate, scheduleTime);
+      if (Double.isNaN(value))
+        continue;
+      counts[(int) ((value - from) / stepSizeInSeconds)]++;
+    }
+
+    return new ScheduleDeviationHistogram(scheduleDeviations, counts);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private double getDeviation(int sample, int index, boolean interpolate,
+      int scheduleTime) {
+
+    int offset = sample * _scheduleTimes.length;
+
+    if (!interpolate)
+      return _scheduleDeviations[offset + index];
+
+    return InterpolationLibrary.interpolatePair(_scheduleTimes[index - 1],
+        _scheduleDeviations[offset + index - 1], _scheduleTimes[index],
+        _scheduleDeviations[offset + index], scheduleTime);
+  }
+}
@@ -17,7 +17,6 @@ package org.onebusaway.transit_data_federation.impl.realtime.history;
 
 import java.util.Arrays;
 
-import org.onebusaway.collections.Range;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.realtime.api.VehicleLocationRecord;
 import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
@@ -44,6 +43,8 @@ public class RealTimeHistoryServiceImpl implements RealTimeHistoryService {
 
   private ScheduleDeviationHistoryDaoImpl _scheduleDeviationHistoryDao;
 
+  private ScheduleDeviationHistoryStore _scheduleDeviationHistoryStore;
+
   private int _predictionLookahead = 20 * 60;
 
   private Normal _schedDevScaleParam = new Normal(0, 5 * 60,
@@ -55,6 +56,12 @@ public class RealTimeHistoryServiceImpl implements RealTimeHistoryService {
     _scheduleDeviationHistoryDao = scheduleDeviationHistoryDao;
   }
 
+  @Autowired
+  public void setScheduleDeviationHistoryStore(
+      ScheduleDeviationHistoryStore scheduleDeviationHistoryStore) {
+    _scheduleDeviationHistoryStore = scheduleDeviationHistoryStore;
+  }
+
   public void setPredictionLookahead(int predictionLookahead) {
     _predictionLookahead = predictionLookahead;
   }
@@ -67,17 +74,15 @@ public class RealTimeHistoryServiceImpl implements RealTimeHistoryService {
     TripEntry trip = blockTrip.getTrip();
     AgencyAndId tripId = trip.getId();
 
-    ScheduleDeviationHistory history = _scheduleDeviationHistoryDao.getScheduleDeviationHistoryForTripId(tripId);
-    
-    if( history == null)
+    CompactScheduleDeviationHistory history = _scheduleDeviationHistoryStore.getHistoryForTripId(tripId);
+
+    if (history == null)
       return null;
 
     BlockStopTimeEntry blockStopTime = instance.getBlockStopTime();
     StopTimeEntry stopTime = blockStopTime.getStopTime();
 
-    double[] values = getScheduleDeviationsForScheduleTime(history,
-        stopTime.getDepartureTime());
-    return createHistogramFromValues(values, stepSizeInSeconds);
+    return history.getHistogram(stopTime.getDepartureTime(), stepSizeInSeconds);
   }
 
   @Override
@@ -190,42 +195,6 @@ public class RealTimeHistoryServiceImpl implements RealTimeHistoryService {
     return vs.elements();
   }
 
-  private ScheduleDeviationHistogram createHistogramFromValues(double[] values,
-      int stepSizeInSeconds) {
-
-    values = noNans(values);
-
-    if (values.length == 0)
-      return new ScheduleDeviationHistogram(new int[0], new int[0]);
-
-    Range r = new Range();
-    for (double v : values)
-      r.addValue(v);
-
-    if (r.getRange() == 0)
-      return new ScheduleDeviationHistogram(new int[] {(int) values[0]},
-          new int[] {values.length});
-    
-    int halfStep = stepSizeInSeconds / 2;
-
-    int from = (int) (Math.floor((r.getMin()-halfStep) / stepSizeInSeconds) * stepSizeInSeconds) + halfStep;
-    int to = (int) (Math.ceil((r.getMax()+halfStep) / stepSizeInSeconds) * stepSizeInSeconds) - halfStep;
-    int columns = (to - from) / stepSizeInSeconds;
-
-    int[] scheduleDeviations = new int[columns];
-    int[] counts = new int[columns];
-
-    for (int i = 0; i < columns; i++)
-      scheduleDeviations[i] = from + stepSizeInSeconds * i + halfStep;
-
-    for (double value : values) {
-      int index = (int) ((value - from) / stepSizeInSeconds);
-      counts[index]++;
-    }
-
-    return new ScheduleDeviationHistogram(scheduleDeviations, counts);
-  }
-
   private ScheduleDeviationHistory resampleHistory(
       ScheduleDeviationHistory history, int scheduleTime, double activeDeviation) {
 
@@ -15,12 +15,20 @@
  */
 package org.onebusaway.transit_data_federation.impl.realtime.history;
 
+import java.sql.SQLException;
 import java.util.List;
 
+import org.hibernate.CacheMode;
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.services.realtime.ScheduleDeviationHistoryDao;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.HibernateTemplate;
 import org.springframework.stereotype.Component;
 
@@ -57,4 +65,29 @@ public class ScheduleDeviationHistoryDaoImpl implements
       AgencyAndId tripId) {
     return _template.get(ScheduleDeviationHistory.class, tripId);
   }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<ScheduleDeviationHistory> getScheduleDeviationHistoriesAfterTripId(
+      final AgencyAndId lastTripId, final int maxResults) {
+    return _template.executeFind(new HibernateCallback<List<ScheduleDeviationHistory>>() {
+      @Override
+      public List<ScheduleDeviationHistory> doInHibernate(Session session)
+          throws HibernateException, SQLException {
+        Criteria c = session.createCriteria(ScheduleDeviationHistory.class);
+        if (lastTripId != null) {
+          c.add(Restrictions.or(
+              Restrictions.gt("tripId.agencyId", lastTripId.getAgencyId()),
+              Restrictions.and(
+                  Restrictions.eq("tripId.agencyId", lastTripId.getAgencyId()),
+                  Restrictions.gt("tripId.id", lastTripId.getId()))));
+        }
+        c.addOrder(Order.asc("tripId.agencyId"));
+        c.addOrder(Order.asc("tripId.id"));
+        c.setMaxResults(maxResults);
+        c.setCacheMode(CacheMode.IGNORE);
+        return c.list();
+      }
+    });
+  }
 }
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.history;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.onebusaway.container.refresh.Refreshable;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.services.realtime.ScheduleDeviationHistoryDao;
+import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the {@link ScheduleDeviationHistory} of every trip in the active
+ * bundle in memory as a {@link CompactScheduleDeviationHistory}, indexed by
+ * trip id, so that arrival lookups don't need a database round trip.
+ *
+ * Histories are computed by the bundle builder, so the store is loaded at
+ * startup and again whenever the transit graph is refreshed, by a background
+ * sweep over the history table in trip id order. Each batch becomes visible as
+ * soon as it is loaded, and histories for trips that are not in the active
+ * bundle are skipped. Until the sweep has completed, trips that haven't been
+ * loaded yet are read through the DAO.
+ *
+ * Between sweeps, the store is filled incrementally: a lookup for a trip
+ * without a history goes to the DAO, and the result is kept, so histories
+ * written later are picked up without another sweep. Trips found to have no
+ * history are remembered for the refresh interval, to keep those lookups off
+ * the database too.
+ *
+ * @author bdferris
+ */
+@Component
+@ManagedResource("org.onebusaway.transit_data_federation.impl.realtime.history:name=ScheduleDeviationHistoryStore")
+public class ScheduleDeviationHistoryStore {
+
+  private static Logger _log = LoggerFactory.getLogger(ScheduleDeviationHistoryStore.class);
+
+  private ScheduleDeviationHistoryDao _scheduleDeviationHistoryDao;
+
+  private TransitGraphDao _transitGraphDao;
+
+  private int _refreshInterval = 60;
+
+  private int _batchSize = 1000;
+
+  private final ConcurrentMap<AgencyAndId, CompactScheduleDeviationHistory> _historiesByTripId = new ConcurrentHashMap<AgencyAndId, CompactScheduleDeviationHistory>();
+
+  /**
+   * Trips known to have no history, cleared every refresh interval
+   */
+  private final Set<AgencyAndId> _tripIdsWithoutHistory = Collections.newSetFromMap(new ConcurrentHashMap<AgencyAndId, Boolean>());
+
+  private volatile boolean _loaded = false;
+
+  private volatile long _lastRefreshDuration = 0;
+
+  private volatile ScheduledExecutorService _executor;
+
+  @Autowired
+  public void setScheduleDeviationHistoryDao(
+      ScheduleDeviationHistoryDao scheduleDeviationHistoryDao) {
+    _scheduleDeviationHistoryDao = scheduleDeviationHistoryDao;
+  }
+
+  @Autowired
+  public void setTransitGraphDao(TransitGraphDao transitGraphDao) {
+    _transitGraphDao = transitGraphDao;
+  }
+
+  /**
+   * @param refreshInterval time, in minutes, that trips without a history are
+   *          remembered as such
+   */
+  public void setRefreshInterval(int refreshInterval) {
+    _refreshInterval = refreshInterval;
+  }
+
+  /**
+   * @param batchSize the number of histories read from the database at once
+   */
+  public void setBatchSize(int batchSize) {
+    _batchSize = batchSize;
+  }
+
+  @PostConstruct
+  public void start() {
+    _executor = Executors.newSingleThreadScheduledExecutor();
+    _executor.submit(new RefreshTask());
+    _executor.scheduleWithFixedDelay(new ClearTripIdsWithoutHistoryTask(),
+        _refreshInterval, _refreshInterval, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void stop() {
+    ScheduledExecutorService executor = _executor;
+    if (executor != null)
+      executor.shutdownNow();
+  }
+
+  /**
+   * The histories of the previous transit graph no longer apply, so sweep the
+   * table again for the trips of the new one
+   */
+  @Refreshable(dependsOn = RefreshableResources.TRANSIT_GRAPH)
+  public void handleTransitGraphRefresh() {
+    ScheduledExecutorService executor = _executor;
+    if (executor == null)
+      return;
+    _loaded = false;
+    _tripIdsWithoutHistory.clear();
+    executor.submit(new RefreshTask());
+  }
+
+  /**
+   * @param tripId
+   * @return the schedule deviation history for the trip, or null if there is
+   *         none
+   */
+  public CompactScheduleDeviationHistory getHistoryForTripId(AgencyAndId tripId) {
+
+    CompactScheduleDeviationHistory history = _historiesByTripId.get(tripId);
+    if (history != null || _tripIdsWithoutHistory.contains(tripId))
+      return history;
+
+    ScheduleDeviationHistory record = _scheduleDeviationHistoryDao.getScheduleDeviationHistoryForTripId(tripId);
+    if (record == null) {
+      _tripIdsWithoutHistory.add(tripId);
+      return null;
+    }
+
+    history = CompactScheduleDeviationHistory.create(record);
+    _historiesByTripId.put(tripId, history);
+    return history;
+  }
+
+  @ManagedAttribute
+  public int getTripCount() {
+    return _historiesByTripId.size();
+  }
+
+  @ManagedAttribute
+  public int getTripWithoutHistoryCount() {
+    return _tripIdsWithoutHistory.size();
+  }
+
+  @ManagedAttribute
+  public boolean isLoaded() {
+    return _loaded;
+  }
+
+  @ManagedAttribute
+  public long getLastRefreshDuration() {
+    return _lastRefreshDuration;
+  }
+
+  /**
+   * Sweep the history table once, replacing the entries for every trip of the
+   * active bundle found and dropping the rest.
+   */
+  public void refresh() {
+
+    long t0 = System.currentTimeMillis();
+
+    Set<AgencyAndId> tripIds = new HashSet<AgencyAndId>();
+    AgencyAndId lastTripId = null;
+
+    while (true) {
+
+      List<ScheduleDeviationHistory> histories = _scheduleDeviationHistoryDao.getScheduleDeviationHistoriesAfterTripId(
+          lastTripId, _batchSize);
+
+      for (ScheduleDeviationHistory history : histories) {
+        AgencyAndId tripId = history.getTripId();
+        lastTripId = tripId;
+        if (_transitGraphDao.getTripEntryForId(tripId) == null)
+          continue;
+        _historiesByTripId.put(tripId,
+            CompactScheduleDeviationHistory.create(history));
+        tripIds.add(tripId);
+      }
+
+      if (histories.size() < _batchSize)
+        break;
+    }
+
+    _historiesByTripId.keySet().retainAll(tripIds);
+    _tripIdsWithoutHistory.clear();
+    _loaded = true;
+    _lastRefreshDuration = System.currentTimeMillis() - t0;
+
+    _log.info("loaded schedule deviation history for " + tripIds.size()
+        + " trips in " + _lastRefreshDuration + " ms");
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private class RefreshTask implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        refresh();
+      } catch (Throwable ex) {
+        _log.error("error refreshing schedule deviation history", ex);
+      }
+    }
+  }
+
+  private class ClearTripIdsWithoutHistoryTask implements Runnable {
+
+    @Override
+    public void run() {
+      _tripIdsWithoutHistory.clear();
+    }
+  }
+}
@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.datatype.Duration;
 
 import org.onebusaway.collections.CollectionsLibrary;
@@ -32,6 +34,8 @@ import org.onebusaway.siri.OneBusAwayAffectsStructure.Applications;
 import org.onebusaway.siri.OneBusAwayConsequence;
 import org.onebusaway.siri.core.ESiriModuleType;
 import org.onebusaway.transit_data.model.service_alerts.ESeverity;
+import org.onebusaway.transit_data_federation.impl.realtime.VehiclePartitionedExecutor;
+import org.onebusaway.transit_data_federation.impl.realtime.VehiclePartitionedExecutor.PartitionedHandler;
 import org.onebusaway.transit_data_federation.impl.service_alerts.ServiceAlertLibrary;
 import org.onebusaway.transit_data_federation.services.AgencyAndIdLibrary;
 import org.onebusaway.transit_data_federation.services.blocks.BlockCalendarService;
@@ -106,6 +110,13 @@ public class SiriService {
    */
   private int _blockInstanceSearchWindow = 30;
 
+  /**
+   * Vehicle activities are matched and applied in parallel, partitioned by
+   * vehicle
+   */
+  private VehiclePartitionedExecutor _vehicleActivityExecutor = new VehiclePartitionedExecutor(
+      "SiriService");
+
   @Autowired
   public void setTransitGraphDao(TransitGraphDao transitGraphDao) {
     _transitGraphDao = transitGraphDao;
@@ -133,6 +144,24 @@ public class SiriService {
     _blockInstanceSearchWindow = blockInstanceSearchWindow;
   }
 
+  /**
+   * @param processingThreads the number of threads used to apply vehicle
+   *          activities, defaulting to the number of available processors
+   */
+  public void setProcessingThreads(int processingThreads) {
+    _vehicleActivityExecutor.setThreads(processingThreads);
+  }
+
+  @PostConstruct
+  public void start() {
+    _vehicleActivityExecutor.start();
+  }
+
+  @PreDestroy
+  public void stop() {
+    _vehicleActivityExecutor.stop();
+  }
+
   public synchronized void handleServiceDelivery(
       ServiceDelivery serviceDelivery,
       AbstractServiceDeliveryStructure deliveryForModule,
@@ -159,71 +188,88 @@ public class SiriService {
 
   private void handleVehicleMonitoring(ServiceDelivery serviceDelivery,
       VehicleMonitoringDeliveryStructure deliveryForModule,
-      SiriEndpointDetails endpointDetails) {
+      final SiriEndpointDetails endpointDetails) {
 
-    List<VehicleLocationRecord> records = new ArrayList<VehicleLocationRecord>();
+    final Date now = new Date();
 
-    Date now = new Date();
-    long timeFrom = now.getTime() - _blockInstanceSearchWindow * 60 * 1000;
-    long timeTo = now.getTime() + _blockInstanceSearchWindow * 60 * 1000;
+    _vehicleActivityExecutor.execute(deliveryForModule.getVehicleActivity(),
+        new PartitionedHandler<VehicleActivityStructure>() {
 
-    for (VehicleActivityStructure vehicleActivity : deliveryForModule.getVehicleActivity()) {
+          @Override
+          public Object getPartitionKey(VehicleActivityStructure vehicleActivity) {
+            MonitoredVehicleJourney mvj = vehicleActivity.getMonitoredVehicleJourney();
+            if (mvj == null || mvj.getVehicleRef() == null)
+              return null;
+            return mvj.getVehicleRef().getValue();
+          }
 
-      Date time = vehicleActivity.getRecordedAtTime();
-      if (time == null)
-        time = now;
+          @Override
+          public void handle(VehicleActivityStructure vehicleActivity) {
+            VehicleLocationRecord r = getVehicleActivityAsRecord(
+                vehicleActivity, endpointDetails, now);
+            if (r != null)
+              _vehicleLocationListener.handleVehicleLocationRecord(r);
+          }
+        });
+  }
 
-      MonitoredVehicleJourney mvj = vehicleActivity.getMonitoredVehicleJourney();
+  private VehicleLocationRecord getVehicleActivityAsRecord(
+      VehicleActivityStructure vehicleActivity,
+      SiriEndpointDetails endpointDetails, Date now) {
 
-      Duration delay = mvj.getDelay();
-      if (delay == null)
-        continue;
+    long timeFrom = now.getTime() - _blockInstanceSearchWindow * 60 * 1000;
+    long timeTo = now.getTime() + _blockInstanceSearchWindow * 60 * 1000;
 
-      VehicleRefStructure vehicleRef = mvj.getVehicleRef();
-      if (vehicleRef == null || vehicleRef.getValue() == null)
-        continue;
+    Date time = vehicleActivity.getRecordedAtTime();
+    if (time == null)
+      time = now;
 
-      BlockEntry block = getBlockForMonitoredVehicleJourney(mvj,
-          endpointDetails);
-      if (block == null) {
-        TripEntry trip = getTripForMonitoredVehicleJourney(mvj, endpointDetails);
-        if (trip != null)
-          block = trip.getBlock();
-      }
+    MonitoredVehicleJourney mvj = vehicleActivity.getMonitoredVehicleJourney();
+
+    Duration delay = mvj.getDelay();
+    if (delay == null)
+      return null;
 
-      if (block == null)
-        continue;
+    VehicleRefStructure vehicleRef = mvj.getVehicleRef();
+    if (vehicleRef == null || vehicleRef.getValue() == null)
+      return null;
 
-      List<BlockInstance> instances = _blockCalendarService.getActiveBlocks(
-          block.getId(), timeFrom, timeTo);
+    BlockEntry block = getBlockForMonitoredVehicleJourney(mvj, endpointDetails);
+    if (block == null) {
+      TripEntry trip = getTripForMonitoredVehicleJourney(mvj, endpointDetails);
+      if (trip != null)
+        block = trip.getBlock();
+    }
 
-      // TODO : We currently assume that a block won't overlap with itself
-      if (instances.size() != 1)
-        continue;
+    if (block == null)
+      return null;
 
-      BlockInstance instance = instances.get(0);
+    List<BlockInstance> instances = _blockCalendarService.getActiveBlocks(
+        block.getId(), timeFrom, timeTo);
 
-      VehicleLocationRecord r = new VehicleLocationRecord();
-      r.setTimeOfRecord(time.getTime());
-      r.setServiceDate(instance.getServiceDate());
-      r.setBlockId(block.getId());
+    // TODO : We currently assume that a block won't overlap with itself
+    if (instances.size() != 1)
+      return null;
 
-      String agencyId = block.getId().getAgencyId();
-      r.setVehicleId(new AgencyAndId(agencyId, vehicleRef.getValue()));
+    BlockInstance instance = instances.get(0);
 
-      r.setScheduleDeviation(delay.getTimeInMillis(now) / 1000);
+    VehicleLocationRecord r = new VehicleLocationRecord();
+    r.setTimeOfRecord(time.getTime());
+    r.setServiceDate(instance.getServiceDate());
+    r.setBlockId(block.getId());
 
-      LocationStructure location = mvj.getVehicleLocation();
-      if (location != null) {
-        r.setCurrentLocationLat(location.getLatitude().doubleValue());
-        r.setCurrentLocationLon(location.getLongitude().doubleValue());
-      }
+    String agencyId = block.getId().getAgencyId();
+    r.setVehicleId(new AgencyAndId(agencyId, vehicleRef.getValue()));
+
+    r.setScheduleDeviation(delay.getTimeInMillis(now) / 1000);
 
-      records.add(r);
+    LocationStructure location = mvj.getVehicleLocation();
+    if (location != null) {
+      r.setCurrentLocationLat(location.getLatitude().doubleValue());
+      r.setCurrentLocationLon(location.getLongitude().doubleValue());
     }
 
-    if (!records.isEmpty())
-      _vehicleLocationListener.handleVehicleLocationRecords(records);
+    return r;
   }
 
   private BlockEntry getBlockForMonitoredVehicleJourney(
@@ -309,9 +355,8 @@ public class SiriService {
     if (!CollectionsLibrary.isEmpty(endpointDetails.getDefaultAgencyIds()))
       defaultAgencyId = endpointDetails.getDefaultAgencyIds().get(0);
 
-    for (ServiceAlert.Builder serviceAlert : serviceAlertsToUpdate)
-      _serviceAlertsService.createOrUpdateServiceAlert(serviceAlert,
-          defaultAgencyId);
+    _serviceAlertsService.createOrUpdateServiceAlerts(serviceAlertsToUpdate,
+        defaultAgencyId);
     _serviceAlertsService.removeServiceAlerts(serviceAlertIdsToRemove);
   }
 
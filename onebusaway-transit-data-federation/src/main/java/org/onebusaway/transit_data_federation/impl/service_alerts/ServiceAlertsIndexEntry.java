@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.service_alerts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.ServiceAlert;
+import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.TimeRange;
+
+/**
+ * An immutable set of the service alerts that affect a single index key, with
+ * their publication windows precomputed for lookup by time.
+ *
+ * The start and (exclusive) end times of every publication window are merged
+ * into one sorted array of boundaries, splitting the time line into segments.
+ * For each segment we store the indices of the alerts that are published
+ * throughout it, so finding the alerts active at a given time is a single
+ * binary search. Alerts without a publication window are active in every
+ * segment.
+ *
+ * Entries are never modified: {@link #withServiceAlert(AgencyAndId, ServiceAlert)},
+ * {@link #withoutServiceAlert(AgencyAndId)} and {@link #withServiceAlerts(Map)}
+ * build a new entry.
+ *
+ * @author bdferris
+ */
+final class ServiceAlertsIndexEntry {
+
+  private static final AgencyAndId[] NO_IDS = {};
+
+  private static final ServiceAlert[] NO_ALERTS = {};
+
+  public static final ServiceAlertsIndexEntry EMPTY = new ServiceAlertsIndexEntry(
+      NO_IDS, NO_ALERTS);
+
+  private final AgencyAndId[] _ids;
+
+  private final ServiceAlert[] _serviceAlerts;
+
+  private final long[] _boundaries;
+
+  private final int[][] _activeAlertsBySegment;
+
+  private ServiceAlertsIndexEntry(AgencyAndId[] ids,
+      ServiceAlert[] serviceAlerts) {
+    _ids = ids;
+    _serviceAlerts = serviceAlerts;
+    _boundaries = computeBoundaries(serviceAlerts);
+    _activeAlertsBySegment = computeActiveAlertsBySegment(serviceAlerts,
+        _boundaries);
+  }
+
+  public boolean isEmpty() {
+    return _ids.length == 0;
+  }
+
+  public List<AgencyAndId> getServiceAlertIds() {
+    return Arrays.asList(_ids);
+  }
+
+  public List<ServiceAlert> getServiceAlerts() {
+    return Arrays.asList(_serviceAlerts);
+  }
+
+  /**
+   * Adds the service alerts published at the specified time, skipping any
+   * already in the set of matched ids.
+   *
+   * @param time the publication time, or -1 to include every service alert
+   * @param matchedIds ids of service alerts already added, updated in place
+   * @param matches service alerts matched so far, updated in place
+   */
+  public void getServiceAlerts(long time, Set<AgencyAndId> matchedIds,
+      Collection<ServiceAlert> matches) {
+
+    if (time == -1) {
+      for (int i = 0; i < _ids.length; i++) {
+        if (matchedIds.add(_ids[i]))
+          matches.add(_serviceAlerts[i]);
+      }
+      return;
+    }
+
+    int index = Arrays.binarySearch(_boundaries, time);
+    int segment = index >= 0 ? index + 1 : -(index + 1);
+
+    for (int i : _activeAlertsBySegment[segment]) {
+      if (matchedIds.add(_ids[i]))
+        matches.add(_serviceAlerts[i]);
+    }
+  }
+
+  /**
+   * @return a new entry with the service alert added, replacing any existing
+   *         service alert with the same id
+   */
+  public ServiceAlertsIndexEntry withServiceAlert(AgencyAndId id,
+      ServiceAlert serviceAlert) {
+    return withServiceAlerts(Collections.singletonMap(id, serviceAlert));
+  }
+
+  /**
+   * @return a new entry without the service alert, or this entry if it didn't
+   *         contain the service alert
+   */
+  public ServiceAlertsIndexEntry withoutServiceAlert(AgencyAndId id) {
+    return withServiceAlerts(Collections.singletonMap(id,
+        (ServiceAlert) null));
+  }
+
+  /**
+   * Applies a batch of changes, building the new entry only once.
+   * 
+   * @param changes service alerts to add, or to replace the existing service
+   *          alert with the same id, along with a null value for each service
+   *          alert to remove
+   * @return a new entry with the changes applied, or this entry if they
+   *         don't change it
+   */
+  public ServiceAlertsIndexEntry withServiceAlerts(
+      Map<AgencyAndId, ServiceAlert> changes) {
+
+    if (changes.isEmpty())
+      return this;
+
+    List<AgencyAndId> ids = new ArrayList<AgencyAndId>(_ids.length
+        + changes.size());
+    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>(
+        _ids.length + changes.size());
+    boolean modified = false;
+
+    for (int i = 0; i < _ids.length; i++) {
+      AgencyAndId id = _ids[i];
+      ServiceAlert serviceAlert = _serviceAlerts[i];
+      if (changes.containsKey(id)) {
+        serviceAlert = changes.get(id);
+        modified = true;
+        if (serviceAlert == null)
+          continue;
+      }
+      ids.add(id);
+      serviceAlerts.add(serviceAlert);
+    }
+
+    Set<AgencyAndId> existingIds = new HashSet<AgencyAndId>(
+        Arrays.asList(_ids));
+
+    for (Map.Entry<AgencyAndId, ServiceAlert> entry : changes.entrySet()) {
+      if (entry.getValue() == null || existingIds.contains(entry.getKey()))
+        continue;
+      ids.add(entry.getKey());
+      serviceAlerts.add(entry.getValue());
+      modified = true;
+    }
+
+    if (!modified)
+      return this;
+
+    if (ids.isEmpty())
+      return EMPTY;
+
+    return new ServiceAlertsIndexEntry(ids.toArray(new AgencyAndId[ids.size()]),
+        serviceAlerts.toArray(new ServiceAlert[serviceAlerts.size()]));
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static long[] computeBoundaries(ServiceAlert[] serviceAlerts) {
+
+    int count = 0;
+    for (ServiceAlert serviceAlert : serviceAlerts)
+      count += 2 * serviceAlert.getPublicationWindowCount();
+
+    long[] boundaries = new long[count];
+    count = 0;
+
+    for (ServiceAlert serviceAlert : serviceAlerts) {
+      for (TimeRange window : serviceAlert.getPublicationWindowList()) {
+        if (window.hasStart())
+          boundaries[count++] = window.getStart();
+        if (window.hasEnd() && window.getEnd() != Long.MAX_VALUE)
+          boundaries[count++] = window.getEnd() + 1;
+      }
+    }
+
+    Arrays.sort(boundaries, 0, count);
+
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (unique == 0 || boundaries[unique - 1] != boundaries[i])
+        boundaries[unique++] = boundaries[i];
+    }
+
+    return Arrays.copyOf(boundaries, unique);
+  }
+
+  private static int[][] computeActiveAlertsBySegment(
+      ServiceAlert[] serviceAlerts, long[] boundaries) {
+
+    int segments = boundaries.length + 1;
+
+    List<List<Integer>> activeBySegment = new ArrayList<List<Integer>>(
+        segments);
+    for (int s = 0; s < segments; s++)
+      activeBySegment.add(new ArrayList<Integer>());
+
+    /**
+     * A service alert's windows may overlap, so we track the last alert added
+     * to each segment to avoid adding it twice
+     */
+    int[] lastAlert = new int[segments];
+    Arrays.fill(lastAlert, -1);
+
+    for (int i = 0; i < serviceAlerts.length; i++) {
+
+      ServiceAlert serviceAlert = serviceAlerts[i];
+
+      if (serviceAlert.getPublicationWindowCount() == 0) {
+        for (int s = 0; s < segments; s++)
+          activeBySegment.get(s).add(i);
+        continue;
+      }
+
+      for (TimeRange window : serviceAlert.getPublicationWindowList()) {
+
+        int from = 0;
+        if (window.hasStart())
+          from = Arrays.binarySearch(boundaries, window.getStart()) + 1;
+
+        int to = segments;
+        if (window.hasEnd() && window.getEnd() != Long.MAX_VALUE)
+          to = Arrays.binarySearch(boundaries, window.getEnd() + 1) + 1;
+
+        for (int s = from; s < to; s++) {
+          if (lastAlert[s] == i)
+            continue;
+          lastAlert[s] = i;
+          activeBySegment.get(s).add(i);
+        }
+      }
+    }
+
+    int[][] result = new int[segments][];
+    for (int s = 0; s < segments; s++) {
+      List<Integer> active = activeBySegment.get(s);
+      int[] indices = new int[active.size()];
+      for (int j = 0; j < indices.length; j++)
+        indices[j] = active.get(j);
+      result[s] = indices;
+    }
+    return result;
+  }
+}
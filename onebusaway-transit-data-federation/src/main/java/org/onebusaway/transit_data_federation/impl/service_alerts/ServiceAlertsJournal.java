@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.service_alerts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.Id;
+import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.ServiceAlert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of service alert upserts and removals, written between
+ * full snapshots of the {@link ServiceAlertsServiceImpl} state. Each entry is a
+ * single operation byte followed by a length-delimited {@link ServiceAlert} or
+ * {@link Id}.
+ *
+ * This class is not thread-safe: callers are expected to synchronize appends
+ * and {@link #roll(File)}.
+ *
+ * @author bdferris
+ */
+class ServiceAlertsJournal {
+
+  private static Logger _log = LoggerFactory.getLogger(ServiceAlertsJournal.class);
+
+  private static final int UPSERT = 1;
+
+  private static final int REMOVE = 2;
+
+  public interface Handler {
+
+    public void handleUpsert(ServiceAlert serviceAlert);
+
+    public void handleRemove(Id serviceAlertId);
+  }
+
+  private final File _path;
+
+  private OutputStream _out;
+
+  private int _entryCount = 0;
+
+  public ServiceAlertsJournal(File path) {
+    _path = path;
+  }
+
+  public File getPath() {
+    return _path;
+  }
+
+  /**
+   * @return the number of entries appended since the journal was opened or
+   *         last rolled
+   */
+  public int getEntryCount() {
+    return _entryCount;
+  }
+
+  public void appendUpserts(List<ServiceAlert> serviceAlerts)
+      throws IOException {
+    if (serviceAlerts.isEmpty())
+      return;
+    OutputStream out = getOutputStream();
+    for (ServiceAlert serviceAlert : serviceAlerts) {
+      out.write(UPSERT);
+      serviceAlert.writeDelimitedTo(out);
+    }
+    out.flush();
+    _entryCount += serviceAlerts.size();
+  }
+
+  public void appendRemovals(List<Id> serviceAlertIds) throws IOException {
+    if (serviceAlertIds.isEmpty())
+      return;
+    OutputStream out = getOutputStream();
+    for (Id serviceAlertId : serviceAlertIds) {
+      out.write(REMOVE);
+      serviceAlertId.writeDelimitedTo(out);
+    }
+    out.flush();
+    _entryCount += serviceAlertIds.size();
+  }
+
+  /**
+   * Move the current contents of the journal to the specified path, such that
+   * subsequent appends start a new, empty journal. If the target already
+   * exists, because a previous snapshot could not be written, the current
+   * contents are appended to it instead.
+   */
+  public void roll(File target) throws IOException {
+
+    close();
+    _entryCount = 0;
+
+    if (!_path.exists())
+      return;
+
+    if (!target.exists() && _path.renameTo(target))
+      return;
+
+    InputStream in = new BufferedInputStream(new FileInputStream(_path));
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(target,
+        true));
+    try {
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) != -1)
+        out.write(buffer, 0, n);
+    } finally {
+      in.close();
+      out.close();
+    }
+
+    if (!_path.delete())
+      throw new IOException("unable to delete journal " + _path);
+  }
+
+  public void close() throws IOException {
+    if (_out != null) {
+      OutputStream out = _out;
+      _out = null;
+      out.close();
+    }
+  }
+
+  /**
+   * Apply every complete entry in the specified journal, in order. A
+   * truncated final entry, as left by a crash in the middle of an append, is
+   * ignored.
+   *
+   * @return the number of entries applied
+   */
+  public static int replay(File path, Handler handler) throws IOException {
+
+    if (!path.exists())
+      return 0;
+
+    InputStream in = new BufferedInputStream(new FileInputStream(path));
+    int count = 0;
+
+    try {
+      while (true) {
+        int op = in.read();
+        if (op == -1)
+          break;
+        if (op == UPSERT) {
+          ServiceAlert serviceAlert = ServiceAlert.parseDelimitedFrom(in);
+          if (serviceAlert == null)
+            break;
+          handler.handleUpsert(serviceAlert);
+        } else if (op == REMOVE) {
+          Id serviceAlertId = Id.parseDelimitedFrom(in);
+          if (serviceAlertId == null)
+            break;
+          handler.handleRemove(serviceAlertId);
+        } else {
+          _log.warn("unknown operation " + op + " in journal " + path
+              + " after " + count + " entries");
+          break;
+        }
+        count++;
+      }
+    } catch (IOException ex) {
+      _log.warn("truncated entry in journal " + path + " after " + count
+          + " entries", ex);
+    } finally {
+      in.close();
+    }
+
+    return count;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private OutputStream getOutputStream() throws IOException {
+    if (_out == null)
+      _out = new BufferedOutputStream(new FileOutputStream(_path, true));
+    return _out;
+  }
+}
@@ -26,14 +26,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -47,7 +52,6 @@ import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAle
 import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.Id;
 import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.ServiceAlert;
 import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.ServiceAlertsCollection;
-import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.TimeRange;
 import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlertsService;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockTripEntry;
@@ -81,32 +85,40 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
    * This map groups service alert ids by the agency id in their
    * {@link ServiceAlert#getId()} id.
    */
-  private ConcurrentMap<String, Set<AgencyAndId>> _serviceAlertIdsByServiceAlertAgencyId = new ConcurrentHashMap<String, Set<AgencyAndId>>();
+  private ConcurrentMap<String, ServiceAlertsIndexEntry> _serviceAlertsByServiceAlertAgencyId = new ConcurrentHashMap<String, ServiceAlertsIndexEntry>();
 
   /**
    * This map groups service alert ids by any agency id mentioned in
    * {@link Affects#getAgencyId()}.
    */
-  private ConcurrentMap<String, Set<AgencyAndId>> _serviceAlertIdsByAgencyId = new ConcurrentHashMap<String, Set<AgencyAndId>>();
+  private ConcurrentMap<String, ServiceAlertsIndexEntry> _serviceAlertsByAgencyId = new ConcurrentHashMap<String, ServiceAlertsIndexEntry>();
 
-  private ConcurrentMap<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByStopId = new ConcurrentHashMap<AgencyAndId, Set<AgencyAndId>>();
+  private ConcurrentMap<AgencyAndId, ServiceAlertsIndexEntry> _serviceAlertsByStopId = new ConcurrentHashMap<AgencyAndId, ServiceAlertsIndexEntry>();
 
-  private ConcurrentMap<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByRouteId = new ConcurrentHashMap<AgencyAndId, Set<AgencyAndId>>();
+  private ConcurrentMap<AgencyAndId, ServiceAlertsIndexEntry> _serviceAlertsByRouteId = new ConcurrentHashMap<AgencyAndId, ServiceAlertsIndexEntry>();
 
-  private ConcurrentMap<RouteAndDirectionRef, Set<AgencyAndId>> _serviceAlertIdsByRouteAndDirectionId = new ConcurrentHashMap<RouteAndDirectionRef, Set<AgencyAndId>>();
+  private ConcurrentMap<RouteAndDirectionRef, ServiceAlertsIndexEntry> _serviceAlertsByRouteAndDirectionId = new ConcurrentHashMap<RouteAndDirectionRef, ServiceAlertsIndexEntry>();
 
-  private ConcurrentMap<RouteAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByRouteAndStop = new ConcurrentHashMap<RouteAndStopCallRef, Set<AgencyAndId>>();
+  private ConcurrentMap<RouteAndStopCallRef, ServiceAlertsIndexEntry> _serviceAlertsByRouteAndStop = new ConcurrentHashMap<RouteAndStopCallRef, ServiceAlertsIndexEntry>();
 
-  private ConcurrentMap<RouteDirectionAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByRouteDirectionAndStopCall = new ConcurrentHashMap<RouteDirectionAndStopCallRef, Set<AgencyAndId>>();
+  private ConcurrentMap<RouteDirectionAndStopCallRef, ServiceAlertsIndexEntry> _serviceAlertsByRouteDirectionAndStopCall = new ConcurrentHashMap<RouteDirectionAndStopCallRef, ServiceAlertsIndexEntry>();
 
-  private ConcurrentMap<AgencyAndId, Set<AgencyAndId>> _serviceAlertIdsByTripId = new ConcurrentHashMap<AgencyAndId, Set<AgencyAndId>>();
+  private ConcurrentMap<AgencyAndId, ServiceAlertsIndexEntry> _serviceAlertsByTripId = new ConcurrentHashMap<AgencyAndId, ServiceAlertsIndexEntry>();
 
-  private ConcurrentMap<TripAndStopCallRef, Set<AgencyAndId>> _serviceAlertIdsByTripAndStopId = new ConcurrentHashMap<TripAndStopCallRef, Set<AgencyAndId>>();
+  private ConcurrentMap<TripAndStopCallRef, ServiceAlertsIndexEntry> _serviceAlertsByTripAndStopId = new ConcurrentHashMap<TripAndStopCallRef, ServiceAlertsIndexEntry>();
 
   private FederatedTransitDataBundle _bundle;
 
   private File _serviceAlertsPath;
 
+  private int _compactionInterval = 60;
+
+  private ServiceAlertsJournal _journal;
+
+  private final Object _compactionLock = new Object();
+
+  private ScheduledExecutorService _executor;
+
   @Autowired
   public void setBundle(FederatedTransitDataBundle bundle) {
     _bundle = bundle;
@@ -116,14 +128,29 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
     _serviceAlertsPath = path;
   }
 
+  /**
+   * Alert updates are appended to a journal, which is periodically compacted
+   * into the service alerts snapshot file.
+   * 
+   * @param compactionInterval time between compactions, in seconds
+   */
+  public void setCompactionInterval(int compactionInterval) {
+    _compactionInterval = compactionInterval;
+  }
+
   @PostConstruct
   public void start() {
     loadServiceAlerts();
+    _executor = Executors.newSingleThreadScheduledExecutor();
+    _executor.scheduleWithFixedDelay(new CompactionTask(),
+        _compactionInterval, _compactionInterval, TimeUnit.SECONDS);
   }
 
   @PreDestroy
   public void stop() {
-    saveServiceAlerts();
+    if (_executor != null)
+      _executor.shutdownNow();
+    saveServiceAlerts(true);
   }
 
   /****
@@ -131,23 +158,52 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
    ****/
 
   @Override
-  public synchronized ServiceAlert createOrUpdateServiceAlert(
-      ServiceAlert.Builder builder, String defaultAgencyId) {
+  public ServiceAlert createOrUpdateServiceAlert(ServiceAlert.Builder builder,
+      String defaultAgencyId) {
+    List<ServiceAlert> serviceAlerts = createOrUpdateServiceAlerts(
+        Arrays.asList(builder), defaultAgencyId);
+    return serviceAlerts.get(0);
+  }
+
+  @Override
+  public synchronized List<ServiceAlert> createOrUpdateServiceAlerts(
+      List<ServiceAlert.Builder> builders, String defaultAgencyId) {
 
-    if (!builder.hasId()) {
-      UUID uuid = UUID.randomUUID();
-      Id id = ServiceAlertLibrary.id(defaultAgencyId, uuid.toString());
-      builder.setId(id);
+    long now = System.currentTimeMillis();
+    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>(
+        builders.size());
+    IndexUpdates updates = new IndexUpdates();
+
+    for (ServiceAlert.Builder builder : builders) {
+
+      if (!builder.hasId()) {
+        UUID uuid = UUID.randomUUID();
+        Id id = ServiceAlertLibrary.id(defaultAgencyId, uuid.toString());
+        builder.setId(id);
+      }
+
+      if (!builder.hasCreationTime())
+        builder.setCreationTime(now);
+      builder.setModifiedTime(now);
+
+      ServiceAlert serviceAlert = builder.build();
+      updateReferences(serviceAlert, updates);
+      serviceAlerts.add(serviceAlert);
     }
 
-    if (!builder.hasCreationTime())
-      builder.setCreationTime(System.currentTimeMillis());
-    builder.setModifiedTime(System.currentTimeMillis());
+    updates.apply();
 
-    ServiceAlert serviceAlert = builder.build();
-    updateReferences(serviceAlert);
-    saveServiceAlerts();
-    return serviceAlert;
+    ServiceAlertsJournal journal = getJournal();
+    if (journal != null) {
+      try {
+        journal.appendUpserts(serviceAlerts);
+      } catch (IOException ex) {
+        _log.error("error journaling service alerts to path "
+            + journal.getPath(), ex);
+      }
+    }
+
+    return serviceAlerts;
   }
 
   @Override
@@ -158,24 +214,38 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
   @Override
   public synchronized void removeServiceAlerts(List<AgencyAndId> serviceAlertIds) {
 
+    List<Id> removedIds = new ArrayList<Id>();
+    IndexUpdates updates = new IndexUpdates();
+
     for (AgencyAndId serviceAlertId : serviceAlertIds) {
 
       ServiceAlert existingServiceAlert = _serviceAlerts.remove(serviceAlertId);
 
       if (existingServiceAlert != null) {
-        updateReferences(existingServiceAlert, null);
+        updates.add(existingServiceAlert, null);
+        removedIds.add(existingServiceAlert.getId());
       }
     }
 
-    saveServiceAlerts();
+    updates.apply();
+
+    ServiceAlertsJournal journal = getJournal();
+    if (journal != null) {
+      try {
+        journal.appendRemovals(removedIds);
+      } catch (IOException ex) {
+        _log.error("error journaling service alert removals to path "
+            + journal.getPath(), ex);
+      }
+    }
   }
 
   @Override
   public synchronized void removeAllServiceAlertsForFederatedAgencyId(
       String agencyId) {
-    Set<AgencyAndId> ids = _serviceAlertIdsByServiceAlertAgencyId.get(agencyId);
-    if (ids != null)
-      removeServiceAlerts(new ArrayList<AgencyAndId>(ids));
+    ServiceAlertsIndexEntry entry = _serviceAlertsByServiceAlertAgencyId.get(agencyId);
+    if (entry != null)
+      removeServiceAlerts(entry.getServiceAlertIds());
   }
 
   @Override
@@ -190,17 +260,20 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 
   @Override
   public List<ServiceAlert> getServiceAlertsForFederatedAgencyId(String agencyId) {
-    Set<AgencyAndId> serviceAlertIds = _serviceAlertIdsByServiceAlertAgencyId.get(agencyId);
-    return getServiceAlertIdsAsObjects(serviceAlertIds);
+    ServiceAlertsIndexEntry entry = _serviceAlertsByServiceAlertAgencyId.get(agencyId);
+    if (entry == null)
+      return Collections.emptyList();
+    return new ArrayList<ServiceAlert>(entry.getServiceAlerts());
   }
 
   @Override
   public List<ServiceAlert> getServiceAlertsForAgencyId(long time,
       String agencyId) {
     Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
-    getServiceAlertIdsForKey(_serviceAlertIdsByAgencyId, agencyId,
-        serviceAlertIds);
-    return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>();
+    getServiceAlertsForKey(_serviceAlertsByAgencyId, agencyId, time,
+        serviceAlertIds, serviceAlerts);
+    return serviceAlerts;
   }
 
   @Override
@@ -208,10 +281,12 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
       AgencyAndId stopId) {
 
     Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
-    getServiceAlertIdsForKey(_serviceAlertIdsByAgencyId, stopId.getAgencyId(),
-        serviceAlertIds);
-    getServiceAlertIdsForKey(_serviceAlertIdsByStopId, stopId, serviceAlertIds);
-    return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>();
+    getServiceAlertsForKey(_serviceAlertsByAgencyId, stopId.getAgencyId(),
+        time, serviceAlertIds, serviceAlerts);
+    getServiceAlertsForKey(_serviceAlertsByStopId, stopId, time,
+        serviceAlertIds, serviceAlerts);
+    return serviceAlerts;
   }
 
   @Override
@@ -229,18 +304,20 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
     AgencyAndId stopId = stop.getId();
 
     Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
+    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>();
     /*
      * TODO: Temporarily disable
      */
     /*
-     * getServiceAlertIdsForKey(_serviceAlertsIdsByAgencyId,
-     * lineId.getAgencyId(), serviceAlertIds);
+     * getServiceAlertsForKey(_serviceAlertsIdsByAgencyId,
+     * lineId.getAgencyId(), time, serviceAlertIds, serviceAlerts);
      */
-    getServiceAlertIdsForKey(_serviceAlertIdsByRouteId, lineId, serviceAlertIds);
+    getServiceAlertsForKey(_serviceAlertsByRouteId, lineId, time,
+        serviceAlertIds, serviceAlerts);
     RouteAndStopCallRef routeAndStopCallRef = new RouteAndStopCallRef(lineId,
         stopId);
-    getServiceAlertIdsForKey(_serviceAlertIdsByRouteAndStop,
-        routeAndStopCallRef, serviceAlertIds);
+    getServiceAlertsForKey(_serviceAlertsByRouteAndStop,
+        routeAndStopCallRef, time, serviceAlertIds, serviceAlerts);
 
     /**
      * Remember that direction is optional
@@ -251,20 +328,20 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
       RouteDirectionAndStopCallRef lineDirectionAndStopCallRef = new RouteDirectionAndStopCallRef(
           lineId, directionId, stopId);
 
-      getServiceAlertIdsForKey(_serviceAlertIdsByRouteAndDirectionId,
-          lineAndDirectionRef, serviceAlertIds);
-      getServiceAlertIdsForKey(_serviceAlertIdsByRouteDirectionAndStopCall,
-          lineDirectionAndStopCallRef, serviceAlertIds);
+      getServiceAlertsForKey(_serviceAlertsByRouteAndDirectionId,
+          lineAndDirectionRef, time, serviceAlertIds, serviceAlerts);
+      getServiceAlertsForKey(_serviceAlertsByRouteDirectionAndStopCall,
+          lineDirectionAndStopCallRef, time, serviceAlertIds, serviceAlerts);
     }
 
-    getServiceAlertIdsForKey(_serviceAlertIdsByTripId, trip.getId(),
-        serviceAlertIds);
+    getServiceAlertsForKey(_serviceAlertsByTripId, trip.getId(), time,
+        serviceAlertIds, serviceAlerts);
     TripAndStopCallRef tripAndStopCallRef = new TripAndStopCallRef(tripId,
         stopId);
-    getServiceAlertIdsForKey(_serviceAlertIdsByTripAndStopId,
-        tripAndStopCallRef, serviceAlertIds);
+    getServiceAlertsForKey(_serviceAlertsByTripAndStopId,
+        tripAndStopCallRef, time, serviceAlertIds, serviceAlerts);
 
-    return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+    return serviceAlerts;
   }
 
   @Override
@@ -278,19 +355,22 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
         trip.getDirectionId());
 
     Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
-    getServiceAlertIdsForKey(_serviceAlertIdsByAgencyId, lineId.getAgencyId(),
-        serviceAlertIds);
-    getServiceAlertIdsForKey(_serviceAlertIdsByRouteId, lineId, serviceAlertIds);
-    getServiceAlertIdsForKey(_serviceAlertIdsByRouteAndDirectionId,
-        lineAndDirectionRef, serviceAlertIds);
-    getServiceAlertIdsForKey(_serviceAlertIdsByTripId, trip.getId(),
-        serviceAlertIds);
-    return getServiceAlertIdsAsObjects(serviceAlertIds, time);
+    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>();
+    getServiceAlertsForKey(_serviceAlertsByAgencyId, lineId.getAgencyId(),
+        time, serviceAlertIds, serviceAlerts);
+    getServiceAlertsForKey(_serviceAlertsByRouteId, lineId, time,
+        serviceAlertIds, serviceAlerts);
+    getServiceAlertsForKey(_serviceAlertsByRouteAndDirectionId,
+        lineAndDirectionRef, time, serviceAlertIds, serviceAlerts);
+    getServiceAlertsForKey(_serviceAlertsByTripId, trip.getId(), time,
+        serviceAlertIds, serviceAlerts);
+    return serviceAlerts;
   }
 
   @Override
   public List<ServiceAlert> getServiceAlerts(SituationQueryBean query) {
     Set<AgencyAndId> serviceAlertIds = new HashSet<AgencyAndId>();
+    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>();
 
     for (SituationQueryBean.AffectsBean affects : query.getAffects()) {
 
@@ -307,51 +387,51 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
            * Note we are treating the query's agency ID as that of what the
            * service alert affects, not the alert's federated agency ID.
            */
-          getServiceAlertIdsForKey(_serviceAlertIdsByAgencyId,
-              affects.getAgencyId(), serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByAgencyId,
+              affects.getAgencyId(), -1, serviceAlertIds, serviceAlerts);
           break;
         }
         case ROUTE: {
 
-          getServiceAlertIdsForKey(_serviceAlertIdsByRouteId, routeId,
-              serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByRouteId, routeId, -1,
+              serviceAlertIds, serviceAlerts);
           break;
         }
         case TRIP: {
-          getServiceAlertIdsForKey(_serviceAlertIdsByTripId, tripId,
-              serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByTripId, tripId, -1,
+              serviceAlertIds, serviceAlerts);
           break;
         }
         case STOP: {
-          getServiceAlertIdsForKey(_serviceAlertIdsByStopId, stopId,
-              serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByStopId, stopId, -1,
+              serviceAlertIds, serviceAlerts);
           break;
         }
         case ROUTE_DIRECTION: {
           RouteAndDirectionRef routeAndDirectionRef = new RouteAndDirectionRef(
               routeId, affects.getDirectionId());
-          getServiceAlertIdsForKey(_serviceAlertIdsByRouteAndDirectionId,
-              routeAndDirectionRef, serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByRouteAndDirectionId,
+              routeAndDirectionRef, -1, serviceAlertIds, serviceAlerts);
           break;
         }
         case ROUTE_DIRECTION_STOP: {
           RouteDirectionAndStopCallRef ref = new RouteDirectionAndStopCallRef(
               routeId, affects.getDirectionId(), stopId);
-          getServiceAlertIdsForKey(_serviceAlertIdsByRouteDirectionAndStopCall,
-              ref, serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByRouteDirectionAndStopCall,
+              ref, -1, serviceAlertIds, serviceAlerts);
           break;
         }
         case ROUTE_STOP: {
           RouteAndStopCallRef routeAndStopRef = new RouteAndStopCallRef(
               routeId, stopId);
-          getServiceAlertIdsForKey(_serviceAlertIdsByRouteAndStop,
-              routeAndStopRef, serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByRouteAndStop,
+              routeAndStopRef, -1, serviceAlertIds, serviceAlerts);
           break;
         }
         case TRIP_STOP: {
           TripAndStopCallRef ref = new TripAndStopCallRef(tripId, stopId);
-          getServiceAlertIdsForKey(_serviceAlertIdsByTripAndStopId, ref,
-              serviceAlertIds);
+          getServiceAlertsForKey(_serviceAlertsByTripAndStopId, ref, -1,
+              serviceAlertIds, serviceAlerts);
           break;
         }
         default: {
@@ -360,13 +440,11 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
       }
     }
     
-    List<ServiceAlert> alerts = getServiceAlertIdsAsObjects(serviceAlertIds);
-    
     // SituationQueryBean no longer supports filtering by time, but it might return, so leaving this code here
     // for future reference.
     //    filterByTime(query, alerts);
     
-    return alerts;
+    return serviceAlerts;
   }
 
   /****
@@ -405,120 +483,22 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
 //    }
 //  }
 //
-  private void updateReferences(ServiceAlert serviceAlert) {
+  /**
+   * Stores the service alert, and records its index changes in the batch
+   */
+  private void updateReferences(ServiceAlert serviceAlert,
+      IndexUpdates updates) {
     AgencyAndId id = ServiceAlertLibrary.agencyAndId(serviceAlert.getId());
     ServiceAlert existingServiceAlert = _serviceAlerts.put(id, serviceAlert);
-    updateReferences(existingServiceAlert, serviceAlert);
-  }
-
-  private void updateReferences(ServiceAlert existingServiceAlert,
-      ServiceAlert serviceAlert) {
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByServiceAlertAgencyId,
-        AffectsServiceAlertAgencyKeyFactory.INSTANCE);
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByAgencyId, AffectsAgencyKeyFactory.INSTANCE);
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByStopId, AffectsStopKeyFactory.INSTANCE);
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByRouteId, AffectsRouteKeyFactory.INSTANCE);
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByRouteAndDirectionId,
-        AffectsRouteAndDirectionKeyFactory.INSTANCE);
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByRouteAndStop, AffectsRouteAndStopKeyFactory.INSTANCE);
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByRouteDirectionAndStopCall,
-        AffectsRouteDirectionAndStopCallKeyFactory.INSTANCE);
-
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByTripId, AffectsTripKeyFactory.INSTANCE);
-    updateReferences(existingServiceAlert, serviceAlert,
-        _serviceAlertIdsByTripAndStopId, AffectsTripAndStopKeyFactory.INSTANCE);
-
-  }
-
-  private <T> void updateReferences(ServiceAlert existingServiceAlert,
-      ServiceAlert serviceAlert, ConcurrentMap<T, Set<AgencyAndId>> map,
-      AffectsKeyFactory<T> affectsKeyFactory) {
-
-    Set<T> existingEffects = Collections.emptySet();
-    if (existingServiceAlert != null) {
-      existingEffects = affectsKeyFactory.getKeysForAffects(existingServiceAlert);
-    }
-
-    Set<T> newEffects = Collections.emptySet();
-    if (serviceAlert != null) {
-      newEffects = affectsKeyFactory.getKeysForAffects(serviceAlert);
-    }
-
-    for (T existingEffect : existingEffects) {
-      if (newEffects.contains(existingEffect))
-        continue;
-      AgencyAndId id = ServiceAlertLibrary.agencyAndId(existingServiceAlert.getId());
-      Set<AgencyAndId> ids = map.get(existingEffect);
-      ids.remove(id);
-      if (ids.isEmpty())
-        map.remove(existingEffect);
-    }
-
-    for (T newEffect : newEffects) {
-      if (existingEffects.contains(newEffect))
-        continue;
-      AgencyAndId id = ServiceAlertLibrary.agencyAndId(serviceAlert.getId());
-      Set<AgencyAndId> ids = map.get(newEffect);
-      if (ids == null) {
-        ids = new HashSet<AgencyAndId>();
-        map.put(newEffect, ids);
-      }
-      ids.add(id);
-    }
-  }
-
-  private <T> void getServiceAlertIdsForKey(
-      ConcurrentMap<T, Set<AgencyAndId>> serviceAlertIdsByKey, T key,
-      Collection<AgencyAndId> matches) {
-    Set<AgencyAndId> ids = serviceAlertIdsByKey.get(key);
-    if (ids != null)
-      matches.addAll(ids);
-  }
-
-  private List<ServiceAlert> getServiceAlertIdsAsObjects(
-      Collection<AgencyAndId> serviceAlertIds) {
-    return getServiceAlertIdsAsObjects(serviceAlertIds, -1);
-  }
-
-  private List<ServiceAlert> getServiceAlertIdsAsObjects(
-      Collection<AgencyAndId> serviceAlertIds, long time) {
-    if (serviceAlertIds == null || serviceAlertIds.isEmpty())
-      return Collections.emptyList();
-    List<ServiceAlert> serviceAlerts = new ArrayList<ServiceAlert>(
-        serviceAlertIds.size());
-    for (AgencyAndId serviceAlertId : serviceAlertIds) {
-      ServiceAlert serviceAlert = _serviceAlerts.get(serviceAlertId);
-      if (serviceAlert != null && filterByTime(serviceAlert, time))
-        serviceAlerts.add(serviceAlert);
-    }
-    return serviceAlerts;
+    updates.add(existingServiceAlert, serviceAlert);
   }
 
-  private boolean filterByTime(ServiceAlert serviceAlert, long time) {
-    if (time == -1 || serviceAlert.getPublicationWindowList().size() == 0)
-      return true;
-    for (TimeRange publicationWindow : serviceAlert.getPublicationWindowList()) {
-      if ((!publicationWindow.hasStart() || publicationWindow.getStart() <= time)
-          && (!publicationWindow.hasEnd() || publicationWindow.getEnd() >= time)) {
-        return true;
-      }
-    }
-    return false;
+  private <T> void getServiceAlertsForKey(
+      ConcurrentMap<T, ServiceAlertsIndexEntry> serviceAlertsByKey, T key,
+      long time, Set<AgencyAndId> matchedIds, List<ServiceAlert> matches) {
+    ServiceAlertsIndexEntry entry = serviceAlertsByKey.get(key);
+    if (entry != null)
+      entry.getServiceAlerts(time, matchedIds, matches);
   }
 
   private AffectsType getAffectsType(String agencyId, String routeId,
@@ -583,14 +563,56 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
    * Serialization
    ****/
 
-  private synchronized void loadServiceAlerts() {
+  /**
+   * Restores the last snapshot, then replays any journal entries written
+   * since. If a journal was found, a fresh snapshot is written even if no
+   * entries could be replayed, so that the journal starts out empty and new
+   * entries are never appended after a torn one.
+   */
+  private void loadServiceAlerts() {
 
     _log.info("Loading service alerts from bundle");
     File path = getServiceAlertsPath();
 
-    if (path == null || !path.exists())
+    if (path == null)
       return;
 
+    int entries = 0;
+    boolean journaled = false;
+
+    synchronized (this) {
+
+      IndexUpdates updates = new IndexUpdates();
+
+      if (path.exists())
+        loadServiceAlertsSnapshot(path, updates);
+
+      JournalReplayHandler handler = new JournalReplayHandler(updates);
+
+      for (File journalPath : Arrays.asList(getCompactingJournalPath(path),
+          getJournalPath(path))) {
+        if (!journalPath.exists())
+          continue;
+        journaled = true;
+        try {
+          entries += ServiceAlertsJournal.replay(journalPath, handler);
+        } catch (IOException ex) {
+          _log.error("error replaying service alerts journal " + journalPath,
+              ex);
+        }
+      }
+
+      updates.apply();
+    }
+
+    if (journaled) {
+      _log.info("replayed " + entries + " service alert journal entries");
+      saveServiceAlerts(true);
+    }
+  }
+
+  private void loadServiceAlertsSnapshot(File path, IndexUpdates updates) {
+
     InputStream in = null;
 
     try {
@@ -598,7 +620,7 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
       in = new BufferedInputStream(new FileInputStream(path));
       ServiceAlertsCollection collection = ServiceAlertsCollection.parseFrom(in);
       for (ServiceAlert serviceAlert : collection.getServiceAlertsList())
-        updateReferences(serviceAlert);
+        updateReferences(serviceAlert, updates);
 
     } catch (Exception ex) {
       _log.error("error loading service alerts from path " + path, ex);
@@ -613,24 +635,75 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
     }
   }
 
-  private synchronized void saveServiceAlerts() {
+  /**
+   * Compacts the journal into a new snapshot. The journal is rolled aside
+   * while holding the service lock, so that writers are only blocked for as
+   * long as it takes to copy the current alerts, and the snapshot is then
+   * written to a temporary file and renamed into place. The rolled journal is
+   * only deleted once the snapshot is in place.
+   * 
+   * @param force write a snapshot even if nothing has been journaled since
+   *          the last one
+   */
+  private void saveServiceAlerts(boolean force) {
 
     File path = getServiceAlertsPath();
 
     if (path == null)
       return;
 
+    synchronized (_compactionLock) {
+
+      File compactingPath = getCompactingJournalPath(path);
+      List<ServiceAlert> serviceAlerts = null;
+
+      synchronized (this) {
+
+        ServiceAlertsJournal journal = getJournal();
+
+        if (!force && journal.getEntryCount() == 0 && !compactingPath.exists())
+          return;
+
+        serviceAlerts = new ArrayList<ServiceAlert>(_serviceAlerts.values());
+
+        try {
+          journal.roll(compactingPath);
+        } catch (IOException ex) {
+          _log.error("error rolling service alerts journal to path "
+              + compactingPath, ex);
+          return;
+        }
+      }
+
+      if (writeServiceAlertsSnapshot(path, serviceAlerts))
+        compactingPath.delete();
+    }
+  }
+
+  private boolean writeServiceAlertsSnapshot(File path,
+      List<ServiceAlert> serviceAlerts) {
+
     ServiceAlertsCollection.Builder builder = ServiceAlertsCollection.newBuilder();
-    builder.addAllServiceAlerts(_serviceAlerts.values());
+    builder.addAllServiceAlerts(serviceAlerts);
     ServiceAlertsCollection collection = builder.build();
 
+    File tmpPath = new File(path.getPath() + ".tmp");
+
     OutputStream out = null;
     try {
-      out = new BufferedOutputStream(new FileOutputStream(path));
+      out = new BufferedOutputStream(new FileOutputStream(tmpPath));
       collection.writeTo(out);
       out.close();
+      out = null;
+      if (!tmpPath.renameTo(path)) {
+        path.delete();
+        if (!tmpPath.renameTo(path))
+          throw new IOException("unable to rename " + tmpPath + " to " + path);
+      }
+      return true;
     } catch (Exception ex) {
       _log.error("error saving service alerts to path " + path, ex);
+      return false;
     } finally {
       if (out != null) {
         try {
@@ -642,10 +715,179 @@ class ServiceAlertsServiceImpl implements ServiceAlertsService {
     }
   }
 
+  private ServiceAlertsJournal getJournal() {
+    if (_journal == null) {
+      File path = getServiceAlertsPath();
+      if (path == null)
+        return null;
+      _journal = new ServiceAlertsJournal(getJournalPath(path));
+    }
+    return _journal;
+  }
+
   private File getServiceAlertsPath() {
     if (_serviceAlertsPath != null)
       return _serviceAlertsPath;
     return _bundle.getServiceAlertsPath();
   }
 
+  private static File getJournalPath(File path) {
+    return new File(path.getPath() + ".journal");
+  }
+
+  private static File getCompactingJournalPath(File path) {
+    return new File(path.getPath() + ".journal.compacting");
+  }
+
+  private class JournalReplayHandler implements ServiceAlertsJournal.Handler {
+
+    private final IndexUpdates _updates;
+
+    public JournalReplayHandler(IndexUpdates updates) {
+      _updates = updates;
+    }
+
+    @Override
+    public void handleUpsert(ServiceAlert serviceAlert) {
+      updateReferences(serviceAlert, _updates);
+    }
+
+    @Override
+    public void handleRemove(Id serviceAlertId) {
+      AgencyAndId id = ServiceAlertLibrary.agencyAndId(serviceAlertId);
+      ServiceAlert existingServiceAlert = _serviceAlerts.remove(id);
+      if (existingServiceAlert != null)
+        _updates.add(existingServiceAlert, null);
+    }
+  }
+
+  /**
+   * Index changes for a batch of service alerts, across every index. Each
+   * touched index entry is rebuilt once, when the batch is applied, rather
+   * than once for every service alert in the batch that affects its key.
+   */
+  private class IndexUpdates {
+
+    private final List<KeyedIndexUpdates<?>> _updates = new ArrayList<KeyedIndexUpdates<?>>();
+
+    public IndexUpdates() {
+      addIndex(_serviceAlertsByServiceAlertAgencyId,
+          AffectsServiceAlertAgencyKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByAgencyId, AffectsAgencyKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByStopId, AffectsStopKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByRouteId, AffectsRouteKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByRouteAndDirectionId,
+          AffectsRouteAndDirectionKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByRouteAndStop,
+          AffectsRouteAndStopKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByRouteDirectionAndStopCall,
+          AffectsRouteDirectionAndStopCallKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByTripId, AffectsTripKeyFactory.INSTANCE);
+      addIndex(_serviceAlertsByTripAndStopId,
+          AffectsTripAndStopKeyFactory.INSTANCE);
+    }
+
+    /**
+     * @param existingServiceAlert the service alert being replaced or
+     *          removed, if any
+     * @param serviceAlert the new version of the service alert, or null if it
+     *          was removed
+     */
+    public void add(ServiceAlert existingServiceAlert, ServiceAlert serviceAlert) {
+      for (KeyedIndexUpdates<?> updates : _updates)
+        updates.add(existingServiceAlert, serviceAlert);
+    }
+
+    public void apply() {
+      for (KeyedIndexUpdates<?> updates : _updates)
+        updates.apply();
+    }
+
+    private <T> void addIndex(ConcurrentMap<T, ServiceAlertsIndexEntry> map,
+        AffectsKeyFactory<T> affectsKeyFactory) {
+      _updates.add(new KeyedIndexUpdates<T>(map, affectsKeyFactory));
+    }
+  }
+
+  /**
+   * Pending changes to a single index, keyed by the index key and then by
+   * service alert id, with a null service alert for a removal. Entries hold
+   * the service alerts themselves, so a key is changed even if the alert still
+   * affects it.
+   */
+  private static class KeyedIndexUpdates<T> {
+
+    private final ConcurrentMap<T, ServiceAlertsIndexEntry> _map;
+
+    private final AffectsKeyFactory<T> _affectsKeyFactory;
+
+    private final Map<T, Map<AgencyAndId, ServiceAlert>> _changesByKey = new HashMap<T, Map<AgencyAndId, ServiceAlert>>();
+
+    public KeyedIndexUpdates(ConcurrentMap<T, ServiceAlertsIndexEntry> map,
+        AffectsKeyFactory<T> affectsKeyFactory) {
+      _map = map;
+      _affectsKeyFactory = affectsKeyFactory;
+    }
+
+    public void add(ServiceAlert existingServiceAlert, ServiceAlert serviceAlert) {
+
+      Set<T> existingEffects = Collections.emptySet();
+      if (existingServiceAlert != null) {
+        existingEffects = _affectsKeyFactory.getKeysForAffects(existingServiceAlert);
+      }
+
+      Set<T> newEffects = Collections.emptySet();
+      if (serviceAlert != null) {
+        newEffects = _affectsKeyFactory.getKeysForAffects(serviceAlert);
+      }
+
+      for (T existingEffect : existingEffects) {
+        if (newEffects.contains(existingEffect))
+          continue;
+        AgencyAndId id = ServiceAlertLibrary.agencyAndId(existingServiceAlert.getId());
+        getChanges(existingEffect).put(id, null);
+      }
+
+      for (T newEffect : newEffects) {
+        AgencyAndId id = ServiceAlertLibrary.agencyAndId(serviceAlert.getId());
+        getChanges(newEffect).put(id, serviceAlert);
+      }
+    }
+
+    public void apply() {
+      for (Map.Entry<T, Map<AgencyAndId, ServiceAlert>> changes : _changesByKey.entrySet()) {
+        T key = changes.getKey();
+        ServiceAlertsIndexEntry entry = _map.get(key);
+        if (entry == null)
+          entry = ServiceAlertsIndexEntry.EMPTY;
+        entry = entry.withServiceAlerts(changes.getValue());
+        if (entry.isEmpty())
+          _map.remove(key);
+        else
+          _map.put(key, entry);
+      }
+      _changesByKey.clear();
+    }
+
+    private Map<AgencyAndId, ServiceAlert> getChanges(T key) {
+      Map<AgencyAndId, ServiceAlert> changes = _changesByKey.get(key);
+      if (changes == null) {
+        changes = new LinkedHashMap<AgencyAndId, ServiceAlert>();
+        _changesByKey.put(key, changes);
+      }
+      return changes;
+    }
+  }
+
+  private class CompactionTask implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        saveServiceAlerts(false);
+      } catch (Throwable ex) {
+        _log.error("error compacting service alerts", ex);
+      }
+    }
+  }
 }
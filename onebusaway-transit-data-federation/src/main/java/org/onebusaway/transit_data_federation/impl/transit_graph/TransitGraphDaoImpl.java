@@ -29,6 +29,7 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.impl.RefreshableResources;
 import org.onebusaway.transit_data_federation.services.AgencyAndIdLibrary;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
 import org.onebusaway.transit_data_federation.services.transit_graph.AgencyEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.RouteCollectionEntry;
@@ -37,7 +38,6 @@ import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
 import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
 import org.onebusaway.transit_data_federation.services.tripplanner.TripPlannerGraph;
-import org.onebusaway.utility.ObjectSerializationLibrary;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -46,6 +46,8 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
 
   private FederatedTransitDataBundle _bundle;
 
+  private BundleArtifactLoader _artifactLoader;
+
   private TripPlannerGraph _graph;
 
   @Autowired
@@ -53,6 +55,11 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
     _bundle = bundle;
   }
 
+  @Autowired
+  public void setArtifactLoader(BundleArtifactLoader artifactLoader) {
+    _artifactLoader = artifactLoader;
+  }
+
   public void setTripPlannerGraph(TripPlannerGraph graph) {
     _graph = graph;
   }
@@ -69,7 +76,7 @@ public class TransitGraphDaoImpl implements TransitGraphDao {
     }
     
     if (path.exists()) {
-      TransitGraphImpl graph = ObjectSerializationLibrary.readObject(path);
+      TransitGraphImpl graph = _artifactLoader.readObject(path);
       graph.initialize();
       _graph = graph;
     } else {
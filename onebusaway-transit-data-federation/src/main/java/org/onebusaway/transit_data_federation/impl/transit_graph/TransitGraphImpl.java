@@ -63,7 +63,11 @@ public class TransitGraphImpl implements Serializable, TripPlannerGraph {
 
   private static final RouteEntryAdapter _routeEntryAdapter = new RouteEntryAdapter();
 
-  private transient static ReadHelper _helper;
+  /**
+   * Per-thread, so that bundle contexts loading at the same time, such as
+   * during a hot swap, don't share read state
+   */
+  private static final ThreadLocal<ReadHelper> _helper = new ThreadLocal<ReadHelper>();
 
   private List<AgencyEntryImpl> _agencies = new ArrayList<AgencyEntryImpl>();
 
@@ -350,29 +354,33 @@ public class TransitGraphImpl implements Serializable, TripPlannerGraph {
    ****************************************************************************/
 
   public static void handleStopEntryRead(StopEntryImpl stopEntryImpl) {
-    _helper.handleStopEntryRead(stopEntryImpl);
+    _helper.get().handleStopEntryRead(stopEntryImpl);
   }
 
   public static void handleTripEntryRead(TripEntryImpl tripEntryImpl) {
-    _helper.handleTripEntryRead(tripEntryImpl);
+    _helper.get().handleTripEntryRead(tripEntryImpl);
   }
 
   public static void addStopEntryCallback(AgencyAndId stopEntry,
       EntryCallback<StopEntryImpl> entry) {
-    _helper.addStopEntryCallback(stopEntry, entry);
+    _helper.get().addStopEntryCallback(stopEntry, entry);
   }
 
   public static void addTripEntryCallback(AgencyAndId tripEntry,
       EntryCallback<TripEntryImpl> entry) {
-    _helper.addTripEntryCallback(tripEntry, entry);
+    _helper.get().addTripEntryCallback(tripEntry, entry);
   }
 
   private void readObject(ObjectInputStream in) throws IOException,
       ClassNotFoundException {
-    _helper = new ReadHelper();
-    in.defaultReadObject();
-    _helper.flush();
-    _helper = null;
+    ReadHelper helper = new ReadHelper();
+    _helper.set(helper);
+    try {
+      in.defaultReadObject();
+      helper.flush();
+    } finally {
+      _helper.remove();
+    }
 
     initialize();
 
@@ -18,7 +18,12 @@ package org.onebusaway.transit_data_federation.impl.transit_graph;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectInputStream.GetField;
+import java.io.ObjectOutputStream;
+import java.io.ObjectOutputStream.PutField;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -33,6 +38,23 @@ public class TripEntryImpl implements TripEntry, Serializable {
 
   private static final long serialVersionUID = 6L;
 
+  /**
+   * The serialized form of a trip, which matches the fields written before stop
+   * times were serialized in columnar form, plus a flag indicating that the
+   * columnar stop times follow. See {@link #writeObject(ObjectOutputStream)}.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("_id", AgencyAndId.class),
+      new ObjectStreamField("_route", RouteEntryImpl.class),
+      new ObjectStreamField("_directionId", String.class),
+      new ObjectStreamField("_block", BlockEntryImpl.class),
+      new ObjectStreamField("_serviceId", LocalizedServiceId.class),
+      new ObjectStreamField("_shapeId", AgencyAndId.class),
+      new ObjectStreamField("_stopTimes", List.class),
+      new ObjectStreamField("_totalTripDistance", Double.TYPE),
+      new ObjectStreamField("_frequencyLabel", FrequencyEntry.class),
+      new ObjectStreamField("_columnarStopTimes", Boolean.TYPE)};
+
   private AgencyAndId _id;
 
   private RouteEntryImpl _route;
@@ -45,7 +67,10 @@ public class TripEntryImpl implements TripEntry, Serializable {
 
   private AgencyAndId _shapeId;
 
-  private List<StopTimeEntry> _stopTimes;
+  /**
+   * Serialized in columnar form, see {@link #writeObject(ObjectOutputStream)}
+   */
+  private transient List<StopTimeEntry> _stopTimes;
 
   private double _totalTripDistance;
 
@@ -155,9 +180,142 @@ public class TripEntryImpl implements TripEntry, Serializable {
    * Serialization
    ****/
 
+  /**
+   * Stop times make up the bulk of the transit graph, so rather than
+   * serializing each {@link StopTimeEntryImpl} as an individual object, we
+   * write the stop times of a trip as a handful of primitive column arrays.
+   * This greatly reduces the number of objects the serialization machinery has
+   * to track and the size of the resulting bundle artifact.
+   *
+   * This only affects the bundle artifact: {@link #readObject(ObjectInputStream)}
+   * rebuilds a {@link StopTimeEntryImpl} for every stop time, so the loaded
+   * graph and its heap footprint are the same as before. Bundles written with
+   * one {@link StopTimeEntryImpl} object per stop time can still be read.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+
+    PutField fields = out.putFields();
+    fields.put("_id", _id);
+    fields.put("_route", _route);
+    fields.put("_directionId", _directionId);
+    fields.put("_block", _block);
+    fields.put("_serviceId", _serviceId);
+    fields.put("_shapeId", _shapeId);
+    fields.put("_stopTimes", null);
+    fields.put("_totalTripDistance", _totalTripDistance);
+    fields.put("_frequencyLabel", _frequencyLabel);
+    fields.put("_columnarStopTimes", true);
+    out.writeFields();
+
+    if (_stopTimes == null) {
+      out.writeInt(-1);
+      return;
+    }
+
+    int n = _stopTimes.size();
+    int[] ids = new int[n];
+    int[] arrivalTimes = new int[n];
+    int[] departureTimes = new int[n];
+    int[] sequences = new int[n];
+    int[] gtfsSequences = new int[n];
+    int[] dropOffTypes = new int[n];
+    int[] pickupTypes = new int[n];
+    int[] shapePointIndices = new int[n];
+    int[] accumulatedSlackTimes = new int[n];
+    double[] shapeDistTraveled = new double[n];
+    StopEntryImpl[] stops = new StopEntryImpl[n];
+
+    for (int i = 0; i < n; i++) {
+      StopTimeEntry stopTime = _stopTimes.get(i);
+      ids[i] = stopTime.getId();
+      arrivalTimes[i] = stopTime.getArrivalTime();
+      departureTimes[i] = stopTime.getDepartureTime();
+      sequences[i] = stopTime.getSequence();
+      gtfsSequences[i] = stopTime.getGtfsSequence();
+      dropOffTypes[i] = stopTime.getDropOffType();
+      pickupTypes[i] = stopTime.getPickupType();
+      shapePointIndices[i] = stopTime.getShapePointIndex();
+      accumulatedSlackTimes[i] = stopTime.getAccumulatedSlackTime();
+      shapeDistTraveled[i] = stopTime.getShapeDistTraveled();
+      stops[i] = (StopEntryImpl) stopTime.getStop();
+    }
+
+    out.writeInt(n);
+    out.writeObject(ids);
+    out.writeObject(arrivalTimes);
+    out.writeObject(departureTimes);
+    out.writeObject(sequences);
+    out.writeObject(gtfsSequences);
+    out.writeObject(dropOffTypes);
+    out.writeObject(pickupTypes);
+    out.writeObject(shapePointIndices);
+    out.writeObject(accumulatedSlackTimes);
+    out.writeObject(shapeDistTraveled);
+    out.writeObject(stops);
+  }
+
+  @SuppressWarnings("unchecked")
   private void readObject(ObjectInputStream in) throws IOException,
       ClassNotFoundException {
-    in.defaultReadObject();
+
+    GetField fields = in.readFields();
+    _id = (AgencyAndId) fields.get("_id", null);
+    _route = (RouteEntryImpl) fields.get("_route", null);
+    _directionId = (String) fields.get("_directionId", null);
+    _block = (BlockEntryImpl) fields.get("_block", null);
+    _serviceId = (LocalizedServiceId) fields.get("_serviceId", null);
+    _shapeId = (AgencyAndId) fields.get("_shapeId", null);
+    _totalTripDistance = fields.get("_totalTripDistance", 0.0);
+    _frequencyLabel = (FrequencyEntry) fields.get("_frequencyLabel", null);
+
+    /**
+     * Bundles written before the columnar format hold the stop times as a
+     * regular list field
+     */
+    if (!fields.get("_columnarStopTimes", false)) {
+      _stopTimes = (List<StopTimeEntry>) fields.get("_stopTimes", null);
+      TransitGraphImpl.handleTripEntryRead(this);
+      return;
+    }
+
+    int n = in.readInt();
+
+    if (n != -1) {
+
+      int[] ids = (int[]) in.readObject();
+      int[] arrivalTimes = (int[]) in.readObject();
+      int[] departureTimes = (int[]) in.readObject();
+      int[] sequences = (int[]) in.readObject();
+      int[] gtfsSequences = (int[]) in.readObject();
+      int[] dropOffTypes = (int[]) in.readObject();
+      int[] pickupTypes = (int[]) in.readObject();
+      int[] shapePointIndices = (int[]) in.readObject();
+      int[] accumulatedSlackTimes = (int[]) in.readObject();
+      double[] shapeDistTraveled = (double[]) in.readObject();
+      StopEntryImpl[] stops = (StopEntryImpl[]) in.readObject();
+
+      List<StopTimeEntry> stopTimes = new ArrayList<StopTimeEntry>(n);
+
+      for (int i = 0; i < n; i++) {
+        StopTimeEntryImpl stopTime = new StopTimeEntryImpl();
+        stopTime.setId(ids[i]);
+        stopTime.setArrivalTime(arrivalTimes[i]);
+        stopTime.setDepartureTime(departureTimes[i]);
+        stopTime.setSequence(sequences[i]);
+        stopTime.setGtfsSequence(gtfsSequences[i]);
+        stopTime.setDropOffType(dropOffTypes[i]);
+        stopTime.setPickupType(pickupTypes[i]);
+        stopTime.setShapePointIndex(shapePointIndices[i]);
+        stopTime.setAccumulatedSlackTime(accumulatedSlackTimes[i]);
+        stopTime.setShapeDistTraveled(shapeDistTraveled[i]);
+        stopTime.setStop(stops[i]);
+        stopTime.setTrip(this);
+        stopTimes.add(stopTime);
+      }
+
+      _stopTimes = stopTimes;
+    }
+
     TransitGraphImpl.handleTripEntryRead(this);
   }
 }
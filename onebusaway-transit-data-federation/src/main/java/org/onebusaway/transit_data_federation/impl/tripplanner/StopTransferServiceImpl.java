@@ -32,11 +32,11 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.impl.RefreshableResources;
 import org.onebusaway.transit_data_federation.impl.transit_graph.StopEntryImpl;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
 import org.onebusaway.transit_data_federation.services.tripplanner.StopTransfer;
 import org.onebusaway.transit_data_federation.services.tripplanner.StopTransferService;
-import org.onebusaway.utility.ObjectSerializationLibrary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,6 +52,8 @@ public class StopTransferServiceImpl implements StopTransferService {
 
   private FederatedTransitDataBundle _bundle;
 
+  private BundleArtifactLoader _artifactLoader;
+
   private TransitGraphDao _transitGraphDao;
 
   @Autowired
@@ -59,6 +61,11 @@ public class StopTransferServiceImpl implements StopTransferService {
     _bundle = bundle;
   }
 
+  @Autowired
+  public void setArtifactLoader(BundleArtifactLoader artifactLoader) {
+    _artifactLoader = artifactLoader;
+  }
+
   @Autowired
   public void setTransitGraphDao(TransitGraphDao transitGraphDao) {
     _transitGraphDao = transitGraphDao;
@@ -72,7 +79,7 @@ public class StopTransferServiceImpl implements StopTransferService {
 
     if (path.exists()) {
 
-      StopTransferAndHopData allData = ObjectSerializationLibrary.readObject(path);
+      StopTransferAndHopData allData = _artifactLoader.readObject(path);
 
       Map<AgencyAndId, List<StopTransferData>> stopTransferDataByStopId = allData.getTransferData();
       Map<AgencyAndId, List<StopTransferData>> reversedStopTransfersByStopId = reverseTransfers(stopTransferDataByStopId);
@@ -32,6 +32,7 @@ import org.onebusaway.container.refresh.Refreshable;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data_federation.impl.RefreshableResources;
 import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.bundle.BundleArtifactLoader;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
 import org.onebusaway.transit_data_federation.services.tripplanner.CompactedTransferPattern;
@@ -41,7 +42,6 @@ import org.onebusaway.transit_data_federation.services.tripplanner.TransferParen
 import org.onebusaway.transit_data_federation.services.tripplanner.TransferPattern;
 import org.onebusaway.transit_data_federation.services.tripplanner.TransferPatternData;
 import org.onebusaway.transit_data_federation.services.tripplanner.TransferPatternService;
-import org.onebusaway.utility.ObjectSerializationLibrary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,6 +56,8 @@ class TransferPatternServiceImpl implements TransferPatternService {
 
   private FederatedTransitDataBundle _bundle;
 
+  private BundleArtifactLoader _artifactLoader;
+
   private TransitGraphDao _transitGraphDao;
 
   private boolean _enabled = true;
@@ -65,6 +67,11 @@ class TransferPatternServiceImpl implements TransferPatternService {
     _bundle = bundle;
   }
 
+  @Autowired
+  public void setArtifactLoader(BundleArtifactLoader artifactLoader) {
+    _artifactLoader = artifactLoader;
+  }
+
   @Autowired
   public void setTransitGraphDao(TransitGraphDao transitGraphDao) {
     _transitGraphDao = transitGraphDao;
@@ -89,7 +96,7 @@ class TransferPatternServiceImpl implements TransferPatternService {
       return;
 
     _log.info("loading transfer patterns...");
-    Map<AgencyAndId, CompactedTransferPattern> patternsByStopId = ObjectSerializationLibrary.readObject(path);
+    Map<AgencyAndId, CompactedTransferPattern> patternsByStopId = _artifactLoader.readObject(path);
     _log.info("transfer patterns loaded");
 
     for (Map.Entry<AgencyAndId, CompactedTransferPattern> entry : patternsByStopId.entrySet()) {
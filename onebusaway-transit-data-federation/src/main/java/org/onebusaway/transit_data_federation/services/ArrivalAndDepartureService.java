@@ -15,7 +15,9 @@
  */
 package org.onebusaway.transit_data_federation.services;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.onebusaway.collections.tuple.Pair;
 import org.onebusaway.transit_data_federation.model.TargetTime;
@@ -40,6 +42,21 @@ public interface ArrivalAndDepartureService {
   public List<ArrivalAndDepartureInstance> getArrivalsAndDeparturesForStopInTimeRange(
       StopEntry stop, TargetTime targetTime, long fromTime, long toTime);
 
+  /**
+   * Determines the set of active arrivals and departures at each of a set of
+   * stops, taking into account real-time arrival information. Equivalent to
+   * calling
+   * {@link #getArrivalsAndDeparturesForStopInTimeRange(StopEntry, TargetTime, long, long)}
+   * for each stop, except that the real-time locations of a block instance
+   * serving several of the stops are only looked up once.
+   * 
+   * @return a map from each of the requested stops to its arrivals and
+   *         departures
+   */
+  public Map<StopEntry, List<ArrivalAndDepartureInstance>> getArrivalsAndDeparturesForStopsInTimeRange(
+      Collection<StopEntry> stops, TargetTime targetTime, long fromTime,
+      long toTime);
+
   /**
    * Determines the set of active arrivals and departures at a given stop, NOT
    * taking into account real-time arrival information.
@@ -15,7 +15,9 @@
  */
 package org.onebusaway.transit_data_federation.services.beans;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Stop;
@@ -42,6 +44,19 @@ public interface ArrivalsAndDeparturesBeanService {
   public List<ArrivalAndDepartureBean> getArrivalsAndDeparturesByStopId(
       AgencyAndId stopId, ArrivalsAndDeparturesQueryBean query);
 
+  /**
+   * Equivalent to calling
+   * {@link #getArrivalsAndDeparturesByStopId(AgencyAndId, ArrivalsAndDeparturesQueryBean)}
+   * for each stop id, but real-time information for blocks serving several of
+   * the stops is only looked up once.
+   * 
+   * @param stopIds see {@link Stop#getId()}
+   * @param query
+   * @return a map from each stop id to its list of arrival and departure beans
+   */
+  public Map<AgencyAndId, List<ArrivalAndDepartureBean>> getArrivalsAndDeparturesByStopIds(
+      Collection<AgencyAndId> stopIds, ArrivalsAndDeparturesQueryBean query);
+
   /**
    * Return arrival and departure information for a single trip instance
    * arriving and departing a particular stop.
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.services.bundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads serialized artifacts from the active transit data bundle. An
+ * implementation may have already deserialized an artifact in the background,
+ * in which case the preloaded instance is handed off to the first caller.
+ *
+ * @author bdferris
+ */
+public interface BundleArtifactLoader {
+
+  /**
+   * @param path a serialized artifact in the bundle
+   * @return the deserialized artifact
+   */
+  public <T> T readObject(File path) throws IOException,
+      ClassNotFoundException;
+
+  /**
+   * @return the time, in milliseconds, spent deserializing each artifact,
+   *         keyed by artifact name
+   */
+  public Map<String, Long> getArtifactLoadTimes();
+}
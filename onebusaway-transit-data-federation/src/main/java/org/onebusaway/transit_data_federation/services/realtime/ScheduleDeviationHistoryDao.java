@@ -29,4 +29,16 @@ public interface ScheduleDeviationHistoryDao {
 
   public ScheduleDeviationHistory getScheduleDeviationHistoryForTripId(
       AgencyAndId tripId);
+
+  /**
+   * Page through all histories, ordered by trip id. Pages are selected by key,
+   * so each one costs the same regardless of how far into the table it is.
+   * 
+   * @param lastTripId the last trip id of the previous page, or null for the
+   *          first page
+   * @param maxResults maximum number of histories to return
+   * @return the histories following lastTripId
+   */
+  public List<ScheduleDeviationHistory> getScheduleDeviationHistoriesAfterTripId(
+      AgencyAndId lastTripId, int maxResults);
 }
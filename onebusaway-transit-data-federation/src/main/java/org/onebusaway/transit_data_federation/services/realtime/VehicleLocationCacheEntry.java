@@ -82,6 +82,15 @@ public class VehicleLocationCacheEntry {
     return false;
   }
 
+  /**
+   * Prunes elements older than the specified time, without closing the entry
+   * 
+   * @param time
+   */
+  public synchronized void pruneOlderThanTime(long time) {
+    _elements = _elements.pruneOlderThanTime(time);
+  }
+
   /**
    * 
    * @param time
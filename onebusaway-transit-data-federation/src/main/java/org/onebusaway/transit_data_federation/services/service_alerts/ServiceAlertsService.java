@@ -48,6 +48,19 @@ public interface ServiceAlertsService {
   public ServiceAlert createOrUpdateServiceAlert(ServiceAlert.Builder builder,
       String defaultAgencyId);
 
+  /**
+   * Create or update a batch of service alerts at once. Each builder is
+   * handled as in {@link #createOrUpdateServiceAlert(ServiceAlert.Builder, String)},
+   * but the batch is persisted with a single write.
+   * 
+   * @param builders the filled-in service alert builders
+   * @param defaultAgencyId the agency to assign service alerts without an id
+   *          to
+   * @return the built service alerts, in the same order as the builders
+   */
+  public List<ServiceAlert> createOrUpdateServiceAlerts(
+      List<ServiceAlert.Builder> builders, String defaultAgencyId);
+
   public void removeServiceAlert(AgencyAndId serviceAlertId);
 
   public void removeServiceAlerts(List<AgencyAndId> serviceAlertIds);
@@ -44,8 +44,10 @@ import org.onebusaway.transit_data_federation.services.blocks.BlockStatusService
 import org.onebusaway.transit_data_federation.services.blocks.ScheduledBlockLocation;
 import org.onebusaway.transit_data_federation.services.realtime.ArrivalAndDepartureInstance;
 import org.onebusaway.transit_data_federation.services.realtime.BlockLocation;
+import org.onebusaway.transit_data_federation.services.realtime.BlockLocationService;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
 import org.onebusaway.transit_data_federation.services.tripplanner.StopTimeInstance;
 
@@ -54,8 +56,10 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -617,6 +621,72 @@ public class ArrivalAndDepartureServiceImplTest {
     assertEquals(0, predictedArrivalTimeA);
   }
 
+  /**
+   * Requesting arrivals and departures for several stops served by the same
+   * block instance should only look up the real-time locations of the block
+   * instance once, while still returning the arrivals and departures for each
+   * stop.
+   */
+  @Test
+  public void testGetArrivalsAndDeparturesForStopsInTimeRange() {
+
+    TargetTime target = new TargetTime(mCurrentTime, mCurrentTime);
+
+    BlockEntryImpl block = block("blockA");
+
+    stopTime(0, mStopA, mTripA, time(13, 30), time(13, 35), 1000);
+    stopTime(1, mStopB, mTripA, time(13, 45), time(13, 50), 2000);
+
+    BlockConfigurationEntry blockConfig = blockConfiguration(block,
+        serviceIds(lsids("sA"), lsids()), mTripA);
+    BlockStopTimeEntry bstA = blockConfig.getStopTimes().get(0);
+    BlockStopTimeEntry bstB = blockConfig.getStopTimes().get(1);
+
+    BlockInstance blockInstance = new BlockInstance(blockConfig, mServiceDate);
+
+    long stopTimeFrom = dateAsLong("2015-07-23 00:00");
+    long stopTimeTo = dateAsLong("2015-07-24 00:00");
+
+    Date fromTimeBuffered = new Date(stopTimeFrom
+        - _blockStatusService.getRunningLateWindow() * 1000);
+    Date toTimeBuffered = new Date(stopTimeTo
+        + _blockStatusService.getRunningEarlyWindow() * 1000);
+
+    Mockito.when(
+        _stopTimeService.getStopTimeInstancesInTimeRange(mStopA,
+            fromTimeBuffered, toTimeBuffered,
+            EFrequencyStopTimeBehavior.INCLUDE_UNSPECIFIED)).thenReturn(
+        Arrays.asList(new StopTimeInstance(bstA, blockInstance.getState())));
+    Mockito.when(
+        _stopTimeService.getStopTimeInstancesInTimeRange(mStopB,
+            fromTimeBuffered, toTimeBuffered,
+            EFrequencyStopTimeBehavior.INCLUDE_UNSPECIFIED)).thenReturn(
+        Arrays.asList(new StopTimeInstance(bstB, blockInstance.getState())));
+
+    BlockLocationService blockLocationService = Mockito.mock(BlockLocationService.class);
+    Mockito.when(
+        blockLocationService.getLocationsForBlockInstance(blockInstance,
+            target)).thenReturn(Collections.<BlockLocation> emptyList());
+    _service.setBlockLocationService(blockLocationService);
+
+    Map<StopEntry, List<ArrivalAndDepartureInstance>> instancesByStop = _service.getArrivalsAndDeparturesForStopsInTimeRange(
+        Arrays.<StopEntry> asList(mStopA, mStopB), target, stopTimeFrom,
+        stopTimeTo);
+
+    Mockito.verify(blockLocationService, Mockito.times(1)).getLocationsForBlockInstance(
+        blockInstance, target);
+
+    assertEquals(2, instancesByStop.size());
+
+    List<ArrivalAndDepartureInstance> instances = instancesByStop.get(mStopA);
+    assertEquals(1, instances.size());
+    assertEquals(bstA, instances.get(0).getBlockStopTime());
+
+    instances = instancesByStop.get(mStopB);
+    assertEquals(1, instances.size());
+    assertEquals(bstB, instances.get(0).getBlockStopTime());
+  }
+
   /**
    * Set up the BlockLocationServiceImpl for the test, using the given
    * timepointPredictions
@@ -16,6 +16,7 @@
 package org.onebusaway.transit_data_federation.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.addServiceDates;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
@@ -30,6 +31,7 @@ import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -307,4 +309,86 @@ public class ExtendedCalendarServiceImplTest {
 
     assertEquals(0, dates.size());
   }
+
+  @Test
+  public void testGetServiceDatesWithinRangeMemoized() {
+
+    BlockEntry blockA = block("blockA");
+    blockConfiguration(blockA, serviceIds(lsids("sA"), lsids()));
+    blockConfiguration(blockA, serviceIds(lsids("sA"), lsids("sB")));
+    blockConfiguration(blockA, serviceIds(lsids("sA", "sB"), lsids()));
+
+    List<BlockEntry> blocks = Arrays.asList(blockA);
+
+    Mockito.when(_transitGraphDao.getAllBlocks()).thenReturn(blocks);
+
+    ExtendedCalendarServiceImpl unmemoized = new ExtendedCalendarServiceImpl();
+    unmemoized.setCalendarService(_calendarService);
+
+    _service.start();
+
+    ServiceIdActivation serviceIds = serviceIds(lsids("sA"), lsids());
+
+    long step = 5 * 60 * 1000;
+    long window = 60 * 60 * 1000;
+
+    for (long t = dateAsLong("2010-09-09 00:00"); t < dateAsLong("2010-09-13 00:00"); t += step) {
+      Date from = new Date(t);
+      Date to = new Date(t + window);
+      Collection<Date> expected = unmemoized.getServiceDatesWithinRange(
+          serviceIds, interval, from, to);
+      Collection<Date> actual = _service.getServiceDatesWithinRange(
+          serviceIds, interval, from, to);
+      assertEquals(new HashSet<Date>(expected), new HashSet<Date>(actual));
+    }
+
+    Date from = UnitTestingSupport.date("2010-09-10 09:30");
+    Date to = UnitTestingSupport.date("2010-09-10 10:30");
+
+    Collection<Date> dates = _service.getServiceDatesWithinRange(
+        serviceIds(lsids("sA"), lsids("sB")), interval, from, to);
+    assertEquals(1, dates.size());
+    assertTrue(dates.contains(new ServiceDate(2010, 9, 10).getAsDate(timeZone())));
+
+    dates = _service.getServiceDatesWithinRange(
+        serviceIds(lsids("sA", "sB"), lsids()), interval, from, to);
+    assertEquals(0, dates.size());
+
+    assertTrue(_service.areServiceIdsActiveOnServiceDate(serviceIds,
+        date("2010-09-11 00:00")));
+    assertFalse(_service.areServiceIdsActiveOnServiceDate(serviceIds,
+        date("2010-09-12 00:00")));
+  }
+
+  @Test
+  public void testGetServiceDatesWithinRangeMemoizedRefresh() {
+
+    BlockEntry blockA = block("blockA");
+    blockConfiguration(blockA, serviceIds(lsids("sD"), lsids()));
+
+    List<BlockEntry> blocks = Arrays.asList(blockA);
+
+    Mockito.when(_transitGraphDao.getAllBlocks()).thenReturn(blocks);
+
+    _service.start();
+
+    ServiceIdActivation serviceIds = serviceIds(lsids("sD"), lsids());
+    Date from = UnitTestingSupport.date("2010-09-14 09:30");
+    Date to = UnitTestingSupport.date("2010-09-14 10:30");
+
+    Collection<Date> dates = _service.getServiceDatesWithinRange(serviceIds,
+        interval, from, to);
+    assertEquals(0, dates.size());
+
+    CalendarServiceData data = new CalendarServiceData();
+    addServiceDates(data, "sD", new ServiceDate(2010, 9, 13), new ServiceDate(
+        2010, 9, 14));
+    _calendarService.setData(data);
+
+    _service.start();
+
+    dates = _service.getServiceDatesWithinRange(serviceIds, interval, from, to);
+    assertEquals(1, dates.size());
+    assertTrue(dates.contains(new ServiceDate(2010, 9, 14).getAsDate(timeZone())));
+  }
 }
@@ -31,11 +31,16 @@ import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.transit_data.model.ArrivalAndDepartureBean;
 import org.onebusaway.transit_data.model.ArrivalsAndDeparturesQueryBean;
 import org.onebusaway.transit_data.model.StopBean;
@@ -59,6 +64,7 @@ import org.onebusaway.transit_data_federation.services.realtime.ArrivalAndDepart
 import org.onebusaway.transit_data_federation.services.realtime.BlockLocation;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopEntry;
 import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
 import org.onebusaway.transit_data_federation.services.tripplanner.StopTimeInstance;
 
@@ -316,4 +322,113 @@ public class ArrivalsAndDeparturesBeanServiceImplTest {
     assertNull(bean.getTripHeadsign());
     assertNull(bean.getVehicleId());
   }
+
+  @Test
+  public void testGetArrivalsAndDeparturesByStopIds() {
+
+    long t = dateAsLong("2010-10-05 16:30");
+    long serviceDate = dateAsLong("2010-10-05 00:00");
+    int minutesBefore = 5;
+    int minutesAfter = 30;
+
+    StopEntryImpl stopA = stop("stopA", 47.0, -122.0);
+    StopEntryImpl stopB = stop("stopB", 47.0, -122.0);
+    StopEntryImpl stopC = stop("stopC", 47.0, -122.0);
+
+    for (StopEntryImpl stop : Arrays.asList(stopA, stopB, stopC)) {
+      Mockito.when(_transitGraphDao.getStopEntryForId(stop.getId(), true)).thenReturn(
+          stop);
+      StopBean stopBean = new StopBean();
+      stopBean.setId(stop.getId().toString());
+      Mockito.when(_stopBeanService.getStopForId(stop.getId())).thenReturn(
+          stopBean);
+    }
+
+    BlockEntryImpl blockA = block("blockA");
+    TripEntryImpl tripA = trip("tripA", "sA", 3000);
+
+    StopTimeEntryImpl stopTimeAA = stopTime(0, stopA, tripA, time(16, 30),
+        time(16, 35), 1000);
+    StopTimeEntryImpl stopTimeAB = stopTime(1, stopB, tripA, time(16, 40),
+        time(16, 45), 2000);
+
+    BlockConfigurationEntry blockConfigA = blockConfiguration(blockA,
+        serviceIds(lsids("sA"), lsids()), tripA);
+    BlockInstance blockInstanceA = new BlockInstance(blockConfigA, serviceDate);
+
+    ArrivalAndDepartureInstance inA = new ArrivalAndDepartureInstance(
+        new StopTimeInstance(blockConfigA.getStopTimes().get(0),
+            blockInstanceA.getState()));
+    ArrivalAndDepartureInstance inB = new ArrivalAndDepartureInstance(
+        new StopTimeInstance(blockConfigA.getStopTimes().get(1),
+            blockInstanceA.getState()));
+
+    Mockito.when(_narrativeService.getStopTimeForEntry(stopTimeAA)).thenReturn(
+        StopTimeNarrative.builder().create());
+    Mockito.when(_narrativeService.getStopTimeForEntry(stopTimeAB)).thenReturn(
+        StopTimeNarrative.builder().create());
+
+    TripBean tripABean = new TripBean();
+    Mockito.when(_tripBeanService.getTripForId(aid("tripA"))).thenReturn(
+        tripABean);
+
+    long stopTimeFrom = t - minutesBefore * 60 * 1000;
+    long stopTimeTo = t + minutesAfter * 60 * 1000;
+    TargetTime target = new TargetTime(t, t);
+
+    Map<StopEntry, List<ArrivalAndDepartureInstance>> instancesByStop = new HashMap<StopEntry, List<ArrivalAndDepartureInstance>>();
+    instancesByStop.put(stopA, Arrays.asList(inA));
+    instancesByStop.put(stopB, Arrays.asList(inB));
+    instancesByStop.put(stopC,
+        Collections.<ArrivalAndDepartureInstance> emptyList());
+
+    Mockito.when(
+        _arrivalAndDepartureService.getArrivalsAndDeparturesForStopsInTimeRange(
+            Mockito.anyCollection(), Mockito.eq(target),
+            Mockito.eq(stopTimeFrom), Mockito.eq(stopTimeTo))).thenReturn(
+        instancesByStop);
+
+    ArrivalsAndDeparturesQueryBean query = new ArrivalsAndDeparturesQueryBean();
+    query.setTime(t);
+    query.setMinutesBefore(minutesBefore);
+    query.setMinutesAfter(minutesAfter);
+    query.setFrequencyMinutesBefore(minutesBefore);
+    query.setFrequencyMinutesAfter(minutesAfter);
+
+    Map<AgencyAndId, List<ArrivalAndDepartureBean>> beansByStopId = _service.getArrivalsAndDeparturesByStopIds(
+        Arrays.asList(stopC.getId(), stopA.getId(), stopB.getId()), query);
+
+    /**
+     * Results are keyed in request order, with an entry for every stop
+     */
+    Iterator<AgencyAndId> it = beansByStopId.keySet().iterator();
+    assertEquals(stopC.getId(), it.next());
+    assertEquals(stopA.getId(), it.next());
+    assertEquals(stopB.getId(), it.next());
+
+    assertEquals(0, beansByStopId.get(stopC.getId()).size());
+
+    List<ArrivalAndDepartureBean> beans = beansByStopId.get(stopA.getId());
+    assertEquals(1, beans.size());
+    assertEquals(dateAsLong("2010-10-05 16:30"),
+        beans.get(0).getScheduledArrivalTime());
+    assertEquals(stopA.getId().toString(), beans.get(0).getStop().getId());
+    assertSame(tripABean, beans.get(0).getTrip());
+
+    beans = beansByStopId.get(stopB.getId());
+    assertEquals(1, beans.size());
+    assertEquals(dateAsLong("2010-10-05 16:40"),
+        beans.get(0).getScheduledArrivalTime());
+    assertEquals(stopB.getId().toString(), beans.get(0).getStop().getId());
+
+    /**
+     * All stops are resolved with a single bulk lookup
+     */
+    Mockito.verify(_arrivalAndDepartureService, Mockito.times(1)).getArrivalsAndDeparturesForStopsInTimeRange(
+        Mockito.anyCollection(), Mockito.eq(target), Mockito.eq(stopTimeFrom),
+        Mockito.eq(stopTimeTo));
+    Mockito.verify(_arrivalAndDepartureService, Mockito.never()).getArrivalsAndDeparturesForStopInTimeRange(
+        Mockito.any(StopEntry.class), Mockito.any(TargetTime.class),
+        Mockito.anyLong(), Mockito.anyLong());
+  }
 }
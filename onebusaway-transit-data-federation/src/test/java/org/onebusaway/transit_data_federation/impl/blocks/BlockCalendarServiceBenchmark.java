@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.blocks;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.blockTripIndices;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.onebusaway.gtfs.impl.calendar.CalendarServiceImpl;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.onebusaway.transit_data_federation.impl.ExtendedCalendarServiceImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.BlockEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.StopEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.services.blocks.BlockIndexService;
+import org.onebusaway.transit_data_federation.services.blocks.BlockLayoverIndex;
+import org.onebusaway.transit_data_federation.services.blocks.BlockTripIndex;
+import org.onebusaway.transit_data_federation.services.blocks.FrequencyBlockTripIndex;
+import org.onebusaway.transit_data_federation.testing.UnitTestingSupport;
+
+/**
+ * Compares the scanning and interval-indexed implementations of
+ * {@link BlockCalendarServiceImpl#getActiveBlocksInTimeRange(long, long)} over
+ * a synthetic multi-agency bundle.
+ *
+ * Usage: BlockCalendarServiceBenchmark [agencies] [blocksPerAgency]
+ */
+public class BlockCalendarServiceBenchmark {
+
+  private static final int QUERIES = 2000;
+
+  private static final int ITERATIONS = 5;
+
+  private static final int TRIPS_PER_BLOCK = 6;
+
+  private static final String[] SERVICE_PATTERNS = {
+      "weekday", "saturday", "sunday"};
+
+  public static void main(String[] args) {
+
+    int agencies = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int blocksPerAgency = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+    Random random = new Random(42);
+
+    CalendarServiceData calendarData = new CalendarServiceData();
+    Date firstServiceDate = UnitTestingSupport.date("2010-09-06 00:00");
+    List<BlockEntryImpl> blocks = new ArrayList<BlockEntryImpl>();
+
+    StopEntryImpl stopA = stop("stopA", 0.0, 0.0);
+    StopEntryImpl stopB = stop("stopB", 0.0, 0.0);
+    int stopTimeId = 0;
+
+    for (int a = 0; a < agencies; a++) {
+
+      for (int p = 0; p < SERVICE_PATTERNS.length; p++)
+        UnitTestingSupport.addDates(calendarData, "a" + a + "-"
+            + SERVICE_PATTERNS[p], getServiceDates(firstServiceDate, p));
+
+      for (int b = 0; b < blocksPerAgency; b++) {
+
+        String serviceId = "a" + a + "-"
+            + SERVICE_PATTERNS[random.nextInt(SERVICE_PATTERNS.length)];
+        BlockEntryImpl block = block("a" + a + "-block" + b);
+        TripEntryImpl[] trips = new TripEntryImpl[TRIPS_PER_BLOCK];
+
+        int t = 4 * 60 * 60 + random.nextInt(8 * 60 * 60);
+        for (int i = 0; i < TRIPS_PER_BLOCK; i++) {
+          int duration = 20 * 60 + random.nextInt(60 * 60);
+          trips[i] = trip(block.getId().getId() + "-trip" + i, serviceId);
+          stopTime(stopTimeId++, stopA, trips[i], t, t, 0);
+          stopTime(stopTimeId++, stopB, trips[i], t + duration, t + duration,
+              1000);
+          t += duration + random.nextInt(15 * 60);
+        }
+
+        linkBlockTrips(block, trips);
+        blocks.add(block);
+      }
+    }
+
+    List<BlockTripIndex> indices = blockTripIndices(blocks.toArray(new BlockEntryImpl[blocks.size()]));
+    List<BlockLayoverIndex> layoverIndices = Collections.emptyList();
+    List<FrequencyBlockTripIndex> frequencyIndices = Collections.emptyList();
+
+    System.out.println("blocks=" + blocks.size() + " blockTripIndices="
+        + indices.size());
+
+    CalendarServiceImpl calendarService = new CalendarServiceImpl();
+    calendarService.setData(calendarData);
+
+    ExtendedCalendarServiceImpl extendedCalendarService = new ExtendedCalendarServiceImpl();
+    extendedCalendarService.setCalendarService(calendarService);
+
+    BlockIndexService blockIndexService = mock(BlockIndexService.class);
+    when(blockIndexService.getBlockTripIndices()).thenReturn(indices);
+    when(blockIndexService.getBlockLayoverIndices()).thenReturn(layoverIndices);
+    when(blockIndexService.getFrequencyBlockTripIndices()).thenReturn(
+        frequencyIndices);
+
+    BlockCalendarServiceImpl service = new BlockCalendarServiceImpl();
+    service.setCalendarService(extendedCalendarService);
+    service.setBlockIndexService(blockIndexService);
+
+    long[] queryTimes = new long[QUERIES];
+    for (int i = 0; i < QUERIES; i++)
+      queryTimes[i] = firstServiceDate.getTime()
+          + (long) (random.nextDouble() * 7 * 24 * 60 * 60 * 1000);
+    long window = 30 * 60 * 1000;
+
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+
+      long scanResults = 0;
+      long t0 = System.nanoTime();
+      for (long time : queryTimes)
+        scanResults += service.getActiveBlocksInTimeRange(indices,
+            layoverIndices, frequencyIndices, time, time + window).size();
+      long t1 = System.nanoTime();
+
+      long indexResults = 0;
+      for (long time : queryTimes)
+        indexResults += service.getActiveBlocksInTimeRange(time,
+            time + window).size();
+      long t2 = System.nanoTime();
+
+      System.out.println("scan=" + ((t1 - t0) / 1000 / QUERIES)
+          + "us/query index=" + ((t2 - t1) / 1000 / QUERIES)
+          + "us/query results=" + scanResults + "/" + indexResults);
+    }
+  }
+
+  private static Date[] getServiceDates(Date firstServiceDate, int pattern) {
+
+    Calendar c = Calendar.getInstance();
+    c.setTimeZone(UnitTestingSupport.timeZone());
+    c.setTime(firstServiceDate);
+
+    List<Date> dates = new ArrayList<Date>();
+
+    for (int day = 0; day < 14; day++) {
+      int dayOfWeek = c.get(Calendar.DAY_OF_WEEK);
+      int p = dayOfWeek == Calendar.SATURDAY ? 1
+          : (dayOfWeek == Calendar.SUNDAY ? 2 : 0);
+      if (p == pattern)
+        dates.add(c.getTime());
+      c.add(Calendar.DAY_OF_YEAR, 1);
+    }
+
+    return dates.toArray(new Date[dates.size()]);
+  }
+}
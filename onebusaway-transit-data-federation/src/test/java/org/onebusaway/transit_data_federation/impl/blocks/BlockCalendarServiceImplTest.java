@@ -16,6 +16,9 @@
 package org.onebusaway.transit_data_federation.impl.blocks;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.blockTripIndices;
 import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.findBlockConfig;
@@ -29,6 +32,7 @@ import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 
 import org.junit.Before;
@@ -41,6 +45,7 @@ import org.onebusaway.transit_data_federation.impl.transit_graph.BlockConfigurat
 import org.onebusaway.transit_data_federation.impl.transit_graph.BlockEntryImpl;
 import org.onebusaway.transit_data_federation.impl.transit_graph.StopEntryImpl;
 import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.services.blocks.BlockIndexService;
 import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
 import org.onebusaway.transit_data_federation.services.blocks.BlockLayoverIndex;
 import org.onebusaway.transit_data_federation.services.blocks.BlockTripIndex;
@@ -306,6 +311,83 @@ public class BlockCalendarServiceImplTest {
     assertEquals(serviceDateC.getTime(), instance.getServiceDate());
   }
 
+  @Test
+  public void testGetActiveBlocksInTimeRangeMatchesIndexScan() {
+
+    Date serviceDateA = UnitTestingSupport.date("2010-09-07 00:00");
+    Date serviceDateB = UnitTestingSupport.date("2010-09-08 00:00");
+    Date serviceDateC = UnitTestingSupport.date("2010-09-09 00:00");
+
+    UnitTestingSupport.addDates(_calendarData, "sidA", serviceDateA,
+        serviceDateB);
+    UnitTestingSupport.addDates(_calendarData, "sidB", serviceDateB,
+        serviceDateC);
+
+    ServiceIdActivation ids_A_not_B = serviceIds(lsids("sidA"), lsids("sidB"));
+    ServiceIdActivation ids_B_not_A = serviceIds(lsids("sidB"), lsids("sidA"));
+    ServiceIdActivation ids_A_and_B = serviceIds(lsids("sidA", "sidB"), lsids());
+
+    StopEntryImpl stopA = stop("stopA", 0.0, 0.0);
+    StopEntryImpl stopB = stop("stopB", 0.0, 0.0);
+
+    BlockEntryImpl blockA = block("blockA");
+    TripEntryImpl tripA = trip("tripA", "sidA");
+    TripEntryImpl tripB = trip("tripB", "sidB");
+
+    stopTime(0, stopA, tripA, time(9, 00), time(9, 00), 0);
+    stopTime(1, stopB, tripA, time(9, 30), time(9, 30), 100);
+    stopTime(2, stopB, tripB, time(10, 00), time(10, 00), 200);
+    stopTime(3, stopA, tripB, time(25, 30), time(25, 30), 300);
+
+    linkBlockTrips(ids_A_not_B, blockA, tripA);
+    linkBlockTrips(ids_A_and_B, blockA, tripA, tripB);
+    linkBlockTrips(ids_B_not_A, blockA, tripB);
+
+    BlockEntryImpl blockB = block("blockB");
+    TripEntryImpl tripC = trip("tripC", "sidA");
+    TripEntryImpl tripD = trip("tripD", "sidB");
+
+    stopTime(4, stopA, tripC, time(8, 00), time(8, 00), 0);
+    stopTime(5, stopB, tripC, time(10, 30), time(10, 30), 0);
+    stopTime(6, stopB, tripD, time(11, 00), time(11, 00), 0);
+    stopTime(7, stopA, tripD, time(11, 30), time(11, 30), 0);
+
+    linkBlockTrips(ids_A_not_B, blockB, tripC);
+    linkBlockTrips(ids_A_and_B, blockB, tripC, tripD);
+    linkBlockTrips(ids_B_not_A, blockB, tripD);
+
+    List<BlockTripIndex> blocks = blockTripIndices(blockA, blockB);
+    List<BlockLayoverIndex> layoverIndices = Collections.emptyList();
+    List<FrequencyBlockTripIndex> frequencyIndices = Collections.emptyList();
+
+    BlockIndexService blockIndexService = mock(BlockIndexService.class);
+    when(blockIndexService.getBlockTripIndices()).thenReturn(blocks);
+    when(blockIndexService.getBlockLayoverIndices()).thenReturn(layoverIndices);
+    when(blockIndexService.getFrequencyBlockTripIndices()).thenReturn(
+        frequencyIndices);
+    _service.setBlockIndexService(blockIndexService);
+
+    long from = timeFromString("2010-09-06 12:00");
+    long to = timeFromString("2010-09-10 12:00");
+    long step = 15 * 60 * 1000;
+    int nonEmpty = 0;
+
+    for (long t = from; t < to; t += step) {
+      for (long width = 0; width <= 4 * step; width += 2 * step) {
+        List<BlockInstance> expected = _service.getActiveBlocksInTimeRange(
+            blocks, layoverIndices, frequencyIndices, t, t + width);
+        List<BlockInstance> actual = _service.getActiveBlocksInTimeRange(t,
+            t + width);
+        assertEquals(new HashSet<BlockInstance>(expected),
+            new HashSet<BlockInstance>(actual));
+        if (!actual.isEmpty())
+          nonEmpty++;
+      }
+    }
+
+    assertTrue(nonEmpty > 0);
+  }
+
   private static void linkBlockTrips(ServiceIdActivation serviceIds,
       BlockEntryImpl block, TripEntryImpl... trips) {
 
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.impl.bundle.BundleArtifactLoaderImpl.Artifact;
+import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.utility.ObjectSerializationLibrary;
+
+public class BundleArtifactLoaderImplTest {
+
+  private File _path;
+
+  private FederatedTransitDataBundle _bundle;
+
+  private BundleArtifactLoaderImpl _loader;
+
+  @Before
+  public void setup() throws IOException {
+
+    _path = File.createTempFile("Test-",
+        "-" + BundleArtifactLoaderImplTest.class.getName());
+    _path.delete();
+    _path.mkdirs();
+
+    _bundle = new FederatedTransitDataBundle(_path);
+
+    _loader = new BundleArtifactLoaderImpl();
+    _loader.setBundle(_bundle);
+    _loader.setParallelism(2);
+  }
+
+  @After
+  public void teardown() {
+    _loader.stop();
+    for (File file : _path.listFiles())
+      file.delete();
+    _path.delete();
+  }
+
+  @Test
+  public void testReadPreloadedArtifacts() throws Exception {
+
+    ObjectSerializationLibrary.writeObject(_bundle.getTransitGraphPath(),
+        new ArrayList<String>(Arrays.asList("a", "b")));
+    ObjectSerializationLibrary.writeObject(
+        _bundle.getCalendarServiceDataPath(), "calendar");
+
+    _loader.start();
+    assertEquals(2, _loader.getPendingArtifactCount());
+
+    List<String> graph = _loader.readObject(_bundle.getTransitGraphPath());
+    assertEquals(Arrays.asList("a", "b"), graph);
+
+    String calendar = _loader.readObject(_bundle.getCalendarServiceDataPath());
+    assertEquals("calendar", calendar);
+
+    assertEquals(0, _loader.getPendingArtifactCount());
+    assertTrue(_loader.getArtifactLoadTimes().containsKey(
+        _bundle.getTransitGraphPath().getName()));
+    assertTrue(_loader.getArtifactLoadTimes().containsKey(
+        _bundle.getCalendarServiceDataPath().getName()));
+  }
+
+  @Test
+  public void testReadArtifactChangedSincePreload() throws Exception {
+
+    File path = _bundle.getNarrativeProviderPath();
+    ObjectSerializationLibrary.writeObject(path, "before");
+
+    _loader.start();
+
+    ObjectSerializationLibrary.writeObject(path, "after");
+    path.setLastModified(path.lastModified() + 10000);
+
+    String value = _loader.readObject(path);
+    assertEquals("after", value);
+  }
+
+  @Test
+  public void testReadArtifactAfterContextRefresh() throws Exception {
+
+    File path = _bundle.getStopTransfersPath();
+    ObjectSerializationLibrary.writeObject(path, "transfers");
+
+    _loader.start();
+    _loader.onApplicationEvent(null);
+    assertEquals(0, _loader.getPendingArtifactCount());
+
+    String value = _loader.readObject(path);
+    assertEquals("transfers", value);
+  }
+
+  @Test
+  public void testGetArtifactsInLoadOrder() {
+
+    Artifact graph = new Artifact(RefreshableResources.TRANSIT_GRAPH,
+        new File(_path, "a"));
+    Artifact blocks = new Artifact(RefreshableResources.BLOCK_INDEX_DATA,
+        new File(_path, "b"), RefreshableResources.TRANSIT_GRAPH);
+    Artifact shapes = new Artifact(RefreshableResources.SHAPE_GEOSPATIAL_INDEX,
+        new File(_path, "c"), RefreshableResources.TRANSIT_GRAPH,
+        RefreshableResources.BLOCK_INDEX_DATA);
+    Artifact calendar = new Artifact(RefreshableResources.CALENDAR_DATA,
+        new File(_path, "d"), RefreshableResources.STOP_SEARCH_DATA);
+
+    List<Artifact> order = BundleArtifactLoaderImpl.getArtifactsInLoadOrder(Arrays.asList(
+        shapes, blocks, calendar, graph));
+
+    assertEquals(4, order.size());
+    assertTrue(order.indexOf(graph) < order.indexOf(blocks));
+    assertTrue(order.indexOf(blocks) < order.indexOf(shapes));
+    assertTrue(order.contains(calendar));
+  }
+
+  @Test
+  public void testGetArtifactsInLoadOrderWithCycle() {
+
+    Artifact a = new Artifact(RefreshableResources.TRANSIT_GRAPH, new File(
+        _path, "a"), RefreshableResources.BLOCK_INDEX_DATA);
+    Artifact b = new Artifact(RefreshableResources.BLOCK_INDEX_DATA, new File(
+        _path, "b"), RefreshableResources.TRANSIT_GRAPH);
+
+    try {
+      BundleArtifactLoaderImpl.getArtifactsInLoadOrder(Arrays.asList(a, b));
+      fail();
+    } catch (IllegalStateException ex) {
+
+    }
+  }
+}
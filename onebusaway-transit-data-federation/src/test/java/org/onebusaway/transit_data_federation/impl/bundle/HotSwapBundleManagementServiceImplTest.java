@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.container.refresh.Refreshable;
+import org.onebusaway.transit_data_federation.impl.RefreshableResources;
+import org.onebusaway.transit_data_federation.services.FederatedTransitDataBundle;
+import org.onebusaway.transit_data_federation.services.bundle.BundleManagementService;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class HotSwapBundleManagementServiceImplTest {
+
+  private File _root;
+
+  private HotSwapBundleManagementServiceImpl _service;
+
+  @Before
+  public void setup() throws IOException {
+
+    _root = File.createTempFile("Test-",
+        "-" + HotSwapBundleManagementServiceImplTest.class.getName());
+    _root.delete();
+    new File(_root, "2011-01").mkdirs();
+    new File(_root, "2011-02").mkdirs();
+
+    _service = new HotSwapBundleManagementServiceImpl();
+    _service.setBundleRootPath(_root);
+    _service.setConfigLocations(Arrays.asList("classpath:org/onebusaway/transit_data_federation/impl/bundle/application-context-hot-swap-test.xml"));
+    _service.setDrainTimeout(1);
+
+    BundlePathServiceImpl.reset();
+  }
+
+  @After
+  public void teardown() {
+    _service.stop();
+    for (File file : _root.listFiles())
+      file.delete();
+    _root.delete();
+  }
+
+  @Test
+  public void testSwitchToBundle() throws Exception {
+
+    _service.start();
+
+    BundlePathService service = _service.getBundleService(BundlePathService.class);
+
+    assertEquals("2011-02", _service.getActiveBundleId());
+    assertEquals(new File(_root, "2011-02").getAbsolutePath(),
+        service.getBundlePath());
+
+    _service.switchToBundle("2011-01").get();
+
+    assertEquals("2011-01", _service.getActiveBundleId());
+    assertEquals(new File(_root, "2011-01").getAbsolutePath(),
+        service.getBundlePath());
+    assertEquals(2, _service.getSwapCount());
+    assertEquals(0, _service.getInFlightRequestCount());
+  }
+
+  @Test
+  public void testInitialBundleId() throws Exception {
+
+    _service.setInitialBundleId("2011-01");
+    _service.start();
+
+    assertEquals("2011-01", _service.getActiveBundleId());
+
+    _service.switchToBundle("2011-01").get();
+    assertEquals(1, _service.getSwapCount());
+  }
+
+  @Test
+  public void testDrainBeforeRelease() throws Exception {
+
+    _service.setDrainTimeout(10);
+    _service.start();
+
+    final BundlePathService service = _service.getBundleService(BundlePathService.class);
+    String previousPath = new File(_root, "2011-02").getAbsolutePath();
+    String nextPath = new File(_root, "2011-01").getAbsolutePath();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<String> inFlight = executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return service.awaitBundlePath();
+        }
+      });
+      assertTrue(BundlePathServiceImpl.ENTERED.await(5, TimeUnit.SECONDS));
+
+      Future<?> swap = _service.switchToBundle("2011-01");
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!"2011-01".equals(_service.getActiveBundleId())) {
+        if (System.currentTimeMillis() > deadline)
+          fail("bundle was not activated");
+        Thread.sleep(10);
+      }
+
+      // New calls go to the next bundle, while the previous one is kept open
+      // for the call still in flight
+      assertEquals(nextPath, service.getBundlePath());
+      assertFalse(swap.isDone());
+      assertTrue(BundlePathServiceImpl.getClosedBundlePaths().isEmpty());
+
+      BundlePathServiceImpl.RELEASE.countDown();
+
+      assertEquals(previousPath, inFlight.get(5, TimeUnit.SECONDS));
+      swap.get(5, TimeUnit.SECONDS);
+      assertEquals(Arrays.asList(previousPath),
+          BundlePathServiceImpl.getClosedBundlePaths());
+
+      // Both bundles were loaded through the load of the next and the drain of
+      // the previous
+      assertTrue(_service.getLastOverlapDuration() >= _service.getLastLoadDuration()
+          + _service.getLastDrainDuration());
+    } finally {
+      BundlePathServiceImpl.RELEASE.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testOuterContext() throws Exception {
+
+    System.setProperty("hotSwapTest.bundleRootPath", _root.getAbsolutePath());
+
+    ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
+        "org/onebusaway/transit_data_federation/impl/bundle/application-context-hot-swap-outer-test.xml");
+
+    try {
+      HotSwapBundleManagementServiceImpl service = context.getBean(HotSwapBundleManagementServiceImpl.class);
+      BundleManagementService bundleManagementService = (BundleManagementService) context.getBean("bundleManagementServiceProxy");
+      RealtimeSource source = context.getBean(RealtimeSource.class);
+
+      assertEquals("2011-02", bundleManagementService.getActiveBundleId());
+      source.getRefreshedBundlePaths().clear();
+
+      service.switchToBundle("2011-01").get();
+
+      // The source is refreshed once the next bundle is active, and reaches it
+      // through its proxy
+      assertEquals("2011-01", bundleManagementService.getActiveBundleId());
+      assertEquals(Arrays.asList(new File(_root, "2011-01").getAbsolutePath()),
+          source.getRefreshedBundlePaths());
+    } finally {
+      context.close();
+      System.clearProperty("hotSwapTest.bundleRootPath");
+    }
+  }
+
+  public interface BundlePathService {
+
+    public String getBundlePath();
+
+    /**
+     * Blocks until {@link BundlePathServiceImpl#RELEASE} is counted down
+     */
+    public String awaitBundlePath() throws InterruptedException;
+  }
+
+  public static class BundlePathServiceImpl implements BundlePathService {
+
+    private static CountDownLatch ENTERED;
+
+    private static CountDownLatch RELEASE;
+
+    private static List<String> _closedBundlePaths;
+
+    private FederatedTransitDataBundle _bundle;
+
+    public static void reset() {
+      ENTERED = new CountDownLatch(1);
+      RELEASE = new CountDownLatch(1);
+      _closedBundlePaths = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    public static List<String> getClosedBundlePaths() {
+      return _closedBundlePaths;
+    }
+
+    public void setBundle(FederatedTransitDataBundle bundle) {
+      _bundle = bundle;
+    }
+
+    @Override
+    public String getBundlePath() {
+      return _bundle.getPath().getAbsolutePath();
+    }
+
+    @Override
+    public String awaitBundlePath() throws InterruptedException {
+      ENTERED.countDown();
+      RELEASE.await();
+      return getBundlePath();
+    }
+
+    public void close() {
+      _closedBundlePaths.add(getBundlePath());
+    }
+  }
+
+  /**
+   * Stands in for a real-time data source in the outer context, recording
+   * which bundle its proxied dependency reaches on each refresh
+   */
+  public static class RealtimeSource {
+
+    private BundlePathService _bundlePathService;
+
+    private List<String> _refreshedBundlePaths = new ArrayList<String>();
+
+    public void setBundlePathService(BundlePathService bundlePathService) {
+      _bundlePathService = bundlePathService;
+    }
+
+    @Refreshable(dependsOn = RefreshableResources.TRANSIT_GRAPH)
+    public void handleTransitGraphRefresh() {
+      _refreshedBundlePaths.add(_bundlePathService.getBundlePath());
+    }
+
+    public List<String> getRefreshedBundlePaths() {
+      return _refreshedBundlePaths;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+
+public class BlockLocationRecordDaoImplTest {
+
+  private BlockLocationRecordDaoImpl _dao;
+
+  private SessionFactory _sessionFactory;
+
+  @Before
+  public void setup() throws IOException {
+
+    _dao = new BlockLocationRecordDaoImpl();
+
+    Configuration config = new AnnotationConfiguration();
+    config = config.configure("org/onebusaway/transit_data_federation/hibernate-configuration.xml");
+    _sessionFactory = config.buildSessionFactory();
+
+    _dao.setSessionFactory(_sessionFactory);
+  }
+
+  @After
+  public void teardown() {
+    if (_sessionFactory != null)
+      _sessionFactory.close();
+  }
+
+  @Test
+  public void testSaveBlockLocationRecords() {
+
+    _dao.setBatchSize(20);
+
+    List<BlockLocationRecord> records = new ArrayList<BlockLocationRecord>();
+    for (int i = 0; i < 250; i++)
+      records.add(record("vehicle-" + (i % 2), 1000 + i));
+
+    _dao.saveBlockLocationRecords(records);
+
+    List<BlockLocationRecord> results = _dao.getBlockLocationRecordsForVehicleAndTimeRange(
+        new AgencyAndId("1", "vehicle-0"), 0, 2000);
+    assertEquals(125, results.size());
+
+    results = _dao.getBlockLocationRecordsForVehicleAndTimeRange(
+        new AgencyAndId("1", "vehicle-1"), 1000, 1100);
+    assertEquals(50, results.size());
+
+    assertEquals(250, _dao.getSavedRecordCount());
+  }
+
+  @Test
+  public void testSaveBlockLocationRecordsEmpty() {
+    _dao.saveBlockLocationRecords(new ArrayList<BlockLocationRecord>());
+    assertEquals(0, _dao.getSavedRecordCount());
+  }
+
+  private BlockLocationRecord record(String vehicleId, long time) {
+    BlockLocationRecord.Builder b = BlockLocationRecord.builder();
+    b.setBlockId(new AgencyAndId("1", "block"));
+    b.setTripId(new AgencyAndId("1", "trip"));
+    b.setServiceDate(0);
+    b.setTime(time);
+    b.setVehicleId(new AgencyAndId("1", vehicleId));
+    return b.create();
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.impl.realtime.BlockLocationRecordWriter.EOverflowPolicy;
+
+public class BlockLocationRecordWriterTest {
+
+  private BlockLocationRecordWriter _writer;
+
+  private RecordingDao _dao;
+
+  @Before
+  public void setup() {
+    _dao = new RecordingDao();
+    _writer = new BlockLocationRecordWriter();
+    _writer.setBlockLocationRecordDao(_dao);
+  }
+
+  @Test
+  public void testFlushInBatches() {
+
+    _writer.setBatchSize(10);
+
+    List<BlockLocationRecord> records = records(25);
+    _writer.addRecords(records);
+    assertEquals(25, _writer.getQueueSize());
+
+    _writer.flush();
+
+    assertEquals(3, _dao.batches.size());
+    assertEquals(10, _dao.batches.get(0).size());
+    assertEquals(10, _dao.batches.get(1).size());
+    assertEquals(5, _dao.batches.get(2).size());
+    assertSame(records.get(0), _dao.batches.get(0).get(0));
+    assertSame(records.get(24), _dao.batches.get(2).get(4));
+
+    assertEquals(0, _writer.getQueueSize());
+    assertEquals(25, _writer.getInsertedCount());
+    assertEquals(25, _writer.getLastInsertCount());
+
+    _writer.flush();
+    assertEquals(3, _dao.batches.size());
+  }
+
+  @Test
+  public void testDropNewest() {
+
+    _writer.setCapacity(5);
+    _writer.setOverflowPolicy(EOverflowPolicy.DROP_NEWEST);
+
+    List<BlockLocationRecord> records = records(8);
+    _writer.addRecords(records);
+
+    assertEquals(5, _writer.getQueueSize());
+    assertEquals(3, _writer.getDroppedCount());
+
+    _writer.flush();
+
+    assertEquals(1, _dao.batches.size());
+    assertEquals(records.subList(0, 5), _dao.batches.get(0));
+  }
+
+  @Test
+  public void testDropOldest() {
+
+    _writer.setCapacity(5);
+    _writer.setOverflowPolicy(EOverflowPolicy.DROP_OLDEST);
+
+    List<BlockLocationRecord> records = records(8);
+    _writer.addRecords(records);
+
+    assertEquals(5, _writer.getQueueSize());
+    assertEquals(3, _writer.getDroppedCount());
+
+    _writer.flush();
+
+    assertEquals(1, _dao.batches.size());
+    assertEquals(records.subList(3, 8), _dao.batches.get(0));
+  }
+
+  @Test
+  public void testDaoFailure() {
+
+    _writer.setBlockLocationRecordDao(new RecordingDao() {
+      @Override
+      public void saveBlockLocationRecords(List<BlockLocationRecord> records) {
+        throw new IllegalStateException();
+      }
+    });
+    _writer.setBatchSize(2);
+
+    _writer.addRecords(records(3));
+    _writer.flush();
+
+    assertEquals(0, _writer.getQueueSize());
+    assertEquals(0, _writer.getInsertedCount());
+    assertEquals(3, _writer.getFailedCount());
+  }
+
+  @Test
+  public void testStopFlushesQueue() {
+
+    _writer.setFlushInterval(60 * 1000);
+    _writer.start();
+    _writer.addRecords(records(3));
+    _writer.stop();
+
+    assertEquals(0, _writer.getQueueSize());
+    assertEquals(3, _writer.getInsertedCount());
+  }
+
+  private static List<BlockLocationRecord> records(int count) {
+    List<BlockLocationRecord> records = new ArrayList<BlockLocationRecord>();
+    for (int i = 0; i < count; i++) {
+      BlockLocationRecord.Builder b = BlockLocationRecord.builder();
+      b.setTime(i);
+      records.add(b.create());
+    }
+    return records;
+  }
+
+  /**
+   * The writer reuses its batch list between calls, so we copy each batch
+   */
+  private static class RecordingDao implements BlockLocationRecordDao {
+
+    public List<List<BlockLocationRecord>> batches = new ArrayList<List<BlockLocationRecord>>();
+
+    @Override
+    public void saveBlockLocationRecord(BlockLocationRecord record) {
+      saveBlockLocationRecords(Arrays.asList(record));
+    }
+
+    @Override
+    public void saveBlockLocationRecords(List<BlockLocationRecord> records) {
+      batches.add(new ArrayList<BlockLocationRecord>(records));
+    }
+
+    @Override
+    public List<BlockLocationRecord> getBlockLocationRecordsForBlockServiceDateAndTimeRange(
+        AgencyAndId blockId, long serviceDate,
+        long fromTime, long toTime) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<BlockLocationRecord> getBlockLocationRecordsForVehicleAndTimeRange(
+        AgencyAndId vehicleId, long fromTime,
+        long toTime) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<BlockLocationRecord> getBlockLocationRecords(
+        AgencyAndId blockId,
+        AgencyAndId tripId,
+        AgencyAndId vehicleId, long serviceDate,
+        long fromTime, long toTime, int recordLimit) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
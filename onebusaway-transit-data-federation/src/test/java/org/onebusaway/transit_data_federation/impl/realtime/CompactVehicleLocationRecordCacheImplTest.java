@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.aid;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.time;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.realtime.api.VehicleLocationRecord;
+import org.onebusaway.transit_data_federation.impl.transit_graph.BlockEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
+import org.onebusaway.transit_data_federation.services.realtime.VehicleLocationCacheElements;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+
+public class CompactVehicleLocationRecordCacheImplTest {
+
+  @Test
+  public void testSimpleOperations() {
+    long serviceDate = System.currentTimeMillis();
+
+    BlockInstance blockInstance = blockInstance("blockA", serviceDate);
+
+    CompactVehicleLocationRecordCacheImpl cache = new CompactVehicleLocationRecordCacheImpl();
+
+    List<VehicleLocationCacheElements> records = cache.getRecordsForBlockInstance(blockInstance);
+    assertEquals(0, records.size());
+    assertNull(cache.getRecordForVehicleId(aid("vehicleA")));
+
+    cache.addRecord(blockInstance,
+        record(20, "blockA", serviceDate, "vehicleA", 10.0), null, null);
+
+    records = cache.getRecordsForBlockInstance(blockInstance);
+    assertEquals(1, records.size());
+    VehicleLocationCacheElements cacheRecord = records.get(0);
+    assertEquals(20, cacheRecord.getLastElement().getRecord().getTimeOfRecord());
+    assertEquals(blockInstance, cacheRecord.getBlockInstance());
+    assertSame(cacheRecord, cache.getRecordForVehicleId(aid("vehicleA")));
+
+    /**
+     * Repeated reads should return the same read-only view
+     */
+    assertSame(records, cache.getRecordsForBlockInstance(blockInstance));
+
+    cache.addRecord(blockInstance,
+        record(30, "blockA", serviceDate, "vehicleA", 20.0), null, null);
+
+    cacheRecord = cache.getRecordForVehicleId(aid("vehicleA"));
+    assertEquals(2, cacheRecord.getElements().size());
+    assertEquals(30, cacheRecord.getLastElement().getRecord().getTimeOfRecord());
+
+    cache.addRecord(blockInstance,
+        record(40, "blockA", serviceDate, "vehicleB", 5.0), null, null);
+
+    records = cache.getRecordsForBlockInstance(blockInstance);
+    assertEquals(2, records.size());
+
+    cache.clearRecordsForVehicleId(aid("vehicleA"));
+
+    records = cache.getRecordsForBlockInstance(blockInstance);
+    assertEquals(1, records.size());
+    assertEquals(aid("vehicleB"),
+        records.get(0).getLastElement().getRecord().getVehicleId());
+    assertNull(cache.getRecordForVehicleId(aid("vehicleA")));
+  }
+
+  @Test
+  public void testBlockInstanceChange() {
+    long serviceDate = System.currentTimeMillis();
+
+    BlockInstance instanceA = blockInstance("blockA", serviceDate);
+    BlockInstance instanceB = blockInstance("blockB", serviceDate);
+
+    CompactVehicleLocationRecordCacheImpl cache = new CompactVehicleLocationRecordCacheImpl();
+
+    cache.addRecord(instanceA,
+        record(20, "blockA", serviceDate, "vehicleA", 10.0), null, null);
+    cache.addRecord(instanceB,
+        record(30, "blockB", serviceDate, "vehicleA", 20.0), null, null);
+
+    assertEquals(0, cache.getRecordsForBlockInstance(instanceA).size());
+
+    List<VehicleLocationCacheElements> records = cache.getRecordsForBlockInstance(instanceB);
+    assertEquals(1, records.size());
+
+    VehicleLocationCacheElements cacheRecord = cache.getRecordForVehicleId(aid("vehicleA"));
+    assertEquals(instanceB, cacheRecord.getBlockInstance());
+    assertEquals(1, cacheRecord.getElements().size());
+  }
+
+  @Test
+  public void testClearStaleRecords() throws InterruptedException {
+
+    long serviceDate = System.currentTimeMillis();
+
+    BlockInstance instanceA = blockInstance("blockA", serviceDate);
+    BlockInstance instanceB = blockInstance("blockB", serviceDate);
+
+    CompactVehicleLocationRecordCacheImpl cache = new CompactVehicleLocationRecordCacheImpl();
+
+    cache.addRecord(instanceA,
+        record(20, "blockA", serviceDate, "vehicleA", 10.0), null, null);
+
+    Thread.sleep(100);
+
+    cache.addRecord(instanceB,
+        record(30, "blockB", serviceDate, "vehicleB", 20.0), null, null);
+
+    Thread.sleep(100);
+
+    cache.addRecord(instanceA,
+        record(40, "blockA", serviceDate, "vehicleC", 20.0), null, null);
+
+    Thread.sleep(100);
+
+    cache.addRecord(instanceB,
+        record(50, "blockB", serviceDate, "vehicleD", 20.0), null, null);
+
+    cache.clearStaleRecords(System.currentTimeMillis() - 150);
+
+    assertNull(cache.getRecordForVehicleId(aid("vehicleA")));
+    assertNull(cache.getRecordForVehicleId(aid("vehicleB")));
+    assertEquals(aid("vehicleC"),
+        cache.getRecordForVehicleId(aid("vehicleC")).getLastElement().getRecord().getVehicleId());
+    assertEquals(aid("vehicleD"),
+        cache.getRecordForVehicleId(aid("vehicleD")).getLastElement().getRecord().getVehicleId());
+
+    assertEquals(1, cache.getRecordsForBlockInstance(instanceA).size());
+    assertEquals(1, cache.getRecordsForBlockInstance(instanceB).size());
+
+    cache.clearStaleRecords(System.currentTimeMillis() + 1);
+
+    assertEquals(0, cache.getRecordsForBlockInstance(instanceA).size());
+    assertEquals(0, cache.getRecordsForBlockInstance(instanceB).size());
+  }
+
+  @Test
+  public void testManyVehicles() {
+
+    long serviceDate = System.currentTimeMillis();
+
+    CompactVehicleLocationRecordCacheImpl cache = new CompactVehicleLocationRecordCacheImpl();
+
+    for (int i = 0; i < 1000; i++) {
+      String blockId = Integer.toString(i % 300);
+      BlockInstance blockInstance = blockInstance(blockId, serviceDate);
+      cache.addRecord(blockInstance,
+          record(i, blockId, serviceDate, Integer.toString(i), i), null, null);
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      VehicleLocationCacheElements cacheRecord = cache.getRecordForVehicleId(aid(Integer.toString(i)));
+      assertEquals(i, cacheRecord.getLastElement().getRecord().getTimeOfRecord());
+    }
+  }
+
+  @Test
+  public void testHandlesAreRecycled() {
+
+    long serviceDate = System.currentTimeMillis();
+
+    CompactVehicleLocationRecordCacheImpl cache = new CompactVehicleLocationRecordCacheImpl();
+
+    BlockInstance[] blockInstances = new BlockInstance[100];
+    for (int i = 0; i < blockInstances.length; i++)
+      blockInstances[i] = blockInstance(Integer.toString(i), serviceDate);
+
+    for (int i = 0; i < blockInstances.length; i++)
+      cache.addRecord(blockInstances[i],
+          record(i, Integer.toString(i), serviceDate, "a" + i, i), null, null);
+
+    assertEquals(100, cache.getVehicleHandleCapacity());
+
+    cache.clearStaleRecords(System.currentTimeMillis() + 1);
+
+    for (int i = 0; i < blockInstances.length; i++) {
+      assertNull(cache.getRecordForVehicleId(aid("a" + i)));
+      assertEquals(0, cache.getRecordsForBlockInstance(blockInstances[i]).size());
+      cache.addRecord(blockInstances[i],
+          record(i, Integer.toString(i), serviceDate, "b" + i, i), null, null);
+    }
+
+    assertEquals(100, cache.getVehicleHandleCapacity());
+
+    for (int i = 0; i < blockInstances.length; i++) {
+      assertNull(cache.getRecordForVehicleId(aid("a" + i)));
+      VehicleLocationCacheElements cacheRecord = cache.getRecordForVehicleId(aid("b"
+          + i));
+      assertEquals(aid("b" + i),
+          cacheRecord.getLastElement().getRecord().getVehicleId());
+      assertEquals(1, cache.getRecordsForBlockInstance(blockInstances[i]).size());
+    }
+  }
+
+  private BlockInstance blockInstance(String blockId, long serviceDate) {
+    BlockEntryImpl block = block(blockId);
+    TripEntryImpl trip = trip(blockId, "serviceId");
+    stopTime(0, null, trip, time(9, 00), 0);
+    BlockConfigurationEntry blockConfig = linkBlockTrips(block, trip);
+    return new BlockInstance(blockConfig, serviceDate);
+  }
+
+  private VehicleLocationRecord record(long t, String blockId,
+      long serviceDate, String vehicleId, double distanceAlongBlock) {
+    VehicleLocationRecord r = new VehicleLocationRecord();
+    r.setBlockId(new AgencyAndId("1", blockId));
+    r.setServiceDate(serviceDate);
+    r.setVehicleId(new AgencyAndId("1", vehicleId));
+    r.setDistanceAlongBlock(distanceAlongBlock);
+    r.setTimeOfRecord(t);
+    return r;
+  }
+}
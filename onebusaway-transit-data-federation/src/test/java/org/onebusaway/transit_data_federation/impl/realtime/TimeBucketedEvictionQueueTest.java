@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TimeBucketedEvictionQueueTest {
+
+  @Test
+  public void testPollExpired() {
+
+    TimeBucketedEvictionQueue<String> queue = new TimeBucketedEvictionQueue<String>(
+        10);
+
+    queue.touch("a", 5);
+    queue.touch("b", 12);
+    queue.touch("c", 18);
+    queue.touch("d", 35);
+    assertEquals(4, queue.size());
+
+    /**
+     * Only keys strictly before the expiration time, even within a bucket
+     */
+    List<String> expired = queue.pollExpired(15);
+    assertEquals(set("a", "b"), new HashSet<String>(expired));
+    assertEquals(2, queue.size());
+
+    assertTrue(queue.pollExpired(15).isEmpty());
+
+    expired = queue.pollExpired(100);
+    assertEquals(set("c", "d"), new HashSet<String>(expired));
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testTouchMovesKey() {
+
+    TimeBucketedEvictionQueue<String> queue = new TimeBucketedEvictionQueue<String>(
+        10);
+
+    queue.touch("a", 5);
+    queue.touch("b", 6);
+    queue.touch("a", 25);
+
+    List<String> expired = queue.pollExpired(20);
+    assertEquals(set("b"), new HashSet<String>(expired));
+
+    queue.touch("a", 27);
+    assertTrue(queue.pollExpired(26).isEmpty());
+
+    expired = queue.pollExpired(28);
+    assertEquals(set("a"), new HashSet<String>(expired));
+  }
+
+  @Test
+  public void testRemove() {
+
+    TimeBucketedEvictionQueue<String> queue = new TimeBucketedEvictionQueue<String>(
+        10);
+
+    queue.touch("a", 5);
+    queue.touch("b", 6);
+    queue.remove("a");
+    queue.remove("c");
+
+    assertEquals(set("b"), new HashSet<String>(queue.pollExpired(100)));
+  }
+
+  private static Set<String> set(String... values) {
+    Set<String> set = new HashSet<String>();
+    for (String value : values)
+      set.add(value);
+    return set;
+  }
+}
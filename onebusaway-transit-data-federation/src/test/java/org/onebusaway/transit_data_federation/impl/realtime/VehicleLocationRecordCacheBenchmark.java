@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.time;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.realtime.api.VehicleLocationRecord;
+import org.onebusaway.transit_data_federation.impl.transit_graph.BlockEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
+import org.onebusaway.transit_data_federation.services.realtime.VehicleLocationCacheElements;
+import org.onebusaway.transit_data_federation.services.realtime.VehicleLocationRecordCache;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+
+/**
+ * Compares {@link VehicleLocationRecordCacheImpl} and
+ * {@link CompactVehicleLocationRecordCacheImpl} under a replayed AVL load.
+ * 
+ * With no arguments, a synthetic load of 3,000 vehicles reporting every 10-30
+ * seconds over two hours is generated. Alternatively, a recorded load can be
+ * replayed from a CSV file with lines of the form
+ * "timeOfRecord,vehicleId,blockId". Each record is followed by a number of
+ * block instance reads, approximating arrival and departure requests.
+ */
+public class VehicleLocationRecordCacheBenchmark {
+
+  private static final int READS_PER_WRITE = 10;
+
+  private static final int ITERATIONS = 5;
+
+  private final Map<String, BlockInstance> _blockInstances = new HashMap<String, BlockInstance>();
+
+  private final long _serviceDate = System.currentTimeMillis();
+
+  public static void main(String[] args) throws IOException {
+    VehicleLocationRecordCacheBenchmark benchmark = new VehicleLocationRecordCacheBenchmark();
+    List<VehicleLocationRecord> records = args.length > 0
+        ? benchmark.readRecords(args[0]) : benchmark.generateRecords(3000,
+            1500, 2 * 60 * 60);
+    System.out.println("records=" + records.size());
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      benchmark.run("VehicleLocationRecordCacheImpl",
+          new VehicleLocationRecordCacheImpl(), records);
+      benchmark.run("CompactVehicleLocationRecordCacheImpl",
+          new CompactVehicleLocationRecordCacheImpl(), records);
+    }
+  }
+
+  private void run(String name, VehicleLocationRecordCache cache,
+      List<VehicleLocationRecord> records) {
+
+    long gcCountBefore = getGarbageCollectionCount();
+    long tIn = System.nanoTime();
+    long reads = 0;
+
+    List<BlockInstance> recentBlockInstances = new ArrayList<BlockInstance>();
+
+    for (VehicleLocationRecord record : records) {
+      BlockInstance blockInstance = getBlockInstance(record.getBlockId().getId());
+      cache.addRecord(blockInstance, record, null, null);
+
+      if (recentBlockInstances.size() < READS_PER_WRITE)
+        recentBlockInstances.add(blockInstance);
+      else
+        recentBlockInstances.set((int) (reads % READS_PER_WRITE),
+            blockInstance);
+
+      for (BlockInstance recent : recentBlockInstances) {
+        List<VehicleLocationCacheElements> elements = cache.getRecordsForBlockInstance(recent);
+        reads += elements.size();
+      }
+    }
+
+    long tOut = System.nanoTime();
+    long gcCountAfter = getGarbageCollectionCount();
+
+    System.out.println(name + " time=" + ((tOut - tIn) / 1000000) + "ms gcs="
+        + (gcCountAfter - gcCountBefore) + " reads=" + reads);
+  }
+
+  private List<VehicleLocationRecord> generateRecords(int vehicleCount,
+      int blockCount, int durationInSeconds) {
+
+    Random random = new Random(42);
+    List<VehicleLocationRecord> records = new ArrayList<VehicleLocationRecord>();
+
+    long[] nextReport = new long[vehicleCount];
+    for (int i = 0; i < vehicleCount; i++)
+      nextReport[i] = random.nextInt(30);
+
+    for (int t = 0; t < durationInSeconds; t++) {
+      for (int i = 0; i < vehicleCount; i++) {
+        if (nextReport[i] != t)
+          continue;
+        records.add(record(t * 1000L, Integer.toString(i),
+            Integer.toString(i % blockCount)));
+        nextReport[i] = t + 10 + random.nextInt(21);
+      }
+    }
+
+    return records;
+  }
+
+  private List<VehicleLocationRecord> readRecords(String path)
+      throws IOException {
+    List<VehicleLocationRecord> records = new ArrayList<VehicleLocationRecord>();
+    BufferedReader reader = new BufferedReader(new FileReader(path));
+    String line = null;
+    while ((line = reader.readLine()) != null) {
+      String[] tokens = line.split(",");
+      records.add(record(Long.parseLong(tokens[0]), tokens[1], tokens[2]));
+    }
+    reader.close();
+    return records;
+  }
+
+  private VehicleLocationRecord record(long t, String vehicleId,
+      String blockId) {
+    VehicleLocationRecord r = new VehicleLocationRecord();
+    r.setBlockId(new AgencyAndId("1", blockId));
+    r.setServiceDate(_serviceDate);
+    r.setVehicleId(new AgencyAndId("1", vehicleId));
+    r.setTimeOfRecord(t);
+    return r;
+  }
+
+  private BlockInstance getBlockInstance(String blockId) {
+    BlockInstance blockInstance = _blockInstances.get(blockId);
+    if (blockInstance == null) {
+      BlockEntryImpl block = block(blockId);
+      TripEntryImpl trip = trip(blockId, "serviceId");
+      stopTime(0, null, trip, time(9, 00), 0);
+      BlockConfigurationEntry blockConfig = linkBlockTrips(block, trip);
+      blockInstance = new BlockInstance(blockConfig, _serviceDate);
+      _blockInstances.put(blockId, blockInstance);
+    }
+    return blockInstance;
+  }
+
+  private static long getGarbageCollectionCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+      count += Math.max(0, bean.getCollectionCount());
+    return count;
+  }
+}
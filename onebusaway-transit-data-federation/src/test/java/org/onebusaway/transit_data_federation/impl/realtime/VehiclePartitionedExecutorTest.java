@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.transit_data_federation.impl.realtime.VehiclePartitionedExecutor.PartitionedHandler;
+
+public class VehiclePartitionedExecutorTest {
+
+  private VehiclePartitionedExecutor _executor;
+
+  @Before
+  public void before() {
+    _executor = new VehiclePartitionedExecutor("test");
+    _executor.setThreads(4);
+    _executor.start();
+  }
+
+  @After
+  public void after() {
+    _executor.stop();
+  }
+
+  @Test
+  public void testOrderingPerVehicle() {
+
+    List<String[]> updates = new ArrayList<String[]>();
+    for (int i = 0; i < 100; i++) {
+      for (int v = 0; v < 20; v++)
+        updates.add(new String[] {"vehicle-" + v, Integer.toString(i)});
+    }
+
+    final Map<String, List<Integer>> sequencesByVehicle = new ConcurrentHashMap<String, List<Integer>>();
+    final Set<String> threadNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    _executor.execute(updates, new PartitionedHandler<String[]>() {
+
+      @Override
+      public Object getPartitionKey(String[] update) {
+        return update[0];
+      }
+
+      @Override
+      public void handle(String[] update) {
+        List<Integer> sequences = sequencesByVehicle.get(update[0]);
+        if (sequences == null) {
+          sequencesByVehicle.putIfAbsent(update[0],
+              new CopyOnWriteArrayList<Integer>());
+          sequences = sequencesByVehicle.get(update[0]);
+        }
+        sequences.add(Integer.parseInt(update[1]));
+        threadNames.add(Thread.currentThread().getName());
+      }
+    });
+
+    assertEquals(20, sequencesByVehicle.size());
+    for (List<Integer> sequences : sequencesByVehicle.values()) {
+      assertEquals(100, sequences.size());
+      for (int i = 0; i < 100; i++)
+        assertEquals(i, sequences.get(i).intValue());
+    }
+    assertTrue(threadNames.size() > 1);
+  }
+
+  @Test
+  public void testFailure() {
+
+    List<Integer> updates = new ArrayList<Integer>();
+    for (int i = 0; i < 10; i++)
+      updates.add(i);
+
+    try {
+      _executor.execute(updates, new PartitionedHandler<Integer>() {
+
+        @Override
+        public Object getPartitionKey(Integer update) {
+          return update;
+        }
+
+        @Override
+        public void handle(Integer update) {
+          if (update == 7)
+            throw new IllegalArgumentException("bad update");
+        }
+      });
+      fail();
+    } catch (IllegalArgumentException ex) {
+      assertEquals("bad update", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testSingleThread() {
+
+    VehiclePartitionedExecutor executor = new VehiclePartitionedExecutor(
+        "test");
+    executor.setThreads(1);
+    executor.start();
+
+    final List<String> threadNames = new ArrayList<String>();
+    List<Integer> updates = new ArrayList<Integer>();
+    for (int i = 0; i < 10; i++)
+      updates.add(i);
+
+    executor.execute(updates, new PartitionedHandler<Integer>() {
+
+      @Override
+      public Object getPartitionKey(Integer update) {
+        return update;
+      }
+
+      @Override
+      public void handle(Integer update) {
+        threadNames.add(Thread.currentThread().getName());
+      }
+    });
+
+    executor.stop();
+
+    assertEquals(10, threadNames.size());
+    for (String threadName : threadNames)
+      assertEquals(Thread.currentThread().getName(), threadName);
+  }
+}
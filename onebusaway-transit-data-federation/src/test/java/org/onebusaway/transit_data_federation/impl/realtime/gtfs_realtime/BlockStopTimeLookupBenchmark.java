@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2011 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
+
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.time;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.onebusaway.collections.MappingLibrary;
+import org.onebusaway.collections.Min;
+import org.onebusaway.transit_data_federation.impl.transit_graph.StopEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+
+/**
+ * Compares matching stop time updates with {@link BlockStopTimeLookup} against
+ * the linear scans it replaced, for an interlined block of 100-stop trips. Each
+ * trip is matched with a full set of stop time updates, half by stop sequence
+ * and half by stop id.
+ */
+public class BlockStopTimeLookupBenchmark {
+
+  private static final int STOPS_PER_TRIP = 100;
+
+  private static final int TRIPS_PER_BLOCK = 10;
+
+  private static final int ITERATIONS = 5;
+
+  private static final int REPETITIONS = 200;
+
+  public static void main(String[] args) {
+
+    BlockConfigurationEntry blockConfig = createBlock();
+    List<int[]> updates = createUpdates(blockConfig);
+    System.out.println("stopTimes=" + blockConfig.getStopTimes().size()
+        + " updates=" + updates.size());
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      runLinear(blockConfig, updates);
+      runLookup(blockConfig, updates);
+    }
+  }
+
+  private static void runLinear(BlockConfigurationEntry blockConfig,
+      List<int[]> updates) {
+
+    long tIn = System.nanoTime();
+    long matches = 0;
+
+    for (int r = 0; r < REPETITIONS; r++) {
+      for (int[] update : updates) {
+        List<BlockStopTimeEntry> stopTimes = blockConfig.getTrips().get(
+            update[0]).getStopTimes();
+        BlockStopTimeEntry match = null;
+        if (update[1] >= 0) {
+          Map<Integer, BlockStopTimeEntry> sequenceToStopTime = MappingLibrary.mapToValue(
+              stopTimes, "stopTime.gtfsSequence");
+          match = sequenceToStopTime.get(update[1]);
+        } else {
+          String stopId = "stop-" + update[2];
+          Min<BlockStopTimeEntry> bestMatches = new Min<BlockStopTimeEntry>();
+          for (BlockStopTimeEntry blockStopTime : stopTimes) {
+            StopTimeEntry stopTime = blockStopTime.getStopTime();
+            if (stopTime.getStop().getId().getId().equals(stopId)) {
+              bestMatches.add(Math.abs(stopTime.getDepartureTime() - update[3]),
+                  blockStopTime);
+              bestMatches.add(Math.abs(stopTime.getArrivalTime() - update[3]),
+                  blockStopTime);
+            }
+          }
+          if (!bestMatches.isEmpty())
+            match = bestMatches.getMinElement();
+        }
+        if (match != null)
+          matches++;
+      }
+    }
+
+    long tOut = System.nanoTime();
+    System.out.println("linear time=" + ((tOut - tIn) / 1000000) + "ms matches="
+        + matches);
+  }
+
+  private static void runLookup(BlockConfigurationEntry blockConfig,
+      List<int[]> updates) {
+
+    long tIn = System.nanoTime();
+    long matches = 0;
+
+    for (int r = 0; r < REPETITIONS; r++) {
+      // Include building the lookup, which is otherwise cached per block
+      BlockStopTimeLookup lookup = new BlockStopTimeLookup(blockConfig);
+      for (int[] update : updates) {
+        BlockStopTimeEntry match = null;
+        if (update[1] >= 0)
+          match = lookup.getStopTimeForSequence(update[0], update[1]);
+        else
+          match = lookup.getStopTimeForStopId(update[0], "stop-" + update[2],
+              update[3]);
+        if (match != null)
+          matches++;
+      }
+    }
+
+    long tOut = System.nanoTime();
+    System.out.println("lookup time=" + ((tOut - tIn) / 1000000) + "ms matches="
+        + matches);
+  }
+
+  /**
+   * Trips alternate direction along the same 100 stops, so every stop is
+   * visited by every trip of the block
+   */
+  private static BlockConfigurationEntry createBlock() {
+
+    StopEntryImpl[] stops = new StopEntryImpl[STOPS_PER_TRIP];
+    for (int s = 0; s < STOPS_PER_TRIP; s++)
+      stops[s] = stop("stop-" + s, 47.6 + s * 0.001, -122.3);
+
+    TripEntryImpl[] trips = new TripEntryImpl[TRIPS_PER_BLOCK];
+    int t = time(6, 00);
+    int id = 0;
+
+    for (int i = 0; i < TRIPS_PER_BLOCK; i++) {
+      trips[i] = trip("trip-" + i);
+      for (int s = 0; s < STOPS_PER_TRIP; s++) {
+        StopEntryImpl stop = stops[i % 2 == 0 ? s : STOPS_PER_TRIP - 1 - s];
+        stopTime(id++, stop, trips[i], t, s * 200.0).setGtfsSequence(s + 1);
+        t += 60;
+      }
+      t += 10 * 60;
+    }
+
+    return linkBlockTrips(block("block"), trips);
+  }
+
+  /**
+   * Each update is {tripIndex, gtfsSequence or -1, stop index, time}
+   */
+  private static List<int[]> createUpdates(BlockConfigurationEntry blockConfig) {
+
+    Random random = new Random(42);
+    List<int[]> updates = new ArrayList<int[]>();
+
+    for (int i = 0; i < TRIPS_PER_BLOCK; i++) {
+      List<BlockStopTimeEntry> stopTimes = blockConfig.getTrips().get(i).getStopTimes();
+      for (int s = 0; s < STOPS_PER_TRIP; s++) {
+        StopTimeEntry stopTime = stopTimes.get(s).getStopTime();
+        int stopIndex = Integer.parseInt(stopTime.getStop().getId().getId().substring(
+            "stop-".length()));
+        int time = stopTime.getArrivalTime() + random.nextInt(600) - 120;
+        boolean bySequence = random.nextBoolean();
+        updates.add(new int[] {
+            i, bySequence ? stopTime.getGtfsSequence() : -1, stopIndex, time});
+      }
+    }
+
+    return updates;
+  }
+}
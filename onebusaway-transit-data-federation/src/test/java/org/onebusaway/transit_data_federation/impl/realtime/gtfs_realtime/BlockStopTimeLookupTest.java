@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2011 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.time;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.transit_data_federation.impl.transit_graph.StopEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockStopTimeEntry;
+
+public class BlockStopTimeLookupTest {
+
+  @Test
+  public void test() {
+
+    StopEntryImpl stopA = stop("stopA", 0, 0);
+    StopEntryImpl stopB = stop("stopB", 0, 0);
+    StopEntryImpl stopC = stop("stopC", 0, 0);
+
+    /**
+     * tripA is a loop visiting stopA three times, tripB visits stopA once more
+     */
+    TripEntryImpl tripA = trip("tripA");
+    stopTime(0, stopA, tripA, time(8, 00), 0.0).setGtfsSequence(1);
+    stopTime(1, stopB, tripA, time(8, 10), 0.0).setGtfsSequence(2);
+    stopTime(2, stopA, tripA, time(8, 20), 0.0).setGtfsSequence(3);
+    stopTime(3, stopC, tripA, time(8, 30), 0.0).setGtfsSequence(5);
+    stopTime(4, stopA, tripA, time(8, 40), 0.0).setGtfsSequence(8);
+
+    TripEntryImpl tripB = trip("tripB");
+    stopTime(5, stopA, tripB, time(9, 00), 0.0).setGtfsSequence(1);
+    stopTime(6, stopB, tripB, time(9, 10), 0.0).setGtfsSequence(2);
+
+    BlockConfigurationEntry blockConfig = linkBlockTrips(block("blockA"),
+        tripA, tripB);
+    List<BlockStopTimeEntry> stopTimesA = blockConfig.getTrips().get(0).getStopTimes();
+    List<BlockStopTimeEntry> stopTimesB = blockConfig.getTrips().get(1).getStopTimes();
+
+    BlockStopTimeLookup lookup = new BlockStopTimeLookup(blockConfig);
+
+    assertSame(stopTimesA.get(0), lookup.getStopTimeForSequence(0, 1));
+    assertSame(stopTimesA.get(3), lookup.getStopTimeForSequence(0, 5));
+    assertSame(stopTimesA.get(4), lookup.getStopTimeForSequence(0, 8));
+    assertNull(lookup.getStopTimeForSequence(0, 4));
+    assertSame(stopTimesB.get(0), lookup.getStopTimeForSequence(1, 1));
+    assertNull(lookup.getStopTimeForSequence(1, 5));
+
+    assertSame(stopTimesA.get(0),
+        lookup.getStopTimeForStopId(0, "stopA", time(7, 00)));
+    assertSame(stopTimesA.get(0),
+        lookup.getStopTimeForStopId(0, "stopA", time(8, 9)));
+    assertSame(stopTimesA.get(2),
+        lookup.getStopTimeForStopId(0, "stopA", time(8, 11)));
+    // On a tie, the earlier visit wins
+    assertSame(stopTimesA.get(2),
+        lookup.getStopTimeForStopId(0, "stopA", time(8, 30)));
+    assertSame(stopTimesA.get(4),
+        lookup.getStopTimeForStopId(0, "stopA", time(8, 36)));
+    // Visits by other trips of the block are not considered
+    assertSame(stopTimesA.get(4),
+        lookup.getStopTimeForStopId(0, "stopA", time(9, 00)));
+    assertSame(stopTimesB.get(0),
+        lookup.getStopTimeForStopId(1, "stopA", time(8, 00)));
+
+    assertSame(stopTimesA.get(3),
+        lookup.getStopTimeForStopId(0, "stopC", time(8, 00)));
+    assertNull(lookup.getStopTimeForStopId(1, "stopC", time(8, 00)));
+    assertNull(lookup.getStopTimeForStopId(0, "stopD", time(8, 00)));
+  }
+}
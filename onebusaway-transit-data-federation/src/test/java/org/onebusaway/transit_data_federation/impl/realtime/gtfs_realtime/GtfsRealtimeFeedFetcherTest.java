@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2011 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ExtensionRegistry;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtimeConstants;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class GtfsRealtimeFeedFetcherTest {
+
+  private HttpServer _server;
+
+  private FeedHandler _handler;
+
+  private GtfsRealtimeFeedFetcher _fetcher;
+
+  @Before
+  public void before() throws IOException {
+    _handler = new FeedHandler();
+    _server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    _server.createContext("/feed", _handler);
+    _server.start();
+    URL url = new URL("http://localhost:" + _server.getAddress().getPort()
+        + "/feed");
+    _fetcher = new GtfsRealtimeFeedFetcher("tripUpdates", url,
+        ExtensionRegistry.newInstance());
+  }
+
+  @After
+  public void after() {
+    _server.stop(0);
+  }
+
+  @Test
+  public void testNotModified() throws IOException {
+
+    _handler.setFeed(feed(100, Incrementality.FULL_DATASET, "a", "b"), "\"v1\"");
+
+    _fetcher.fetch();
+    assertTrue(_fetcher.isUpdated());
+    assertEquals(2, _fetcher.getFeed().getEntityCount());
+    _fetcher.markApplied();
+
+    _fetcher.fetch();
+    assertFalse(_fetcher.isUpdated());
+    assertEquals("\"v1\"", _handler.getLastIfNoneMatch());
+    assertEquals(1, _handler.getNotModifiedCount());
+
+    _handler.setFeed(feed(101, Incrementality.FULL_DATASET, "a"), "\"v2\"");
+
+    _fetcher.fetch();
+    assertTrue(_fetcher.isUpdated());
+    assertEquals(1, _fetcher.getFeed().getEntityCount());
+  }
+
+  @Test
+  public void testSameHeaderTimestamp() throws IOException {
+
+    _handler.setFeed(feed(100, Incrementality.FULL_DATASET, "a"), null);
+    _fetcher.fetch();
+    assertTrue(_fetcher.isUpdated());
+    _fetcher.markApplied();
+
+    _handler.setFeed(feed(100, Incrementality.FULL_DATASET, "a", "b"), null);
+    _fetcher.fetch();
+    assertFalse(_fetcher.isUpdated());
+    assertEquals(1, _fetcher.getFeed().getEntityCount());
+
+    _handler.setFeed(feed(101, Incrementality.FULL_DATASET, "a", "b"), null);
+    _fetcher.fetch();
+    assertTrue(_fetcher.isUpdated());
+    assertEquals(2, _fetcher.getFeed().getEntityCount());
+  }
+
+  @Test
+  public void testDifferential() throws IOException {
+
+    _handler.setFeed(feed(100, Incrementality.FULL_DATASET, "a", "b"), null);
+    _fetcher.fetch();
+    _fetcher.markApplied();
+
+    FeedMessage.Builder diff = feed(101, Incrementality.DIFFERENTIAL, "c").toBuilder();
+    diff.addEntity(FeedEntity.newBuilder().setId("a").setIsDeleted(true));
+    _handler.setFeed(diff.build(), null);
+
+    _fetcher.fetch();
+    assertTrue(_fetcher.isUpdated());
+
+    FeedMessage merged = _fetcher.getFeed();
+    assertEquals(Incrementality.FULL_DATASET,
+        merged.getHeader().getIncrementality());
+    assertEquals(101, merged.getHeader().getTimestamp());
+    assertEquals(Arrays.asList("b", "c"), getEntityIds(merged));
+    assertEquals(Arrays.asList("a"), _fetcher.getDeletedEntityIds());
+
+    _fetcher.markApplied();
+    assertEquals(Collections.emptyList(), _fetcher.getDeletedEntityIds());
+  }
+
+  @Test
+  public void testUnappliedChangesAccumulate() throws IOException {
+
+    _handler.setFeed(feed(100, Incrementality.FULL_DATASET, "a", "b"), "\"v1\"");
+    _fetcher.fetch();
+
+    /**
+     * Not marked as applied, so the unmodified response still reports an update
+     */
+    _fetcher.fetch();
+    assertTrue(_fetcher.isUpdated());
+  }
+
+  @Test
+  public void testNullUrl() throws IOException {
+
+    GtfsRealtimeFeedFetcher fetcher = new GtfsRealtimeFeedFetcher("alerts",
+        null, ExtensionRegistry.newInstance());
+
+    fetcher.fetch();
+    assertTrue(fetcher.isUpdated());
+    assertEquals(0, fetcher.getFeed().getEntityCount());
+    fetcher.markApplied();
+
+    fetcher.fetch();
+    assertFalse(fetcher.isUpdated());
+  }
+
+  private static FeedMessage feed(long timestamp, Incrementality incrementality,
+      String... entityIds) {
+    FeedMessage.Builder feed = FeedMessage.newBuilder();
+    FeedHeader.Builder header = FeedHeader.newBuilder();
+    header.setGtfsRealtimeVersion(GtfsRealtimeConstants.VERSION);
+    header.setTimestamp(timestamp);
+    header.setIncrementality(incrementality);
+    feed.setHeader(header);
+    for (String entityId : entityIds) {
+      FeedEntity.Builder entity = FeedEntity.newBuilder();
+      entity.setId(entityId);
+      TripUpdate.Builder tripUpdate = TripUpdate.newBuilder();
+      tripUpdate.setTrip(TripDescriptor.newBuilder().setTripId(entityId));
+      entity.setTripUpdate(tripUpdate);
+      feed.addEntity(entity);
+    }
+    return feed.build();
+  }
+
+  private static List<String> getEntityIds(FeedMessage feed) {
+    List<String> ids = new ArrayList<String>();
+    for (FeedEntity entity : feed.getEntityList())
+      ids.add(entity.getId());
+    return ids;
+  }
+
+  private static class FeedHandler implements HttpHandler {
+
+    private byte[] _content;
+
+    private String _etag;
+
+    private String _lastIfNoneMatch;
+
+    private int _notModifiedCount = 0;
+
+    public synchronized void setFeed(FeedMessage feed, String etag) {
+      _content = feed.toByteArray();
+      _etag = etag;
+    }
+
+    public synchronized String getLastIfNoneMatch() {
+      return _lastIfNoneMatch;
+    }
+
+    public synchronized int getNotModifiedCount() {
+      return _notModifiedCount;
+    }
+
+    @Override
+    public synchronized void handle(HttpExchange exchange) throws IOException {
+      _lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+      if (_etag != null && _etag.equals(_lastIfNoneMatch)) {
+        _notModifiedCount++;
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+      if (_etag != null)
+        exchange.getResponseHeaders().set("ETag", _etag);
+      exchange.sendResponseHeaders(200, _content.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(_content);
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,386 @@
+/**
+ * Copyright (C) 2011 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.gtfs_realtime;
+
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.block;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.linkBlockTrips;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.realtime.api.VehicleLocationListener;
+import org.onebusaway.realtime.api.VehicleLocationRecord;
+import org.onebusaway.transit_data_federation.impl.realtime.VehiclePartitionedExecutor;
+import org.onebusaway.transit_data_federation.impl.realtime.VehiclePartitionedExecutor.PartitionedHandler;
+import org.onebusaway.transit_data_federation.impl.transit_graph.BlockEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.StopTimeEntryImpl;
+import org.onebusaway.transit_data_federation.impl.transit_graph.TripEntryImpl;
+import org.onebusaway.transit_data_federation.services.blocks.BlockCalendarService;
+import org.onebusaway.transit_data_federation.services.blocks.BlockInstance;
+import org.onebusaway.transit_data_federation.services.blocks.BlockLayoverIndex;
+import org.onebusaway.transit_data_federation.services.blocks.BlockTripIndex;
+import org.onebusaway.transit_data_federation.services.blocks.FrequencyBlockTripIndex;
+import org.onebusaway.transit_data_federation.services.transit_graph.BlockConfigurationEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
+
+import com.google.protobuf.ExtensionRegistry;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import com.google.transit.realtime.GtfsRealtimeConstants;
+import com.google.transit.realtime.GtfsRealtimeOneBusAway;
+
+/**
+ * Measures how GTFS-realtime ingestion, from grouping trip updates through
+ * block matching to the {@link VehicleLocationListener}, scales with the
+ * number of {@link VehiclePartitionedExecutor} threads.
+ *
+ * With no arguments, a synthetic feed of 5,000 vehicles on 40-stop trips is
+ * generated. Alternatively, a recorded trip updates feed, and optionally a
+ * vehicle positions feed, can be replayed from files holding a serialized
+ * FeedMessage. A schedule is synthesized for the trips and stops referenced by
+ * the recorded feed.
+ */
+public class GtfsRealtimeIngestionBenchmark {
+
+  private static final int ITERATIONS = 5;
+
+  private static final int STOPS_PER_TRIP = 40;
+
+  private final long _serviceDate = getServiceDate();
+
+  private final Map<String, TripEntry> _tripsById = new HashMap<String, TripEntry>();
+
+  private final Map<AgencyAndId, List<BlockInstance>> _instancesByBlockId = new HashMap<AgencyAndId, List<BlockInstance>>();
+
+  public static void main(String[] args) throws IOException {
+
+    GtfsRealtimeIngestionBenchmark benchmark = new GtfsRealtimeIngestionBenchmark();
+
+    FeedMessage tripUpdates = null;
+    FeedMessage vehiclePositions = null;
+
+    if (args.length > 0) {
+      tripUpdates = readFeed(args[0]);
+      vehiclePositions = args.length > 1 ? readFeed(args[1])
+          : createFeed().build();
+      benchmark.synthesizeSchedule(tripUpdates);
+    } else {
+      FeedMessage.Builder tripUpdatesBuilder = createFeed();
+      FeedMessage.Builder vehiclePositionsBuilder = createFeed();
+      benchmark.generateFeeds(5000, tripUpdatesBuilder, vehiclePositionsBuilder);
+      tripUpdates = tripUpdatesBuilder.build();
+      vehiclePositions = vehiclePositionsBuilder.build();
+    }
+
+    System.out.println("tripUpdates=" + tripUpdates.getEntityCount()
+        + " vehiclePositions=" + vehiclePositions.getEntityCount());
+
+    int processors = Runtime.getRuntime().availableProcessors();
+    List<Integer> threadCounts = new ArrayList<Integer>();
+    for (int threads = 1; threads < processors; threads *= 2)
+      threadCounts.add(threads);
+    threadCounts.add(processors);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      for (int threads : threadCounts)
+        benchmark.run(threads, tripUpdates, vehiclePositions);
+    }
+  }
+
+  private void run(int threads, FeedMessage tripUpdates,
+      FeedMessage vehiclePositions) {
+
+    GtfsRealtimeTripLibrary library = new GtfsRealtimeTripLibrary();
+    library.setEntitySource(new BenchmarkEntitySource());
+    library.setBlockCalendarService(new BenchmarkBlockCalendarService());
+    // Every poll is new content here, so don't measure record reuse
+    library.setMaxUnchangedRecordAge(0);
+
+    final CountingListener listener = new CountingListener();
+
+    VehiclePartitionedExecutor executor = new VehiclePartitionedExecutor(
+        "benchmark");
+    executor.setThreads(threads);
+    executor.start();
+
+    final GtfsRealtimeTripLibrary tripLibrary = library;
+    final MonitoredResult result = new MonitoredResult();
+
+    long tIn = System.nanoTime();
+
+    List<CombinedTripUpdatesAndVehiclePosition> updates = library.groupTripUpdatesAndVehiclePositions(
+        result, tripUpdates, vehiclePositions);
+
+    executor.execute(updates,
+        new PartitionedHandler<CombinedTripUpdatesAndVehiclePosition>() {
+
+          @Override
+          public Object getPartitionKey(
+              CombinedTripUpdatesAndVehiclePosition update) {
+            if (update.block.getVehicleId() != null)
+              return update.block.getVehicleId();
+            return update.block.getBlockEntry().getId();
+          }
+
+          @Override
+          public void handle(CombinedTripUpdatesAndVehiclePosition update) {
+            VehicleLocationRecord record = tripLibrary.createVehicleLocationRecordForUpdate(
+                result, update);
+            if (record != null)
+              listener.handleVehicleLocationRecord(record);
+          }
+        });
+
+    long tOut = System.nanoTime();
+    executor.stop();
+
+    long ms = Math.max(1, (tOut - tIn) / 1000000);
+    System.out.println("threads=" + threads + " time=" + ms + "ms records="
+        + listener.getCount() + " recordsPerSecond="
+        + (listener.getCount() * 1000 / ms));
+  }
+
+  private void generateFeeds(int vehicleCount, FeedMessage.Builder tripUpdates,
+      FeedMessage.Builder vehiclePositions) {
+
+    Random random = new Random(42);
+    long now = System.currentTimeMillis() / 1000;
+
+    for (int i = 0; i < vehicleCount; i++) {
+
+      String tripId = "trip-" + i;
+      String vehicleId = "vehicle-" + i;
+      List<String> stopIds = new ArrayList<String>();
+      for (int j = 0; j < STOPS_PER_TRIP; j++)
+        stopIds.add("stop-" + (i % 500) + "-" + j);
+      addTrip(tripId, stopIds);
+
+      TripUpdate.Builder tripUpdate = TripUpdate.newBuilder();
+      tripUpdate.setTrip(TripDescriptor.newBuilder().setTripId(tripId));
+      tripUpdate.setVehicle(VehicleDescriptor.newBuilder().setId(vehicleId));
+      tripUpdate.setTimestamp(now);
+      int delay = random.nextInt(600) - 120;
+      for (int j = random.nextInt(STOPS_PER_TRIP / 2); j < STOPS_PER_TRIP; j++) {
+        StopTimeUpdate.Builder stopTimeUpdate = StopTimeUpdate.newBuilder();
+        stopTimeUpdate.setStopSequence(j);
+        stopTimeUpdate.setStopId(stopIds.get(j));
+        stopTimeUpdate.setArrival(StopTimeEvent.newBuilder().setDelay(delay));
+        tripUpdate.addStopTimeUpdate(stopTimeUpdate);
+      }
+      tripUpdates.addEntity(FeedEntity.newBuilder().setId(tripId).setTripUpdate(
+          tripUpdate));
+
+      VehiclePosition.Builder vehiclePosition = VehiclePosition.newBuilder();
+      vehiclePosition.setTrip(TripDescriptor.newBuilder().setTripId(tripId));
+      vehiclePosition.setVehicle(VehicleDescriptor.newBuilder().setId(
+          vehicleId));
+      vehiclePosition.setPosition(Position.newBuilder().setLatitude(
+          47.6f + random.nextFloat() / 10).setLongitude(
+          -122.3f + random.nextFloat() / 10));
+      vehiclePosition.setTimestamp(now);
+      vehiclePositions.addEntity(FeedEntity.newBuilder().setId(vehicleId).setVehicle(
+          vehiclePosition));
+    }
+  }
+
+  /**
+   * Build a single-trip block for every trip in the recorded feed, with a stop
+   * time for each stop it references
+   */
+  private void synthesizeSchedule(FeedMessage tripUpdates) {
+
+    Map<String, List<String>> stopIdsByTripId = new LinkedHashMap<String, List<String>>();
+
+    for (FeedEntity entity : tripUpdates.getEntityList()) {
+      if (!entity.hasTripUpdate())
+        continue;
+      TripUpdate tripUpdate = entity.getTripUpdate();
+      String tripId = tripUpdate.getTrip().getTripId();
+      List<String> stopIds = stopIdsByTripId.get(tripId);
+      if (stopIds == null) {
+        stopIds = new ArrayList<String>();
+        stopIdsByTripId.put(tripId, stopIds);
+      }
+      for (StopTimeUpdate stopTimeUpdate : tripUpdate.getStopTimeUpdateList()) {
+        String stopId = stopTimeUpdate.hasStopId()
+            ? stopTimeUpdate.getStopId() : "stop-"
+                + stopTimeUpdate.getStopSequence();
+        if (!stopIds.contains(stopId))
+          stopIds.add(stopId);
+      }
+    }
+
+    for (Map.Entry<String, List<String>> entry : stopIdsByTripId.entrySet())
+      addTrip(entry.getKey(), entry.getValue());
+  }
+
+  private void addTrip(String tripId, List<String> stopIds) {
+
+    TripEntryImpl trip = trip(tripId, "serviceId");
+
+    /**
+     * Start the trip half an hour ago, with two minutes between stops
+     */
+    int startTime = (int) ((System.currentTimeMillis() - _serviceDate) / 1000) - 30 * 60;
+    for (int j = 0; j < stopIds.size(); j++) {
+      StopTimeEntryImpl stopTime = stopTime(j, stop(stopIds.get(j), 0, 0),
+          trip, startTime + j * 120, j * 500.0);
+      stopTime.setGtfsSequence(j);
+    }
+
+    BlockEntryImpl block = block("block-" + tripId);
+    BlockConfigurationEntry blockConfig = linkBlockTrips(block, trip);
+
+    _tripsById.put(tripId, trip);
+    _instancesByBlockId.put(block.getId(),
+        Arrays.asList(new BlockInstance(blockConfig, _serviceDate)));
+  }
+
+  private static FeedMessage readFeed(String path) throws IOException {
+    ExtensionRegistry registry = ExtensionRegistry.newInstance();
+    registry.add(GtfsRealtimeOneBusAway.obaFeedEntity);
+    registry.add(GtfsRealtimeOneBusAway.obaTripUpdate);
+    InputStream in = new BufferedInputStream(new FileInputStream(path));
+    try {
+      return FeedMessage.parseFrom(in, registry);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static FeedMessage.Builder createFeed() {
+    FeedMessage.Builder builder = FeedMessage.newBuilder();
+    FeedHeader.Builder header = FeedHeader.newBuilder();
+    header.setGtfsRealtimeVersion(GtfsRealtimeConstants.VERSION);
+    builder.setHeader(header);
+    return builder;
+  }
+
+  private static long getServiceDate() {
+    Calendar c = Calendar.getInstance();
+    c.set(Calendar.HOUR_OF_DAY, 0);
+    c.set(Calendar.MINUTE, 0);
+    c.set(Calendar.SECOND, 0);
+    c.set(Calendar.MILLISECOND, 0);
+    return c.getTimeInMillis();
+  }
+
+  private class BenchmarkEntitySource extends GtfsRealtimeEntitySource {
+    @Override
+    public TripEntry getTrip(String tripId) {
+      return _tripsById.get(tripId);
+    }
+  }
+
+  private class BenchmarkBlockCalendarService implements BlockCalendarService {
+
+    @Override
+    public BlockInstance getBlockInstance(AgencyAndId blockId, long serviceDate) {
+      List<BlockInstance> instances = _instancesByBlockId.get(blockId);
+      return instances == null ? null : instances.get(0);
+    }
+
+    @Override
+    public List<BlockInstance> getActiveBlocks(AgencyAndId blockId,
+        long timeFrom, long timeTo) {
+      List<BlockInstance> instances = _instancesByBlockId.get(blockId);
+      if (instances == null)
+        return Collections.emptyList();
+      return instances;
+    }
+
+    @Override
+    public List<BlockInstance> getClosestActiveBlocks(AgencyAndId blockId,
+        long time) {
+      return getActiveBlocks(blockId, time, time);
+    }
+
+    @Override
+    public List<BlockInstance> getActiveBlocksInTimeRange(long timeFrom,
+        long timeTo) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<BlockInstance> getActiveBlocksForAgencyInTimeRange(
+        String agencyId, long timeFrom, long timeTo) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<BlockInstance> getActiveBlocksForRouteInTimeRange(
+        AgencyAndId routeId, long timeFrom, long timeTo) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<BlockInstance> getActiveBlocksInTimeRange(
+        Iterable<BlockTripIndex> indices,
+        Iterable<BlockLayoverIndex> layoverIndices,
+        Iterable<FrequencyBlockTripIndex> frequencyIndices, long timeFrom,
+        long timeTo) {
+      return Collections.emptyList();
+    }
+  }
+
+  private static class CountingListener implements VehicleLocationListener {
+
+    private final AtomicLong _count = new AtomicLong();
+
+    public long getCount() {
+      return _count.get();
+    }
+
+    @Override
+    public void handleVehicleLocationRecord(VehicleLocationRecord record) {
+      _count.incrementAndGet();
+    }
+
+    @Override
+    public void handleVehicleLocationRecords(List<VehicleLocationRecord> records) {
+      _count.addAndGet(records.size());
+    }
+
+    @Override
+    public void resetVehicleLocation(AgencyAndId vehicleId) {
+
+    }
+  }
+}
@@ -187,6 +187,116 @@ public class GtfsRealtimeTripLibraryTest {
     assertEquals(120, record.getScheduleDeviation(), 0.0);
   }
 
+  @Test
+  public void testCreateVehicleLocationRecordForUpdate_Unchanged() {
+
+    TripEntryImpl tripA = trip("tripA");
+    stopTime(0, stop("stopA", 0, 0), tripA, time(7, 30), 0.0);
+    BlockEntryImpl blockA = block("blockA");
+    BlockConfigurationEntry blockConfigA = blockConfiguration(blockA,
+        serviceIds("s1"), tripA);
+    BlockInstance blockInstanceA = new BlockInstance(blockConfigA, 0L);
+    Mockito.when(
+        _blockCalendarService.getActiveBlocks(Mockito.eq(blockA.getId()),
+            Mockito.anyLong(), Mockito.anyLong())).thenReturn(
+        Arrays.asList(blockInstanceA));
+
+    VehicleLocationRecord record = _library.createVehicleLocationRecordForUpdate(createUpdate(
+        blockA, 120, 1000));
+    assertEquals(1000000L, record.getTimeOfRecord());
+    assertEquals(120, record.getScheduleDeviation(), 0.0);
+
+    /**
+     * Only the timestamp has changed, so the block isn't matched again
+     */
+    record = _library.createVehicleLocationRecordForUpdate(createUpdate(
+        blockA, 120, 1030));
+    assertEquals(1030000L, record.getTimeOfRecord());
+    assertEquals(120, record.getScheduleDeviation(), 0.0);
+    Mockito.verify(_blockCalendarService, Mockito.times(1)).getActiveBlocks(
+        Mockito.eq(blockA.getId()), Mockito.anyLong(), Mockito.anyLong());
+
+    record = _library.createVehicleLocationRecordForUpdate(createUpdate(
+        blockA, 180, 1060));
+    assertEquals(180, record.getScheduleDeviation(), 0.0);
+    Mockito.verify(_blockCalendarService, Mockito.times(2)).getActiveBlocks(
+        Mockito.eq(blockA.getId()), Mockito.anyLong(), Mockito.anyLong());
+
+    /**
+     * Records are rebuilt once they get too old, even if unchanged
+     */
+    _library.setMaxUnchangedRecordAge(60 * 1000);
+    _library.setCurrentTime(_library.getCurrentTime() + 61 * 1000);
+    _library.createVehicleLocationRecordForUpdate(createUpdate(blockA, 180,
+        1090));
+    Mockito.verify(_blockCalendarService, Mockito.times(3)).getActiveBlocks(
+        Mockito.eq(blockA.getId()), Mockito.anyLong(), Mockito.anyLong());
+  }
+
+  @Test
+  public void testCreateVehicleLocationRecordForUpdate_UnchangedTimestamp() {
+
+    TripEntryImpl tripA = trip("tripA");
+    TripEntryImpl tripB = trip("tripB");
+    stopTime(0, stop("stopA", 0, 0), tripA, time(7, 30), 0.0);
+    stopTime(1, stop("stopB", 0, 0), tripB, time(8, 30), 0.0);
+    BlockEntryImpl blockA = block("blockA");
+    BlockConfigurationEntry blockConfigA = blockConfiguration(blockA,
+        serviceIds("s1"), tripA, tripB);
+    BlockInstance blockInstanceA = new BlockInstance(blockConfigA, 0L);
+    Mockito.when(
+        _blockCalendarService.getActiveBlocks(Mockito.eq(blockA.getId()),
+            Mockito.anyLong(), Mockito.anyLong())).thenReturn(
+        Arrays.asList(blockInstanceA));
+
+    /**
+     * tripB is applied last, so its timestamp is the time of record, even
+     * though tripA's is later
+     */
+    VehicleLocationRecord record = _library.createVehicleLocationRecordForUpdate(createUpdateForTwoTrips(
+        blockA, 2000, 1000));
+    assertEquals(1000000L, record.getTimeOfRecord());
+
+    record = _library.createVehicleLocationRecordForUpdate(createUpdateForTwoTrips(
+        blockA, 2030, 1030));
+    assertEquals(1030000L, record.getTimeOfRecord());
+    Mockito.verify(_blockCalendarService, Mockito.times(1)).getActiveBlocks(
+        Mockito.eq(blockA.getId()), Mockito.anyLong(), Mockito.anyLong());
+  }
+
+  private CombinedTripUpdatesAndVehiclePosition createUpdateForTwoTrips(
+      BlockEntryImpl block, long timestampA, long timestampB) {
+    TripUpdate tripUpdateA = TripUpdate.newBuilder()
+        .setTrip(TripDescriptor.newBuilder().setTripId("tripA"))
+        .setDelay(120)
+        .setTimestamp(timestampA)
+        .build();
+    TripUpdate tripUpdateB = TripUpdate.newBuilder()
+        .setTrip(TripDescriptor.newBuilder().setTripId("tripB"))
+        .setDelay(120)
+        .setTimestamp(timestampB)
+        .build();
+    CombinedTripUpdatesAndVehiclePosition update = new CombinedTripUpdatesAndVehiclePosition();
+    update.block = new BlockDescriptor();
+    update.block.setBlockEntry(block);
+    update.tripUpdates = Arrays.asList(tripUpdateA, tripUpdateB);
+    return update;
+  }
+
+  private CombinedTripUpdatesAndVehiclePosition createUpdate(
+      BlockEntryImpl block, int delay, long timestamp) {
+    TripUpdate tripUpdate = TripUpdate.newBuilder()
+        .setTrip(TripDescriptor.newBuilder().setTripId("tripA"))
+        .setDelay(delay)
+        .setTimestamp(timestamp)
+        .build();
+    CombinedTripUpdatesAndVehiclePosition update = new CombinedTripUpdatesAndVehiclePosition();
+    update.block = new BlockDescriptor();
+    update.block.setBlockEntry(block);
+    update.tripUpdates = Arrays.asList(tripUpdate);
+    return update;
+  }
+
   private FeedMessage.Builder createFeed() {
     FeedMessage.Builder builder = FeedMessage.newBuilder();
     FeedHeader.Builder header = FeedHeader.newBuilder();
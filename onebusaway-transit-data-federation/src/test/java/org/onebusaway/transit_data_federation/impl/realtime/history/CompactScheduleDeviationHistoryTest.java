@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.history;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.services.realtime.ScheduleDeviationHistogram;
+
+public class CompactScheduleDeviationHistoryTest {
+
+  private CompactScheduleDeviationHistory _history = CompactScheduleDeviationHistory.create(new ScheduleDeviationHistory(
+      new AgencyAndId("1", "trip"), new double[] {0, 100, 200},
+      new double[][] { {0, 60, 120}, {0, 0, Double.NaN}, {0, -60, 240}}));
+
+  @Test
+  public void testExactScheduleTime() {
+    ScheduleDeviationHistogram histogram = _history.getHistogram(100, 60);
+    assertArrayEquals(new int[] {-60, 0, 60},
+        histogram.getScheduleDeviations());
+    assertArrayEquals(new int[] {1, 1, 1}, histogram.getCounts());
+  }
+
+  @Test
+  public void testInterpolatedScheduleTime() {
+    ScheduleDeviationHistogram histogram = _history.getHistogram(150, 60);
+    assertArrayEquals(new int[] {90}, histogram.getScheduleDeviations());
+    assertArrayEquals(new int[] {2}, histogram.getCounts());
+  }
+
+  @Test
+  public void testScheduleTimeOutOfRange() {
+
+    ScheduleDeviationHistogram histogram = _history.getHistogram(-10, 60);
+    assertArrayEquals(new int[] {0}, histogram.getScheduleDeviations());
+    assertArrayEquals(new int[] {3}, histogram.getCounts());
+
+    histogram = _history.getHistogram(500, 60);
+    assertArrayEquals(new int[] {120, 180, 240},
+        histogram.getScheduleDeviations());
+    assertArrayEquals(new int[] {1, 0, 1}, histogram.getCounts());
+  }
+
+  @Test
+  public void testNoValues() {
+
+    CompactScheduleDeviationHistory history = CompactScheduleDeviationHistory.create(new ScheduleDeviationHistory(
+        new AgencyAndId("1", "trip"), new double[] {0},
+        new double[][] { {Double.NaN}}));
+    assertEquals(1, history.getNumberOfSamples());
+
+    ScheduleDeviationHistogram histogram = history.getHistogram(0, 60);
+    assertEquals(0, histogram.getScheduleDeviations().length);
+    assertEquals(0, histogram.getCounts().length);
+  }
+}
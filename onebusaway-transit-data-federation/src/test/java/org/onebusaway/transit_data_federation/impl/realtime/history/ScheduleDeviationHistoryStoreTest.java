@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.realtime.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.services.realtime.ScheduleDeviationHistoryDao;
+import org.onebusaway.transit_data_federation.services.transit_graph.TransitGraphDao;
+import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
+
+public class ScheduleDeviationHistoryStoreTest {
+
+  private ScheduleDeviationHistoryDao _dao;
+
+  private TransitGraphDao _transitGraphDao;
+
+  private ScheduleDeviationHistoryStore _store;
+
+  @Before
+  public void setup() {
+    _dao = mock(ScheduleDeviationHistoryDao.class);
+    _transitGraphDao = mock(TransitGraphDao.class);
+    _store = new ScheduleDeviationHistoryStore();
+    _store.setScheduleDeviationHistoryDao(_dao);
+    _store.setTransitGraphDao(_transitGraphDao);
+    _store.setBatchSize(2);
+  }
+
+  @Test
+  public void testRefresh() {
+
+    ScheduleDeviationHistory a = history("a");
+    ScheduleDeviationHistory b = history("b");
+    ScheduleDeviationHistory c = history("c");
+
+    ScheduleDeviationHistory d = history("d");
+    addTrips(a, b, c);
+
+    when(_dao.getScheduleDeviationHistoriesAfterTripId(null, 2)).thenReturn(
+        Arrays.asList(a, b));
+    when(_dao.getScheduleDeviationHistoriesAfterTripId(b.getTripId(), 2)).thenReturn(
+        Arrays.asList(c, d));
+    when(_dao.getScheduleDeviationHistoriesAfterTripId(d.getTripId(), 2)).thenReturn(
+        new ArrayList<ScheduleDeviationHistory>());
+
+    assertFalse(_store.isLoaded());
+    _store.refresh();
+    assertTrue(_store.isLoaded());
+
+    // d is not a trip of the active bundle
+    assertEquals(3, _store.getTripCount());
+
+    when(_dao.getScheduleDeviationHistoriesAfterTripId(null, 2)).thenReturn(
+        Arrays.asList(a, c));
+    when(_dao.getScheduleDeviationHistoriesAfterTripId(c.getTripId(), 2)).thenReturn(
+        new ArrayList<ScheduleDeviationHistory>());
+
+    _store.refresh();
+    assertEquals(2, _store.getTripCount());
+
+    assertNotNull(_store.getHistoryForTripId(a.getTripId()));
+    assertNull(_store.getHistoryForTripId(b.getTripId()));
+  }
+
+  @Test
+  public void testIncrementalLookup() {
+
+    ScheduleDeviationHistory a = history("a");
+    AgencyAndId missingTripId = new AgencyAndId("1", "missing");
+
+    when(_dao.getScheduleDeviationHistoryForTripId(a.getTripId())).thenReturn(a);
+
+    assertNotNull(_store.getHistoryForTripId(a.getTripId()));
+    assertNotNull(_store.getHistoryForTripId(a.getTripId()));
+    assertEquals(1, _store.getTripCount());
+    verify(_dao, times(1)).getScheduleDeviationHistoryForTripId(a.getTripId());
+
+    assertNull(_store.getHistoryForTripId(missingTripId));
+    assertNull(_store.getHistoryForTripId(missingTripId));
+    assertEquals(1, _store.getTripWithoutHistoryCount());
+    verify(_dao, times(1)).getScheduleDeviationHistoryForTripId(missingTripId);
+  }
+
+  private void addTrips(ScheduleDeviationHistory... histories) {
+    for (ScheduleDeviationHistory history : histories)
+      when(_transitGraphDao.getTripEntryForId(history.getTripId())).thenReturn(
+          mock(TripEntry.class));
+  }
+
+  private ScheduleDeviationHistory history(String id) {
+    return new ScheduleDeviationHistory(new AgencyAndId("1", id),
+        new double[] {0, 100}, new double[][] {{0, 60}});
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.service_alerts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.ServiceAlert;
+import org.onebusaway.transit_data_federation.services.service_alerts.ServiceAlerts.TimeRange;
+
+public class ServiceAlertsIndexEntryTest {
+
+  private AgencyAndId _idA = new AgencyAndId("1", "A");
+
+  private AgencyAndId _idB = new AgencyAndId("1", "B");
+
+  private AgencyAndId _idC = new AgencyAndId("1", "C");
+
+  @Test
+  public void testGetServiceAlertsByTime() {
+
+    /**
+     * Published between 100 and 200, and again from 300 onwards
+     */
+    ServiceAlert alertA = alert(_idA, window(100L, 200L), window(300L, null));
+
+    /**
+     * Always published
+     */
+    ServiceAlert alertB = alert(_idB);
+
+    /**
+     * Published until 150, with overlapping windows
+     */
+    ServiceAlert alertC = alert(_idC, window(null, 150L), window(50L, 120L));
+
+    ServiceAlertsIndexEntry entry = ServiceAlertsIndexEntry.EMPTY.withServiceAlert(
+        _idA, alertA).withServiceAlert(_idB, alertB).withServiceAlert(_idC,
+        alertC);
+
+    assertEquals(Arrays.asList(alertB, alertC), getServiceAlerts(entry, 0));
+    assertEquals(Arrays.asList(alertA, alertB, alertC),
+        getServiceAlerts(entry, 100));
+    assertEquals(Arrays.asList(alertA, alertB, alertC),
+        getServiceAlerts(entry, 150));
+    assertEquals(Arrays.asList(alertA, alertB), getServiceAlerts(entry, 151));
+    assertEquals(Arrays.asList(alertA, alertB), getServiceAlerts(entry, 200));
+    assertEquals(Arrays.asList(alertB), getServiceAlerts(entry, 201));
+    assertEquals(Arrays.asList(alertB), getServiceAlerts(entry, 299));
+    assertEquals(Arrays.asList(alertA, alertB), getServiceAlerts(entry, 300));
+    assertEquals(Arrays.asList(alertA, alertB),
+        getServiceAlerts(entry, Long.MAX_VALUE));
+
+    assertEquals(Arrays.asList(alertA, alertB, alertC),
+        getServiceAlerts(entry, -1));
+  }
+
+  @Test
+  public void testUpdateAndRemove() {
+
+    ServiceAlert alertA = alert(_idA, window(100L, 200L));
+    ServiceAlert alertB = alert(_idB);
+
+    ServiceAlertsIndexEntry entry = ServiceAlertsIndexEntry.EMPTY.withServiceAlert(
+        _idA, alertA).withServiceAlert(_idB, alertB);
+    assertEquals(Arrays.asList(_idA, _idB), entry.getServiceAlertIds());
+
+    ServiceAlert updatedA = alert(_idA, window(300L, 400L));
+    entry = entry.withServiceAlert(_idA, updatedA);
+    assertEquals(Arrays.asList(alertB), getServiceAlerts(entry, 150));
+    assertEquals(Arrays.asList(updatedA, alertB), getServiceAlerts(entry, 350));
+
+    assertSame(entry, entry.withoutServiceAlert(_idC));
+
+    entry = entry.withoutServiceAlert(_idA);
+    assertEquals(Arrays.asList(alertB), entry.getServiceAlerts());
+    assertEquals(Arrays.asList(alertB), getServiceAlerts(entry, 350));
+
+    entry = entry.withoutServiceAlert(_idB);
+    assertTrue(entry.isEmpty());
+  }
+
+  @Test
+  public void testBatchChanges() {
+
+    ServiceAlert alertA = alert(_idA);
+    ServiceAlert alertB = alert(_idB);
+    ServiceAlertsIndexEntry entry = ServiceAlertsIndexEntry.EMPTY.withServiceAlert(
+        _idA, alertA).withServiceAlert(_idB, alertB);
+
+    ServiceAlert updatedB = alert(_idB, window(100L, 200L));
+    ServiceAlert alertC = alert(_idC);
+
+    Map<AgencyAndId, ServiceAlert> changes = new LinkedHashMap<AgencyAndId, ServiceAlert>();
+    changes.put(_idC, alertC);
+    changes.put(_idA, null);
+    changes.put(_idB, updatedB);
+
+    entry = entry.withServiceAlerts(changes);
+    assertEquals(Arrays.asList(_idB, _idC), entry.getServiceAlertIds());
+    assertEquals(Arrays.asList(alertC), getServiceAlerts(entry, 0));
+    assertEquals(Arrays.asList(updatedB, alertC), getServiceAlerts(entry, 150));
+
+    /**
+     * Removing a service alert that isn't there doesn't change the entry
+     */
+    changes.clear();
+    changes.put(_idA, null);
+    assertSame(entry, entry.withServiceAlerts(changes));
+  }
+
+  @Test
+  public void testMatchedIdsAreSkipped() {
+
+    ServiceAlert alertA = alert(_idA);
+    ServiceAlertsIndexEntry entry = ServiceAlertsIndexEntry.EMPTY.withServiceAlert(
+        _idA, alertA);
+
+    Set<AgencyAndId> matchedIds = new HashSet<AgencyAndId>();
+    List<ServiceAlert> matches = new ArrayList<ServiceAlert>();
+    entry.getServiceAlerts(0, matchedIds, matches);
+    entry.getServiceAlerts(0, matchedIds, matches);
+    assertEquals(Arrays.asList(alertA), matches);
+  }
+
+  private List<ServiceAlert> getServiceAlerts(ServiceAlertsIndexEntry entry,
+      long time) {
+    List<ServiceAlert> matches = new ArrayList<ServiceAlert>();
+    entry.getServiceAlerts(time, new HashSet<AgencyAndId>(), matches);
+    return matches;
+  }
+
+  private ServiceAlert alert(AgencyAndId id, TimeRange... windows) {
+    ServiceAlert.Builder builder = ServiceAlert.newBuilder();
+    builder.setId(ServiceAlertLibrary.id(id));
+    builder.setCreationTime(0);
+    builder.setModifiedTime(0);
+    for (TimeRange window : windows)
+      builder.addPublicationWindow(window);
+    return builder.build();
+  }
+
+  private TimeRange window(Long from, Long to) {
+    TimeRange.Builder builder = TimeRange.newBuilder();
+    if (from != null)
+      builder.setStart(from);
+    if (to != null)
+      builder.setEnd(to);
+    return builder.build();
+  }
+}
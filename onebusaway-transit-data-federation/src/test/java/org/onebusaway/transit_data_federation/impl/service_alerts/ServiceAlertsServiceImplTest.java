@@ -32,8 +32,10 @@ import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
@@ -87,6 +89,11 @@ public class ServiceAlertsServiceImplTest {
     ServiceAlert serviceAlert = _service.createOrUpdateServiceAlert(builder,
         "1");
 
+    /**
+     * Updates are journaled, and only written to the snapshot on compaction
+     */
+    _service.stop();
+
     FileInputStream in = new FileInputStream(_serviceAlertsPath);
     ServiceAlertsCollection collection = ServiceAlertsCollection.parseFrom(in);
     in.close();
@@ -500,4 +507,143 @@ public class ServiceAlertsServiceImplTest {
     assertEquals(1, alerts.size());
     assertTrue(alerts.contains(serviceAlert2));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testCreateOrUpdateServiceAlerts() {
+
+    ServiceAlert.Builder builder1 = ServiceAlert.newBuilder();
+    Affects.Builder affects = Affects.newBuilder();
+    affects.setStopId(ServiceAlertLibrary.id("1", "10020"));
+    builder1.addAffects(affects);
+
+    ServiceAlert.Builder builder2 = ServiceAlert.newBuilder();
+    builder2.setId(ServiceAlertLibrary.id("2", "A"));
+
+    List<ServiceAlert> serviceAlerts = _service.createOrUpdateServiceAlerts(
+        Arrays.asList(builder1, builder2), "1");
+    assertEquals(2, serviceAlerts.size());
+    assertEquals("1", serviceAlerts.get(0).getId().getAgencyId());
+    assertEquals("2", serviceAlerts.get(1).getId().getAgencyId());
+
+    assertEquals(2, _service.getAllServiceAlerts().size());
+    List<ServiceAlert> alerts = _service.getServiceAlertsForStopId(
+        System.currentTimeMillis(), new AgencyAndId("1", "10020"));
+    assertEquals(Arrays.asList(serviceAlerts.get(0)), alerts);
+  }
+
+  @Test
+  public void testCreateOrUpdateServiceAlertsBatch() {
+
+    ServiceAlert.Builder builderA = ServiceAlert.newBuilder();
+    builderA.setId(ServiceAlertLibrary.id("1", "A"));
+    builderA.addAffects(Affects.newBuilder().setStopId(
+        ServiceAlertLibrary.id("1", "10020")));
+
+    ServiceAlert.Builder builderB = ServiceAlert.newBuilder();
+    builderB.setId(ServiceAlertLibrary.id("1", "B"));
+    builderB.addAffects(Affects.newBuilder().setStopId(
+        ServiceAlertLibrary.id("1", "10020")));
+
+    /**
+     * A later update of A in the same batch moves it to another stop
+     */
+    ServiceAlert.Builder updatedA = ServiceAlert.newBuilder();
+    updatedA.setId(ServiceAlertLibrary.id("1", "A"));
+    updatedA.addAffects(Affects.newBuilder().setStopId(
+        ServiceAlertLibrary.id("1", "10021")));
+
+    List<ServiceAlert> serviceAlerts = _service.createOrUpdateServiceAlerts(
+        Arrays.asList(builderA, builderB, updatedA), "1");
+
+    assertEquals(2, _service.getAllServiceAlerts().size());
+    assertEquals(Arrays.asList(serviceAlerts.get(1)),
+        _service.getServiceAlertsForStopId(System.currentTimeMillis(),
+            new AgencyAndId("1", "10020")));
+    assertEquals(Arrays.asList(serviceAlerts.get(2)),
+        _service.getServiceAlertsForStopId(System.currentTimeMillis(),
+            new AgencyAndId("1", "10021")));
+  }
+
+  @Test
+  public void testJournalReplay() throws IOException {
+
+    ServiceAlert.Builder builder = ServiceAlert.newBuilder();
+    Affects.Builder affects = Affects.newBuilder();
+    affects.setAgencyId("2");
+    builder.addAffects(affects);
+    ServiceAlert serviceAlert1 = _service.createOrUpdateServiceAlert(builder,
+        "1");
+
+    builder = ServiceAlert.newBuilder(serviceAlert1);
+    builder.clearAffects();
+    affects = Affects.newBuilder();
+    affects.setStopId(ServiceAlertLibrary.id("1", "10020"));
+    builder.addAffects(affects);
+    ServiceAlert serviceAlert2 = _service.createOrUpdateServiceAlert(builder,
+        null);
+
+    ServiceAlert serviceAlert3 = _service.createOrUpdateServiceAlert(
+        ServiceAlert.newBuilder(), "1");
+    _service.removeServiceAlert(ServiceAlertLibrary.agencyAndId(serviceAlert3.getId()));
+
+    /**
+     * Simulate a crash in the middle of an append
+     */
+    FileOutputStream out = new FileOutputStream(
+        _serviceAlertsPath.getPath() + ".journal", true);
+    out.write(new byte[] {1, 100, 1});
+    out.close();
+
+    ServiceAlertsServiceImpl service = new ServiceAlertsServiceImpl();
+    service.setServiceAlertsPath(_serviceAlertsPath);
+    service.start();
+
+    try {
+      assertEquals(Arrays.asList(serviceAlert2), service.getAllServiceAlerts());
+      assertEquals(0, service.getServiceAlertsForAgencyId(
+          System.currentTimeMillis(), "2").size());
+      assertEquals(Arrays.asList(serviceAlert2), service.getServiceAlertsForStopId(
+          System.currentTimeMillis(), new AgencyAndId("1", "10020")));
+
+      /**
+       * Replay is compacted into the snapshot on start
+       */
+      assertEquals(0, new File(_serviceAlertsPath.getPath() + ".journal").length());
+      FileInputStream in = new FileInputStream(_serviceAlertsPath);
+      ServiceAlertsCollection collection = ServiceAlertsCollection.parseFrom(in);
+      in.close();
+      assertEquals(Arrays.asList(serviceAlert2),
+          collection.getServiceAlertsList());
+    } finally {
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testTornJournalWithoutEntries() throws IOException {
+
+    /**
+     * Only a torn entry, so nothing to replay, but the journal must still be
+     * compacted, or entries appended after it would be lost on the next replay
+     */
+    FileOutputStream out = new FileOutputStream(
+        _serviceAlertsPath.getPath() + ".journal");
+    out.write(new byte[] {1, 100, 1});
+    out.close();
+
+    _service.start();
+    ServiceAlert serviceAlert = _service.createOrUpdateServiceAlert(
+        ServiceAlert.newBuilder(), "1");
+
+    ServiceAlertsServiceImpl service = new ServiceAlertsServiceImpl();
+    service.setServiceAlertsPath(_serviceAlertsPath);
+    service.start();
+
+    try {
+      assertEquals(Arrays.asList(serviceAlert), service.getAllServiceAlerts());
+    } finally {
+      service.stop();
+      _service.stop();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.aid;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stop;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.stopTime;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.time;
+import static org.onebusaway.transit_data_federation.testing.UnitTestingSupport.trip;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
+import org.onebusaway.utility.ObjectSerializationLibrary;
+
+public class TransitGraphImplTest {
+
+  @Test
+  public void testSerializeStopTimes() throws IOException,
+      ClassNotFoundException {
+
+    StopEntryImpl stopA = stop("stopA", 47.0, -122.0);
+    StopEntryImpl stopB = stop("stopB", 47.1, -122.1);
+
+    TripEntryImpl tripA = trip("tripA", "sA", 1000.0);
+    stopTime(0, stopA, tripA, time(9, 00), time(9, 05), 0.0, 3);
+    StopTimeEntryImpl stB = stopTime(1, stopB, tripA, time(9, 30), time(9, 30),
+        1000.0);
+    stB.setGtfsSequence(7);
+    stB.setDropOffType(1);
+    stB.setPickupType(2);
+    stB.setAccumulatedSlackTime(300);
+
+    TripEntryImpl tripB = trip("tripB", "sA");
+
+    TransitGraphImpl graph = new TransitGraphImpl();
+    graph.putStopEntry(stopA);
+    graph.putStopEntry(stopB);
+    graph.putTripEntry(tripA);
+    graph.putTripEntry(tripB);
+
+    File path = File.createTempFile(TransitGraphImplTest.class.getName(),
+        ".obj");
+    path.deleteOnExit();
+
+    ObjectSerializationLibrary.writeObject(path, graph);
+    TransitGraphImpl read = ObjectSerializationLibrary.readObject(path);
+    path.delete();
+
+    TripEntry readTripA = read.getTripEntryForId(aid("tripA"));
+    List<StopTimeEntry> stopTimes = readTripA.getStopTimes();
+    assertEquals(2, stopTimes.size());
+
+    StopTimeEntry readA = stopTimes.get(0);
+    assertEquals(0, readA.getId());
+    assertEquals(time(9, 00), readA.getArrivalTime());
+    assertEquals(time(9, 05), readA.getDepartureTime());
+    assertEquals(0, readA.getSequence());
+    assertEquals(3, readA.getShapePointIndex());
+    assertEquals(0.0, readA.getShapeDistTraveled(), 0.0);
+    assertSame(read.getStopEntryForId(aid("stopA")), readA.getStop());
+    assertSame(readTripA, readA.getTrip());
+
+    StopTimeEntry readB = stopTimes.get(1);
+    assertEquals(1, readB.getId());
+    assertEquals(1, readB.getSequence());
+    assertEquals(7, readB.getGtfsSequence());
+    assertEquals(1, readB.getDropOffType());
+    assertEquals(2, readB.getPickupType());
+    assertEquals(-1, readB.getShapePointIndex());
+    assertEquals(300, readB.getAccumulatedSlackTime());
+    assertEquals(1000.0, readB.getShapeDistTraveled(), 0.0);
+    assertSame(read.getStopEntryForId(aid("stopB")), readB.getStop());
+
+    TripEntry readTripB = read.getTripEntryForId(aid("tripB"));
+    assertNull(readTripB.getStopTimes());
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data_federation.impl.transit_graph;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.onebusaway.transit_data_federation.services.transit_graph.StopTimeEntry;
+import org.onebusaway.transit_data_federation.services.transit_graph.TripEntry;
+import org.onebusaway.utility.ObjectSerializationLibrary;
+
+/**
+ * Compares the artifact size, load time, retained heap and query time of a
+ * serialized {@link TransitGraphImpl} in the format it was written in against
+ * the same graph rewritten with the current columnar stop time format.
+ * 
+ * Pass a TransitGraph.obj written by a bundle builder that predates the
+ * columnar format to compare the two formats. Since stop times are still
+ * materialized as {@link StopTimeEntryImpl} objects on load, retained heap and
+ * query time are expected to be the same for both.
+ * 
+ * Usage: TransitGraphLoadBenchmark path/to/TransitGraph.obj [iterations]
+ */
+public class TransitGraphLoadBenchmark {
+
+  public static void main(String[] args) throws IOException,
+      ClassNotFoundException {
+
+    if (args.length == 0) {
+      System.err.println("usage: path/to/TransitGraph.obj [iterations]");
+      System.exit(-1);
+    }
+
+    File path = new File(args[0]);
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    File columnarPath = File.createTempFile("TransitGraph-", ".obj");
+    columnarPath.deleteOnExit();
+
+    TransitGraphImpl graph = ObjectSerializationLibrary.readObject(path);
+    ObjectSerializationLibrary.writeObject(columnarPath, graph);
+    graph.empty();
+    graph = null;
+
+    System.out.println("input: size=" + path.length());
+    System.out.println("columnar: size=" + columnarPath.length());
+
+    for (int i = 0; i < iterations; i++) {
+      run("input", path);
+      run("columnar", columnarPath);
+    }
+
+    columnarPath.delete();
+  }
+
+  private static void run(String label, File path) throws IOException,
+      ClassNotFoundException {
+
+    long heapBefore = getUsedHeap();
+
+    long t0 = System.currentTimeMillis();
+    TransitGraphImpl graph = ObjectSerializationLibrary.readObject(path);
+    long t1 = System.currentTimeMillis();
+
+    long heapAfter = getUsedHeap();
+
+    long t2 = System.currentTimeMillis();
+    long stopTimeCount = query(graph);
+    long t3 = System.currentTimeMillis();
+
+    System.out.println(label + ": load=" + (t1 - t0) + "ms heap="
+        + ((heapAfter - heapBefore) / (1024 * 1024)) + "MB query="
+        + (t3 - t2) + "ms trips=" + graph.getAllTrips().size()
+        + " stopTimes=" + stopTimeCount);
+
+    graph.empty();
+  }
+
+  /**
+   * Looks up every trip by id and walks its stop times
+   */
+  private static long query(TransitGraphImpl graph) {
+    long count = 0;
+    for (TripEntry trip : graph.getAllTrips()) {
+      TripEntry byId = graph.getTripEntryForId(trip.getId());
+      for (StopTimeEntry stopTime : byId.getStopTimes()) {
+        if (stopTime.getStop() != null)
+          count++;
+      }
+    }
+    return count;
+  }
+
+  private static long getUsedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.transit_data.model;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.federations.annotations.FederatedServiceResultMerger;
+import org.onebusaway.transit_data.model.service_alerts.ServiceAlertBean;
+import org.onebusaway.transit_data.services.TransitDataService;
+
+/**
+ * Merges {@link StopsWithArrivalsAndDeparturesBean} results from multiple
+ * federated services, when the requested stops span multiple services.
+ * Stops and arrivals and departures are concatenated, while nearby stops and
+ * service alerts are de-duplicated by id. Nearby stops that are one of the
+ * requested stops are dropped, and the time zone is the one shared by the
+ * most stops, as for a single service.
+ * 
+ * @author bdferris
+ * @see TransitDataService#getStopsWithArrivalsAndDepartures(java.util.Collection,
+ *      ArrivalsAndDeparturesQueryBean)
+ */
+public class StopsWithArrivalsAndDeparturesBeanMerger implements
+    FederatedServiceResultMerger {
+
+  @Override
+  public Object merge(Method method, List<Object> results) {
+
+    List<StopBean> stops = new ArrayList<StopBean>();
+    List<ArrivalAndDepartureBean> arrivalsAndDepartures = new ArrayList<ArrivalAndDepartureBean>();
+    Map<String, StopBean> nearbyStopsById = new LinkedHashMap<String, StopBean>();
+    Map<String, ServiceAlertBean> situationsById = new LinkedHashMap<String, ServiceAlertBean>();
+    Map<String, Integer> stopCountsByTimeZone = new LinkedHashMap<String, Integer>();
+
+    for (Object result : results) {
+
+      StopsWithArrivalsAndDeparturesBean bean = (StopsWithArrivalsAndDeparturesBean) result;
+      if (bean == null)
+        continue;
+
+      if (bean.getStops() != null)
+        stops.addAll(bean.getStops());
+      if (bean.getArrivalsAndDepartures() != null)
+        arrivalsAndDepartures.addAll(bean.getArrivalsAndDepartures());
+      if (bean.getNearbyStops() != null) {
+        for (StopBean nearbyStop : bean.getNearbyStops())
+          nearbyStopsById.put(nearbyStop.getId(), nearbyStop);
+      }
+      if (bean.getSituations() != null) {
+        for (ServiceAlertBean situation : bean.getSituations())
+          situationsById.put(situation.getId(), situation);
+      }
+      if (bean.getTimeZone() != null) {
+        int stopCount = bean.getStops() != null ? bean.getStops().size() : 0;
+        Integer count = stopCountsByTimeZone.get(bean.getTimeZone());
+        stopCountsByTimeZone.put(bean.getTimeZone(), (count != null ? count : 0)
+            + Math.max(stopCount, 1));
+      }
+    }
+
+    String timeZone = null;
+    int maxCount = 0;
+    for (Map.Entry<String, Integer> entry : stopCountsByTimeZone.entrySet()) {
+      if (entry.getValue() > maxCount) {
+        timeZone = entry.getKey();
+        maxCount = entry.getValue();
+      }
+    }
+
+    Set<String> stopIds = new HashSet<String>();
+    for (StopBean stop : stops)
+      stopIds.add(stop.getId());
+    nearbyStopsById.keySet().removeAll(stopIds);
+
+    StopsWithArrivalsAndDeparturesBean merged = new StopsWithArrivalsAndDeparturesBean();
+    merged.setStops(stops);
+    merged.setArrivalsAndDepartures(arrivalsAndDepartures);
+    merged.setNearbyStops(new ArrayList<StopBean>(nearbyStopsById.values()));
+    merged.setSituations(new ArrayList<ServiceAlertBean>(
+        situationsById.values()));
+    merged.setTimeZone(timeZone);
+    return merged;
+  }
+}
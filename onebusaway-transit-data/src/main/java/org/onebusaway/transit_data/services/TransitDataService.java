@@ -51,6 +51,7 @@ import org.onebusaway.transit_data.model.StopWithArrivalsAndDeparturesBean;
 import org.onebusaway.transit_data.model.StopsBean;
 import org.onebusaway.transit_data.model.StopsForRouteBean;
 import org.onebusaway.transit_data.model.StopsWithArrivalsAndDeparturesBean;
+import org.onebusaway.transit_data.model.StopsWithArrivalsAndDeparturesBeanMerger;
 import org.onebusaway.transit_data.model.VehicleStatusBean;
 import org.onebusaway.transit_data.model.blocks.BlockBean;
 import org.onebusaway.transit_data.model.blocks.BlockInstanceBean;
@@ -122,6 +123,7 @@ public interface TransitDataService extends FederatedService {
    *         coverage information.
    * @throws ServiceException
    */
+  @TransitDataCachePolicy
   @FederatedByAggregateMethod
   public List<AgencyWithCoverageBean> getAgenciesWithCoverage()
       throws ServiceException;
@@ -131,6 +133,7 @@ public interface TransitDataService extends FederatedService {
    * @return the agency with the specified id, or null if not found
    * @throws ServiceException
    */
+  @TransitDataCachePolicy
   @FederatedByAgencyIdMethod
   public AgencyBean getAgency(String agencyId) throws ServiceException;
 
@@ -149,6 +152,7 @@ public interface TransitDataService extends FederatedService {
    * @return the route with specified id, or null if not found
    * @throws ServiceException
    */
+  @TransitDataCachePolicy
   @FederatedByEntityIdMethod
   public RouteBean getRouteForId(String routeId) throws ServiceException;
 
@@ -156,6 +160,7 @@ public interface TransitDataService extends FederatedService {
    * @param agencyId
    * @return the list of all route ids for the specified agency id
    */
+  @TransitDataCachePolicy
   @FederatedByAgencyIdMethod
   public ListBean<String> getRouteIdsForAgencyId(String agencyId);
 
@@ -163,6 +168,7 @@ public interface TransitDataService extends FederatedService {
    * @param agencyId
    * @return the list of all routes for the specified agency id
    */
+  @TransitDataCachePolicy
   @FederatedByAgencyIdMethod
   public ListBean<RouteBean> getRoutesForAgencyId(String agencyId);
 
@@ -171,6 +177,7 @@ public interface TransitDataService extends FederatedService {
    * @return the stops for the specified route, or null if not found
    * @throws ServiceException
    */
+  @TransitDataCachePolicy
   @FederatedByEntityIdMethod
   public StopsForRouteBean getStopsForRoute(String routeId)
       throws ServiceException;
@@ -180,6 +187,7 @@ public interface TransitDataService extends FederatedService {
    * @return the trip with the specifid id, or null if not found
    * @throws ServiceException
    */
+  @TransitDataCachePolicy
   @FederatedByEntityIdMethod
   public TripBean getTrip(String tripId) throws ServiceException;
 
@@ -190,6 +198,7 @@ public interface TransitDataService extends FederatedService {
    *         found
    * @throws ServiceException
    */
+  @TransitDataCachePolicy(ECachePolicy.REALTIME)
   @FederatedByEntityIdMethod(propertyExpression = "tripId")
   public TripDetailsBean getSingleTripDetails(TripDetailsQueryBean query)
       throws ServiceException;
@@ -228,6 +237,7 @@ public interface TransitDataService extends FederatedService {
   public ListBean<TripDetailsBean> getTripsForAgency(
       TripsForAgencyQueryBean query);
 
+  @TransitDataCachePolicy
   @FederatedByEntityIdMethod
   public BlockBean getBlockForId(String blockId);
 
@@ -286,6 +296,7 @@ public interface TransitDataService extends FederatedService {
    *         and time range, or null if not found
    * @throws ServiceException
    */
+  @TransitDataCachePolicy(ECachePolicy.REALTIME)
   @FederatedByEntityIdMethod
   public StopWithArrivalsAndDeparturesBean getStopWithArrivalsAndDepartures(
       String stopId, ArrivalsAndDeparturesQueryBean query)
@@ -301,7 +312,7 @@ public interface TransitDataService extends FederatedService {
    * @throws NoSuchStopServiceException if one of the specified stops could not
    *           be found
    */
-  @FederatedByEntityIdsMethod
+  @FederatedByEntityIdsMethod(merger = StopsWithArrivalsAndDeparturesBeanMerger.class)
   public StopsWithArrivalsAndDeparturesBean getStopsWithArrivalsAndDepartures(
       Collection<String> stopIds, ArrivalsAndDeparturesQueryBean query)
       throws ServiceException;
@@ -323,6 +334,7 @@ public interface TransitDataService extends FederatedService {
    * @return retrieve the full schedule for the stop on the specified date
    * @throws ServiceException
    */
+  @TransitDataCachePolicy
   @FederatedByEntityIdMethod
   public StopScheduleBean getScheduleForStop(String stopId, Date date)
       throws ServiceException;
@@ -341,6 +353,7 @@ public interface TransitDataService extends FederatedService {
    * @return the stop with the specified id, or null if not found
    * @throws ServiceException
    */
+  @TransitDataCachePolicy
   @FederatedByEntityIdMethod
   public StopBean getStop(String stopId) throws ServiceException;
 
@@ -348,6 +361,7 @@ public interface TransitDataService extends FederatedService {
    * @param agencyId
    * @return the list of all stops operated by the specified agency
    */
+  @TransitDataCachePolicy
   @FederatedByAgencyIdMethod
   public ListBean<String> getStopIdsForAgencyId(String agencyId);
 
@@ -357,6 +371,7 @@ public interface TransitDataService extends FederatedService {
    * @return an encoded polyline of the shape with the specified id, or null if
    *         not found
    */
+  @TransitDataCachePolicy
   @FederatedByEntityIdMethod
   public EncodedPolylineBean getShapeForId(String shapeId);
 
@@ -364,6 +379,7 @@ public interface TransitDataService extends FederatedService {
    * @param agencyId
    * @return the list of all shape ids associated with the specified agency
    */
+  @TransitDataCachePolicy
   @FederatedByAgencyIdMethod
   public ListBean<String> getShapeIdsForAgencyId(String agencyId);
 
@@ -19,45 +19,168 @@ import org.onebusaway.users.services.ApiKeyPermissionService;
 import org.onebusaway.users.services.UserService;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Rate-limits API keys with a {@link TokenBucket} per key. A key's minimum
+ * request interval is its sustained rate, and up to {@link #setBurstCapacity(int)}
+ * requests may be made back-to-back. Key policies are cached in memory and
+ * reloaded from the {@link UserService} once they are older than
+ * {@link #setPolicyRefreshInterval(long)}, or when explicitly invalidated.
+ *
+ * {@link #invalidatePermissions(String)} only affects this instance. Keys are
+ * usually edited in a different webapp than the one enforcing them, so an
+ * expired policy is always reloaded with a forced refresh of the
+ * {@link UserService} cache, which would otherwise keep serving an actively
+ * used key indefinitely. A change to a key therefore reaches every instance
+ * within the policy refresh interval.
+ */
 @Component
+@ManagedResource("org.onebusaway.users.impl:name=ApiKeyPermissionServiceImpl")
 public class ApiKeyPermissionServiceImpl implements ApiKeyPermissionService {
 
-  private HashMap<String, Long> _lastVisitForUser;
   private UserService _userService;
 
+  private int _burstCapacity = 10;
+
+  private long _policyRefreshInterval = 60 * 1000;
+
+  private final ConcurrentMap<String, KeyPolicy> _policiesByKey = new ConcurrentHashMap<String, KeyPolicy>();
+
+  private final AtomicLong _allowedRequests = new AtomicLong();
+
+  private final AtomicLong _throttledRequests = new AtomicLong();
+
+  private final AtomicLong _unknownKeyRequests = new AtomicLong();
+
   @Autowired
   public void setUserService(UserService userService) {
     _userService = userService;
   }
 
-  public ApiKeyPermissionServiceImpl() {
-    _lastVisitForUser = new HashMap<String, Long>();
+  /**
+   * @param burstCapacity the number of requests a key may make back-to-back
+   *          before being held to its minimum request interval
+   */
+  public void setBurstCapacity(int burstCapacity) {
+    _burstCapacity = burstCapacity;
+  }
+
+  /**
+   * @param policyRefreshInterval how long a cached key policy is used before
+   *          being reloaded, in ms. This bounds how long a key change made
+   *          elsewhere takes to apply here.
+   */
+  public void setPolicyRefreshInterval(long policyRefreshInterval) {
+    _policyRefreshInterval = policyRefreshInterval;
+  }
+
+  @ManagedAttribute
+  public long getAllowedRequests() {
+    return _allowedRequests.get();
+  }
+
+  @ManagedAttribute
+  public long getThrottledRequests() {
+    return _throttledRequests.get();
+  }
+
+  @ManagedAttribute
+  public long getUnknownKeyRequests() {
+    return _unknownKeyRequests.get();
+  }
+
+  @ManagedAttribute
+  public int getCachedKeyCount() {
+    return _policiesByKey.size();
+  }
+
+  @ManagedOperation
+  @Override
+  public void invalidatePermissions(String key) {
+    _policiesByKey.remove(key);
+  }
 
+  @ManagedOperation
+  public void invalidateAllPermissions() {
+    _policiesByKey.clear();
   }
 
   @Override
   public boolean getPermission(String key, String service) {
+    return getPermissionStatus(key, service) == Status.AUTHORIZED;
+  }
+
+  @Override
+  public Status getPermissionStatus(String key, String service) {
+
+    long now = System.currentTimeMillis();
+    KeyPolicy policy = getPolicy(key, now);
+
+    if (policy == null) {
+      _unknownKeyRequests.incrementAndGet();
+      return Status.UNAUTHORIZED;
+    }
+
+    if (!policy.bucket.tryAcquire(now)) {
+      _throttledRequests.incrementAndGet();
+      return Status.RATE_EXCEEDED;
+    }
+
+    _allowedRequests.incrementAndGet();
+    return Status.AUTHORIZED;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private KeyPolicy getPolicy(String key, long now) {
+
+    KeyPolicy policy = _policiesByKey.get(key);
+    if (policy != null && policy.expiresAt > now)
+      return policy;
+
+    Long minRequestInterval = _userService.getMinApiRequestIntervalForKey(key,
+        policy != null);
 
-    Long minRequestInterval = _userService.getMinApiRequestIntervalForKey(key,false);
     if (minRequestInterval == null) {
-      return false;
+      if (policy != null)
+        _policiesByKey.remove(key, policy);
+      return null;
     }
-    
-    long now = System.currentTimeMillis();
-    Long lastVisit = _lastVisitForUser.get(key);
-    
-    boolean ok = false;
-    
-    if (lastVisit == null || lastVisit + minRequestInterval <= now) {
-      ok = true;
+
+    /**
+     * Keep the existing bucket, and with it the key's recent usage, if the
+     * policy hasn't changed
+     */
+    TokenBucket bucket = null;
+    if (policy != null && policy.bucket.getInterval() == minRequestInterval)
+      bucket = policy.bucket;
+    else
+      bucket = new TokenBucket(minRequestInterval, _burstCapacity);
+
+    KeyPolicy updated = new KeyPolicy(bucket, now + _policyRefreshInterval);
+    _policiesByKey.put(key, updated);
+    return updated;
+  }
+
+  private static class KeyPolicy {
+
+    private final TokenBucket bucket;
+
+    private final long expiresAt;
+
+    public KeyPolicy(TokenBucket bucket, long expiresAt) {
+      this.bucket = bucket;
+      this.expiresAt = expiresAt;
     }
-    
-    _lastVisitForUser.put(key, now);
-    return ok;
   }
-  
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.users.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that refills at one token per interval, up to a fixed
+ * capacity. Rather than counting tokens, we track the time at which the bucket
+ * would next be full and update it with a compare-and-set, so acquiring a token
+ * never blocks.
+ * 
+ * @author bdferris
+ */
+final class TokenBucket {
+
+  private final long _interval;
+
+  private final long _tolerance;
+
+  private final AtomicLong _fullAt = new AtomicLong();
+
+  /**
+   * @param interval time to accumulate one token, in ms
+   * @param capacity maximum number of tokens available in a burst
+   */
+  public TokenBucket(long interval, int capacity) {
+    _interval = interval;
+    _tolerance = interval * (Math.max(capacity, 1) - 1);
+  }
+
+  public long getInterval() {
+    return _interval;
+  }
+
+  /**
+   * @param now current time, in ms
+   * @return true if a token was available and has been consumed
+   */
+  public boolean tryAcquire(long now) {
+
+    if (_interval <= 0)
+      return true;
+
+    while (true) {
+      long fullAt = _fullAt.get();
+      long from = Math.max(fullAt, now);
+      if (from - now > _tolerance)
+        return false;
+      if (_fullAt.compareAndSet(fullAt, from + _interval))
+        return true;
+    }
+  }
+}
@@ -16,6 +16,11 @@
 package org.onebusaway.users.services;
 
 public interface ApiKeyPermissionService {
+
+  public enum Status {
+    AUTHORIZED, UNAUTHORIZED, RATE_EXCEEDED
+  }
+
   /**
    * Checks whether a user has permission to access a given service,
    * and marks it as having been used.
@@ -23,4 +28,16 @@ public interface ApiKeyPermissionService {
    */
   public boolean getPermission(String key, String service);
 
+  /**
+   * Like {@link #getPermission(String, String)}, but distinguishes an unknown
+   * key from a known key that has exceeded its request rate.
+   */
+  public Status getPermissionStatus(String key, String service);
+
+  /**
+   * Discard any cached rate-limit policy for the specified key, such that the
+   * next request reloads it.
+   */
+  public void invalidatePermissions(String key);
+
 }
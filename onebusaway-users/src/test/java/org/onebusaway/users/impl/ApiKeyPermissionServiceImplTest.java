@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.users.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.users.services.ApiKeyPermissionService.Status;
+import org.onebusaway.users.services.UserService;
+
+public class ApiKeyPermissionServiceImplTest {
+
+  private UserService _userService;
+
+  private ApiKeyPermissionServiceImpl _service;
+
+  @Before
+  public void setup() {
+    _userService = mock(UserService.class);
+    _service = new ApiKeyPermissionServiceImpl();
+    _service.setUserService(_userService);
+    _service.setBurstCapacity(2);
+  }
+
+  @Test
+  public void testUnknownKey() {
+    assertEquals(Status.UNAUTHORIZED, _service.getPermissionStatus("nokey",
+        "api"));
+    assertFalse(_service.getPermission("nokey", "api"));
+    assertEquals(2, _service.getUnknownKeyRequests());
+    assertEquals(0, _service.getCachedKeyCount());
+  }
+
+  @Test
+  public void testRateLimit() {
+
+    when(_userService.getMinApiRequestIntervalForKey("key", false)).thenReturn(
+        60 * 1000L);
+
+    assertEquals(Status.AUTHORIZED, _service.getPermissionStatus("key", "api"));
+    assertTrue(_service.getPermission("key", "api"));
+    assertEquals(Status.RATE_EXCEEDED,
+        _service.getPermissionStatus("key", "api"));
+
+    assertEquals(2, _service.getAllowedRequests());
+    assertEquals(1, _service.getThrottledRequests());
+
+    /**
+     * The policy is cached
+     */
+    verify(_userService, times(1)).getMinApiRequestIntervalForKey("key", false);
+    assertEquals(1, _service.getCachedKeyCount());
+  }
+
+  @Test
+  public void testInvalidatePermissions() {
+
+    when(_userService.getMinApiRequestIntervalForKey("key", false)).thenReturn(
+        60 * 1000L);
+
+    _service.getPermission("key", "api");
+    _service.getPermission("key", "api");
+    assertFalse(_service.getPermission("key", "api"));
+
+    when(_userService.getMinApiRequestIntervalForKey("key", false)).thenReturn(
+        0L);
+    _service.invalidatePermissions("key");
+
+    for (int i = 0; i < 10; i++)
+      assertTrue(_service.getPermission("key", "api"));
+  }
+
+  @Test
+  public void testPolicyRefresh() {
+
+    _service.setPolicyRefreshInterval(0);
+    when(_userService.getMinApiRequestIntervalForKey("key", false)).thenReturn(
+        60 * 1000L);
+    when(_userService.getMinApiRequestIntervalForKey("key", true)).thenReturn(
+        60 * 1000L);
+
+    _service.getPermission("key", "api");
+    _service.getPermission("key", "api");
+    assertFalse(_service.getPermission("key", "api"));
+
+    /**
+     * An unchanged policy keeps the key's usage. Expired policies bypass the
+     * user service cache, so changes made by other instances are seen.
+     */
+    verify(_userService, times(1)).getMinApiRequestIntervalForKey("key", false);
+    verify(_userService, times(2)).getMinApiRequestIntervalForKey("key", true);
+
+    when(_userService.getMinApiRequestIntervalForKey("key", true)).thenReturn(
+        null);
+    assertEquals(Status.UNAUTHORIZED, _service.getPermissionStatus("key",
+        "api"));
+    assertEquals(0, _service.getCachedKeyCount());
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2011 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.users.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  @Test
+  public void testBurstThenSustainedRate() {
+
+    TokenBucket bucket = new TokenBucket(100, 3);
+    long t = 10000;
+
+    assertTrue(bucket.tryAcquire(t));
+    assertTrue(bucket.tryAcquire(t));
+    assertTrue(bucket.tryAcquire(t));
+    assertFalse(bucket.tryAcquire(t));
+
+    assertFalse(bucket.tryAcquire(t + 99));
+    assertTrue(bucket.tryAcquire(t + 100));
+    assertFalse(bucket.tryAcquire(t + 150));
+
+    /**
+     * A long pause refills the bucket, but only up to its capacity
+     */
+    t += 10000;
+    assertTrue(bucket.tryAcquire(t));
+    assertTrue(bucket.tryAcquire(t));
+    assertTrue(bucket.tryAcquire(t));
+    assertFalse(bucket.tryAcquire(t));
+  }
+
+  @Test
+  public void testNoInterval() {
+    TokenBucket bucket = new TokenBucket(0, 1);
+    for (int i = 0; i < 100; i++)
+      assertTrue(bucket.tryAcquire(10000));
+  }
+}
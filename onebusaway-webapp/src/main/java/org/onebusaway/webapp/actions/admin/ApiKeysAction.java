@@ -31,6 +31,7 @@ import org.onebusaway.users.client.model.UserBean;
 import org.onebusaway.users.model.User;
 import org.onebusaway.users.model.UserIndex;
 import org.onebusaway.users.model.UserIndexKey;
+import org.onebusaway.users.services.ApiKeyPermissionService;
 import org.onebusaway.users.services.UserIndexTypes;
 import org.onebusaway.users.services.UserPropertiesService;
 import org.onebusaway.users.services.UserService;
@@ -56,6 +57,8 @@ public class ApiKeysAction extends ActionSupport implements
 
   private UserPropertiesService _userPropertiesService;
 
+  private ApiKeyPermissionService _apiKeyPermissionService;
+
   private List<String> _apiKeys;
 
   private ApiKeyModel _model = new ApiKeyModel();
@@ -75,6 +78,12 @@ public class ApiKeysAction extends ActionSupport implements
     _userPropertiesService = userPropertiesService;
   }
 
+  @Autowired
+  public void setApiKeyPermissionService(
+      ApiKeyPermissionService apiKeyPermissionService) {
+    _apiKeyPermissionService = apiKeyPermissionService;
+  }
+
   @Override
   public ApiKeyModel getModel() {
     return _model;
@@ -149,8 +158,10 @@ public class ApiKeysAction extends ActionSupport implements
     if (user.getUserIndices().isEmpty())
       _userService.deleteUser(user);
 
-    // Clear the cached value here
+    // Clear the cached value here. Other webapps pick up the change once
+    // their cached key policy expires.
     _userService.getMinApiRequestIntervalForKey(_model.getApiKey(), true);
+    _apiKeyPermissionService.invalidatePermissions(_model.getApiKey());
 
     return "list";
   }
@@ -174,8 +185,10 @@ public class ApiKeysAction extends ActionSupport implements
     _userPropertiesService.authorizeApi(userIndex.getUser(),
         minApiRequestInterval);
 
-    // Clear the cached value here
+    // Clear the cached value here. Other webapps pick up the change once
+    // their cached key policy expires.
     _userService.getMinApiRequestIntervalForKey(apiKey, true);
+    _apiKeyPermissionService.invalidatePermissions(apiKey);
   }
 
   private void saveOrUpdateApiKeysFromReader(Reader in) throws IOException {